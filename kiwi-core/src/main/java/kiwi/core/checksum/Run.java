@@ -2,6 +2,7 @@ package kiwi.core.checksum;
 
 import kiwi.core.storage.bitcask.log.LogSegment;
 import kiwi.core.storage.bitcask.log.Record;
+import kiwi.core.storage.bitcask.log.SegmentRegistry;
 
 import java.io.IOException;
 import java.nio.file.Files;
@@ -81,14 +82,22 @@ public class Run {
         ExecutorService executor = Executors.newFixedThreadPool(numThreads);
         List<Future<?>> futures = new ArrayList<>();
 
+        // Segments are opened by the tasks checking them, so at most one file per thread is open.
+        SegmentRegistry registry = new SegmentRegistry(numThreads);
         try (Stream<Path> paths = Files.walk(logDir)) {
-            List<LogSegment> segments = paths.filter(Files::isRegularFile)
+            List<Path> segmentPaths = paths.filter(Files::isRegularFile)
                     .filter(path -> path.getFileName().toString().endsWith(".log"))
-                    .map((path) -> LogSegment.open(path, true))
                     .toList();
 
-            for (LogSegment segment : segments) {
-                futures.add(executor.submit(() -> checkLogSegment(segment)));
+            for (Path segmentPath : segmentPaths) {
+                futures.add(executor.submit(() -> {
+                    LogSegment segment = registry.acquire(segmentPath);
+                    try {
+                        checkLogSegment(segment);
+                    } finally {
+                        registry.release(segment);
+                    }
+                }));
             }
         }
 
@@ -101,6 +110,7 @@ public class Run {
         });
 
         executor.shutdown();
+        registry.close();
     }
 
     static void checkLogSegment(LogSegment segment) {
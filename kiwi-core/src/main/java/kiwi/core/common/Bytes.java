@@ -2,8 +2,16 @@ package kiwi.core.common;
 
 import net.openhft.hashing.LongHashFunction;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
-
+import java.util.Objects;
+
+/**
+ * Immutable view of a byte array range, used for keys and values.
+ *
+ * <p>Views share the array they wrap, so keys and values can be sliced out of a larger buffer
+ * without copying. The hash code is computed on first use, as most values are never hashed.</p>
+ */
 public class Bytes {
     private static final LongHashFunction XX_HASH = LongHashFunction.xx();
 
@@ -12,19 +20,20 @@ public class Bytes {
     private static final char[] HEX_CHARS_UPPER = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
 
     private final byte[] bytes;
-    private final int hashCode;
+    private final int offset;
+    private final int length;
+    // Zero until computed, like String.hash.
+    private int hashCode;
+    private boolean hashCodeIsZero;
 
     Bytes(byte[] bytes) {
-        this.bytes = bytes;
-        this.hashCode = calculateHashCode(bytes);
+        this(bytes, 0, bytes.length);
     }
 
-    private int calculateHashCode(byte[] value) {
-        if (value == null) {
-            return 0;
-        }
-        long hash = XX_HASH.hashBytes(value);
-        return Long.hashCode(hash);
+    private Bytes(byte[] bytes, int offset, int length) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
     }
 
     public static Bytes wrap(String str) {
@@ -37,18 +46,89 @@ public class Bytes {
         return new Bytes(bytes);
     }
 
+    /**
+     * Wraps a range of the array without copying it. The range must not change afterward, and
+     * the whole array stays reachable as long as the view, so long-lived keys should not be
+     * views of larger buffers.
+     */
+    public static Bytes wrap(byte[] bytes, int offset, int length) {
+        if (bytes == null)
+            return null;
+        Objects.checkFromIndexSize(offset, length, bytes.length);
+        return new Bytes(bytes, offset, length);
+    }
+
+    /**
+     * Wraps the remaining bytes of the buffer without changing its position. Heap buffers are
+     * wrapped without copying, other buffers are copied.
+     */
+    public static Bytes wrap(ByteBuffer buffer) {
+        if (buffer == null)
+            return null;
+        if (buffer.hasArray() && !buffer.isReadOnly()) {
+            return new Bytes(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(buffer.position(), bytes);
+        return new Bytes(bytes);
+    }
+
+    /**
+     * Returns the bytes as an exact-sized array. The wrapped array is returned when the view
+     * covers all of it, otherwise the range is copied.
+     */
     public byte[] get() {
-        return this.bytes;
+        if (offset == 0 && length == bytes.length) {
+            return this.bytes;
+        }
+        return Arrays.copyOfRange(bytes, offset, offset + length);
     }
 
     public int size() {
-        return bytes.length;
+        return length;
     }
 
+    /**
+     * Returns a view of a part of these bytes.
+     */
+    public Bytes slice(int from, int length) {
+        Objects.checkFromIndexSize(from, length, this.length);
+        return new Bytes(bytes, offset + from, length);
+    }
+
+    /**
+     * Returns a read-only buffer over the bytes, positioned at zero.
+     */
+    public ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(bytes, offset, length).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Puts the bytes into the buffer at its position.
+     */
+    public void writeTo(ByteBuffer buffer) {
+        buffer.put(bytes, offset, length);
+    }
+
+    /**
+     * Compares the bytes lexicographically as unsigned values.
+     */
+    public static int compareUnsigned(Bytes a, Bytes b) {
+        return Arrays.compareUnsigned(a.bytes, a.offset, a.offset + a.length, b.bytes, b.offset, b.offset + b.length);
+    }
 
     @Override
     public int hashCode() {
-        return hashCode;
+        int hash = hashCode;
+        if (hash == 0 && !hashCodeIsZero) {
+            hash = Long.hashCode(XX_HASH.hashBytes(bytes, offset, length));
+            if (hash == 0) {
+                hashCodeIsZero = true;
+            } else {
+                hashCode = hash;
+            }
+        }
+        return hash;
     }
 
     @Override
@@ -57,8 +137,8 @@ public class Bytes {
             return true;
         if (other == null)
             return false;
-        if (other instanceof Bytes)
-            return Arrays.equals(this.bytes, ((Bytes) other).get());
+        if (other instanceof Bytes that)
+            return Arrays.equals(bytes, offset, offset + length, that.bytes, that.offset, that.offset + that.length);
         return false;
     }
 
@@ -72,11 +152,8 @@ public class Bytes {
     public String toString() {
         StringBuilder result = new StringBuilder();
 
-        if (bytes == null)
-            return result.toString();
-
-        for (byte b : bytes) {
-            int ch = b & 0xFF;
+        for (int i = offset; i < offset + length; i++) {
+            int ch = bytes[i] & 0xFF;
             if (ch >= ' ' && ch <= '~' && ch != '\\') {
                 result.append((char) ch);
             } else {
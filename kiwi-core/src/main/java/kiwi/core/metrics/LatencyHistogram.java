@@ -0,0 +1,125 @@
+package kiwi.core.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies in nanoseconds.
+ *
+ * <p>Values are counted in log-linear buckets: every power of two range is split into
+ * 16 sub-buckets, so reported percentiles are within ~6% of the recorded values. Buckets are
+ * striped by thread to keep concurrent writers from contending on the same cache lines.
+ * Recording a value costs a few arithmetic operations and one atomic add.</p>
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    // Values above 2^41 ns (~36 minutes) are counted in the last bucket.
+    private static final int MAX_EXPONENT = 40;
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    // Total count and sum are stored after the buckets in each stripe.
+    private static final int COUNT = BUCKETS;
+    private static final int SUM = BUCKETS + 1;
+
+    private static final int MAX_STRIPES = 8;
+
+    private final AtomicLongArray[] stripes;
+
+    public LatencyHistogram() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int stripeCount = Math.min(MAX_STRIPES, Integer.highestOneBit(Math.max(1, processors - 1)) << 1);
+
+        this.stripes = new AtomicLongArray[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            this.stripes[i] = new AtomicLongArray(BUCKETS + 2);
+        }
+    }
+
+    public void record(long nanos) {
+        AtomicLongArray stripe = stripe();
+        stripe.getAndIncrement(bucket(nanos));
+        stripe.getAndIncrement(COUNT);
+        stripe.getAndAdd(SUM, Math.max(0, nanos));
+    }
+
+    public Snapshot snapshot() {
+        long[] buckets = new long[BUCKETS];
+        long count = 0;
+        long sum = 0;
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] += stripe.get(i);
+            }
+            count += stripe.get(COUNT);
+            sum += stripe.get(SUM);
+        }
+        return new Snapshot(count, sum, buckets);
+    }
+
+    public void reset() {
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < stripe.length(); i++) {
+                stripe.set(i, 0);
+            }
+        }
+    }
+
+    private AtomicLongArray stripe() {
+        long hash = Thread.currentThread().threadId() * 0x9E3779B97F4A7C15L;
+        return stripes[(int) (hash >>> 32) & (stripes.length - 1)];
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) Math.max(0, value);
+        }
+        long v = Math.min(value, MAX_VALUE);
+        int exponent = 63 - Long.numberOfLeadingZeros(v);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((v >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket) << shift) + (1L << shift) - 1;
+    }
+
+    public record Snapshot(long count, long sum, long[] buckets) {
+
+        /**
+         * Returns the highest value that is equivalent to the value at the given percentile.
+         *
+         * @param percentile percentile between 0 and 100
+         */
+        public long percentile(double percentile) {
+            long total = 0;
+            for (long bucketCount : buckets) {
+                total += bucketCount;
+            }
+            if (total == 0) {
+                return 0;
+            }
+
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return upperBound(i);
+                }
+            }
+            return upperBound(buckets.length - 1);
+        }
+
+        public double mean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+    }
+}
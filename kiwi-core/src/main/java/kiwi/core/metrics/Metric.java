@@ -0,0 +1,97 @@
+package kiwi.core.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A named metric with one or more samples, as exposed to monitoring systems.
+ *
+ * <p>Names and types follow Prometheus conventions: counters end with {@code _total}, durations
+ * are in seconds and sizes in bytes. Summaries expand into quantile, {@code _sum} and
+ * {@code _count} samples.</p>
+ */
+public record Metric(String name, String help, Type type, List<Sample> samples) {
+
+    public enum Type {
+        GAUGE, COUNTER, SUMMARY
+    }
+
+    private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    public record Sample(String name, Map<String, String> labels, double value) {
+
+        public static Sample of(String name, double value) {
+            return new Sample(name, Map.of(), value);
+        }
+
+        public static Sample of(String name, Map<String, String> labels, double value) {
+            return new Sample(name, labels, value);
+        }
+    }
+
+    /**
+     * Returns a copy of the metric with the label added to all samples, e.g. to tell apart
+     * metrics of multiple stores.
+     */
+    public Metric withLabel(String label, String value) {
+        List<Sample> labeled = new ArrayList<>(samples.size());
+        for (Sample sample : samples) {
+            Map<String, String> labels = new LinkedHashMap<>();
+            labels.put(label, value);
+            labels.putAll(sample.labels());
+            labeled.add(Sample.of(sample.name(), labels, sample.value()));
+        }
+        return new Metric(name, help, type, labeled);
+    }
+
+    /**
+     * Merges samples of metrics with the same name into a single metric, keeping the order in
+     * which metric names first appear. Each metric name must be exposed only once.
+     */
+    public static List<Metric> merge(List<Metric> metrics) {
+        Map<String, Metric> merged = new LinkedHashMap<>();
+        for (Metric metric : metrics) {
+            merged.merge(metric.name(), metric, (first, second) -> {
+                List<Sample> samples = new ArrayList<>(first.samples());
+                samples.addAll(second.samples());
+                return new Metric(first.name(), first.help(), first.type(), samples);
+            });
+        }
+        return List.copyOf(merged.values());
+    }
+
+    public static Metric gauge(String name, String help, double value) {
+        return new Metric(name, help, Type.GAUGE, List.of(Sample.of(name, value)));
+    }
+
+    public static Metric counter(String name, String help, double value) {
+        return new Metric(name, help, Type.COUNTER, List.of(Sample.of(name, value)));
+    }
+
+    /**
+     * Summary of durations recorded in nanoseconds, reported in seconds.
+     */
+    public static Metric summary(String name, String help, LatencyHistogram.Snapshot snapshot) {
+        return new Metric(name, help, Type.SUMMARY, summarySamples(name, Map.of(), snapshot));
+    }
+
+    /**
+     * Summary samples of durations recorded in nanoseconds, reported in seconds.
+     * Used to build labeled summaries from multiple histograms.
+     */
+    public static List<Sample> summarySamples(String name, Map<String, String> labels, LatencyHistogram.Snapshot snapshot) {
+        List<Sample> samples = new ArrayList<>(QUANTILES.length + 2);
+        for (double quantile : QUANTILES) {
+            Map<String, String> quantileLabels = new LinkedHashMap<>(labels);
+            quantileLabels.put("quantile", Double.toString(quantile));
+            double value = snapshot.count() == 0 ? Double.NaN : snapshot.percentile(quantile * 100) / NANOS_PER_SECOND;
+            samples.add(Sample.of(name, quantileLabels, value));
+        }
+        samples.add(Sample.of(name + "_sum", labels, snapshot.sum() / NANOS_PER_SECOND));
+        samples.add(Sample.of(name + "_count", labels, snapshot.count()));
+        return samples;
+    }
+}
@@ -0,0 +1,176 @@
+package kiwi.core.storage;
+
+import kiwi.core.common.Bytes;
+import kiwi.core.config.Options;
+import kiwi.core.error.KiwiException;
+import kiwi.core.metrics.Metric;
+import kiwi.core.storage.config.StorageConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+
+/**
+ * Numbered databases selected with SELECT. Every database is an independent store.
+ *
+ * <p>Database 0 is stored in the log directory and other databases in {@code db-<index>}
+ * subdirectories. Databases with existing data are opened on startup, so their recovery does not
+ * happen on the first SELECT. Other databases are opened when first selected.</p>
+ */
+public class Databases implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(Databases.class);
+
+    static final String DATABASE_DIR_PREFIX = "db-";
+
+    private final IntFunction<KeyValueStore<Bytes, Bytes>> opener;
+    private final KeyValueStore<Bytes, Bytes>[] stores;
+    private final List<BiConsumer<Integer, KeyValueStore<Bytes, Bytes>>> openListeners = new CopyOnWriteArrayList<>();
+
+    @SuppressWarnings("unchecked")
+    public Databases(int count, IntFunction<KeyValueStore<Bytes, Bytes>> opener) {
+        if (count < 1) {
+            throw new IllegalArgumentException("At least one database is required");
+        }
+        this.opener = opener;
+        this.stores = new KeyValueStore[count];
+    }
+
+    /**
+     * Single database backed by the given store.
+     */
+    public static Databases of(KeyValueStore<Bytes, Bytes> store) {
+        Databases databases = new Databases(1, index -> store);
+        databases.get(0);
+        return databases;
+    }
+
+    public static Databases open() {
+        return open(Options.defaults.storage);
+    }
+
+    public static Databases open(StorageConfig config) {
+        Path logDir = config.log.dir;
+        Databases databases = new Databases(config.databases,
+                index -> ShardedStore.open(config, directory(logDir, index)));
+
+        databases.get(0);
+        for (int i = 1; i < config.databases; i++) {
+            if (Files.isDirectory(directory(logDir, i))) {
+                databases.get(i);
+            }
+        }
+        return databases;
+    }
+
+    static Path directory(Path logDir, int index) {
+        return index == 0 ? logDir : logDir.resolve(DATABASE_DIR_PREFIX + index);
+    }
+
+    public int count() {
+        return stores.length;
+    }
+
+    /**
+     * Returns the database with the given index, opening it if needed.
+     *
+     * @throws IndexOutOfBoundsException if there is no database with the index
+     */
+    public synchronized KeyValueStore<Bytes, Bytes> get(int index) {
+        KeyValueStore<Bytes, Bytes> store = stores[index];
+        if (store == null) {
+            store = opener.apply(index);
+            stores[index] = store;
+            logger.info("Opened database {}", index);
+            for (BiConsumer<Integer, KeyValueStore<Bytes, Bytes>> listener : openListeners) {
+                listener.accept(index, store);
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Registers a listener called with databases opened later and returns databases opened so far.
+     * No database is reported to both or missed in between.
+     */
+    public synchronized Map<Integer, KeyValueStore<Bytes, Bytes>> watch(BiConsumer<Integer, KeyValueStore<Bytes, Bytes>> listener) {
+        openListeners.add(listener);
+        return opened();
+    }
+
+    public void unwatch(BiConsumer<Integer, KeyValueStore<Bytes, Bytes>> listener) {
+        openListeners.remove(listener);
+    }
+
+    /**
+     * Returns opened databases by index.
+     */
+    public synchronized Map<Integer, KeyValueStore<Bytes, Bytes>> opened() {
+        Map<Integer, KeyValueStore<Bytes, Bytes>> opened = new LinkedHashMap<>();
+        for (int i = 0; i < stores.length; i++) {
+            if (stores[i] != null) {
+                opened.put(i, stores[i]);
+            }
+        }
+        return opened;
+    }
+
+    /**
+     * Snapshots opened databases into the directory with the same layout as the log directory, so
+     * the snapshot can be used as the log directory of another server.
+     *
+     * @throws KiwiException if the directory is not empty
+     */
+    public void snapshot(Path dir) {
+        if (Files.isDirectory(dir)) {
+            try (Stream<Path> files = Files.list(dir)) {
+                if (files.findAny().isPresent()) {
+                    throw new KiwiException("Snapshot directory " + dir + " is not empty");
+                }
+            } catch (IOException ex) {
+                throw new KiwiException("Failed to read snapshot directory " + dir, ex);
+            }
+        }
+        opened().forEach((index, store) -> store.snapshot(directory(dir, index)));
+    }
+
+    public List<Metric> metrics() {
+        List<Metric> metrics = new ArrayList<>();
+        for (Map.Entry<Integer, KeyValueStore<Bytes, Bytes>> entry : opened().entrySet()) {
+            for (Metric metric : entry.getValue().metrics()) {
+                metrics.add(metric.withLabel("db", Integer.toString(entry.getKey())));
+            }
+        }
+        return Metric.merge(metrics);
+    }
+
+    @Override
+    public synchronized void close() {
+        KiwiException failure = null;
+        for (int i = 0; i < stores.length; i++) {
+            if (stores[i] == null) {
+                continue;
+            }
+            try {
+                stores[i].close();
+            } catch (Exception ex) {
+                if (failure == null) {
+                    failure = new KiwiException("Failed to close database " + i, ex);
+                }
+            }
+            stores[i] = null;
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
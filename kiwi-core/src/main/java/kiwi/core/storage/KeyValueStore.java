@@ -1,8 +1,20 @@
 package kiwi.core.storage;
 
+import kiwi.core.metrics.Metric;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 public interface KeyValueStore<K, V> extends AutoCloseable {
+    /**
+     * TTL of {@link #update} that keeps the expiry of the current value.
+     */
+    long KEEP_TTL = -1;
+
     void put(K key, V value);
 
     void put(K key, V value, long ttl);
@@ -13,7 +25,68 @@ public interface KeyValueStore<K, V> extends AutoCloseable {
 
     boolean contains(K key);
 
+    /**
+     * Atomically replaces the value of a key with a value computed from the current one, e.g. to
+     * increment a counter. Updates and writes of the same key are serialized, so no write is lost
+     * between reading the current value and writing the new one.
+     *
+     * <p>The function runs while writes of other keys may be blocked, so it must be short and
+     * must not access the store. Exceptions thrown by the function leave the key unchanged.</p>
+     *
+     * @param function maps the current value, empty if the key has no live value, to the new
+     *                 value, or to empty to leave the key unchanged
+     * @param ttl      the TTL of the new value in milliseconds, zero for none, or
+     *                 {@link #KEEP_TTL} to keep the expiry of the current value
+     * @return the value before the update
+     */
+    default Optional<V> update(K key, Function<Optional<V>, Optional<V>> function, long ttl) {
+        throw new UnsupportedOperationException("update is not supported");
+    }
+
     int size();
 
     void purge();
+
+    /**
+     * Incrementally iterates keys, examining about {@code count} keys per call.
+     *
+     * <p>The scan starts with cursor zero and continues with the cursor returned by the previous
+     * call until zero is returned. Cursors are stateless, so abandoned scans hold no resources.</p>
+     *
+     * @param cursor the cursor to continue from, or zero to start a new scan
+     * @param count  the number of keys to examine
+     * @param filter selects the keys to return
+     * @throws IllegalArgumentException if the cursor is invalid
+     */
+    default ScanResult<K> scan(long cursor, int count, Predicate<K> filter) {
+        throw new UnsupportedOperationException("scan is not supported");
+    }
+
+    /**
+     * Writes a point-in-time copy of the store into the directory, which can be opened as the
+     * directory of a new store.
+     *
+     * <p>Files are hard linked, so the directory must be on the same file system as the store.</p>
+     *
+     * @param dir the directory to create; existing files are not overwritten
+     */
+    default void snapshot(Path dir) {
+        throw new UnsupportedOperationException("snapshot is not supported");
+    }
+
+    /**
+     * Store statistics reported to clients, e.g. by the INFO command.
+     */
+    default Map<String, Object> stats() {
+        return Map.of();
+    }
+
+    /**
+     * Store metrics exported to monitoring systems.
+     *
+     * <p>Collecting metrics must be cheap and must not block readers or writers.</p>
+     */
+    default List<Metric> metrics() {
+        return List.of();
+    }
 }
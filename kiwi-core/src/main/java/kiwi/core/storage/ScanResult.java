@@ -0,0 +1,12 @@
+package kiwi.core.storage;
+
+import java.util.List;
+
+/**
+ * A batch of keys returned by an incremental scan.
+ *
+ * @param cursor the cursor to continue the scan from, zero when the scan is complete
+ * @param keys   the keys in this batch
+ */
+public record ScanResult<K>(long cursor, List<K> keys) {
+}
@@ -0,0 +1,284 @@
+package kiwi.core.storage;
+
+import kiwi.core.common.Bytes;
+import kiwi.core.common.NamedThreadFactory;
+import kiwi.core.error.KiwiException;
+import kiwi.core.metrics.Metric;
+import kiwi.core.storage.bitcask.BitcaskStore;
+import kiwi.core.storage.bitcask.log.LogSegment;
+import kiwi.core.storage.config.StorageConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Key-value store that partitions keys by hash over independent shards.
+ *
+ * <p>Each shard has its own keydir, active segment, writer and log cleaner, so writes, compaction
+ * and recovery of different shards do not contend with each other. A single shard uses the store
+ * directory directly, multiple shards use {@code shard-<index>} subdirectories. Keys are assigned
+ * to shards by hash, so the number of shards of existing data cannot be changed.</p>
+ */
+public class ShardedStore implements KeyValueStore<Bytes, Bytes> {
+    private static final Logger logger = LoggerFactory.getLogger(ShardedStore.class);
+
+    static final String SHARD_DIR_PREFIX = "shard-";
+
+    private final List<KeyValueStore<Bytes, Bytes>> shards;
+
+    public ShardedStore(List<? extends KeyValueStore<Bytes, Bytes>> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+        this.shards = List.copyOf(shards);
+    }
+
+    public static ShardedStore open(StorageConfig config, Path dir) {
+        int shardCount = Math.max(1, config.shards);
+        checkLayout(dir, shardCount);
+
+        if (shardCount == 1) {
+            return new ShardedStore(List.of(BitcaskStore.Builder(config).withLogDir(dir).build()));
+        }
+
+        // Shards recover their keydirs in parallel.
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(shardCount, Runtime.getRuntime().availableProcessors()), NamedThreadFactory.create("shard"));
+        List<Future<BitcaskStore>> futures = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            Path shardDir = dir.resolve(SHARD_DIR_PREFIX + i);
+            futures.add(executor.submit(() -> BitcaskStore.Builder(config).withLogDir(shardDir).build()));
+        }
+
+        List<BitcaskStore> shards = new ArrayList<>(shardCount);
+        KiwiException failure = null;
+        for (Future<BitcaskStore> future : futures) {
+            try {
+                shards.add(future.get());
+            } catch (InterruptedException | ExecutionException ex) {
+                if (failure == null) {
+                    failure = new KiwiException("Failed to open store shard in " + dir, ex);
+                }
+            }
+        }
+        executor.shutdown();
+
+        if (failure != null) {
+            shards.forEach(BitcaskStore::close);
+            throw failure;
+        }
+
+        logger.info("Opened store {} with {} shards", dir, shardCount);
+        return new ShardedStore(shards);
+    }
+
+    /**
+     * Rejects opening existing data with a different number of shards, which would route keys
+     * to shards that do not contain them.
+     */
+    private static void checkLayout(Path dir, int shardCount) {
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+
+        long shardDirs;
+        boolean hasSegments;
+        try (Stream<Path> paths = Files.list(dir)) {
+            List<Path> files = paths.toList();
+            shardDirs = files.stream()
+                    .filter(Files::isDirectory)
+                    .filter(path -> path.getFileName().toString().startsWith(SHARD_DIR_PREFIX))
+                    .count();
+            hasSegments = files.stream().anyMatch(path -> path.getFileName().toString().endsWith(LogSegment.EXTENSION));
+        } catch (IOException ex) {
+            throw new KiwiException("Failed to read store directory " + dir, ex);
+        }
+
+        boolean mismatch = shardCount == 1
+                ? shardDirs > 0
+                : hasSegments || (shardDirs > 0 && shardDirs != shardCount);
+        if (mismatch) {
+            throw new KiwiException(String.format(
+                    "Store directory %s was created with a different number of shards than %d", dir, shardCount));
+        }
+    }
+
+    public int shardCount() {
+        return shards.size();
+    }
+
+    public List<KeyValueStore<Bytes, Bytes>> shards() {
+        return shards;
+    }
+
+    /**
+     * Returns the index of the shard owning the key.
+     */
+    public int shardOf(Bytes key) {
+        return Math.floorMod(key.hashCode(), shards.size());
+    }
+
+    KeyValueStore<Bytes, Bytes> shard(Bytes key) {
+        return shards.get(shardOf(key));
+    }
+
+    @Override
+    public void put(Bytes key, Bytes value) {
+        Objects.requireNonNull(key, "key cannot be null");
+        shard(key).put(key, value);
+    }
+
+    @Override
+    public void put(Bytes key, Bytes value, long ttl) {
+        Objects.requireNonNull(key, "key cannot be null");
+        shard(key).put(key, value, ttl);
+    }
+
+    @Override
+    public Optional<Bytes> get(Bytes key) {
+        Objects.requireNonNull(key, "key cannot be null");
+        return shard(key).get(key);
+    }
+
+    @Override
+    public void delete(Bytes key) {
+        Objects.requireNonNull(key, "key cannot be null");
+        shard(key).delete(key);
+    }
+
+    @Override
+    public Optional<Bytes> update(Bytes key, Function<Optional<Bytes>, Optional<Bytes>> function, long ttl) {
+        Objects.requireNonNull(key, "key cannot be null");
+        return shard(key).update(key, function, ttl);
+    }
+
+    @Override
+    public boolean contains(Bytes key) {
+        Objects.requireNonNull(key, "key cannot be null");
+        return shard(key).contains(key);
+    }
+
+    @Override
+    public int size() {
+        long size = 0;
+        for (KeyValueStore<Bytes, Bytes> shard : shards) {
+            size += shard.size();
+        }
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void purge() {
+        for (KeyValueStore<Bytes, Bytes> shard : shards) {
+            shard.purge();
+        }
+    }
+
+    /**
+     * Snapshots shards one after another into the same layout as the store directory. Each shard
+     * is a point-in-time copy, but shards are not copied at the same instant.
+     */
+    @Override
+    public void snapshot(Path dir) {
+        if (shards.size() == 1) {
+            shards.getFirst().snapshot(dir);
+            return;
+        }
+        for (int i = 0; i < shards.size(); i++) {
+            shards.get(i).snapshot(dir.resolve(SHARD_DIR_PREFIX + i));
+        }
+    }
+
+    /**
+     * Scans shards one after another. The cursor combines the shard index with the cursor
+     * within the shard: {@code shardCursor * shards + shardIndex}.
+     */
+    @Override
+    public ScanResult<Bytes> scan(long cursor, int count, Predicate<Bytes> filter) {
+        if (cursor < 0) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+
+        int shardIndex = (int) (cursor % shards.size());
+        long shardCursor = cursor / shards.size();
+
+        ScanResult<Bytes> result = shards.get(shardIndex).scan(shardCursor, count, filter);
+        long next;
+        if (result.cursor() != 0) {
+            next = result.cursor() * shards.size() + shardIndex;
+        } else {
+            // Shard is done, continue from the start of the next one or finish the scan.
+            next = shardIndex + 1 < shards.size() ? shardIndex + 1 : 0;
+        }
+        return new ScanResult<>(next, result.keys());
+    }
+
+    /**
+     * Numeric statistics are summed over shards. Other statistics are reported per shard.
+     */
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("shards", shards.size());
+
+        Map<String, Object> perShard = new LinkedHashMap<>();
+        for (int i = 0; i < shards.size(); i++) {
+            for (Map.Entry<String, Object> entry : shards.get(i).stats().entrySet()) {
+                if (entry.getValue() instanceof Integer || entry.getValue() instanceof Long) {
+                    stats.merge(entry.getKey(), ((Number) entry.getValue()).longValue(),
+                            (sum, value) -> ((Number) sum).longValue() + ((Number) value).longValue());
+                } else if (shards.size() == 1) {
+                    stats.put(entry.getKey(), entry.getValue());
+                } else {
+                    perShard.put(SHARD_DIR_PREFIX.replace('-', '_') + i + "_" + entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        stats.putAll(perShard);
+        return stats;
+    }
+
+    @Override
+    public List<Metric> metrics() {
+        List<Metric> metrics = new ArrayList<>();
+        for (int i = 0; i < shards.size(); i++) {
+            for (Metric metric : shards.get(i).metrics()) {
+                metrics.add(metric.withLabel("shard", Integer.toString(i)));
+            }
+        }
+        return Metric.merge(metrics);
+    }
+
+    @Override
+    public void close() {
+        KiwiException failure = null;
+        for (KeyValueStore<Bytes, Bytes> shard : shards) {
+            try {
+                shard.close();
+            } catch (Exception ex) {
+                if (failure == null) {
+                    failure = new KiwiException("Failed to close store shard", ex);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -21,8 +21,8 @@ public class Utils {
         buffer.putLong(ttl);
         buffer.putInt(key.size());
         buffer.putInt(value.size());
-        buffer.put(key.get());
-        buffer.put(value.get());
+        key.writeTo(buffer);
+        value.writeTo(buffer);
         CRC32 crc = new CRC32();
         crc.update(buffer.array());
         return crc.getValue();
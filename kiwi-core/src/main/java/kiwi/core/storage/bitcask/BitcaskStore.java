@@ -6,11 +6,26 @@ import kiwi.core.common.NamedThreadFactory;
 import kiwi.core.config.Options;
 import kiwi.core.error.KiwiException;
 import kiwi.core.error.KiwiReadException;
+import kiwi.core.error.KiwiWriteException;
+import kiwi.core.metrics.LatencyHistogram;
+import kiwi.core.metrics.Metric;
 import kiwi.core.storage.KeyValueStore;
+import kiwi.core.storage.ScanResult;
+import kiwi.core.storage.Utils;
+import kiwi.core.storage.bitcask.cache.ValueCache;
+import kiwi.core.storage.bitcask.log.BlobLog;
+import kiwi.core.storage.bitcask.log.BlobPointer;
+import kiwi.core.storage.bitcask.log.Hint;
+import kiwi.core.storage.bitcask.log.HintSegment;
 import kiwi.core.storage.bitcask.log.LogCleaner;
 import kiwi.core.storage.bitcask.log.LogSegment;
+import kiwi.core.storage.bitcask.log.LogSegmentPool;
 import kiwi.core.storage.bitcask.log.LogSegmentNameGenerator;
 import kiwi.core.storage.bitcask.log.Record;
+import kiwi.core.storage.bitcask.log.SegmentRegistry;
+import kiwi.core.storage.bitcask.log.SegmentScrubber;
+import kiwi.core.storage.bitcask.log.config.LogConfig;
+import kiwi.core.storage.bitcask.log.sync.PendingWrite;
 import kiwi.core.storage.bitcask.log.sync.SegmentWriter;
 import kiwi.core.storage.bitcask.log.sync.SegmentWriterFactory;
 import kiwi.core.storage.config.StorageConfig;
@@ -23,28 +38,72 @@ import java.nio.file.Path;
 import java.time.Clock;
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
 
 public class BitcaskStore implements KeyValueStore<Bytes, Bytes> {
     private static final Logger logger = LoggerFactory.getLogger(BitcaskStore.class);
 
+    private final Path logDir;
     private final KeyDir keyDir;
     private LogSegment activeSegment;
     private final Clock clock;
     private final long logSegmentBytes;
     private final LogSegmentNameGenerator segmentNameGenerator;
     private final LogCleaner logCleaner;
+    private final LogSegmentPool segmentPool;
+    private final SegmentRegistry segmentRegistry;
+    private final SegmentScrubber scrubber;
     private final SegmentWriter writer;
+    private final ValueCache valueCache;
+    // Values of at least this size are written to blob files, zero when values stay in the log.
+    private final long blobThresholdBytes;
+    private final BlobLog blobLog;
+    private final LongAdder segmentRolls = new LongAdder();
+    private volatile boolean nextSegmentPrepared = false;
+
+    // Listeners of appended records, e.g. replicas tailing the log.
+    private final List<Consumer<Record>> appendListeners = new CopyOnWriteArrayList<>();
+    private final Consumer<Record> appendListener = this::notifyAppendListeners;
+
+    // Maximum number of keys in the keydir, zero when all keys are kept in memory. Otherwise keys
+    // of indexed sealed segments are evicted and looked up in the segment indexes.
+    private final long keyDirMaxKeys;
+    private final SegmentIndexes indexes;
+    private final ExecutorService indexExecutor;
+    // Tombstones in segments that are not indexed yet, by key and segment name. They hide values
+    // of evicted keys in older segments.
+    private final Map<Bytes, String> pendingTombstones;
+    // Live keys missing from the keydir. Approximate under concurrent updates of evicted keys.
+    private final AtomicLong evictedKeys = new AtomicLong();
+    private final LongAdder evictions = new LongAdder();
+    // Stripe where the next eviction continues. Only used by the index executor.
+    private int evictionStripe;
 
     private final ReadWriteLock rw = new ReentrantReadWriteLock();
 
+    // Writes of a key hold the lock of its stripe while they append the record and update the
+    // keydir, so updates read and write the key atomically. The lock is released before waiting
+    // for the sync, so writers of the same stripe still share a batch sync.
+    private static final int KEY_LOCK_STRIPES = 1024;
+    private final Lock[] keyLocks = new Lock[KEY_LOCK_STRIPES];
+
     private BitcaskStore(
             Path logDir,
             KeyDir keyDir,
@@ -55,12 +114,43 @@ public class BitcaskStore implements KeyValueStore<Bytes, Bytes> {
             Duration compactionInterval,
             double minDirtyRatio,
             int compactionThreads,
-            SegmentWriterFactory writerFactory) {
+            SegmentWriterFactory writerFactory,
+            ValueCache valueCache,
+            LogSegmentPool segmentPool,
+            SegmentRegistry segmentRegistry,
+            String epochSegmentName,
+            long keyDirMaxKeys,
+            SegmentIndexes indexes,
+            Map<Bytes, String> pendingTombstones,
+            BlobLog blobLog,
+            long blobThresholdBytes,
+            double blobMinLiveRatio,
+            int coldGeneration,
+            double coldMinDirtyRatio,
+            Duration coldInterval,
+            Duration ttlBucketWindow,
+            long scrubBytesPerSecond,
+            Duration scrubInterval) {
+        this.logDir = logDir;
         this.keyDir = keyDir;
         this.activeSegment = activeSegment;
+        this.activeSegment.onAppend(appendListener);
         this.clock = clock;
         this.logSegmentBytes = logSegmentBytes;
         this.segmentNameGenerator = LogSegmentNameGenerator.from(activeSegment);
+        this.segmentPool = segmentPool;
+        this.segmentRegistry = segmentRegistry;
+        this.keyDirMaxKeys = keyDirMaxKeys;
+        this.indexes = indexes;
+        this.pendingTombstones = pendingTombstones;
+        for (int i = 0; i < KEY_LOCK_STRIPES; i++) {
+            this.keyLocks[i] = new ReentrantLock();
+        }
+        this.blobLog = blobLog;
+        this.blobThresholdBytes = blobThresholdBytes;
+        this.indexExecutor = isBounded()
+                ? Executors.newSingleThreadExecutor(NamedThreadFactory.create("segment-index"))
+                : null;
 
         this.logCleaner = new LogCleaner(
                 logDir,
@@ -70,11 +160,37 @@ public class BitcaskStore implements KeyValueStore<Bytes, Bytes> {
                 minDirtyRatio,
                 compactionSegmentMinBytes,
                 logSegmentBytes,
-                compactionThreads);
+                compactionThreads,
+                segmentPool);
+        this.logCleaner.useSegmentRegistry(segmentRegistry);
 
+        if (epochSegmentName != null) {
+            // Segments of the previous epoch may be left over if the store was closed before
+            // the log cleaner deleted them.
+            this.logCleaner.startEpoch(() -> epochSegmentName);
+        }
+        if (isBounded()) {
+            this.logCleaner.useSegmentIndexes(
+                    this::indexedTimestamp,
+                    path -> indexes.contains(segmentName(path)),
+                    this::onCompaction);
+            this.evictedKeys.set(countEvictedKeys());
+        }
+        // Blob files are collected even when separation is turned off, until no values are left in them.
+        this.logCleaner.useBlobLog(blobLog, blobMinLiveRatio);
+        if (coldGeneration > 0) {
+            this.logCleaner.useColdTier(coldGeneration, coldMinDirtyRatio, coldInterval);
+        }
+        this.logCleaner.useExpiryBuckets(ttlBucketWindow, clock);
         this.logCleaner.start(compactionInterval);
 
+        this.scrubber = new SegmentScrubber(logDir, segmentRegistry,
+                path -> !this.activeSegment.isSamePath(path) && !logCleaner.isObsolete(path),
+                scrubBytesPerSecond, scrubInterval, clock);
+        this.scrubber.start();
+
         this.writer = writerFactory.create(activeSegmentSupplier());
+        this.valueCache = valueCache;
     }
 
     public static BitcaskStore open() {
@@ -92,16 +208,44 @@ public class BitcaskStore implements KeyValueStore<Bytes, Bytes> {
     @Override
     public Optional<Bytes> get(Bytes key) {
         Objects.requireNonNull(key, "key cannot be null");
+        ValueReference valueRef = lookup(key);
+        return valueRef == null ? Optional.empty() : read(valueRef);
+    }
+
+    /**
+     * Returns the value reference of a live key, or null if the key is missing or expired.
+     */
+    private ValueReference lookup(Bytes key) {
         ValueReference valueRef = keyDir.get(key);
+        if (valueRef == null && isBounded()) {
+            valueRef = findEvicted(key);
+            if (valueRef != null && !valueRef.isExpired(clock.millis())) {
+                promote(key, valueRef);
+            }
+        }
         if (valueRef == null) {
-            return Optional.empty();
+            return null;
         }
         if (valueRef.isExpired(clock.millis())) {
-            keyDir.remove(key);
-            return Optional.empty();
+            // An expired entry hides older values of evicted keys until its segment is indexed.
+            if (!isBounded()) {
+                keyDir.remove(key);
+            }
+            return null;
         }
+        return valueRef;
+    }
+
+    private Optional<Bytes> read(ValueReference valueRef) {
         try {
-            Bytes valueBytes = valueRef.get();
+            Bytes valueBytes = valueCache.get(valueRef);
+            if (valueBytes == null) {
+                valueBytes = valueRef.get();
+                if (valueRef.valueSize() == BlobPointer.BYTES && BlobPointer.isPointer(valueBytes)) {
+                    valueBytes = blobLog.read(BlobPointer.fromBytes(valueBytes));
+                }
+                valueCache.put(valueRef, valueBytes);
+            }
             if (valueBytes.equals(Record.TOMBSTONE)) {
                 return Optional.empty();
             }
@@ -126,24 +270,109 @@ public class BitcaskStore implements KeyValueStore<Bytes, Bytes> {
     public void put(Bytes key, Bytes value, long ttl) {
         Objects.requireNonNull(key, "key cannot be null");
         long now = clock.millis();
-        Record record = Record.of(key, value, now, ttl != 0 ? now + ttl : 0);
+        append(Record.of(key, value, now, ttl != 0 ? now + ttl : 0));
+    }
 
+    @Override
+    public Optional<Bytes> update(Bytes key, Function<Optional<Bytes>, Optional<Bytes>> function, long ttl) {
+        Objects.requireNonNull(key, "key cannot be null");
+        Optional<Bytes> current;
+        PendingWrite write = null;
+        Lock lock = keyLock(key);
+        lock.lock();
+        // The read lock is held from the lookup to the append, so a flush cannot drop the
+        // current value while the new value is computed from it.
         rw.readLock().lock();
         try {
-            int written = writer.append(record);
-            if (written > 0) {
-                keyDir.update(record, activeSegment);
-            } else {
-                throw new KiwiException("Failed to write to segment");
+            ValueReference valueRef = lookup(key);
+            current = valueRef == null ? Optional.empty() : read(valueRef);
+            Optional<Bytes> value = function.apply(current);
+            if (value.isPresent()) {
+                long now = clock.millis();
+                long expiry;
+                if (ttl == KEEP_TTL) {
+                    expiry = current.isPresent() ? valueRef.ttl() : 0;
+                } else {
+                    expiry = ttl != 0 ? now + ttl : 0;
+                }
+                write = write(Record.of(key, value.get(), now, expiry));
             }
         } finally {
             rw.readLock().unlock();
+            lock.unlock();
         }
+        if (write != null) {
+            write.await();
+        }
+        maybeRollSegment();
+        return current;
+    }
+
+    /**
+     * Appends a record written by another store, e.g. a record streamed from a replication leader.
+     * The record keeps its timestamp and TTL. Epoch markers flush the store.
+     */
+    public void apply(Record record) {
+        Objects.requireNonNull(record, "record cannot be null");
+        if (record.isEpochMarker()) {
+            purge();
+        } else {
+            append(record);
+        }
+    }
 
+    private void append(Record record) {
+        PendingWrite write;
+        Lock lock = keyLock(record.key());
+        lock.lock();
+        rw.readLock().lock();
+        try {
+            write = write(record);
+        } finally {
+            rw.readLock().unlock();
+            lock.unlock();
+        }
+        write.await();
         maybeRollSegment();
     }
 
+    private Lock keyLock(Bytes key) {
+        return keyLocks[KeyDir.stripeOf(key) & (KEY_LOCK_STRIPES - 1)];
+    }
+
+    // Must be called with the lock of the key and the read lock held. The returned write is
+    // awaited after releasing them.
+    private PendingWrite write(Record record) {
+        BlobPointer blob = null;
+        try {
+            if (isSeparated(record.value())) {
+                blob = blobLog.write(record.value());
+                record = Record.of(record.key(), blob.toBytes(), record.header().timestamp(), record.header().ttl());
+            }
+            PendingWrite write = writer.write(record);
+            if (write.bytes() > 0) {
+                if (isBounded()) {
+                    trackEvictedKey(record);
+                }
+                keyDir.update(record, activeSegment);
+                return write;
+            } else {
+                throw new KiwiException("Failed to write to segment");
+            }
+        } finally {
+            if (blob != null) {
+                blobLog.release(blob);
+            }
+        }
+    }
+
     private void maybeRollSegment() {
+        // Start preparing the file for the next segment once the active segment is half full.
+        if (!nextSegmentPrepared && activeSegment.size() >= logSegmentBytes / 2) {
+            nextSegmentPrepared = true;
+            segmentPool.prepare();
+        }
+
         // Optimistic check to avoid acquiring lock.
         if (shouldRoll()) {
             rw.writeLock().lock();
@@ -151,9 +380,7 @@ public class BitcaskStore implements KeyValueStore<Bytes, Bytes> {
                 // We need to check again after acquiring lock to prevent
                 // because multiple threads can enter maybeRollSegment and pass first optimistic check.
                 if (shouldRoll()) {
-                    activeSegment.markAsReadOnly();
-                    activeSegment = LogSegment.open(segmentNameGenerator.next());
-                    logger.info("Opened new log segment {}", activeSegment.name());
+                    rollActiveSegment();
                 }
             } finally {
                 rw.writeLock().unlock();
@@ -165,26 +392,568 @@ public class BitcaskStore implements KeyValueStore<Bytes, Bytes> {
         return activeSegment.size() >= logSegmentBytes;
     }
 
+    // Must be called with the write lock held.
+    private void rollActiveSegment() {
+        activeSegment.markAsReadOnly();
+        segmentRegistry.adopt(activeSegment);
+        if (isBounded()) {
+            LogSegment sealedSegment = activeSegment;
+            indexExecutor.execute(() -> indexSealedSegment(sealedSegment));
+        }
+        LogSegment segment = segmentPool.allocate(segmentNameGenerator.next());
+        segment.onAppend(appendListener);
+        activeSegment = segment;
+        nextSegmentPrepared = false;
+        segmentRolls.increment();
+        logger.info("Opened new log segment {}", activeSegment.name());
+    }
+
+    /**
+     * Checks whether the value is written to a blob file. Values that look like a blob pointer
+     * are always separated, so pointers in the log are never mistaken for values.
+     */
+    private boolean isSeparated(Bytes value) {
+        return (blobThresholdBytes > 0 && value.size() >= blobThresholdBytes) || BlobPointer.isPointer(value);
+    }
+
+    private void notifyAppendListeners(Record record) {
+        if (appendListeners.isEmpty()) {
+            return;
+        }
+        // Listeners receive separated values instead of pointers, so replicas do not depend on
+        // the blob files of this store.
+        if (record.valueSize() == BlobPointer.BYTES && BlobPointer.isPointer(record.value())) {
+            Bytes value = blobLog.read(BlobPointer.fromBytes(record.value()));
+            record = Record.of(record.key(), value, record.header().timestamp(), record.header().ttl());
+        }
+        for (Consumer<Record> listener : appendListeners) {
+            try {
+                listener.accept(record);
+            } catch (RuntimeException ex) {
+                // The record is already written, so a failing listener must not fail the write.
+                logger.warn("Append listener failed", ex);
+            }
+        }
+    }
+
+    private boolean isBounded() {
+        return keyDirMaxKeys > 0;
+    }
+
+    /**
+     * Returns the value reference of a key evicted from the keydir, or null if the key has no live
+     * value in the segment indexes.
+     */
+    private ValueReference findEvicted(Bytes key) {
+        if (pendingTombstones.containsKey(key)) {
+            return null;
+        }
+        SegmentIndexes.Match match = indexes.lookup(key);
+        if (match == null || match.isTombstone()) {
+            return null;
+        }
+        return match.valueReference();
+    }
+
+    /**
+     * Loads a key read from the segment indexes back into the keydir, while there is room for it.
+     */
+    private void promote(Bytes key, ValueReference valueRef) {
+        if (keyDir.size() >= keyDirMaxKeys || keyDir.putIfAbsent(key, valueRef) != null) {
+            return;
+        }
+        evictedKeys.decrementAndGet();
+        // The key may have been deleted after it was looked up.
+        if (pendingTombstones.containsKey(key) && keyDir.remove(key, valueRef)) {
+            evictedKeys.incrementAndGet();
+        }
+    }
+
+    private void trackEvictedKey(Record record) {
+        Bytes key = record.key();
+        if (!keyDir.containsKey(key)) {
+            ValueReference evicted = findEvicted(key);
+            if (evicted != null && !evicted.isExpired(clock.millis())) {
+                evictedKeys.decrementAndGet();
+            }
+        }
+        if (record.isTombstone()) {
+            pendingTombstones.put(key, activeSegment.name());
+        } else {
+            pendingTombstones.remove(key);
+        }
+    }
+
+    /**
+     * Indexes a sealed segment and evicts keys of indexed segments while the keydir is over its
+     * limit. Runs on the index executor, so evictions continue from the previous stripe.
+     */
+    private void indexSealedSegment(LogSegment segment) {
+        SegmentIndex index;
+        try {
+            index = SegmentIndex.open(segment);
+        } catch (KiwiException ex) {
+            logger.warn("Failed to index log segment {}. Its keys stay in the keydir.", segment.name(), ex);
+            return;
+        }
+
+        rw.readLock().lock();
+        try {
+            // The store may have been flushed while the index was written.
+            if (logCleaner.isObsolete(segment.file())) {
+                return;
+            }
+            indexes.add(index);
+        } finally {
+            rw.readLock().unlock();
+        }
+        pendingTombstones.values().removeIf(segment.name()::equals);
+        logger.info("Indexed log segment {} with {} entries", segment.name(), index.entries());
+
+        int keys = keyDir.size();
+        if (keys <= keyDirMaxKeys) {
+            return;
+        }
+        // Evict below the limit, so reads can load keys back before the next eviction.
+        long target = keys - keyDirMaxKeys * 9 / 10;
+        long now = clock.millis();
+        evictionStripe = keyDir.evict(evictionStripe, target,
+                (key, valueRef) -> indexes.contains(valueRef.segment().name()),
+                (key, valueRef) -> {
+                    evictions.increment();
+                    if (!valueRef.isExpired(now)) {
+                        evictedKeys.incrementAndGet();
+                    }
+                });
+    }
+
+    /**
+     * Returns the timestamp of the live record of a key missing from the keydir, or
+     * {@link Long#MAX_VALUE} if compaction can drop all records of the key.
+     */
+    private long indexedTimestamp(Bytes key) {
+        if (pendingTombstones.containsKey(key)) {
+            return Long.MAX_VALUE;
+        }
+        SegmentIndexes.Match match = indexes.lookup(key);
+        if (match == null) {
+            return Long.MAX_VALUE;
+        }
+        // Tombstones are kept while they hide older values.
+        if (match.isTombstone() && !indexes.hasEntryBefore(key, match.timestamp())) {
+            return Long.MAX_VALUE;
+        }
+        return match.timestamp();
+    }
+
+    private void onCompaction(List<LogSegment> compactedSegments, List<LogSegment> replacedSegments) {
+        List<SegmentIndex> compactedIndexes = new ArrayList<>();
+        for (LogSegment segment : compactedSegments) {
+            compactedIndexes.add(SegmentIndex.open(segment));
+        }
+
+        rw.readLock().lock();
+        try {
+            for (SegmentIndex index : compactedIndexes) {
+                if (!logCleaner.isObsolete(index.segment().file())) {
+                    indexes.add(index);
+                }
+            }
+            indexes.remove(replacedSegments.stream().map(LogSegment::name).toList());
+        } finally {
+            rw.readLock().unlock();
+        }
+    }
+
+    private long countEvictedKeys() {
+        long now = clock.millis();
+        long count = 0;
+        for (int stripe = 0; stripe < KeyDir.STRIPES; stripe++) {
+            count += countEvictedKeys(stripe, now);
+        }
+        return count;
+    }
+
+    private long countEvictedKeys(int stripe, long now) {
+        long[] count = new long[1];
+        indexes.forEachInStripe(stripe, (key, match) -> {
+            if (isEvictedLive(key, match, now)) {
+                count[0]++;
+            }
+        });
+        return count[0];
+    }
+
+    private boolean isEvictedLive(Bytes key, SegmentIndexes.Match match, long now) {
+        return !match.isTombstone()
+                && !match.isExpired(now)
+                && !keyDir.containsKey(key)
+                && !pendingTombstones.containsKey(key);
+    }
+
     @Override
     public boolean contains(Bytes key) {
         Objects.requireNonNull(key, "key cannot be null");
-        return keyDir.containsKey(key);
+        if (keyDir.containsKey(key)) {
+            return true;
+        }
+        return isBounded() && findEvicted(key) != null;
     }
 
+    /**
+     * Returns the number of keys. When keys are evicted from the keydir, the number is approximate.
+     */
     @Override
     public int size() {
-        return keyDir.size();
+        long size = keyDir.size();
+        if (isBounded()) {
+            size += Math.max(0, evictedKeys.get());
+        }
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public ScanResult<Bytes> scan(long cursor, int count, Predicate<Bytes> filter) {
+        long now = clock.millis();
+        if (!isBounded()) {
+            return keyDir.scan(cursor, count, (key, valueRef) -> !valueRef.isExpired(now) && filter.test(key));
+        }
+        if (cursor < 0 || cursor >= KeyDir.STRIPES) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+
+        // Keys of a stripe are merged from the keydir and the segment indexes, so the cursor
+        // stays the index of the next stripe.
+        List<Bytes> keys = new ArrayList<>();
+        int stripe = (int) cursor;
+        long[] examined = new long[1];
+        while (stripe < KeyDir.STRIPES && examined[0] < count) {
+            keyDir.forEachInStripe(stripe, (key, valueRef) -> {
+                examined[0]++;
+                if (!valueRef.isExpired(now) && filter.test(key)) {
+                    keys.add(key);
+                }
+            });
+            indexes.forEachInStripe(stripe, (key, match) -> {
+                if (isEvictedLive(key, match, now)) {
+                    examined[0]++;
+                    if (filter.test(key)) {
+                        keys.add(key);
+                    }
+                }
+            });
+            stripe++;
+        }
+        return new ScanResult<>(stripe == KeyDir.STRIPES ? 0 : stripe, keys);
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("keys", size());
+        stats.put("keydir_keys", keyDir.size());
+        stats.put("keydir_max_keys", keyDirMaxKeys);
+        stats.put("keydir_evicted_keys", isBounded() ? Math.max(0, evictedKeys.get()) : 0);
+        stats.put("keydir_evictions", evictions.sum());
+        stats.put("index_segments", indexes.size());
+        stats.put("index_lookups", indexes.lookups());
+        stats.put("index_bloom_skips", indexes.bloomSkips());
+        stats.put("segment_rolls", segmentRolls.sum());
+        stats.put("segment_open_files", segmentRegistry.openFiles());
+        stats.put("blob_threshold_bytes", blobThresholdBytes);
+        stats.put("blob_files", blobLog.files());
+        stats.put("blob_bytes", blobLog.bytes());
+        stats.putAll(scrubber.stats());
+        stats.put("compaction_corrupt_records", logCleaner.corruptRecords());
+
+        LatencyHistogram.Snapshot syncLatency = writer.syncLatency().snapshot();
+        stats.put("fsync_calls", syncLatency.count());
+        stats.put("fsync_usec", syncLatency.sum() / 1000);
+        stats.put("fsync_usec_per_call", String.format(Locale.ROOT, "%.2f", syncLatency.mean() / 1000));
+        stats.put("fsync_latency_percentiles_usec", String.format(Locale.ROOT, "p50=%.3f,p99=%.3f,p99.9=%.3f",
+                syncLatency.percentile(50) / 1000.0,
+                syncLatency.percentile(99) / 1000.0,
+                syncLatency.percentile(99.9) / 1000.0));
+
+        ValueCache.Stats cacheStats = valueCache.stats();
+        stats.put("value_cache_enabled", valueCache.isEnabled() ? 1 : 0);
+        stats.put("value_cache_capacity_bytes", cacheStats.capacity());
+        stats.put("value_cache_bytes", cacheStats.bytes());
+        stats.put("value_cache_entries", cacheStats.entries());
+        stats.put("value_cache_hits", cacheStats.hits());
+        stats.put("value_cache_misses", cacheStats.misses());
+        stats.put("value_cache_hit_ratio", String.format(Locale.ROOT, "%.4f", cacheStats.hitRatio()));
+        stats.put("value_cache_evictions", cacheStats.evictions());
+        return stats;
+    }
+
+    @Override
+    public List<Metric> metrics() {
+        List<Metric> metrics = new ArrayList<>();
+        metrics.add(Metric.gauge("kiwi_keydir_keys", "Number of keys in the key directory.", keyDir.size()));
+        metrics.add(Metric.gauge("kiwi_keydir_memory_bytes",
+                "Estimated heap memory used by the key directory.", keyDir.estimatedMemoryBytes()));
+        metrics.add(Metric.gauge("kiwi_keydir_evicted_keys",
+                "Approximate number of live keys evicted from the key directory to segment indexes.",
+                isBounded() ? Math.max(0, evictedKeys.get()) : 0));
+        metrics.add(Metric.counter("kiwi_keydir_evictions_total",
+                "Number of keys evicted from the key directory.", evictions.sum()));
+        metrics.add(Metric.gauge("kiwi_segment_indexes", "Number of indexed sealed segments.", indexes.size()));
+        metrics.add(Metric.counter("kiwi_segment_index_lookups_total",
+                "Number of key lookups in segment indexes.", indexes.lookups()));
+        metrics.add(Metric.counter("kiwi_segment_index_bloom_skips_total",
+                "Number of segment indexes skipped by their Bloom filter.", indexes.bloomSkips()));
+
+        // Sealed segments are counted by the registry as they are sealed and deleted. The active
+        // segment counts with its data, as preallocated files are larger.
+        long activeBytes;
+        rw.readLock().lock();
+        try {
+            activeBytes = activeSegment.size();
+        } finally {
+            rw.readLock().unlock();
+        }
+        metrics.add(Metric.gauge("kiwi_segments", "Number of log segments.", segmentRegistry.segments() + 1));
+        metrics.add(Metric.gauge("kiwi_segments_bytes", "Total size of log segments.",
+                segmentRegistry.bytes() + activeBytes));
+        metrics.add(Metric.counter("kiwi_segment_rolls_total", "Number of active segment rolls.", segmentRolls.sum()));
+        metrics.add(Metric.gauge("kiwi_segment_open_files", "Number of open sealed segment files.",
+                segmentRegistry.openFiles()));
+        metrics.add(Metric.counter("kiwi_segment_file_evictions_total",
+                "Number of sealed segment files closed to stay within the open files limit.",
+                segmentRegistry.evictions()));
+        metrics.add(Metric.gauge("kiwi_blob_files", "Number of blob files.", blobLog.files()));
+        metrics.add(Metric.gauge("kiwi_blob_bytes", "Total size of blob files.", blobLog.bytes()));
+
+        metrics.addAll(logCleaner.metrics());
+        metrics.addAll(scrubber.metrics());
+        metrics.addAll(writer.metrics());
+
+        ValueCache.Stats cacheStats = valueCache.stats();
+        metrics.add(Metric.gauge("kiwi_value_cache_bytes", "Bytes used by the value cache.", cacheStats.bytes()));
+        metrics.add(Metric.gauge("kiwi_value_cache_entries", "Number of values in the value cache.", cacheStats.entries()));
+        metrics.add(Metric.counter("kiwi_value_cache_hits_total", "Number of value cache hits.", cacheStats.hits()));
+        metrics.add(Metric.counter("kiwi_value_cache_misses_total", "Number of value cache misses.", cacheStats.misses()));
+        metrics.add(Metric.counter("kiwi_value_cache_evictions_total", "Number of value cache evictions.", cacheStats.evictions()));
+        return metrics;
     }
 
+    /**
+     * Removes all keys by starting a new epoch instead of writing a tombstone per key.
+     *
+     * <p>The store switches to a new active segment starting with an epoch marker and to an empty
+     * keydir in one step. Recovery ignores segments older than the last epoch marker, and the log
+     * cleaner deletes them in the background.</p>
+     */
     @Override
     public void purge() {
-        keyDir.keys().asIterator().forEachRemaining(this::delete);
+        rw.writeLock().lock();
+        try {
+            logCleaner.startEpoch(() -> {
+                LogSegment epochSegment = segmentPool.allocate(segmentNameGenerator.next());
+                epochSegment.onAppend(appendListener);
+                epochSegment.append(Record.epochMarker(clock.millis()));
+                epochSegment.sync();
+
+                activeSegment.markAsReadOnly();
+                segmentRegistry.adopt(activeSegment);
+                activeSegment = epochSegment;
+                nextSegmentPrepared = false;
+                segmentRolls.increment();
+
+                keyDir.clear();
+                indexes.clear();
+                pendingTombstones.clear();
+                evictedKeys.set(0);
+                valueCache.clear();
+                return epochSegment.name();
+            });
+            logger.info("Started new epoch with log segment {}", activeSegment.name());
+        } finally {
+            rw.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Seals the active segment and returns the sealed files, which hold every record written so far.
+     */
+    public Checkpoint checkpoint() {
+        return checkpoint(null);
+    }
+
+    /**
+     * Seals the active segment and returns the sealed files, which hold every record written so far.
+     *
+     * <p>The listener is registered in the same step and receives every record appended after the
+     * checkpoint, so a replica loading the checkpoint files and applying the records from the
+     * listener misses no writes. Files of the checkpoint are kept on disk until it is closed.</p>
+     */
+    public Checkpoint checkpoint(Consumer<Record> listener) {
+        // Compaction is paused while segments are listed, so the list never contains a partially
+        // written compacted segment or misses the segments it replaces.
+        return logCleaner.pauseCompaction(() -> {
+            String activeSegmentName;
+            Set<Path> blobFiles;
+            rw.writeLock().lock();
+            try {
+                if (activeSegment.size() > 0) {
+                    rollActiveSegment();
+                }
+                blobLog.roll();
+                blobFiles = blobLog.sealedFilePaths();
+                if (listener != null) {
+                    appendListeners.add(listener);
+                }
+                activeSegmentName = activeSegment.name();
+            } finally {
+                rw.writeLock().unlock();
+            }
+
+            List<Path> files;
+            try (Stream<Path> paths = Files.list(logDir)) {
+                files = new ArrayList<>(paths.filter(Files::isRegularFile)
+                        .filter(path -> {
+                            String fileName = path.getFileName().toString();
+                            return fileName.endsWith(LogSegment.EXTENSION) || fileName.endsWith(HintSegment.EXTENSION);
+                        })
+                        .filter(path -> segmentName(path).compareTo(activeSegmentName) < 0)
+                        .filter(path -> !logCleaner.isObsolete(path))
+                        .toList());
+                // Blob files sealed with the active segment hold the separated values.
+                files.addAll(blobFiles);
+                files.sort(Comparator.naturalOrder());
+            } catch (IOException ex) {
+                if (listener != null) {
+                    appendListeners.remove(listener);
+                }
+                throw new KiwiReadException("Failed to list log directory " + logDir, ex);
+            }
+
+            List<String> segmentNames = files.stream().map(BitcaskStore::segmentName).distinct().toList();
+            logCleaner.pin(segmentNames);
+            return new Checkpoint(files, () -> logCleaner.unpin(segmentNames));
+        });
+    }
+
+    /**
+     * Hard links the sealed files of a checkpoint into the directory, which can then be opened as
+     * the log directory of another store.
+     *
+     * <p>Files are pinned while they are linked, so compaction cannot delete them in between.
+     * Linked files are not recycled afterwards, so the snapshot stays intact after compaction
+     * removes them from this store.</p>
+     */
+    @Override
+    public void snapshot(Path dir) {
+        try (Checkpoint checkpoint = checkpoint()) {
+            Files.createDirectories(dir);
+            for (Path file : checkpoint.files()) {
+                Checkpoint.link(file, dir.resolve(file.getFileName()));
+            }
+            logger.info("Created snapshot of {} files in {}", checkpoint.files().size(), dir);
+        } catch (IOException ex) {
+            throw new KiwiWriteException("Failed to create snapshot directory " + dir, ex);
+        }
+    }
+
+    public void removeAppendListener(Consumer<Record> listener) {
+        appendListeners.remove(listener);
+    }
+
+    /**
+     * Replaces all keys with the content of sealed segment and hint files copied from another
+     * store, e.g. from a checkpoint of a replication leader.
+     *
+     * <p>The store starts a new epoch, and the files are moved into the log directory after the
+     * epoch segment in their original order, so recovery replays them the same way. New records
+     * are appended to a segment after them.</p>
+     */
+    public void load(List<Path> files) {
+        List<Path> segmentFiles = files.stream()
+                .filter(path -> path.getFileName().toString().endsWith(LogSegment.EXTENSION))
+                .sorted(Comparator.comparing(Path::getFileName))
+                .toList();
+        List<Path> blobFiles = files.stream().filter(BlobLog::isBlobFile).toList();
+
+        logCleaner.pauseCompaction(() -> {
+            rw.writeLock().lock();
+            try {
+                purge();
+
+                // Blob files keep their names, as pointers in the segments refer to them by id.
+                for (Path blobFile : blobFiles) {
+                    Path target = logDir.resolve(blobFile.getFileName());
+                    if (!Files.exists(target)) {
+                        Utils.renameFile(blobFile, target);
+                    }
+                }
+
+                for (Path segmentFile : segmentFiles) {
+                    Path target = segmentNameGenerator.next();
+                    Path hintFile = segmentFile.resolveSibling(segmentName(segmentFile) + HintSegment.EXTENSION);
+
+                    // Segment goes first. A hint file without its segment could be picked up by
+                    // a new segment with the same name.
+                    Utils.renameFile(segmentFile, target);
+                    if (Files.exists(hintFile)) {
+                        Utils.renameFile(hintFile, target.resolveSibling(segmentName(target) + HintSegment.EXTENSION));
+                    }
+
+                    LogSegment segment = segmentRegistry.open(target);
+                    if (isBounded()) {
+                        indexes.add(SegmentIndex.open(segment));
+                        continue;
+                    }
+                    segment.buildKeyDir().forEach((key, valueRef) -> {
+                        if (valueRef == null) {
+                            keyDir.remove(key);
+                        } else {
+                            keyDir.put(key, valueRef);
+                        }
+                    });
+                }
+                if (isBounded()) {
+                    evictedKeys.set(countEvictedKeys());
+                }
+
+                rollActiveSegment();
+                logger.info("Loaded {} log segments with {} entries", segmentFiles.size(), size());
+            } finally {
+                rw.writeLock().unlock();
+            }
+            return null;
+        });
+    }
+
+    public Path logDir() {
+        return logDir;
+    }
+
+    private static String segmentName(Path file) {
+        String fileName = file.getFileName().toString();
+        int extension = fileName.indexOf('.');
+        return extension < 0 ? fileName : fileName.substring(0, extension);
     }
 
     @Override
     public void close() {
+        scrubber.close();
         logCleaner.close();
+        if (indexExecutor != null) {
+            indexExecutor.shutdown();
+            try {
+                if (!indexExecutor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    indexExecutor.shutdownNow();
+                }
+            } catch (InterruptedException ex) {
+                indexExecutor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
         writer.close();
+        blobLog.close();
+        segmentPool.close();
+        segmentRegistry.close();
     }
 
     private Supplier<LogSegment> activeSegmentSupplier() {
@@ -208,14 +977,34 @@ public class BitcaskStore implements KeyValueStore<Bytes, Bytes> {
         private Path logDir;
         private KeyDir keyDir;
         private LogSegment activeSegment;
+        private String epochSegmentName;
         private Clock clock = Clock.systemUTC();
         private int keyDirBuilderThreads;
+        private long keyDirMaxKeys;
+        private SegmentIndexes indexes;
+        private Map<Bytes, String> pendingTombstones;
         private long logSegmentBytes;
+        private boolean segmentPreallocate;
+        private int segmentPoolSize;
+        private int segmentMaxOpenFiles;
+        private SegmentRegistry segmentRegistry;
         private long compactionSegmentMinBytes;
         private Duration compactionInterval;
         private double minDirtyRatio;
         private int compactionThreads;
+        private int coldGeneration;
+        private double coldMinDirtyRatio;
+        private Duration coldInterval;
+        private Duration ttlBucketWindow;
+        private long scrubBytesPerSecond;
+        private Duration scrubInterval;
         private final SegmentWriterFactory writerFactory;
+        private long valueCacheBytes;
+        private int valueCacheShards;
+        private long blobThresholdBytes;
+        private long blobFileBytes;
+        private double blobMinLiveRatio;
+        private boolean blobSyncWrites;
 
         Builder() {
             this(Options.defaults.storage);
@@ -229,12 +1018,28 @@ public class BitcaskStore implements KeyValueStore<Bytes, Bytes> {
         Builder(StorageConfig config) {
             this.logDir = config.log.dir;
             this.keyDirBuilderThreads = config.log.keyDirBuilderThreads;
+            this.keyDirMaxKeys = config.log.keyDirMaxKeys;
             this.logSegmentBytes = config.log.segmentBytes;
+            this.segmentPreallocate = config.log.segmentPreallocate;
+            this.segmentPoolSize = config.log.segmentPoolSize;
+            this.segmentMaxOpenFiles = config.log.segmentMaxOpenFiles;
             this.compactionSegmentMinBytes = config.log.compaction.segmentMinBytes;
             this.compactionInterval = config.log.compaction.interval;
             this.minDirtyRatio = config.log.compaction.minDirtyRatio;
             this.compactionThreads = config.log.compaction.threads;
+            this.coldGeneration = config.log.compaction.cold.generation;
+            this.coldMinDirtyRatio = config.log.compaction.cold.minDirtyRatio;
+            this.coldInterval = config.log.compaction.cold.interval;
+            this.ttlBucketWindow = config.log.ttlBucketWindow;
+            this.scrubBytesPerSecond = config.log.scrub.bytesPerSecond;
+            this.scrubInterval = config.log.scrub.interval;
             this.writerFactory = new SegmentWriterFactory(config.log.sync);
+            this.valueCacheBytes = config.cache.capacityBytes;
+            this.valueCacheShards = config.cache.shards;
+            this.blobThresholdBytes = config.log.blob.thresholdBytes;
+            this.blobFileBytes = config.log.blob.fileBytes;
+            this.blobMinLiveRatio = config.log.blob.minLiveRatio;
+            this.blobSyncWrites = config.log.sync.mode != LogConfig.Sync.Mode.LAZY;
         }
 
         public Builder withLogDir(Path logDir) {
@@ -247,11 +1052,31 @@ public class BitcaskStore implements KeyValueStore<Bytes, Bytes> {
             return this;
         }
 
+        public Builder withKeyDirMaxKeys(long maxKeys) {
+            this.keyDirMaxKeys = maxKeys;
+            return this;
+        }
+
         public Builder withLogSegmentBytes(long logSegmentBytes) {
             this.logSegmentBytes = logSegmentBytes;
             return this;
         }
 
+        public Builder withSegmentPreallocate(boolean preallocate) {
+            this.segmentPreallocate = preallocate;
+            return this;
+        }
+
+        public Builder withSegmentPoolSize(int poolSize) {
+            this.segmentPoolSize = poolSize;
+            return this;
+        }
+
+        public Builder withSegmentMaxOpenFiles(int maxOpenFiles) {
+            this.segmentMaxOpenFiles = maxOpenFiles;
+            return this;
+        }
+
         public Builder withCompactionSegmentMinBytes(long minBytes) {
             this.compactionSegmentMinBytes = minBytes;
             return this;
@@ -272,6 +1097,41 @@ public class BitcaskStore implements KeyValueStore<Bytes, Bytes> {
             return this;
         }
 
+        public Builder withColdGeneration(int generation) {
+            this.coldGeneration = generation;
+            return this;
+        }
+
+        public Builder withTtlBucketWindow(Duration window) {
+            this.ttlBucketWindow = window;
+            return this;
+        }
+
+        public Builder withScrubBytesPerSecond(long bytesPerSecond) {
+            this.scrubBytesPerSecond = bytesPerSecond;
+            return this;
+        }
+
+        public Builder withValueCacheBytes(long capacity) {
+            this.valueCacheBytes = capacity;
+            return this;
+        }
+
+        public Builder withBlobThresholdBytes(long thresholdBytes) {
+            this.blobThresholdBytes = thresholdBytes;
+            return this;
+        }
+
+        public Builder withBlobFileBytes(long fileBytes) {
+            this.blobFileBytes = fileBytes;
+            return this;
+        }
+
+        public Builder withBlobMinLiveRatio(double minLiveRatio) {
+            this.blobMinLiveRatio = minLiveRatio;
+            return this;
+        }
+
         public Builder withClock(Clock clock) {
             this.clock = clock;
             return this;
@@ -289,7 +1149,23 @@ public class BitcaskStore implements KeyValueStore<Bytes, Bytes> {
                     compactionInterval,
                     minDirtyRatio,
                     compactionThreads,
-                    writerFactory);
+                    writerFactory,
+                    new ValueCache(valueCacheBytes, valueCacheShards),
+                    new LogSegmentPool(logDir, logSegmentBytes, segmentPreallocate, segmentPoolSize),
+                    segmentRegistry,
+                    epochSegmentName,
+                    keyDirMaxKeys,
+                    indexes,
+                    pendingTombstones,
+                    new BlobLog(logDir, blobFileBytes, blobSyncWrites),
+                    blobThresholdBytes,
+                    blobMinLiveRatio,
+                    coldGeneration,
+                    coldMinDirtyRatio,
+                    coldInterval,
+                    ttlBucketWindow,
+                    scrubBytesPerSecond,
+                    scrubInterval);
         }
 
         private void init(Path logDir) {
@@ -300,27 +1176,50 @@ public class BitcaskStore implements KeyValueStore<Bytes, Bytes> {
             }
 
             logger.info("Building keydir from log directory {}", logDir.normalize().toAbsolutePath());
+            segmentRegistry = new SegmentRegistry(segmentMaxOpenFiles);
 
-            try (Stream<Path> paths = Files.walk(logDir)) {
-                List<Path> segmentPaths = paths.filter(Files::isRegularFile)
+            try (Stream<Path> paths = Files.list(logDir)) {
+                List<Path> allSegmentPaths = paths.filter(Files::isRegularFile)
                         .filter(path -> path.getFileName().toString().endsWith(".log"))
                         .sorted()
                         .toList();
 
+                // Segments older than the last epoch marker were flushed and are skipped.
+                int epochStart = 0;
+                for (int i = allSegmentPaths.size() - 1; i > 0; i--) {
+                    if (LogSegment.startsEpoch(allSegmentPaths.get(i))) {
+                        epochStart = i;
+                        epochSegmentName = allSegmentPaths.get(i).getFileName().toString().replace(LogSegment.EXTENSION, "");
+                        logger.info("Skipping {} log segments older than epoch segment {}", i, epochSegmentName);
+                        break;
+                    }
+                }
+                List<Path> segmentPaths = allSegmentPaths.subList(epochStart, allSegmentPaths.size());
+
+                indexes = new SegmentIndexes();
+                pendingTombstones = new ConcurrentHashMap<>();
+                if (keyDirMaxKeys > 0) {
+                    initIndexes(segmentPaths);
+                    return;
+                }
+
                 ExecutorService executor = Executors.newFixedThreadPool(keyDirBuilderThreads, NamedThreadFactory.create("keydir"));
                 List<Future<KeyValue<Path, Map<Bytes, ValueReference>>>> futures = new ArrayList<>();
 
                 for (Path segmentPath : segmentPaths) {
                     futures.add(executor.submit(() -> {
-                        LogSegment segment;
                         if (segmentPath.equals(segmentPaths.getLast())) {
                             activeSegment = LogSegment.open(segmentPath);
-                            segment = activeSegment;
-                        } else {
-                            segment = LogSegment.open(segmentPath, true);
+                            return KeyValue.of(segmentPath, activeSegment.buildKeyDir());
+                        }
+                        // Sealed segments are held while they are scanned, so the open files
+                        // limit does not close them in between.
+                        LogSegment segment = segmentRegistry.acquire(segmentPath);
+                        try {
+                            return KeyValue.of(segmentPath, segment.buildKeyDir());
+                        } finally {
+                            segmentRegistry.release(segment);
                         }
-                        Map<Bytes, ValueReference> partialKeyDir = segment.buildKeyDir();
-                        return KeyValue.of(segmentPath, partialKeyDir);
                     }));
                 }
 
@@ -350,9 +1249,6 @@ public class BitcaskStore implements KeyValueStore<Bytes, Bytes> {
                             }
                         });
 
-                // Remove tombstones.
-                keyDir.values().removeIf(Objects::isNull);
-
                 // Create new active segment when there are no segment files.
                 if (activeSegment == null) {
                     Path activeSegmentPath = new LogSegmentNameGenerator(logDir).next();
@@ -364,5 +1260,49 @@ public class BitcaskStore implements KeyValueStore<Bytes, Bytes> {
 
             logger.info("Store initialized with {} entries and {} active log segment", keyDir.size(), activeSegment.name());
         }
+
+        /**
+         * Indexes sealed segments instead of loading their keys, and loads only the keys of the
+         * active segment into the keydir.
+         */
+        private void initIndexes(List<Path> segmentPaths) throws InterruptedException, ExecutionException {
+            keyDir = new KeyDir();
+            if (segmentPaths.isEmpty()) {
+                activeSegment = LogSegment.open(new LogSegmentNameGenerator(logDir).next());
+                return;
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(keyDirBuilderThreads, NamedThreadFactory.create("keydir"));
+            List<Future<SegmentIndex>> futures = new ArrayList<>();
+            for (Path segmentPath : segmentPaths.subList(0, segmentPaths.size() - 1)) {
+                futures.add(executor.submit(() -> {
+                    LogSegment segment = segmentRegistry.acquire(segmentPath);
+                    try {
+                        return SegmentIndex.open(segment);
+                    } finally {
+                        segmentRegistry.release(segment);
+                    }
+                }));
+            }
+            for (Future<SegmentIndex> future : futures) {
+                indexes.add(future.get());
+            }
+            executor.shutdown();
+
+            // Expired records and tombstones of the active segment hide older values in the indexes.
+            activeSegment = LogSegment.open(segmentPaths.getLast());
+            for (Hint hint : activeSegment.latestEntries().values()) {
+                Header header = hint.header();
+                if (header.valueSize() == 0) {
+                    pendingTombstones.put(hint.key(), activeSegment.name());
+                } else {
+                    keyDir.put(hint.key(), new ValueReference(activeSegment, hint.valuePosition(),
+                            header.valueSize(), header.ttl(), header.timestamp()));
+                }
+            }
+
+            logger.info("Store initialized with {} indexed segments, {} keydir entries and {} active log segment",
+                    indexes.size(), keyDir.size(), activeSegment.name());
+        }
     }
 }
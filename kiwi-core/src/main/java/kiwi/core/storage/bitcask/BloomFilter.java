@@ -0,0 +1,68 @@
+package kiwi.core.storage.bitcask;
+
+import kiwi.core.common.Bytes;
+import net.openhft.hashing.LongHashFunction;
+
+/**
+ * Bloom filter of keys stored in a segment index.
+ *
+ * <p>Bit positions are derived from a single 64-bit hash with double hashing, so a lookup hashes
+ * the key once regardless of the number of hash functions.</p>
+ */
+final class BloomFilter {
+    private static final LongHashFunction HASH = LongHashFunction.xx(0x9E3779B97F4A7C15L);
+
+    private final long[] words;
+    private final int hashes;
+    private final long bits;
+
+    BloomFilter(long[] words, int hashes) {
+        this.words = words;
+        this.hashes = hashes;
+        this.bits = (long) words.length * Long.SIZE;
+    }
+
+    /**
+     * Creates an empty filter sized for the number of keys.
+     *
+     * @param bitsPerKey the number of bits per key; 10 bits give about 1% false positives
+     */
+    static BloomFilter create(int keys, int bitsPerKey) {
+        long bits = Math.max(Long.SIZE, (long) keys * bitsPerKey);
+        int words = (int) Math.min(Integer.MAX_VALUE - 8, (bits + Long.SIZE - 1) / Long.SIZE);
+        // The optimal number of hash functions is bitsPerKey * ln 2.
+        int hashes = Math.max(1, Math.min(30, (int) Math.round(bitsPerKey * 0.69)));
+        return new BloomFilter(new long[words], hashes);
+    }
+
+    void add(Bytes key) {
+        long hash = HASH.hashBytes(key.toByteBuffer());
+        long delta = Long.rotateLeft(hash, 32) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = Math.floorMod(hash, bits);
+            words[(int) (bit >>> 6)] |= 1L << bit;
+            hash += delta;
+        }
+    }
+
+    boolean mightContain(Bytes key) {
+        long hash = HASH.hashBytes(key.toByteBuffer());
+        long delta = Long.rotateLeft(hash, 32) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = Math.floorMod(hash, bits);
+            if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+            hash += delta;
+        }
+        return true;
+    }
+
+    long[] words() {
+        return words;
+    }
+
+    int hashes() {
+        return hashes;
+    }
+}
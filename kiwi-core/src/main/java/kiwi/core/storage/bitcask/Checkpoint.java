@@ -0,0 +1,82 @@
+package kiwi.core.storage.bitcask;
+
+import kiwi.core.error.KiwiReadException;
+import kiwi.core.error.KiwiWriteException;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Sealed segment and hint files holding every record written to a store before the checkpoint.
+ *
+ * <p>Files are kept on disk until the checkpoint is closed. Compaction can still mark them as
+ * deleted in the meantime, so files should be opened with {@link #open(Path)}.</p>
+ */
+public class Checkpoint implements AutoCloseable {
+    private static final String DELETED_SUFFIX = ".deleted";
+
+    private final List<Path> files;
+    private final Runnable release;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    Checkpoint(List<Path> files, Runnable release) {
+        this.files = List.copyOf(files);
+        this.release = release;
+    }
+
+    /**
+     * Segment and hint files ordered by segment name.
+     */
+    public List<Path> files() {
+        return files;
+    }
+
+    /**
+     * Opens a checkpoint file for reading, also when compaction renamed it in the meantime.
+     */
+    public static FileChannel open(Path file) throws KiwiReadException {
+        try {
+            return FileChannel.open(file, StandardOpenOption.READ);
+        } catch (NoSuchFileException ex) {
+            Path deletedFile = file.resolveSibling(file.getFileName() + DELETED_SUFFIX);
+            try {
+                return FileChannel.open(deletedFile, StandardOpenOption.READ);
+            } catch (IOException deletedEx) {
+                throw new KiwiReadException("Failed to open checkpoint file " + file, deletedEx);
+            }
+        } catch (IOException ex) {
+            throw new KiwiReadException("Failed to open checkpoint file " + file, ex);
+        }
+    }
+
+    /**
+     * Creates a hard link to a checkpoint file, also when compaction renamed it in the meantime.
+     */
+    public static void link(Path file, Path link) throws KiwiWriteException {
+        try {
+            Files.createLink(link, file);
+        } catch (NoSuchFileException ex) {
+            Path deletedFile = file.resolveSibling(file.getFileName() + DELETED_SUFFIX);
+            try {
+                Files.createLink(link, deletedFile);
+            } catch (IOException deletedEx) {
+                throw new KiwiWriteException("Failed to link checkpoint file " + file, deletedEx);
+            }
+        } catch (IOException ex) {
+            throw new KiwiWriteException("Failed to link checkpoint file " + file, ex);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            release.run();
+        }
+    }
+}
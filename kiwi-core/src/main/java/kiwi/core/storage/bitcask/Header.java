@@ -16,6 +16,14 @@ public record Header(long checksum, long timestamp, long ttl, int keySize, int v
         return buffer;
     }
 
+    /**
+     * End of data marker. Preallocated segments are zero-filled, so an all-zero header follows
+     * the last record. Real records always have a non-zero checksum.
+     */
+    public boolean isEndOfData() {
+        return checksum == 0 && timestamp == 0 && ttl == 0 && keySize == 0 && valueSize == 0;
+    }
+
     public static Header fromByteBuffer(ByteBuffer buffer) {
         long checksum = buffer.getLong();
         long timestamp = buffer.getLong();
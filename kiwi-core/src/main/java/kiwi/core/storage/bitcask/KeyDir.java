@@ -1,21 +1,232 @@
 package kiwi.core.storage.bitcask;
 
 import kiwi.core.common.Bytes;
+import kiwi.core.storage.ScanResult;
 import kiwi.core.storage.bitcask.log.LogSegment;
 import kiwi.core.storage.bitcask.log.Record;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+import java.util.stream.Stream;
 
-public class KeyDir extends ConcurrentHashMap<Bytes, ValueReference> {
+/**
+ * In-memory index of keys to the location of their latest values.
+ *
+ * <p>Keys are partitioned by hash into a fixed number of stripes. Stripes give key enumeration a
+ * stable layout to resume from: a scan cursor is the index of the next stripe to visit, so
+ * scans are stateless and every call does work proportional to the requested count.</p>
+ */
+public class KeyDir {
+
+    // Approximate heap cost of one entry excluding key bytes: hash table node and slot,
+    // Bytes wrapper, key array header and value reference (assuming compressed oops).
+    static final long ENTRY_OVERHEAD = 128;
+
+    static final int STRIPES = 4096;
+
+    private static final int MEMORY_SAMPLE_SIZE = 1024;
+
+    // Replaced as a whole on clear, so clearing does not depend on the number of keys.
+    private volatile ConcurrentHashMap<Bytes, ValueReference>[] stripes;
+
+    public KeyDir() {
+        this.stripes = newStripes();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ConcurrentHashMap<Bytes, ValueReference>[] newStripes() {
+        ConcurrentHashMap<Bytes, ValueReference>[] stripes = new ConcurrentHashMap[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ConcurrentHashMap<>();
+        }
+        return stripes;
+    }
 
     public void update(Record record, LogSegment segment) {
         if (record.isTombstone()) {
-            super.remove(record.key());
+            remove(record.key());
         } else {
             long position = segment.position() - record.valueSize();
             ValueReference valueRef = ValueReference.of(segment, position, record);
-            super.put(record.key(), valueRef);
+            put(record.key(), valueRef);
         }
     }
 
+    public ValueReference get(Bytes key) {
+        return stripe(key).get(key);
+    }
+
+    public ValueReference put(Bytes key, ValueReference valueRef) {
+        return stripe(key).put(key, valueRef);
+    }
+
+    /**
+     * Adds the key only if it is not present, e.g. when a key is loaded back from a segment index.
+     *
+     * @return the current value reference, or null if the key was added
+     */
+    public ValueReference putIfAbsent(Bytes key, ValueReference valueRef) {
+        return stripe(key).putIfAbsent(key, valueRef);
+    }
+
+    public ValueReference remove(Bytes key) {
+        return stripe(key).remove(key);
+    }
+
+    /**
+     * Removes the key only if it still points to the given value.
+     */
+    public boolean remove(Bytes key, ValueReference valueRef) {
+        return stripe(key).remove(key, valueRef);
+    }
+
+    public boolean containsKey(Bytes key) {
+        return stripe(key).containsKey(key);
+    }
+
+    /**
+     * Removes all keys by switching to empty stripes. Updates racing with the switch may land in
+     * the discarded stripes, so callers must block writers while clearing.
+     */
+    public void clear() {
+        stripes = newStripes();
+    }
+
+    public int size() {
+        long size = 0;
+        for (ConcurrentHashMap<Bytes, ValueReference> stripe : stripes) {
+            size += stripe.mappingCount();
+        }
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    public boolean isEmpty() {
+        for (ConcurrentHashMap<Bytes, ValueReference> stripe : stripes) {
+            if (!stripe.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void forEach(BiConsumer<Bytes, ValueReference> action) {
+        for (ConcurrentHashMap<Bytes, ValueReference> stripe : stripes) {
+            stripe.forEach(action);
+        }
+    }
+
+    /**
+     * Visits keys of one stripe, e.g. to merge them with the keys of segment indexes in the same
+     * stripe.
+     */
+    void forEachInStripe(int stripe, BiConsumer<Bytes, ValueReference> action) {
+        stripes[stripe].forEach(action);
+    }
+
+    /**
+     * Removes keys accepted by the predicate, visiting stripes from the given one, until the given
+     * number of keys is removed or all stripes are visited. Keys updated concurrently are kept.
+     *
+     * @param removed called with every removed key
+     * @return the stripe after the last visited one, where the next eviction continues
+     */
+    int evict(int fromStripe, long keys, BiPredicate<Bytes, ValueReference> evictable,
+              BiConsumer<Bytes, ValueReference> removed) {
+        ConcurrentHashMap<Bytes, ValueReference>[] stripes = this.stripes;
+        long evicted = 0;
+        int stripe = Math.floorMod(fromStripe, STRIPES);
+        for (int visited = 0; visited < STRIPES && evicted < keys; visited++) {
+            for (Map.Entry<Bytes, ValueReference> entry : stripes[stripe].entrySet()) {
+                if (evicted >= keys) {
+                    break;
+                }
+                if (evictable.test(entry.getKey(), entry.getValue())
+                        && stripes[stripe].remove(entry.getKey(), entry.getValue())) {
+                    removed.accept(entry.getKey(), entry.getValue());
+                    evicted++;
+                }
+            }
+            stripe = (stripe + 1) & (STRIPES - 1);
+        }
+        return stripe;
+    }
+
+    public Stream<Map.Entry<Bytes, ValueReference>> entries() {
+        return Stream.of(stripes).flatMap(stripe -> stripe.entrySet().stream());
+    }
+
+    /**
+     * Returns keys of the stripes starting at the cursor, until at least {@code count} entries are
+     * examined or all stripes are visited.
+     *
+     * <p>Keys present for the whole duration of a full scan are returned at least once. Keys
+     * added or removed during the scan may or may not be returned. Cursor zero starts a new scan
+     * and is returned when the scan is complete.</p>
+     *
+     * @param cursor the cursor returned by the previous call, or zero
+     * @param count  the number of entries to examine
+     * @param filter selects the keys to return
+     */
+    public ScanResult<Bytes> scan(long cursor, int count, BiPredicate<Bytes, ValueReference> filter) {
+        if (cursor < 0 || cursor >= STRIPES) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+
+        ConcurrentHashMap<Bytes, ValueReference>[] stripes = this.stripes;
+        List<Bytes> keys = new ArrayList<>();
+        int stripe = (int) cursor;
+        long examined = 0;
+        while (stripe < STRIPES && examined < count) {
+            for (Map.Entry<Bytes, ValueReference> entry : stripes[stripe].entrySet()) {
+                examined++;
+                if (filter.test(entry.getKey(), entry.getValue())) {
+                    keys.add(entry.getKey());
+                }
+            }
+            stripe++;
+        }
+        return new ScanResult<>(stripe == STRIPES ? 0 : stripe, keys);
+    }
+
+    /**
+     * Estimates heap memory used by the key directory.
+     *
+     * <p>Average key size is sampled from the first entries, so the estimate is cheap to compute
+     * and does not block concurrent updates.</p>
+     */
+    public long estimatedMemoryBytes() {
+        long entries = size();
+        if (entries == 0) {
+            return 0;
+        }
+
+        ConcurrentHashMap<Bytes, ValueReference>[] stripes = this.stripes;
+        long sampledKeyBytes = 0;
+        int sampled = 0;
+        for (int i = 0; i < STRIPES && sampled < MEMORY_SAMPLE_SIZE; i++) {
+            Iterator<Bytes> keys = stripes[i].keySet().iterator();
+            while (keys.hasNext() && sampled < MEMORY_SAMPLE_SIZE) {
+                sampledKeyBytes += keys.next().size();
+                sampled++;
+            }
+        }
+
+        long averageKeyBytes = sampled == 0 ? 0 : sampledKeyBytes / sampled;
+        return entries * (ENTRY_OVERHEAD + averageKeyBytes);
+    }
+
+    private ConcurrentHashMap<Bytes, ValueReference> stripe(Bytes key) {
+        return stripes[stripeOf(key)];
+    }
+
+    static int stripeOf(Bytes key) {
+        // High bits select the stripe, so the stripe's own table still uses well mixed low bits.
+        int hash = key.hashCode();
+        return ((hash ^ (hash >>> 16)) * 0x9E3779B9 >>> 20) & (STRIPES - 1);
+    }
 }
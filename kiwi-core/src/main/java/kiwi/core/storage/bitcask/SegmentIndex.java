@@ -0,0 +1,304 @@
+package kiwi.core.storage.bitcask;
+
+import kiwi.core.common.Bytes;
+import kiwi.core.error.KiwiReadException;
+import kiwi.core.error.KiwiWriteException;
+import kiwi.core.storage.Utils;
+import kiwi.core.storage.bitcask.log.Hint;
+import kiwi.core.storage.bitcask.log.LogSegment;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Sorted index of the keys of a sealed segment, used to find keys evicted from the keydir.
+ *
+ * <p>The index holds the last entry of every key in the segment, including tombstones, sorted by
+ * keydir stripe and key. A Bloom filter in front of the entries rules out most segments without a
+ * key, and entries are found by binary search over a memory-mapped file, so the index costs about
+ * {@value #BITS_PER_KEY} bits of heap per key. Sorting by stripe first lets scans visit the keys of
+ * one stripe in every index.</p>
+ *
+ * <p>File format:</p>
+ * <pre>
+ * [magic:4][version:4][segmentBytes:8][maxTimestamp:8][entries:4][bloomHashes:4][bloomWords:4][reserved:4]
+ * [bloomWord:8]...
+ * [entryOffset:4]...
+ * [stripe:4][checksum:8][timestamp:8][ttl:8][keySize:4][valueSize:4][valuePosition:8][key:keySize]...
+ * </pre>
+ */
+public final class SegmentIndex {
+    public static final String EXTENSION = ".index";
+    public static final String PARTIAL_EXTENSION = EXTENSION + ".partial";
+
+    static final int BITS_PER_KEY = 10;
+
+    private static final int MAGIC = 0x4B494458; // KIDX
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 40;
+
+    // Offset of the key size in an entry: stripe, checksum, timestamp and ttl come first.
+    private static final int KEY_SIZE_OFFSET = Integer.BYTES + 3 * Long.BYTES;
+    private static final int KEY_OFFSET = Integer.BYTES + Header.BYTES + Long.BYTES;
+
+    private static final Comparator<IndexEntry> ORDER = Comparator.comparingInt(IndexEntry::stripe)
+            .thenComparing((a, b) -> Bytes.compareUnsigned(a.hint().key(), b.hint().key()));
+
+    private final LogSegment segment;
+    private final ByteBuffer buffer;
+    private final BloomFilter bloomFilter;
+    private final int entries;
+    private final int offsetsStart;
+    private final long maxTimestamp;
+
+    private SegmentIndex(LogSegment segment, ByteBuffer buffer, BloomFilter bloomFilter, int entries,
+                         int offsetsStart, long maxTimestamp) {
+        this.segment = segment;
+        this.buffer = buffer;
+        this.bloomFilter = bloomFilter;
+        this.entries = entries;
+        this.offsetsStart = offsetsStart;
+        this.maxTimestamp = maxTimestamp;
+    }
+
+    static Path file(LogSegment segment) {
+        return segment.file().resolveSibling(segment.name() + EXTENSION);
+    }
+
+    /**
+     * Opens the index of a sealed segment. The index is written first when it is missing or does
+     * not match the segment.
+     */
+    static SegmentIndex open(LogSegment segment) {
+        Path file = file(segment);
+        if (Files.exists(file)) {
+            SegmentIndex index = read(segment, file);
+            if (index != null) {
+                return index;
+            }
+        }
+        write(segment, file);
+        SegmentIndex index = read(segment, file);
+        if (index == null) {
+            throw new KiwiReadException("Failed to read segment index " + file);
+        }
+        return index;
+    }
+
+    private static void write(LogSegment segment, Path file) {
+        List<IndexEntry> sorted = new ArrayList<>();
+        for (Hint hint : segment.latestEntries().values()) {
+            sorted.add(new IndexEntry(KeyDir.stripeOf(hint.key()), hint));
+        }
+        sorted.sort(ORDER);
+
+        BloomFilter bloomFilter = BloomFilter.create(sorted.size(), BITS_PER_KEY);
+        long maxTimestamp = 0;
+        long size = HEADER_BYTES + (long) bloomFilter.words().length * Long.BYTES + (long) sorted.size() * Integer.BYTES;
+        for (IndexEntry entry : sorted) {
+            bloomFilter.add(entry.hint().key());
+            maxTimestamp = Math.max(maxTimestamp, entry.hint().header().timestamp());
+            size += Integer.BYTES + entry.hint().size();
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new KiwiWriteException("Segment index of " + segment.name() + " exceeds 2GB");
+        }
+
+        Path partialFile = file.resolveSibling(segment.name() + PARTIAL_EXTENSION);
+        try (FileChannel channel = FileChannel.open(partialFile,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(segment.size());
+            out.writeLong(maxTimestamp);
+            out.writeInt(sorted.size());
+            out.writeInt(bloomFilter.hashes());
+            out.writeInt(bloomFilter.words().length);
+            out.writeInt(0);
+            for (long word : bloomFilter.words()) {
+                out.writeLong(word);
+            }
+
+            int offset = HEADER_BYTES + bloomFilter.words().length * Long.BYTES + sorted.size() * Integer.BYTES;
+            for (IndexEntry entry : sorted) {
+                out.writeInt(offset);
+                offset += Integer.BYTES + entry.hint().size();
+            }
+            for (IndexEntry entry : sorted) {
+                out.writeInt(entry.stripe());
+                out.write(entry.hint().toByteBuffer().array());
+            }
+            out.flush();
+            channel.force(true);
+        } catch (IOException ex) {
+            throw new KiwiWriteException("Failed to write segment index " + file, ex);
+        }
+        Utils.renameFile(partialFile, file);
+    }
+
+    /**
+     * Maps the index file, or returns null if it is not an index of the segment data.
+     */
+    private static SegmentIndex read(LogSegment segment, Path file) {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            // The mapping stays valid after the channel is closed.
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } catch (IOException ex) {
+            throw new KiwiReadException("Failed to map segment index " + file, ex);
+        }
+
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getLong(8) != segment.size()) {
+            return null;
+        }
+        long maxTimestamp = buffer.getLong(16);
+        int entries = buffer.getInt(24);
+        int hashes = buffer.getInt(28);
+        int words = buffer.getInt(32);
+        long offsetsStart = HEADER_BYTES + (long) words * Long.BYTES;
+        if (entries < 0 || words < 1 || offsetsStart + (long) entries * Integer.BYTES > buffer.capacity()) {
+            return null;
+        }
+
+        long[] bloomWords = new long[words];
+        buffer.slice(HEADER_BYTES, words * Long.BYTES).asLongBuffer().get(bloomWords);
+        return new SegmentIndex(segment, buffer, new BloomFilter(bloomWords, hashes), entries, (int) offsetsStart, maxTimestamp);
+    }
+
+    boolean mightContain(Bytes key) {
+        return bloomFilter.mightContain(key);
+    }
+
+    /**
+     * Returns the last entry of the key in the segment, or null if the segment has no such key.
+     * Tombstones are returned as entries without a value. Callers check the Bloom filter with
+     * {@link #mightContain(Bytes)} first.
+     */
+    Hint find(Bytes key) {
+        int stripe = KeyDir.stripeOf(key);
+        ByteBuffer keyBuffer = key.toByteBuffer();
+        int low = 0;
+        int high = entries - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int position = entryPosition(middle);
+            int compared = Integer.compare(buffer.getInt(position), stripe);
+            if (compared == 0) {
+                compared = compareKey(position, keyBuffer);
+            }
+            if (compared < 0) {
+                low = middle + 1;
+            } else if (compared > 0) {
+                high = middle - 1;
+            } else {
+                return readHint(position);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Visits entries of the keydir stripe in key order.
+     */
+    void forEachInStripe(int stripe, Consumer<Hint> action) {
+        int low = 0;
+        int high = entries;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (buffer.getInt(entryPosition(middle)) < stripe) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        for (int i = low; i < entries; i++) {
+            int position = entryPosition(i);
+            if (buffer.getInt(position) != stripe) {
+                break;
+            }
+            action.accept(readHint(position));
+        }
+    }
+
+    ValueReference valueReference(Hint hint) {
+        Header header = hint.header();
+        return new ValueReference(segment, hint.valuePosition(), header.valueSize(), header.ttl(), header.timestamp());
+    }
+
+    private int entryPosition(int entry) {
+        return buffer.getInt(offsetsStart + entry * Integer.BYTES);
+    }
+
+    private byte[] readKey(int position) {
+        byte[] key = new byte[buffer.getInt(position + KEY_SIZE_OFFSET)];
+        buffer.get(position + KEY_OFFSET, key);
+        return key;
+    }
+
+    /**
+     * Compares the key of the entry with the given key in place, the same as
+     * {@link Bytes#compareUnsigned}.
+     */
+    private int compareKey(int position, ByteBuffer key) {
+        ByteBuffer entryKey = buffer.slice(position + KEY_OFFSET, buffer.getInt(position + KEY_SIZE_OFFSET));
+        int mismatch = entryKey.mismatch(key);
+        if (mismatch < 0) {
+            return 0;
+        }
+        if (mismatch < entryKey.limit() && mismatch < key.limit()) {
+            return Byte.compareUnsigned(entryKey.get(mismatch), key.get(mismatch));
+        }
+        return entryKey.limit() - key.limit();
+    }
+
+    private Hint readHint(int position) {
+        int headerPosition = position + Integer.BYTES;
+        Header header = new Header(
+                buffer.getLong(headerPosition),
+                buffer.getLong(headerPosition + 8),
+                buffer.getLong(headerPosition + 16),
+                buffer.getInt(headerPosition + 24),
+                buffer.getInt(headerPosition + 28));
+        long valuePosition = buffer.getLong(headerPosition + Header.BYTES);
+        return new Hint(header, valuePosition, Bytes.wrap(readKey(position)));
+    }
+
+    LogSegment segment() {
+        return segment;
+    }
+
+    String name() {
+        return segment.name();
+    }
+
+    int entries() {
+        return entries;
+    }
+
+    /**
+     * The newest timestamp in the segment. Lookups skip segments older than a version already found.
+     */
+    long maxTimestamp() {
+        return maxTimestamp;
+    }
+
+    private record IndexEntry(int stripe, Hint hint) {
+    }
+}
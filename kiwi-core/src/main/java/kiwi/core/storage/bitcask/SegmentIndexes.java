@@ -0,0 +1,146 @@
+package kiwi.core.storage.bitcask;
+
+import kiwi.core.common.Bytes;
+import kiwi.core.storage.bitcask.log.Hint;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Indexes of the sealed segments of a store, used to find keys evicted from the keydir.
+ *
+ * <p>Indexes are checked newest segment first. Compaction writes old records into segments with
+ * new names, so the entry with the highest timestamp wins rather than the first one found, and
+ * segments whose newest record is older than the best entry found so far are skipped.</p>
+ */
+final class SegmentIndexes {
+    private static final Comparator<SegmentIndex> NEWEST_FIRST =
+            Comparator.comparing(SegmentIndex::name).reversed();
+
+    // Replaced as a whole on every change, so lookups do not lock.
+    private volatile List<SegmentIndex> indexes = List.of();
+    private volatile Set<String> segmentNames = Set.of();
+
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder bloomSkips = new LongAdder();
+
+    synchronized void add(SegmentIndex index) {
+        List<SegmentIndex> updated = new ArrayList<>(indexes);
+        updated.removeIf(existing -> existing.name().equals(index.name()));
+        updated.add(index);
+        updated.sort(NEWEST_FIRST);
+        replace(updated);
+    }
+
+    synchronized void remove(Collection<String> names) {
+        List<SegmentIndex> updated = new ArrayList<>(indexes);
+        updated.removeIf(index -> names.contains(index.name()));
+        replace(updated);
+    }
+
+    synchronized void clear() {
+        replace(List.of());
+    }
+
+    private void replace(List<SegmentIndex> updated) {
+        Set<String> names = new HashSet<>();
+        for (SegmentIndex index : updated) {
+            names.add(index.name());
+        }
+        indexes = List.copyOf(updated);
+        segmentNames = Set.copyOf(names);
+    }
+
+    boolean contains(String segmentName) {
+        return segmentNames.contains(segmentName);
+    }
+
+    int size() {
+        return indexes.size();
+    }
+
+    /**
+     * Returns the newest entry of the key in all indexes, or null if no index has the key.
+     */
+    Match lookup(Bytes key) {
+        lookups.increment();
+        Match best = null;
+        for (SegmentIndex index : indexes) {
+            if (best != null && index.maxTimestamp() <= best.timestamp()) {
+                continue;
+            }
+            if (!index.mightContain(key)) {
+                bloomSkips.increment();
+                continue;
+            }
+            Hint hint = index.find(key);
+            if (hint != null && (best == null || hint.header().timestamp() > best.timestamp())) {
+                best = new Match(index, hint);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Checks whether an index has an entry of the key older than the timestamp, i.e. whether a
+     * tombstone at the timestamp still hides a value.
+     */
+    boolean hasEntryBefore(Bytes key, long timestamp) {
+        for (SegmentIndex index : indexes) {
+            if (index.mightContain(key)) {
+                Hint hint = index.find(key);
+                if (hint != null && hint.header().timestamp() < timestamp) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Visits the newest entry of every key of the keydir stripe in all indexes.
+     */
+    void forEachInStripe(int stripe, BiConsumer<Bytes, Match> action) {
+        Map<Bytes, Match> newest = new HashMap<>();
+        for (SegmentIndex index : indexes) {
+            index.forEachInStripe(stripe, hint -> newest.merge(hint.key(), new Match(index, hint),
+                    (current, candidate) -> candidate.timestamp() > current.timestamp() ? candidate : current));
+        }
+        newest.forEach(action);
+    }
+
+    long lookups() {
+        return lookups.sum();
+    }
+
+    long bloomSkips() {
+        return bloomSkips.sum();
+    }
+
+    record Match(SegmentIndex index, Hint hint) {
+        long timestamp() {
+            return hint.header().timestamp();
+        }
+
+        boolean isTombstone() {
+            return hint.header().valueSize() == 0;
+        }
+
+        boolean isExpired(long now) {
+            long ttl = hint.header().ttl();
+            return ttl > 0 && now > ttl;
+        }
+
+        ValueReference valueReference() {
+            return index.valueReference(hint);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package kiwi.core.storage.bitcask.cache;
+
+/**
+ * Count-min sketch with 4-bit counters used by TinyLFU to estimate how often a cache key
+ * has been accessed recently. All counters are halved once the number of increments reaches
+ * the sample size, so the sketch keeps track of recent popularity rather than all-time counts.
+ *
+ * <p>The sketch is not thread safe and is guarded by the owning cache shard.</p>
+ */
+final class FrequencySketch {
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+    private static final int MAX_COUNT = 15;
+    private static final int MIN_WIDTH = 16;
+    private static final int MAX_WIDTH = 1 << 22;
+
+    private byte[] table;
+    private int width;
+    private int sampleSize;
+    private int additions;
+
+    FrequencySketch(int expectedEntries) {
+        ensureCapacity(expectedEntries);
+    }
+
+    /**
+     * Grows the sketch so that it has at least one counter per entry in each row.
+     * Counters are reset when the sketch is resized, so it should be sized up front
+     * whenever the number of entries can be estimated.
+     */
+    void ensureCapacity(int entries) {
+        int newWidth = Math.min(MAX_WIDTH, Integer.highestOneBit(Math.max(MIN_WIDTH, entries) - 1) << 1);
+        if (newWidth <= width) {
+            return;
+        }
+
+        width = newWidth;
+        table = new byte[SEEDS.length * width];
+        sampleSize = 10 * width;
+        additions = 0;
+    }
+
+    int frequency(int hash) {
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < SEEDS.length; i++) {
+            frequency = Math.min(frequency, table[index(hash, i)]);
+        }
+        return frequency;
+    }
+
+    void increment(int hash) {
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            int index = index(hash, i);
+            if (table[index] < MAX_COUNT) {
+                table[index]++;
+                added = true;
+            }
+        }
+
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] >>= 1;
+        }
+        additions /= 2;
+    }
+
+    private int index(int hash, int depth) {
+        long h = (hash + SEEDS[depth]) * SEEDS[depth];
+        h += h >>> 32;
+        return depth * width + ((int) h & (width - 1));
+    }
+}
@@ -0,0 +1,344 @@
+package kiwi.core.storage.bitcask.cache;
+
+import kiwi.core.common.Bytes;
+import kiwi.core.storage.bitcask.ValueReference;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Byte bounded cache of values read from log segments.
+ *
+ * <p>Entries are keyed by {@link ValueReference}, which identifies a value by its segment and
+ * position. Overwrites and compaction produce new references, so stale entries are never
+ * returned and simply age out of the cache.</p>
+ *
+ * <p>The cache implements W-TinyLFU eviction. New entries enter a small LRU admission window.
+ * Entries leaving the window compete with the least recently used entry of the main segmented
+ * LRU space, and only the one that was accessed more often according to a frequency sketch is
+ * retained. This keeps the working set of hot keys resident while one-off reads of cold keys
+ * do not pollute the cache.</p>
+ *
+ * <p>The cache is split into independently locked shards to reduce contention between
+ * event loop threads.</p>
+ */
+public class ValueCache {
+
+    // Approximate memory used by the entry node, map entry and value wrapper.
+    static final int ENTRY_OVERHEAD = 96;
+
+    private final long capacity;
+    private final Shard[] shards;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ValueCache(long capacity, int shards) {
+        this.capacity = Math.max(0, capacity);
+
+        int shardCount = Integer.highestOneBit(Math.max(1, shards));
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            this.shards[i] = new Shard(this.capacity / shardCount, evictions);
+        }
+    }
+
+    public static ValueCache disabled() {
+        return new ValueCache(0, 1);
+    }
+
+    public boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    /**
+     * Returns cached value for the reference or {@code null} if the value is not cached.
+     */
+    public Bytes get(ValueReference valueRef) {
+        if (!isEnabled()) {
+            return null;
+        }
+
+        int hash = spread(valueRef.hashCode());
+        Bytes value = shard(hash).get(valueRef, hash);
+        if (value == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return value;
+    }
+
+    public void put(ValueReference valueRef, Bytes value) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        int hash = spread(valueRef.hashCode());
+        shard(hash).put(valueRef, value, hash);
+    }
+
+    public void clear() {
+        for (Shard shard : shards) {
+            shard.clear();
+        }
+    }
+
+    public Stats stats() {
+        long bytes = 0;
+        long entries = 0;
+        // Published totals are read without taking shard locks, so stats never block cache reads.
+        for (Shard shard : shards) {
+            bytes += shard.publishedWeight;
+            entries += shard.publishedEntries;
+        }
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), bytes, capacity, entries);
+    }
+
+    private Shard shard(int hash) {
+        return shards[hash & (shards.length - 1)];
+    }
+
+    private static int spread(int hash) {
+        return (hash ^ (hash >>> 16)) * 0x45d9f3b;
+    }
+
+    public record Stats(long hits, long misses, long evictions, long bytes, long capacity, long entries) {
+        public double hitRatio() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+    }
+
+    private static final class Shard {
+        // Admission window takes 1% of the capacity and protected segment 80% of the main space.
+        private static final double WINDOW_RATIO = 0.01;
+        private static final double PROTECTED_RATIO = 0.8;
+
+        private static final int INITIAL_SKETCH_ENTRIES = 1 << 16;
+
+        private final long maxWeight;
+        private final long maxWindowWeight;
+        private final long maxProtectedWeight;
+        private final LongAdder evictions;
+
+        private final Map<ValueReference, Node> entries = new HashMap<>();
+        private final FrequencySketch sketch;
+        private final AccessOrderQueue window = new AccessOrderQueue();
+        private final AccessOrderQueue probation = new AccessOrderQueue();
+        private final AccessOrderQueue protectedQueue = new AccessOrderQueue();
+
+        private long windowWeight;
+        private long probationWeight;
+        private long protectedWeight;
+
+        // Totals published after every modification for lock-free stats.
+        private volatile long publishedWeight;
+        private volatile int publishedEntries;
+
+        Shard(long maxWeight, LongAdder evictions) {
+            this.maxWeight = maxWeight;
+            this.maxWindowWeight = (long) (maxWeight * WINDOW_RATIO);
+            this.maxProtectedWeight = (long) ((maxWeight - maxWindowWeight) * PROTECTED_RATIO);
+            this.evictions = evictions;
+
+            // Size the sketch for the largest number of entries that fit into the shard.
+            // Shards holding larger values grow the sketch only if needed.
+            long maxEntries = maxWeight / ENTRY_OVERHEAD;
+            this.sketch = new FrequencySketch((int) Math.min(INITIAL_SKETCH_ENTRIES, maxEntries));
+        }
+
+        synchronized Bytes get(ValueReference key, int hash) {
+            sketch.increment(hash);
+
+            Node node = entries.get(key);
+            if (node == null) {
+                return null;
+            }
+
+            switch (node.queue) {
+                case WINDOW -> window.moveToBack(node);
+                case PROBATION -> {
+                    // Second hit promotes the entry to the protected segment.
+                    probation.remove(node);
+                    probationWeight -= node.weight;
+                    node.queue = Queue.PROTECTED;
+                    protectedQueue.add(node);
+                    protectedWeight += node.weight;
+                    demoteProtected();
+                }
+                case PROTECTED -> protectedQueue.moveToBack(node);
+            }
+            return node.value;
+        }
+
+        synchronized void put(ValueReference key, Bytes value, int hash) {
+            long weight = (long) value.size() + ENTRY_OVERHEAD;
+            if (weight > maxWeight) {
+                return;
+            }
+
+            Node existing = entries.remove(key);
+            if (existing != null) {
+                unlink(existing);
+            }
+
+            Node node = new Node(key, value, weight, hash);
+            entries.put(key, node);
+            window.add(node);
+            windowWeight += weight;
+
+            sketch.ensureCapacity(entries.size());
+
+            evict();
+            publish();
+        }
+
+        synchronized void clear() {
+            entries.clear();
+            window.clear();
+            probation.clear();
+            protectedQueue.clear();
+            windowWeight = 0;
+            probationWeight = 0;
+            protectedWeight = 0;
+            publish();
+        }
+
+        private void publish() {
+            publishedWeight = weight();
+            publishedEntries = entries.size();
+        }
+
+        long weight() {
+            return windowWeight + probationWeight + protectedWeight;
+        }
+
+        private void demoteProtected() {
+            while (protectedWeight > maxProtectedWeight && protectedQueue.head != null) {
+                Node node = protectedQueue.head;
+                protectedQueue.remove(node);
+                protectedWeight -= node.weight;
+                node.queue = Queue.PROBATION;
+                probation.add(node);
+                probationWeight += node.weight;
+            }
+        }
+
+        private void evict() {
+            // Entries leaving the admission window become candidates in the probation segment.
+            while (windowWeight > maxWindowWeight && window.head != null) {
+                Node node = window.head;
+                window.remove(node);
+                windowWeight -= node.weight;
+                node.queue = Queue.PROBATION;
+                probation.add(node);
+                probationWeight += node.weight;
+            }
+
+            while (weight() > maxWeight) {
+                Node victim = probation.head != null ? probation.head : protectedQueue.head;
+                if (victim == null) {
+                    victim = window.head;
+                } else {
+                    // The most recent candidate is admitted only if it is more popular than the victim.
+                    Node candidate = probation.tail;
+                    if (candidate != null && candidate != victim
+                            && sketch.frequency(candidate.hash) <= sketch.frequency(victim.hash)) {
+                        victim = candidate;
+                    }
+                }
+
+                entries.remove(victim.key);
+                unlink(victim);
+                evictions.increment();
+            }
+        }
+
+        private void unlink(Node node) {
+            switch (node.queue) {
+                case WINDOW -> {
+                    window.remove(node);
+                    windowWeight -= node.weight;
+                }
+                case PROBATION -> {
+                    probation.remove(node);
+                    probationWeight -= node.weight;
+                }
+                case PROTECTED -> {
+                    protectedQueue.remove(node);
+                    protectedWeight -= node.weight;
+                }
+            }
+        }
+    }
+
+    private enum Queue {
+        WINDOW, PROBATION, PROTECTED
+    }
+
+    private static final class Node {
+        final ValueReference key;
+        final Bytes value;
+        final long weight;
+        final int hash;
+        Queue queue = Queue.WINDOW;
+        Node prev;
+        Node next;
+
+        Node(ValueReference key, Bytes value, long weight, int hash) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * Intrusive doubly linked list ordered from the least to the most recently used node.
+     */
+    private static final class AccessOrderQueue {
+        Node head;
+        Node tail;
+
+        void add(Node node) {
+            node.prev = tail;
+            node.next = null;
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+        }
+
+        void remove(Node node) {
+            if (node.prev == null) {
+                head = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+        }
+
+        void moveToBack(Node node) {
+            if (node != tail) {
+                remove(node);
+                add(node);
+            }
+        }
+
+        void clear() {
+            head = null;
+            tail = null;
+        }
+    }
+}
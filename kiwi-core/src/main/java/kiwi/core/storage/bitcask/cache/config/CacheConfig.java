@@ -0,0 +1,13 @@
+package kiwi.core.storage.bitcask.cache.config;
+
+import com.typesafe.config.Config;
+
+public class CacheConfig {
+    public final long capacityBytes;
+    public final int shards;
+
+    public CacheConfig(Config config) {
+        this.capacityBytes = config.getLong("capacity.bytes");
+        this.shards = config.getInt("shards");
+    }
+}
@@ -0,0 +1,313 @@
+package kiwi.core.storage.bitcask.log;
+
+import kiwi.core.common.Bytes;
+import kiwi.core.error.KiwiReadException;
+import kiwi.core.error.KiwiWriteException;
+import kiwi.core.storage.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Blob files holding large values separated from the log.
+ *
+ * <p>Records of large values hold a {@link BlobPointer} instead of the value, so compaction
+ * copies pointers instead of values. Values are appended to the active blob file, which is
+ * sealed when it reaches the configured size. Blob files are named by a random id, so files
+ * copied from another store keep their names.</p>
+ *
+ * <p>Blob files are only appended to, and are deleted as a whole by compaction once their live
+ * values are copied to the active blob file.</p>
+ */
+public class BlobLog implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(BlobLog.class);
+
+    public static final String EXTENSION = ".blob";
+
+    private static final String PREFIX = "blob-";
+
+    private final Path dir;
+    private final long fileBytes;
+    private final boolean syncWrites;
+
+    // Guards the active blob file and pending writes. A lock instead of the monitor, so virtual
+    // threads writing values under it do not pin their carrier thread.
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Active blob file. Guarded by lock.
+    private long activeId;
+    private FileChannel activeChannel;
+    private long activePosition;
+
+    // Writes whose pointers are not appended to the log yet, by file id. Files with pending
+    // writes are never collected.
+    private final Map<Long, Integer> pendingWrites = new HashMap<>();
+
+    private final Map<Long, FileChannel> readers = new ConcurrentHashMap<>();
+
+    /**
+     * @param fileBytes  the size at which the active blob file is sealed
+     * @param syncWrites whether values are synced before their pointers are appended to the log
+     */
+    public BlobLog(Path dir, long fileBytes, boolean syncWrites) {
+        this.dir = dir;
+        this.fileBytes = fileBytes;
+        this.syncWrites = syncWrites;
+    }
+
+    public static boolean isBlobFile(Path file) {
+        String fileName = file.getFileName().toString();
+        return fileName.startsWith(PREFIX) && fileName.endsWith(EXTENSION);
+    }
+
+    public static long fileId(Path file) {
+        String fileName = file.getFileName().toString();
+        return Long.parseUnsignedLong(fileName.substring(PREFIX.length(), fileName.indexOf('.')), 16);
+    }
+
+    Path file(long fileId) {
+        return dir.resolve(String.format(Locale.ROOT, "%s%016x%s", PREFIX, fileId, EXTENSION));
+    }
+
+    /**
+     * Appends the value to the active blob file. The write stays pending until
+     * {@link #release(BlobPointer)} is called after the pointer is appended to the log.
+     */
+    public BlobPointer write(Bytes value) throws KiwiWriteException {
+        lock.lock();
+        try {
+            if (activeChannel == null || (activePosition > 0 && activePosition + value.size() > fileBytes)) {
+                roll();
+                long id;
+                do {
+                    id = ThreadLocalRandom.current().nextLong();
+                } while (Files.exists(file(id)));
+                activeId = id;
+                activeChannel = FileChannel.open(file(id), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                activePosition = 0;
+                logger.info("Opened new blob file {}", file(id).getFileName());
+            }
+
+            ByteBuffer buffer = value.toByteBuffer();
+            long position = activePosition;
+            while (buffer.hasRemaining()) {
+                activeChannel.write(buffer, position + buffer.position());
+            }
+            if (syncWrites) {
+                activeChannel.force(false);
+            }
+            activePosition += value.size();
+            pendingWrites.merge(activeId, 1, Integer::sum);
+            return new BlobPointer(activeId, position, value.size(), BlobPointer.checksum(value));
+        } catch (IOException ex) {
+            throw new KiwiWriteException("Failed to write blob file " + file(activeId), ex);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release(BlobPointer pointer) {
+        lock.lock();
+        try {
+            pendingWrites.computeIfPresent(pointer.fileId(), (id, count) -> count > 1 ? count - 1 : null);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Seals the active blob file. The next write opens a new one.
+     */
+    public void roll() throws KiwiWriteException {
+        lock.lock();
+        try {
+            if (activeChannel == null) {
+                return;
+            }
+            activeChannel.force(true);
+            activeChannel.close();
+            activeChannel = null;
+        } catch (IOException ex) {
+            throw new KiwiWriteException("Failed to seal blob file " + file(activeId), ex);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void sync() {
+        lock.lock();
+        try {
+            if (activeChannel != null) {
+                activeChannel.force(false);
+            }
+        } catch (IOException ex) {
+            logger.error("Failed to sync blob file {}", file(activeId), ex);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Bytes read(BlobPointer pointer) throws KiwiReadException {
+        // A file deleted by compaction is closed while it is read, so the read is retried once
+        // from the deleted file.
+        try {
+            return read(pointer, channel(pointer.fileId()));
+        } catch (ClosedChannelException | NoSuchFileException ex) {
+            try {
+                return read(pointer, channel(pointer.fileId()));
+            } catch (IOException retryEx) {
+                throw new KiwiReadException("Failed to read blob file " + file(pointer.fileId()), retryEx);
+            }
+        } catch (IOException ex) {
+            throw new KiwiReadException("Failed to read blob file " + file(pointer.fileId()), ex);
+        }
+    }
+
+    private Bytes read(BlobPointer pointer, FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(pointer.length());
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, pointer.position() + buffer.position()) < 0) {
+                throw new KiwiReadException("Unexpected end of blob file " + file(pointer.fileId()));
+            }
+        }
+        Bytes value = Bytes.wrap(buffer.array());
+        if (BlobPointer.checksum(value) != pointer.checksum()) {
+            throw new KiwiReadException("Checksum mismatch in blob file " + file(pointer.fileId()));
+        }
+        return value;
+    }
+
+    private FileChannel channel(long fileId) throws IOException {
+        FileChannel channel = readers.get(fileId);
+        if (channel != null && channel.isOpen()) {
+            return channel;
+        }
+        synchronized (readers) {
+            channel = readers.get(fileId);
+            if (channel == null || !channel.isOpen()) {
+                Path file = file(fileId);
+                if (!Files.exists(file)) {
+                    file = file.resolveSibling(file.getFileName() + ".deleted");
+                }
+                channel = FileChannel.open(file, StandardOpenOption.READ);
+                readers.put(fileId, channel);
+            }
+            return channel;
+        }
+    }
+
+    public long files() {
+        return listFiles().count();
+    }
+
+    public long bytes() {
+        return listFiles().mapToLong(path -> {
+            try {
+                return Files.size(path);
+            } catch (IOException ex) {
+                // Deleted by compaction while it is listed.
+                return 0;
+            }
+        }).sum();
+    }
+
+    private Stream<Path> listFiles() {
+        try (Stream<Path> paths = Files.list(dir)) {
+            return paths.filter(BlobLog::isBlobFile).toList().stream();
+        } catch (IOException ex) {
+            logger.debug("Failed to list blob files", ex);
+            return Stream.empty();
+        }
+    }
+
+    /**
+     * Returns sizes of sealed blob files without pending writes, by file id.
+     */
+    public Map<Long, Long> sealedFiles() {
+        lock.lock();
+        try {
+            Map<Long, Long> files = new HashMap<>();
+            try (Stream<Path> paths = Files.list(dir)) {
+                for (Path path : paths.filter(BlobLog::isBlobFile).toList()) {
+                    long id = fileId(path);
+                    if ((activeChannel == null || id != activeId) && !pendingWrites.containsKey(id)) {
+                        files.put(id, Files.size(path));
+                    }
+                }
+            } catch (IOException ex) {
+                logger.warn("Failed to list blob files", ex);
+            }
+            return files;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns names of sealed blob files, e.g. for a checkpoint taken after {@link #roll()}.
+     */
+    public Set<Path> sealedFilePaths() {
+        lock.lock();
+        try {
+            Set<Path> files = new HashSet<>();
+            for (long id : sealedFiles().keySet()) {
+                files.add(file(id));
+            }
+            return files;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks a sealed blob file as deleted. The log cleaner deletes it with deleted segments.
+     */
+    public void delete(long fileId) {
+        Path file = file(fileId);
+        Utils.renameFile(file, file.resolveSibling(file.getFileName() + ".deleted"));
+        FileChannel channel = readers.remove(fileId);
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                logger.warn("Failed to close blob file {}", file, ex);
+            }
+        }
+        logger.info("Marked blob file {} for deletion", file.getFileName());
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            roll();
+            for (FileChannel channel : readers.values()) {
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                    logger.warn("Failed to close blob file", ex);
+                }
+            }
+            readers.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package kiwi.core.storage.bitcask.log;
+
+import kiwi.core.common.Bytes;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * Location of a value stored in a blob file. Records of separated values hold the pointer as
+ * their value.
+ *
+ * <p>Pointer format: [magic:8][fileId:8][position:8][length:4][checksum:8]</p>
+ *
+ * <p>Values that look like a pointer are always written to a blob file, so a record value with
+ * the pointer size and magic is always a pointer.</p>
+ */
+public record BlobPointer(long fileId, long position, int length, long checksum) {
+    public static final int BYTES = 3 * Long.BYTES + Integer.BYTES + Long.BYTES;
+
+    private static final long MAGIC = 0x4B495749424C4F42L; // KIWIBLOB
+
+    public static boolean isPointer(Bytes value) {
+        return value.size() == BYTES && value.toByteBuffer().getLong() == MAGIC;
+    }
+
+    public static BlobPointer fromBytes(Bytes value) {
+        ByteBuffer buffer = value.toByteBuffer();
+        if (value.size() != BYTES || buffer.getLong() != MAGIC) {
+            throw new IllegalArgumentException("Value is not a blob pointer");
+        }
+        return new BlobPointer(buffer.getLong(), buffer.getLong(), buffer.getInt(), buffer.getLong());
+    }
+
+    public Bytes toBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(BYTES);
+        buffer.putLong(MAGIC);
+        buffer.putLong(fileId);
+        buffer.putLong(position);
+        buffer.putInt(length);
+        buffer.putLong(checksum);
+        return Bytes.wrap(buffer.array());
+    }
+
+    static long checksum(Bytes value) {
+        CRC32 crc = new CRC32();
+        crc.update(value.toByteBuffer());
+        return crc.getValue();
+    }
+}
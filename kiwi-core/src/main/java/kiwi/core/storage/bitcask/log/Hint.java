@@ -14,7 +14,7 @@ public record Hint(Header header, long valuePosition, Bytes key) {
         ByteBuffer buffer = ByteBuffer.allocate(size());
         buffer.put(header.toByteBuffer());
         buffer.putLong(valuePosition);
-        buffer.put(key.get());
+        key.writeTo(buffer);
         buffer.rewind();
         return buffer;
     }
@@ -3,8 +3,11 @@ package kiwi.core.storage.bitcask.log;
 import kiwi.core.common.Bytes;
 import kiwi.core.common.NamedThreadFactory;
 import kiwi.core.error.KiwiReadException;
+import kiwi.core.metrics.LatencyHistogram;
+import kiwi.core.metrics.Metric;
 import kiwi.core.storage.Utils;
 import kiwi.core.storage.bitcask.KeyDir;
+import kiwi.core.storage.bitcask.SegmentIndex;
 import kiwi.core.storage.bitcask.ValueReference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -12,10 +15,15 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Clock;
 import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
 import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -24,6 +32,9 @@ public class LogCleaner implements AutoCloseable {
 
     private static final double JITTER = 0.3;
 
+    // Marks a segment with corrupt records, see corruptSegments.
+    static final String CORRUPT_EXTENSION = ".corrupt";
+
     private final Path logDir;
     private final KeyDir keyDir;
     private final Supplier<LogSegment> activeSegmentSupplier;
@@ -32,8 +43,73 @@ public class LogCleaner implements AutoCloseable {
     private final long compactionSegmentMinBytes;
     private final long logSegmentBytes;
     private final int threads;
+    private final LogSegmentPool segmentPool;
     private final ScheduledExecutorService scheduler;
 
+    private final LongAdder compactionRuns = new LongAdder();
+    private final LongAdder compactedSegments = new LongAdder();
+    private final LongAdder reclaimedBytes = new LongAdder();
+    private final LatencyHistogram compactionDuration = new LatencyHistogram();
+    private final LongAdder collectedBlobFiles = new LongAdder();
+    private final LongAdder rewrittenBlobBytes = new LongAdder();
+    private final LongAdder coldRuns = new LongAdder();
+    private final LongAdder expiredSegments = new LongAdder();
+    private final LongAdder expiredBytes = new LongAdder();
+    private final LongAdder corruptRecords = new LongAdder();
+    // Segments holding records that failed their checksum. They are kept and never compacted
+    // again, so their valid records are not copied over and over. A marker file next to the
+    // segment keeps them quarantined across restarts.
+    private final Set<String> corruptSegments = ConcurrentHashMap.newKeySet();
+
+    // Compaction appends records and switching epochs replaces the active segment under this lock,
+    // so compaction never writes flushed records into segments of a newer epoch.
+    private final Object epochLock = new Object();
+    private long epoch;
+    // First segment of the current epoch. Older segments are obsolete.
+    private volatile String epochSegmentName;
+
+    // Compaction runs and renames of obsolete segments hold this lock. Checkpoints hold it while
+    // they list segments, so they never see a partially written compacted segment.
+    private final Object compactionLock = new Object();
+
+    // Segments copied from checkpoints by name. Pinned files are neither deleted nor recycled
+    // after compaction marks them as deleted.
+    private final Map<String, Integer> pinnedSegments = new HashMap<>();
+
+    // Dirty ratios of segments checked by the last compaction run.
+    // Replaced as a whole so readers never see a partially built map.
+    private volatile Map<String, Double> dirtyRatios = Map.of();
+
+    // Set when keys are evicted from the keydir, see useSegmentIndexes.
+    private ToLongFunction<Bytes> indexedTimestamp;
+    private Predicate<Path> compactable = path -> true;
+    private BiConsumer<List<LogSegment>, List<LogSegment>> compactionListener = (compacted, replaced) -> {
+    };
+
+    // Set when large values are separated into blob files, see useBlobLog.
+    private BlobLog blobLog;
+    private double blobMinLiveRatio;
+
+    // Set when segments are split into a hot and a cold tier, see useColdTier.
+    private final SegmentGenerations generations;
+    private int coldGeneration;
+    private double coldMinDirtyRatio;
+    private long coldIntervalNanos;
+    private long lastColdRunNanos;
+    private boolean coldRunDone;
+    private volatile int coldSegments;
+
+    // Set when records with TTL are bucketed by expiry, see useExpiryBuckets.
+    private long expiryBucketMillis;
+    private Clock clock = Clock.systemUTC();
+    // Expiry of sealed segments by name. Sealed segments never change, so it is read once.
+    private final Map<String, SegmentExpiry> expiries = new ConcurrentHashMap<>();
+
+    // Sealed segments shared with the store, see useSegmentRegistry.
+    private SegmentRegistry segmentRegistry = SegmentRegistry.unbounded();
+    // Segments held by the compaction run in progress. Guarded by compactionLock.
+    private final List<LogSegment> acquiredSegments = new ArrayList<>();
+
     public LogCleaner(
             Path logDir,
             KeyDir keyDir,
@@ -43,6 +119,20 @@ public class LogCleaner implements AutoCloseable {
             long compactionSegmentMinBytes,
             long logSegmentBytes,
             int threads) {
+        this(logDir, keyDir, activeSegmentSupplier, segmentNameGenerator, minDirtyRatio, compactionSegmentMinBytes,
+                logSegmentBytes, threads, LogSegmentPool.disabled(logDir));
+    }
+
+    public LogCleaner(
+            Path logDir,
+            KeyDir keyDir,
+            Supplier<LogSegment> activeSegmentSupplier,
+            LogSegmentNameGenerator segmentNameGenerator,
+            double minDirtyRatio,
+            long compactionSegmentMinBytes,
+            long logSegmentBytes,
+            int threads,
+            LogSegmentPool segmentPool) {
         this.logDir = logDir;
         this.keyDir = keyDir;
         this.activeSegmentSupplier = activeSegmentSupplier;
@@ -51,6 +141,9 @@ public class LogCleaner implements AutoCloseable {
         this.compactionSegmentMinBytes = compactionSegmentMinBytes;
         this.logSegmentBytes = logSegmentBytes;
         this.threads = threads;
+        this.segmentPool = segmentPool;
+        this.generations = SegmentGenerations.open(logDir);
+        this.corruptSegments.addAll(readCorruptSegments(logDir));
 
         this.scheduler = Executors.newSingleThreadScheduledExecutor(NamedThreadFactory.create("cleaner"));
 
@@ -71,6 +164,107 @@ public class LogCleaner implements AutoCloseable {
         scheduler.scheduleAtFixedRate(this::cleanLog, 0, cleanIntervalSeconds, TimeUnit.SECONDS);
     }
 
+    /**
+     * Compacts segments whose keys may be missing from the keydir. Must be called before
+     * {@link #start(Duration)}.
+     *
+     * @param indexedTimestamp   returns the timestamp of the live record of a key missing from the
+     *                           keydir, or {@link Long#MAX_VALUE} if the key has no live record
+     * @param compactable        selects segments whose keys are all known to indexedTimestamp
+     * @param compactionListener called with the compacted segments and the segments they replace,
+     *                           before the replaced segments are marked as deleted
+     */
+    public void useSegmentIndexes(ToLongFunction<Bytes> indexedTimestamp, Predicate<Path> compactable,
+                                  BiConsumer<List<LogSegment>, List<LogSegment>> compactionListener) {
+        this.indexedTimestamp = indexedTimestamp;
+        this.compactable = compactable;
+        this.compactionListener = compactionListener;
+    }
+
+    /**
+     * Collects blob files of separated values. Must be called before {@link #start(Duration)}.
+     *
+     * <p>Sealed blob files with a smaller ratio of live values are collected: segments with live
+     * pointers into them are compacted, their values are copied to the active blob file, and the
+     * blob files are deleted.</p>
+     */
+    public void useBlobLog(BlobLog blobLog, double minLiveRatio) {
+        this.blobLog = blobLog;
+        this.blobMinLiveRatio = minLiveRatio;
+    }
+
+    /**
+     * Splits sealed segments into a hot and a cold tier. Must be called before
+     * {@link #start(Duration)}.
+     *
+     * <p>Compaction writes records into segments of the next generation, separately for each
+     * generation, so records that survived many compactions are not merged with fresh records.
+     * Segments of the cold generation are only checked once per interval, and are compacted with
+     * their own minimum dirty ratio, so long-lived records are not copied on every run.</p>
+     *
+     * @param generation    number of compactions after which segments are cold
+     * @param minDirtyRatio minimum dirty ratio of cold segments to compact
+     * @param interval      how often cold segments are checked
+     */
+    public void useColdTier(int generation, double minDirtyRatio, Duration interval) {
+        this.coldGeneration = generation;
+        this.coldMinDirtyRatio = minDirtyRatio;
+        this.coldIntervalNanos = interval.toNanos();
+    }
+
+    /**
+     * Writes records with TTL into compacted segments by expiry window, apart from records without
+     * TTL, so the compacted segments expire as a whole. Must be called before
+     * {@link #start(Duration)}.
+     *
+     * <p>Sealed segments whose records all expired are deleted without being compacted, once no
+     * segment with a live record older than their newest record is left. Older records of their
+     * keys can then only be expired ones, so deleting them does not bring back older values.</p>
+     *
+     * @param window size of the expiry windows, zero to keep records with TTL together with other
+     *               records
+     * @param clock  clock that records expire by
+     */
+    public void useExpiryBuckets(Duration window, Clock clock) {
+        this.expiryBucketMillis = window.toMillis();
+        this.clock = clock;
+    }
+
+    /**
+     * Reads sealed segments through the registry shared with the store, so compaction does not
+     * open segment files of its own. Must be called before {@link #start(Duration)}.
+     *
+     * <p>Segments replaced by compaction are retired, and their files are deleted only after
+     * every reader holding them released them.</p>
+     */
+    public void useSegmentRegistry(SegmentRegistry segmentRegistry) {
+        this.segmentRegistry = segmentRegistry;
+    }
+
+    // Must be called with compactionLock held. Segments are released when the run ends.
+    private LogSegment acquire(Path path) {
+        LogSegment segment = segmentRegistry.acquire(path);
+        acquiredSegments.add(segment);
+        return segment;
+    }
+
+    private long expiryBucket(Record record) {
+        long ttl = record.header().ttl();
+        return expiryBucketMillis > 0 && ttl > 0 ? ttl / expiryBucketMillis : -1;
+    }
+
+    private boolean isCold(String segmentName) {
+        return coldGeneration > 0 && generations.get(segmentName) >= coldGeneration;
+    }
+
+    /**
+     * Returns the generation of compacted segments holding records of the segment. Records of all
+     * segments are written to the same compacted segments when there is no cold tier.
+     */
+    private int nextGeneration(LogSegment segment) {
+        return coldGeneration > 0 ? Math.min(generations.get(segment.name()) + 1, coldGeneration) : 0;
+    }
+
     private long intervalWithJitterSeconds(Duration interval) {
         long jitter = (long) (interval.toSeconds() * JITTER);
         // Shift the interval by a random amount between -jitter and +jitter.
@@ -78,84 +272,547 @@ public class LogCleaner implements AutoCloseable {
     }
 
     void compactLog() {
+        long start = System.nanoTime();
+        try {
+            synchronized (compactionLock) {
+                try {
+                    doCompactLog();
+                } finally {
+                    // Segments replaced by the run are closed when they are released.
+                    acquiredSegments.forEach(segmentRegistry::release);
+                    acquiredSegments.clear();
+                }
+            }
+        } finally {
+            compactionRuns.increment();
+            compactionDuration.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Starts a new epoch, e.g. when the store is flushed.
+     *
+     * <p>The switch is run while compaction is paused and returns the name of the first segment of
+     * the new epoch. Compaction in progress is abandoned, and all older segments are deleted in the
+     * background.</p>
+     */
+    public void startEpoch(Supplier<String> epochSwitch) {
+        synchronized (epochLock) {
+            epochSegmentName = epochSwitch.get();
+            epoch++;
+        }
+
+        try {
+            scheduler.execute(() -> {
+                synchronized (compactionLock) {
+                    discardObsoleteSegments();
+                }
+                cleanLog();
+            });
+        } catch (RejectedExecutionException ex) {
+            logger.warn("Log cleaner is shut down. Obsolete segments are deleted on the next start.");
+        }
+    }
+
+    /**
+     * Runs the action while compaction is paused. Waits for a compaction run in progress to end.
+     */
+    public <T> T pauseCompaction(Supplier<T> action) {
+        synchronized (compactionLock) {
+            return action.get();
+        }
+    }
+
+    /**
+     * Keeps the files of the given segments on disk until they are unpinned. Compaction can still
+     * mark pinned segments as deleted, so readers of pinned files fall back to the deleted name.
+     */
+    public void pin(Collection<String> segmentNames) {
+        synchronized (pinnedSegments) {
+            for (String segmentName : segmentNames) {
+                pinnedSegments.merge(segmentName, 1, Integer::sum);
+            }
+        }
+    }
+
+    public void unpin(Collection<String> segmentNames) {
+        synchronized (pinnedSegments) {
+            for (String segmentName : segmentNames) {
+                pinnedSegments.computeIfPresent(segmentName, (name, count) -> count > 1 ? count - 1 : null);
+            }
+        }
+    }
+
+    private boolean isPinned(Path file) {
+        synchronized (pinnedSegments) {
+            return pinnedSegments.containsKey(segmentName(file));
+        }
+    }
+
+    private void discardObsoleteSegments() {
+        String epochSegmentName = this.epochSegmentName;
+        if (epochSegmentName == null) {
+            return;
+        }
+
+        try (Stream<Path> paths = Files.list(logDir)) {
+            List<Path> obsoleteFiles = paths.filter(Files::isRegularFile)
+                    .filter(path -> {
+                        String fileName = path.getFileName().toString();
+                        return fileName.endsWith(LogSegment.EXTENSION)
+                                || fileName.endsWith(HintSegment.EXTENSION)
+                                || fileName.endsWith(HintSegment.PARTIAL_EXTENSION)
+                                || fileName.endsWith(SegmentIndex.EXTENSION)
+                                || fileName.endsWith(SegmentIndex.PARTIAL_EXTENSION)
+                                || fileName.endsWith(SegmentExpiry.EXTENSION)
+                                || fileName.endsWith(CORRUPT_EXTENSION);
+                    })
+                    .filter(this::isObsolete)
+                    .toList();
+
+            // Hint files go first, the same as in compaction.
+            for (Path file : obsoleteFiles) {
+                if (!file.getFileName().toString().endsWith(LogSegment.EXTENSION)) {
+                    Utils.renameFile(file, file.resolveSibling(file.getFileName() + ".deleted"));
+                }
+            }
+            for (Path file : obsoleteFiles) {
+                if (file.getFileName().toString().endsWith(LogSegment.EXTENSION)) {
+                    Utils.renameFile(file, file.resolveSibling(file.getFileName() + ".deleted"));
+                    segmentRegistry.retire(file);
+                    logger.info("Marked log segment {} from previous epoch for deletion", file);
+                }
+            }
+            corruptSegments.removeIf(name -> name.compareTo(epochSegmentName) < 0);
+        } catch (IOException ex) {
+            logger.warn("Failed to discard segments older than {}", epochSegmentName, ex);
+        }
+    }
+
+    private void doCompactLog() {
         logger.info("Log compaction started");
 
+        long startEpoch;
+        synchronized (epochLock) {
+            startEpoch = epoch;
+        }
+        discardObsoleteSegments();
+        deleteExpiredSegments();
+
         Map<Bytes, Long> keyTimestampMap = buildKeyTimestampMap();
-        List<LogSegment> dirtySegments = findDirtySegments(keyTimestampMap);
+        ToLongFunction<Bytes> indexedTimestamp = this.indexedTimestamp;
+        ToLongFunction<Bytes> liveTimestamp = key -> {
+            Long timestamp = keyTimestampMap.get(key);
+            if (timestamp != null) {
+                return timestamp;
+            }
+            return indexedTimestamp != null ? indexedTimestamp.applyAsLong(key) : Long.MAX_VALUE;
+        };
+        List<LogSegment> dirtySegments = findDirtySegments(liveTimestamp);
+
+        BlobGarbage blobGarbage = blobLog != null ? findBlobGarbage(liveTimestamp) : BlobGarbage.NONE;
+        dirtySegments = withBlobSegments(dirtySegments, blobGarbage.segments());
 
         if (dirtySegments.isEmpty()) {
+            // Blob files without live values are not referenced by segments to compact.
+            deleteBlobFiles(blobGarbage.files());
             logger.info("No dirty segments found");
             return;
         }
 
+        long dirtyBytes = 0;
+        long compactedBytes = 0;
+
         List<HintSegment> hintSegments = new ArrayList<>();
-        LogSegment newLogSegment = null;
-        HintSegment newHintSegment = null;
+        List<LogSegment> newLogSegments = new ArrayList<>();
+        Map<String, Integer> newGenerations = new HashMap<>();
+        // Compacted segments being written, by generation and expiry window.
+        Map<OutputKey, CompactedSegment> openSegments = new HashMap<>();
+
+        boolean abandoned = false;
 
+        compaction:
         for (LogSegment dirtySegment : dirtySegments) {
-            for (Record record : dirtySegment.getActiveRecords(keyTimestampMap)) {
-                if (newLogSegment == null || newLogSegment.size() >= logSegmentBytes) {
-                    // When new segment is full, fsync and close log and hint channels.
-                    if (newLogSegment != null) {
-                        newLogSegment.close();
-                        newHintSegment.close();
+            int generation = nextGeneration(dirtySegment);
+            for (Record activeRecord : dirtySegment.getActiveRecords(liveTimestamp)) {
+                if (!activeRecord.isValidChecksum()) {
+                    corruptRecords.increment();
+                    quarantine(dirtySegment);
+                    logger.error("Checksum mismatch of key {} in log segment {}. The segment is kept.",
+                            activeRecord.key(), dirtySegment.name());
+                    continue;
+                }
+                Record record = activeRecord;
+                BlobPointer movedBlob = null;
+                if (!blobGarbage.files().isEmpty() && BlobPointer.isPointer(record.value())) {
+                    BlobPointer pointer = BlobPointer.fromBytes(record.value());
+                    if (blobGarbage.files().contains(pointer.fileId())) {
+                        // Values of collected blob files are moved to the active blob file.
+                        movedBlob = blobLog.write(blobLog.read(pointer));
+                        rewrittenBlobBytes.add(pointer.length());
+                        record = Record.of(record.key(), movedBlob.toBytes(), record.header().timestamp(), record.header().ttl());
                     }
+                }
 
-                    Path logFile = segmentNameGenerator.next();
-                    newLogSegment = LogSegment.open(logFile);
+                synchronized (epochLock) {
+                    if (epoch != startEpoch) {
+                        if (movedBlob != null) {
+                            blobLog.release(movedBlob);
+                        }
+                        abandoned = true;
+                        break compaction;
+                    }
 
-                    Path hintFile = logFile.resolveSibling(newLogSegment.name() + HintSegment.PARTIAL_EXTENSION);
-                    newHintSegment = HintSegment.open(hintFile);
-                    hintSegments.add(newHintSegment);
+                    OutputKey outputKey = new OutputKey(generation, expiryBucket(record));
+                    CompactedSegment openSegment = openSegments.get(outputKey);
+                    if (openSegment == null || openSegment.log().size() >= logSegmentBytes) {
+                        // When new segment is full, fsync and seal log and close hint channels.
+                        // The keydir points to the new segment, so it stays open for reads.
+                        if (openSegment != null) {
+                            compactedBytes += openSegment.seal();
+                        }
 
-                    logger.info("Opened new compacted log segment {}", newLogSegment.name());
-                }
+                        Path logFile = segmentNameGenerator.next();
+                        LogSegment logSegment = segmentPool.allocate(logFile);
+                        newLogSegments.add(logSegment);
+                        newGenerations.put(logSegment.name(), generation);
+
+                        Path hintFile = logFile.resolveSibling(logSegment.name() + HintSegment.PARTIAL_EXTENSION);
+                        HintSegment hintSegment = HintSegment.open(hintFile);
+                        hintSegments.add(hintSegment);
 
-                newLogSegment.append(record);
+                        openSegment = new CompactedSegment(logSegment, hintSegment);
+                        openSegments.put(outputKey, openSegment);
+                        logger.info("Opened new compacted log segment {} of generation {}", logSegment.name(), generation);
+                    }
+                    LogSegment newLogSegment = openSegment.log();
+                    HintSegment newHintSegment = openSegment.hint();
+
+                    newLogSegment.append(record);
+                    if (movedBlob != null) {
+                        blobLog.release(movedBlob);
+                    }
 
-                long valuePosition = newLogSegment.position() - record.valueSize();
-                newHintSegment.append(new Hint(record.header(), valuePosition, record.key()));
+                    long valuePosition = newLogSegment.position() - record.valueSize();
+                    newHintSegment.append(new Hint(record.header(), valuePosition, record.key()));
 
-                // Prevent keydir from being updated with stale values.
-                ValueReference currentValue = keyDir.get(record.key());
-                if (currentValue != null && currentValue.timestamp() <= record.header().timestamp()) {
-                    keyDir.update(record, newLogSegment);
+                    // Prevent keydir from being updated with stale values.
+                    ValueReference currentValue = keyDir.get(record.key());
+                    if (currentValue != null && currentValue.timestamp() <= record.header().timestamp()) {
+                        keyDir.update(record, newLogSegment);
+                    }
                 }
             }
         }
 
-        if (newLogSegment != null) {
-            newLogSegment.close();
-            newHintSegment.close();
+        if (abandoned) {
+            // Segments written so far are older than the new epoch and are discarded with the
+            // rest of the previous epoch.
+            for (CompactedSegment openSegment : openSegments.values()) {
+                openSegment.log().close();
+                openSegment.hint().close();
+            }
+            logger.info("Log compaction abandoned because a new epoch started");
+            return;
         }
 
-        for (LogSegment dirtySegment : dirtySegments) {
-            // Hint files are first marked as deleted before log files are deleted to prevent data loss.
-            // If process fails after hint file is marked as deleted but before log file is deleted,
-            // data can be recovered.
-            String hintFileName = dirtySegment.name() + HintSegment.EXTENSION;
-            Path hintFile = dirtySegment.file().resolveSibling(hintFileName);
-            if (Files.exists(hintFile)) {
-                Path deletedHintFile = hintFile.resolveSibling(hintFileName + ".deleted");
-                Utils.renameFile(hintFile, deletedHintFile);
-            }
+        for (CompactedSegment openSegment : openSegments.values()) {
+            compactedBytes += openSegment.seal();
+        }
+
+        if (blobLog != null) {
+            // Moved values are durable before the segments pointing to their old files are deleted.
+            blobLog.sync();
+        }
 
-            dirtySegment.markAsDeleted();
+        // Valid records of corrupt segments were copied, but the segments stay for inspection.
+        List<LogSegment> corrupt = dirtySegments.stream()
+                .filter(segment -> corruptSegments.contains(segment.name()))
+                .toList();
+        dirtySegments = dirtySegments.stream()
+                .filter(segment -> !corruptSegments.contains(segment.name()))
+                .toList();
+
+        // Compacted segments are read through the registry from now on.
+        newLogSegments.replaceAll(segmentRegistry::adopt);
+        compactionListener.accept(newLogSegments, dirtySegments);
+
+        for (LogSegment dirtySegment : dirtySegments) {
+            dirtyBytes += dirtySegment.size();
+            markAsDeleted(dirtySegment);
         }
 
         for (HintSegment hintSegment : hintSegments) {
             hintSegment.commit();
         }
 
+        if (coldGeneration > 0) {
+            generations.update(newGenerations, dirtySegments.stream().map(LogSegment::name).toList());
+        }
+
+        if (corrupt.isEmpty()) {
+            deleteBlobFiles(blobGarbage.files());
+        } else {
+            // Corrupt segments may still point to values of the collected blob files.
+            logger.warn("Kept {} corrupt log segments and their blob files", corrupt.size());
+        }
+
+        compactedSegments.add(dirtySegments.size());
+        reclaimedBytes.add(Math.max(0, dirtyBytes - compactedBytes));
+
         logger.info("Log compaction ended");
     }
 
+    /**
+     * Keeps the segment from being compacted or deleted again, also after a restart. A lost marker
+     * only makes the next compaction copy the valid records of the segment once more.
+     */
+    private void quarantine(LogSegment segment) {
+        if (!corruptSegments.add(segment.name())) {
+            return;
+        }
+        Path marker = segment.file().resolveSibling(segment.name() + CORRUPT_EXTENSION);
+        try {
+            Files.write(marker, new byte[0]);
+        } catch (IOException ex) {
+            logger.warn("Failed to mark log segment {} as corrupt", segment.name(), ex);
+        }
+    }
+
+    private static Set<String> readCorruptSegments(Path logDir) {
+        if (!Files.isDirectory(logDir)) {
+            return Set.of();
+        }
+        try (Stream<Path> paths = Files.list(logDir)) {
+            return paths.filter(path -> path.getFileName().toString().endsWith(CORRUPT_EXTENSION))
+                    .map(LogCleaner::segmentName)
+                    .collect(Collectors.toSet());
+        } catch (IOException ex) {
+            logger.warn("Failed to read corrupt segments of {}", logDir, ex);
+            return Set.of();
+        }
+    }
+
+    private static void markAsDeleted(LogSegment segment) {
+        // Hint files are first marked as deleted before log files are deleted to prevent data loss.
+        // If process fails after hint file is marked as deleted but before log file is deleted,
+        // data can be recovered.
+        String hintFileName = segment.name() + HintSegment.EXTENSION;
+        Path hintFile = segment.file().resolveSibling(hintFileName);
+        if (Files.exists(hintFile)) {
+            Path deletedHintFile = hintFile.resolveSibling(hintFileName + ".deleted");
+            Utils.renameFile(hintFile, deletedHintFile);
+        }
+        Path indexFile = segment.file().resolveSibling(segment.name() + SegmentIndex.EXTENSION);
+        if (Files.exists(indexFile)) {
+            Utils.renameFile(indexFile, indexFile.resolveSibling(indexFile.getFileName() + ".deleted"));
+        }
+        Path expiryFile = SegmentExpiry.file(segment.file());
+        if (Files.exists(expiryFile)) {
+            Utils.renameFile(expiryFile, expiryFile.resolveSibling(expiryFile.getFileName() + ".deleted"));
+        }
+
+        segment.markAsDeleted();
+    }
+
+    /**
+     * Deletes sealed segments whose entries all expired, using the expiry saved when they were
+     * sealed instead of reading their records. Segments
+     * are only deleted while every segment that is kept has newer entries, so a deleted entry never
+     * hides a live older value of its key.
+     */
+    private void deleteExpiredSegments() {
+        long now = clock.millis();
+        LogSegment activeSegment = activeSegmentSupplier.get();
+        Map<Path, SegmentExpiry> segmentExpiries = new TreeMap<>();
+        try (Stream<Path> paths = Files.list(logDir)) {
+            List<Path> segmentPaths = paths.filter(Files::isRegularFile)
+                    .filter(path -> path.getFileName().toString().endsWith(LogSegment.EXTENSION))
+                    .filter(path -> !isObsolete(path))
+                    .toList();
+            for (Path path : segmentPaths) {
+                if (activeSegment.isSamePath(path)) {
+                    SegmentExpiry expiry = activeSegment.expiry();
+                    segmentExpiries.put(path, expiry != null
+                            ? expiry
+                            : SegmentExpiry.of(activeSegment.latestEntries().values()));
+                } else {
+                    segmentExpiries.put(path, expiries.computeIfAbsent(segmentName(path), name -> sealedExpiry(path)));
+                }
+            }
+        } catch (IOException | KiwiReadException ex) {
+            logger.warn("Failed to find expired segments", ex);
+            return;
+        }
+        Set<String> segmentNames = segmentExpiries.keySet().stream().map(LogCleaner::segmentName).collect(Collectors.toSet());
+        expiries.keySet().retainAll(segmentNames);
+
+        // Older entries in expired segments are expired as well, so only live segments are kept
+        // because of their older entries.
+        long oldestLiveTimestamp = segmentExpiries.values().stream()
+                .filter(expiry -> !expiry.isExpired(now))
+                .mapToLong(SegmentExpiry::minTimestamp)
+                .min()
+                .orElse(Long.MAX_VALUE);
+
+        List<LogSegment> segments = new ArrayList<>();
+        segmentExpiries.forEach((path, expiry) -> {
+            if (expiry.isExpired(now)
+                    && expiry.maxTimestamp() < oldestLiveTimestamp
+                    && !activeSegment.isSamePath(path)
+                    && !segmentName(path).equals(epochSegmentName)
+                    && !corruptSegments.contains(segmentName(path))
+                    && compactable.test(path)) {
+                segments.add(acquire(path));
+            }
+        });
+        if (segments.isEmpty()) {
+            return;
+        }
+
+        compactionListener.accept(List.of(), segments);
+
+        Set<String> expiredNames = new HashSet<>();
+        for (LogSegment segment : segments) {
+            logger.info("Found expired segment {}", segment.name());
+            expiredNames.add(segment.name());
+            expiredBytes.add(segment.size());
+            markAsDeleted(segment);
+        }
+        expiredSegments.add(segments.size());
+
+        // Entries of the deleted segments are expired, and are removed from the keydir unless
+        // they were replaced in the meantime.
+        keyDir.entries()
+                .filter(entry -> expiredNames.contains(entry.getValue().segment().name()))
+                .toList()
+                .forEach(entry -> keyDir.remove(entry.getKey(), entry.getValue()));
+    }
+
+    /**
+     * Returns the expiry saved when the segment was sealed. Segments sealed without it, e.g.
+     * segments reopened after a crash, are scanned once and their expiry is saved.
+     */
+    private SegmentExpiry sealedExpiry(Path path) {
+        SegmentExpiry expiry = SegmentExpiry.read(path);
+        if (expiry == null) {
+            expiry = SegmentExpiry.of(acquire(path).latestEntries().values());
+            expiry.save(path);
+        }
+        return expiry;
+    }
+
+    /**
+     * Finds sealed blob files with a live ratio below the minimum, and the segments holding live
+     * pointers into them. Files referenced by the active segment or by segments that cannot be
+     * compacted are kept.
+     */
+    private BlobGarbage findBlobGarbage(ToLongFunction<Bytes> liveTimestamp) {
+        Map<Long, Long> sealedFiles = blobLog.sealedFiles();
+        if (sealedFiles.isEmpty()) {
+            return BlobGarbage.NONE;
+        }
+
+        Map<Long, Long> liveBytes = new HashMap<>();
+        Map<Long, Set<Path>> liveSegments = new HashMap<>();
+        Set<Long> keptFiles = new HashSet<>();
+        try (Stream<Path> paths = Files.list(logDir)) {
+            List<Path> segmentPaths = paths.filter(Files::isRegularFile)
+                    .filter(path -> path.getFileName().toString().endsWith(LogSegment.EXTENSION))
+                    .filter(path -> !isObsolete(path))
+                    .toList();
+            for (Path path : segmentPaths) {
+                LogSegment activeSegment = activeSegmentSupplier.get();
+                if (activeSegment.isSamePath(path)) {
+                    activeSegment.forEachBlobPointer(pointer -> keptFiles.add(pointer.fileId()));
+                    continue;
+                }
+                LogSegment segment = acquire(path);
+                // Pointers of corrupt segments are never moved, so their blob files are kept.
+                if (compactable.test(path) && !corruptSegments.contains(segmentName(path))) {
+                    segment.forEachLiveBlobPointer(liveTimestamp, pointer -> {
+                        liveBytes.merge(pointer.fileId(), (long) pointer.length(), Long::sum);
+                        liveSegments.computeIfAbsent(pointer.fileId(), id -> new HashSet<>()).add(path);
+                    });
+                } else {
+                    segment.forEachBlobPointer(pointer -> keptFiles.add(pointer.fileId()));
+                }
+            }
+        } catch (IOException | KiwiReadException ex) {
+            logger.warn("Failed to find blob files to collect", ex);
+            return BlobGarbage.NONE;
+        }
+
+        Set<Long> files = new HashSet<>();
+        Set<Path> segments = new HashSet<>();
+        sealedFiles.forEach((fileId, size) -> {
+            long live = liveBytes.getOrDefault(fileId, 0L);
+            if (!keptFiles.contains(fileId) && (size == 0 || (double) live / size < blobMinLiveRatio)) {
+                logger.info("Found blob file {} with live ratio {}", blobLog.file(fileId).getFileName(),
+                        String.format(Locale.ROOT, "%.4f", size == 0 ? 0.0 : (double) live / size));
+                files.add(fileId);
+                segments.addAll(liveSegments.getOrDefault(fileId, Set.of()));
+            }
+        });
+        return new BlobGarbage(files, segments);
+    }
+
+    private List<LogSegment> withBlobSegments(List<LogSegment> dirtySegments, Set<Path> blobSegments) {
+        if (blobSegments.isEmpty()) {
+            return dirtySegments;
+        }
+        Map<String, LogSegment> segments = new TreeMap<>();
+        for (LogSegment segment : dirtySegments) {
+            segments.put(segment.name(), segment);
+        }
+        for (Path path : blobSegments) {
+            String name = segmentName(path);
+            if (!segments.containsKey(name) && !corruptSegments.contains(name)) {
+                segments.put(name, acquire(path));
+            }
+        }
+        return List.copyOf(segments.values());
+    }
+
+    private void deleteBlobFiles(Set<Long> fileIds) {
+        for (long fileId : fileIds) {
+            blobLog.delete(fileId);
+        }
+        collectedBlobFiles.add(fileIds.size());
+    }
+
+    private record OutputKey(int generation, long expiryBucket) {
+    }
+
+    private record CompactedSegment(LogSegment log, HintSegment hint) {
+        /**
+         * Seals the log segment and closes the hint segment. Returns the size of the segment.
+         */
+        long seal() {
+            log.markAsReadOnly();
+            hint.close();
+            return log.size();
+        }
+    }
+
+    private record BlobGarbage(Set<Long> files, Set<Path> segments) {
+        static final BlobGarbage NONE = new BlobGarbage(Set.of(), Set.of());
+    }
+
     void cleanLog() {
-        try (Stream<Path> paths = Files.walk(logDir)) {
+        try (Stream<Path> paths = Files.list(logDir)) {
             paths.filter(Files::isRegularFile)
                     .filter(path -> path.getFileName().toString().endsWith(".deleted"))
+                    .filter(path -> !isPinned(path))
+                    .filter(path -> !segmentRegistry.isInUse(path))
                     .forEach(path -> {
                         try {
+                            segmentRegistry.forget(path);
+                            // Deleted log segments are reused for new segments when the pool has room.
+                            if (path.getFileName().toString().endsWith(LogSegment.EXTENSION + ".deleted")
+                                    && segmentPool.recycle(path)) {
+                                return;
+                            }
                             Files.deleteIfExists(path);
                             logger.info("Deleted marked segment {}", path);
                         } catch (IOException ex) {
@@ -168,25 +825,53 @@ public class LogCleaner implements AutoCloseable {
     }
 
     private Map<Bytes, Long> buildKeyTimestampMap() {
-        return keyDir.entrySet()
-                .stream()
+        return keyDir.entries()
                 .collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().timestamp()));
     }
 
-    private List<LogSegment> findDirtySegments(Map<Bytes, Long> keyTimestampMap) {
+    private List<LogSegment> findDirtySegments(ToLongFunction<Bytes> liveTimestamp) {
         ExecutorService executor = Executors.newFixedThreadPool(threads, NamedThreadFactory.create("compaction"));
 
+        Map<String, Double> ratios = new ConcurrentHashMap<>();
+        Map<String, Double> previousRatios = dirtyRatios;
+        boolean coldRun = isColdRunDue();
+        LongAdder cold = new LongAdder();
+
+        // Segments are acquired by the compaction threads, and released with the run.
+        Queue<LogSegment> segmentsToRelease = new ConcurrentLinkedQueue<>();
         List<LogSegment> dirtySegments = new ArrayList<>();
-        try (Stream<Path> paths = Files.walk(logDir)) {
+        try (Stream<Path> paths = Files.list(logDir)) {
             dirtySegments = paths.filter(Files::isRegularFile)
                     .filter(path -> path.getFileName().toString().endsWith(".log"))
                     .filter(path -> !activeSegmentSupplier.get().isSamePath(path))
+                    .filter(path -> !isObsolete(path))
+                    .filter(path -> !corruptSegments.contains(segmentName(path)))
+                    .filter(compactable)
+                    .filter(path -> {
+                        if (!isCold(segmentName(path))) {
+                            return true;
+                        }
+                        cold.increment();
+                        if (!coldRun) {
+                            // Cold segments are only checked once per cold interval.
+                            Double previousRatio = previousRatios.get(segmentName(path));
+                            if (previousRatio != null) {
+                                ratios.put(segmentName(path), previousRatio);
+                            }
+                            return false;
+                        }
+                        return true;
+                    })
                     .map(path -> executor.submit(() -> {
                         try {
-                            LogSegment segment = LogSegment.open(path, true);
-                            double ratio = segment.dirtyRatio(keyTimestampMap);
-                            if (ratio >= minDirtyRatio) {
-                                logger.info("Found segment {} with dirty ratio {}", segment.name(), String.format("%.4f", ratio));
+                            LogSegment segment = segmentRegistry.acquire(path);
+                            segmentsToRelease.add(segment);
+                            double ratio = segment.dirtyRatio(liveTimestamp);
+                            ratios.put(segment.name(), ratio);
+                            boolean isCold = isCold(segment.name());
+                            if (ratio >= (isCold ? coldMinDirtyRatio : minDirtyRatio)) {
+                                logger.info("Found {} segment {} with dirty ratio {}", isCold ? "cold" : "hot",
+                                        segment.name(), String.format(Locale.ROOT, "%.4f", ratio));
                                 return segment;
                             } else if (segment.size() < compactionSegmentMinBytes) {
                                 // Compact empty or almost empty segments.
@@ -216,6 +901,14 @@ public class LogCleaner implements AutoCloseable {
         }
 
         executor.shutdown();
+        acquiredSegments.addAll(segmentsToRelease);
+        dirtyRatios = Map.copyOf(ratios);
+        coldSegments = cold.intValue();
+        if (coldRun) {
+            lastColdRunNanos = System.nanoTime();
+            coldRunDone = true;
+            coldRuns.increment();
+        }
 
         // Prevents infinite compaction loop when only one dirty segment is found.
         if (dirtySegments.size() == 1 && dirtySegments.getFirst().size() < compactionSegmentMinBytes) {
@@ -226,6 +919,71 @@ public class LogCleaner implements AutoCloseable {
         return dirtySegments;
     }
 
+    private boolean isColdRunDue() {
+        return coldGeneration > 0 && (!coldRunDone || System.nanoTime() - lastColdRunNanos >= coldIntervalNanos);
+    }
+
+    /**
+     * Checks whether a segment or hint file belongs to a previous epoch.
+     */
+    public boolean isObsolete(Path file) {
+        String epochSegmentName = this.epochSegmentName;
+        if (epochSegmentName == null) {
+            return false;
+        }
+        return segmentName(file).compareTo(epochSegmentName) < 0;
+    }
+
+    private static String segmentName(Path file) {
+        String fileName = file.getFileName().toString();
+        int extension = fileName.indexOf('.');
+        return extension < 0 ? fileName : fileName.substring(0, extension);
+    }
+
+    /**
+     * Returns the number of records that failed their checksum when compaction copied them.
+     */
+    public long corruptRecords() {
+        return corruptRecords.sum();
+    }
+
+    public List<Metric> metrics() {
+        List<Metric.Sample> ratios = new ArrayList<>();
+        dirtyRatios.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey())
+                .forEach(entry -> ratios.add(Metric.Sample.of(
+                        "kiwi_segment_dirty_ratio", Map.of("segment", entry.getKey()), entry.getValue())));
+
+        return List.of(
+                Metric.counter("kiwi_compaction_runs_total",
+                        "Number of log compaction runs.", compactionRuns.sum()),
+                Metric.summary("kiwi_compaction_duration_seconds",
+                        "Duration of log compaction runs.", compactionDuration.snapshot()),
+                Metric.counter("kiwi_compaction_segments_total",
+                        "Number of dirty segments rewritten by compaction.", compactedSegments.sum()),
+                Metric.counter("kiwi_compaction_reclaimed_bytes_total",
+                        "Bytes reclaimed by compaction.", reclaimedBytes.sum()),
+                Metric.counter("kiwi_compaction_cold_runs_total",
+                        "Number of compaction runs that checked cold segments.", coldRuns.sum()),
+                Metric.gauge("kiwi_compaction_cold_segments",
+                        "Number of sealed segments in the cold tier, as of the last compaction run.", coldSegments),
+                Metric.counter("kiwi_compaction_expired_segments_total",
+                        "Number of expired segments deleted without compaction.", expiredSegments.sum()),
+                Metric.counter("kiwi_compaction_expired_bytes_total",
+                        "Bytes of expired segments deleted without compaction.", expiredBytes.sum()),
+                Metric.counter("kiwi_compaction_corrupt_records_total",
+                        "Number of records that failed their checksum when compaction copied them.", corruptRecords.sum()),
+                Metric.gauge("kiwi_compaction_corrupt_segments",
+                        "Number of segments kept by compaction because of corrupt records.", corruptSegments.size()),
+                Metric.counter("kiwi_blob_files_collected_total",
+                        "Number of blob files deleted by compaction.", collectedBlobFiles.sum()),
+                Metric.counter("kiwi_blob_rewritten_bytes_total",
+                        "Bytes of live values moved out of collected blob files.", rewrittenBlobBytes.sum()),
+                new Metric("kiwi_segment_dirty_ratio",
+                        "Ratio of stale and expired records per sealed segment, as of the last compaction run.",
+                        Metric.Type.GAUGE, ratios));
+    }
+
     @Override
     public void close() {
         logger.info("Shutting down log cleaner");
@@ -13,6 +13,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -22,17 +23,59 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
 
 public class LogSegment {
     private static final Logger logger = LoggerFactory.getLogger(LogSegment.class);
 
     public static final String EXTENSION = ".log";
 
+    private static final int ZERO_FILL_CHUNK_BYTES = 1024 * 1024;
+
     private final Path file;
-    private FileChannel channel;
+    private volatile FileChannel channel;
     private final Clock clock;
 
+    // End of the last record. Preallocated segments are larger than their data, so the write
+    // position is tracked here instead of relying on the channel size or position. Written under
+    // appendLock, read without it by size(), position() and scans.
+    private volatile long dataEnd;
+    private boolean readOnly;
+
+    // Guards appends, the append buffer and closing. A lock instead of the monitor, so virtual
+    // threads writing to the file under it do not pin their carrier thread.
+    private final ReentrantLock appendLock = new ReentrantLock();
+    // Records appended since the last flush, see useAppendBuffer(int). Guarded by appendLock.
+    private ByteBuffer appendBuffer;
+    // End of the data written to the file. Records from here to dataEnd are in the append buffer.
+    private volatile long flushedEnd;
+    // End of the data known to be on disk, see sync().
+    private volatile long syncedEnd;
+
+    // Timestamps and latest expiry of the records appended since the segment was created, saved
+    // when the segment is sealed. Unknown for segments reopened with records. Guarded by appendLock.
+    private boolean expiryTracked;
+    private long minTimestamp = Long.MAX_VALUE;
+    private long maxTimestamp = Long.MIN_VALUE;
+    private long maxExpiry = Long.MIN_VALUE;
+
+    // Called with every appended record while the segment is locked, so records are seen in
+    // log order.
+    private Consumer<Record> appendListener;
+
+    // Registry sharing the sealed segment. It opens the channel on demand and closes it when the
+    // segment is evicted from its cache of open files or retired.
+    private SegmentRegistry registry;
+    // Scans and compaction holding the segment. Segments in use are never evicted.
+    final AtomicInteger refs = new AtomicInteger();
+    volatile long lastAccessNanos;
+    volatile boolean retired;
+
     LogSegment(Path file, FileChannel channel) {
         this(file, channel, Clock.systemUTC());
     }
@@ -57,29 +100,326 @@ public class LogSegment {
             if (readOnly) {
                 channel = FileChannel.open(file, StandardOpenOption.READ);
             } else {
-                // File is opened for reading and writing.
-                // To prevent overwrites, valuePosition is set to the end of the file.
                 channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
-                channel.position(channel.size());
             }
-            return new LogSegment(file, channel, clock);
+            LogSegment segment = new LogSegment(file, channel, clock);
+            segment.readOnly = readOnly;
+            // Sealed segments are truncated to their data. Writable segments can be preallocated,
+            // so records are appended after the last record instead of at the end of the file.
+            segment.dataEnd = readOnly ? channel.size() : recoverDataEnd(file, channel, SyncWatermark.read(file));
+            segment.flushedEnd = segment.dataEnd;
+            segment.syncedEnd = segment.dataEnd;
+            if (!readOnly) {
+                // Records appended to a reopened segment are not covered by its saved expiry.
+                Files.deleteIfExists(SegmentExpiry.file(file));
+                segment.expiryTracked = segment.dataEnd == 0;
+            }
+            return segment;
         } catch (Exception ex) {
             throw new KiwiException("Failed to open log segment " + file, ex);
         }
     }
 
+    /**
+     * Opens a sealed segment without opening its file. The registry opens the file on first read.
+     */
+    static LogSegment openShared(Path file, SegmentRegistry registry) throws KiwiException {
+        try {
+            LogSegment segment = new LogSegment(file, null, Clock.systemUTC());
+            segment.readOnly = true;
+            segment.registry = registry;
+            segment.dataEnd = Files.size(file);
+            segment.flushedEnd = segment.dataEnd;
+            return segment;
+        } catch (IOException ex) {
+            throw new KiwiException("Failed to open log segment " + file, ex);
+        }
+    }
+
+    /**
+     * Hands a sealed segment over to the registry, which closes its channel when it is evicted.
+     */
+    void share(SegmentRegistry registry) {
+        this.registry = registry;
+    }
+
+    SegmentRegistry registry() {
+        return registry;
+    }
+
+    FileChannel openChannel() {
+        return channel;
+    }
+
+    void openChannel(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Returns the channel to read from. Channels of shared segments are reopened after they are
+     * evicted.
+     */
+    private FileChannel channel() throws IOException {
+        FileChannel current = channel;
+        if (registry == null) {
+            return current;
+        }
+        if (current != null && current.isOpen()) {
+            lastAccessNanos = System.nanoTime();
+            return current;
+        }
+        return registry.reopen(this);
+    }
+
+    /**
+     * Reads until the buffer is full or the end of the file. Reads of shared segments are retried
+     * when the channel is closed by the registry in the meantime.
+     */
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        int start = buffer.position();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                while (buffer.hasRemaining()) {
+                    if (channel().read(buffer, position + buffer.position() - start) < 0) {
+                        return;
+                    }
+                }
+                return;
+            } catch (ClosedChannelException ex) {
+                if (registry == null || attempt == 3 || Thread.currentThread().isInterrupted()) {
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a zero-filled segment file of the given size. The file is written to a temporary
+     * name first, so a partially preallocated file is never mistaken for a complete one.
+     */
+    public static void preallocate(Path file, long bytes) throws KiwiWriteException {
+        Path partialFile = file.resolveSibling(file.getFileName() + ".partial");
+        try (FileChannel channel = FileChannel.open(partialFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            zeroFill(channel, bytes);
+        } catch (IOException ex) {
+            throw new KiwiWriteException("Failed to preallocate log segment " + file, ex);
+        }
+        Utils.renameFile(partialFile, file);
+    }
+
+    /**
+     * Overwrites the file with zeros and resizes it to the given size. Existing blocks are reused,
+     * so appends to the file later do not allocate space or update file metadata.
+     */
+    static void zeroFill(FileChannel channel, long bytes) throws IOException {
+        ByteBuffer zeros = ByteBuffer.allocateDirect(ZERO_FILL_CHUNK_BYTES);
+        long position = 0;
+        while (position < bytes) {
+            zeros.clear();
+            zeros.limit((int) Math.min(zeros.capacity(), bytes - position));
+            position += channel.write(zeros, position);
+        }
+        if (channel.size() > bytes) {
+            channel.truncate(bytes);
+        }
+        channel.force(true);
+    }
+
+    /**
+     * Checks whether the segment starts with an epoch marker, i.e. it is the first segment written
+     * after the store was flushed.
+     */
+    public static boolean startsEpoch(Path file) throws KiwiReadException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer headerBuffer = ByteBuffer.allocate(Header.BYTES);
+            while (headerBuffer.hasRemaining()) {
+                if (channel.read(headerBuffer, headerBuffer.position()) < 0) {
+                    return false;
+                }
+            }
+            headerBuffer.flip();
+            return Record.isEpochMarker(Header.fromByteBuffer(headerBuffer));
+        } catch (IOException ex) {
+            throw new KiwiReadException("Failed to read log segment " + file, ex);
+        }
+    }
+
+    /**
+     * Finds the end of the last complete record of a writable segment after a restart.
+     *
+     * <p>Records before {@code syncedEnd} were synced and are trusted. Records after it may be
+     * torn by a crash, so their sizes and checksums are checked, and the file is truncated at the
+     * first invalid record. An all-zero header ends the data of a preallocated segment.</p>
+     */
+    static long recoverDataEnd(Path file, FileChannel channel, long syncedEnd) throws IOException {
+        long size = channel.size();
+        long position = 0;
+        ByteBuffer headerBuffer = ByteBuffer.allocate(Header.BYTES);
+        while (position < size) {
+            if (position + Header.BYTES > size) {
+                // Partial header at the tail, unless it is zero-filled space.
+                ByteBuffer tail = ByteBuffer.allocate((int) (size - position));
+                channel.read(tail, position);
+                if (tail.flip().equals(ByteBuffer.allocate(tail.remaining()))) {
+                    return position;
+                }
+                return truncate(file, channel, position, size);
+            }
+            headerBuffer.clear();
+            channel.read(headerBuffer, position);
+            headerBuffer.flip();
+            Header header = Header.fromByteBuffer(headerBuffer);
+            if (header.isEndOfData()) {
+                return position;
+            }
+            long next = position + Header.BYTES + header.keySize() + header.valueSize();
+            boolean valid = header.keySize() >= 0 && header.valueSize() >= 0 && next <= size
+                    && (next <= syncedEnd || isValidRecord(channel, position, header));
+            if (!valid) {
+                return truncate(file, channel, position, size);
+            }
+            position = next;
+        }
+        return position;
+    }
+
+    private static boolean isValidRecord(FileChannel channel, long position, Header header) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(header.keySize() + header.valueSize());
+        long dataPosition = position + Header.BYTES;
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, dataPosition + buffer.position()) < 0) {
+                return false;
+            }
+        }
+        return isValidChecksum(header, buffer.array());
+    }
+
+    // The data holds the key followed by the value.
+    private static boolean isValidChecksum(Header header, byte[] data) {
+        Bytes key = Bytes.wrap(data, 0, header.keySize());
+        Bytes value = Bytes.wrap(data, header.keySize(), header.valueSize());
+        return header.checksum() == Utils.checksum(header.timestamp(), header.ttl(), key, value);
+    }
+
+    private static long truncate(Path file, FileChannel channel, long position, long size) throws IOException {
+        logger.warn("Truncating torn write at position {} of log segment {} with {} bytes", position, file, size);
+        channel.truncate(position);
+        channel.force(true);
+        return position;
+    }
+
     public int append(Record record) throws KiwiWriteException {
+        appendLock.lock();
         try {
-            return channel.write(record.toByteBuffer());
+            ByteBuffer buffer = record.toByteBuffer();
+            int written = buffer.remaining();
+            if (appendBuffer != null && written > appendBuffer.remaining()) {
+                flush();
+            }
+            if (appendBuffer != null && written <= appendBuffer.remaining()) {
+                appendBuffer.put(buffer);
+            } else {
+                // Records larger than the append buffer are written directly.
+                int position = 0;
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, dataEnd + position);
+                }
+                flushedEnd = dataEnd + written;
+            }
+            dataEnd += written;
+            if (expiryTracked) {
+                Header header = record.header();
+                minTimestamp = Math.min(minTimestamp, header.timestamp());
+                maxTimestamp = Math.max(maxTimestamp, header.timestamp());
+                maxExpiry = Math.max(maxExpiry, SegmentExpiry.expiryOf(header));
+            }
+            if (appendListener != null) {
+                appendListener.accept(record);
+            }
+            return written;
         } catch (IOException | IllegalStateException ex) {
             throw new KiwiWriteException("Failed to append record to log segment " + file, ex);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Buffers appended records in memory and writes them to the file with one write call when the
+     * buffer is full, on {@link #flush()}, {@link #sync()} and {@link #close()}. Buffered records
+     * are read from the buffer, but they are lost if the process crashes before they are flushed.
+     */
+    public void useAppendBuffer(int bytes) {
+        appendLock.lock();
+        try {
+            if (appendBuffer == null && !readOnly && bytes > 0) {
+                appendBuffer = ByteBuffer.allocateDirect(bytes);
+            }
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Writes buffered records to the file.
+     */
+    public void flush() throws KiwiWriteException {
+        appendLock.lock();
+        try {
+            if (appendBuffer == null || appendBuffer.position() == 0) {
+                return;
+            }
+            appendBuffer.flip();
+            while (appendBuffer.hasRemaining()) {
+                flushedEnd += channel.write(appendBuffer, flushedEnd);
+            }
+            appendBuffer.clear();
+        } catch (IOException | IllegalStateException ex) {
+            // Unwritten records stay in the buffer and are written by the next flush.
+            appendBuffer.compact();
+            throw new KiwiWriteException("Failed to flush log segment " + file, ex);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    // Segment scans read the file up to dataEnd, so buffered records are written first.
+    private void flushForScan() {
+        if (flushedEnd < dataEnd) {
+            flush();
+        }
+    }
+
+    /**
+     * Sets the listener called with records appended to the segment.
+     */
+    public void onAppend(Consumer<Record> listener) {
+        appendLock.lock();
+        try {
+            this.appendListener = listener;
+        } finally {
+            appendLock.unlock();
         }
     }
 
     public ByteBuffer read(long position, int size) throws KiwiReadException {
+        if (position + size > flushedEnd) {
+            appendLock.lock();
+            try {
+                if (position >= flushedEnd && appendBuffer != null) {
+                    ByteBuffer buffer = ByteBuffer.allocate(size);
+                    int offset = (int) (position - flushedEnd);
+                    buffer.put(0, appendBuffer, offset, Math.min(size, appendBuffer.position() - offset));
+                    return buffer.position(size);
+                }
+                flushForScan();
+            } finally {
+                appendLock.unlock();
+            }
+        }
         try {
             ByteBuffer buffer = ByteBuffer.allocate(size);
-            channel.read(buffer, position);
+            readFully(buffer, position);
             return buffer;
         } catch (IOException | IllegalStateException ex) {
             throw new KiwiReadException("Failed to read from log segment " + file, ex);
@@ -87,19 +427,21 @@ public class LogSegment {
     }
 
     public long position() throws KiwiReadException {
-        try {
-            return channel.position();
-        } catch (IOException ex) {
-            throw new KiwiReadException("Failed to get valuePosition of log segment " + file, ex);
-        }
+        return dataEnd;
     }
 
+    /**
+     * Size of the data in the segment, excluding preallocated space.
+     */
     public long size() throws KiwiReadException {
-        try {
-            return channel.size();
-        } catch (IOException ex) {
-            throw new KiwiReadException("Failed to get size of log segment " + file, ex);
-        }
+        return dataEnd;
+    }
+
+    /**
+     * Returns the end of the data synced to disk by {@link #sync()}.
+     */
+    public long syncedEnd() {
+        return syncedEnd;
     }
 
     public String name() {
@@ -116,41 +458,84 @@ public class LogSegment {
 
     public void sync() {
         try {
-            if (channel.isOpen()) {
-                channel.force(true);
+            flush();
+            if (channel != null && channel.isOpen()) {
+                long end = flushedEnd;
+                // Data only sync. Preallocated segments do not grow on append, so file metadata
+                // does not have to be flushed with every sync.
+                channel.force(false);
+                syncedEnd = end;
             }
-        } catch (IOException ex) {
+        } catch (ClosedChannelException ex) {
+            // The segment was sealed or closed concurrently, which syncs it.
+            logger.debug("Log segment {} was closed while syncing", file);
+        } catch (IOException | KiwiWriteException ex) {
             logger.error("Failed to sync log segment {}", file, ex);
         }
     }
 
     public void close() {
+        appendLock.lock();
         try {
-            if (channel.isOpen()) {
-                sync();
+            if (channel != null && channel.isOpen()) {
+                flush();
+                appendBuffer = null;
+                if (!readOnly && channel.size() > dataEnd) {
+                    // Sealed segments are truncated to their data.
+                    channel.truncate(dataEnd);
+                }
+                channel.force(true);
                 channel.close();
             }
-        } catch (IOException ex) {
+        } catch (IOException | KiwiWriteException ex) {
             logger.error("Failed to close log segment {}", file, ex);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the timestamps and expiry of the records of the segment, or null if the segment was
+     * reopened with records. Superseded records are included, so the expiry may be later than the
+     * one of the latest entries.
+     */
+    SegmentExpiry expiry() {
+        appendLock.lock();
+        try {
+            return expiryTracked ? new SegmentExpiry(minTimestamp, maxTimestamp, maxExpiry) : null;
+        } finally {
+            appendLock.unlock();
         }
     }
 
     public void markAsReadOnly() {
         try {
             close();
+            // Saved once the records are on disk, so the expiry never covers fewer records.
+            SegmentExpiry expiry = expiry();
+            if (expiry != null) {
+                expiry.save(file);
+            }
             channel = FileChannel.open(file, StandardOpenOption.READ);
+            readOnly = true;
         } catch (IOException e) {
             throw new KiwiException(e);
         }
     }
 
     public void markAsDeleted() {
-        close();
+        // Shared segments stay readable until the registry closes them.
+        if (registry == null) {
+            close();
+        }
 
         String deletedFileName = file.getFileName().toString() + ".deleted";
         Path deletedFile = file.resolveSibling(deletedFileName);
 
         Utils.renameFile(file, deletedFile);
+        if (registry != null) {
+            registry.retire(this);
+        }
         logger.info("Marked log segment {} for deletion", file);
     }
 
@@ -169,44 +554,45 @@ public class LogSegment {
     }
 
     public double dirtyRatio(Map<Bytes, Long> keyTimestampMap) {
+        return dirtyRatio(key -> keyTimestampMap.getOrDefault(key, Long.MAX_VALUE));
+    }
+
+    /**
+     * @param liveTimestamp returns the timestamp of the live record of a key, or
+     *                      {@link Long#MAX_VALUE} if the key has no live record
+     */
+    public double dirtyRatio(ToLongFunction<Bytes> liveTimestamp) {
         long total = 0;
         long dirtyCount = 0;
+        flushForScan();
 
         try {
-            channel.position(0);
             ByteBuffer buffer = ByteBuffer.allocate(Header.BYTES);
-            while (channel.read(buffer) != -1) {
-                buffer.flip();
-
-                // Skip the checksum.
-                buffer.position(buffer.position() + Long.BYTES);
-
-                long timestamp = buffer.getLong();
-                long ttl = buffer.getLong();
-                int keySize = buffer.getInt();
-                int valueSize = buffer.getInt();
-
+            long position = 0;
+            while (position + Header.BYTES <= dataEnd) {
                 buffer.clear();
+                readFully(buffer, position);
+                buffer.flip();
+                Header header = Header.fromByteBuffer(buffer);
+                if (header.isEndOfData()) {
+                    break;
+                }
 
-                if (ttl > 0 && clock.millis() > ttl) {
+                long keyPosition = position + Header.BYTES;
+                position = keyPosition + header.keySize() + header.valueSize();
+                if (header.ttl() > 0 && clock.millis() > header.ttl()) {
                     // Expired records are considered dirty.
                     dirtyCount += 1;
-
-                    // Skip the key and value.
-                    channel.position(channel.position() + keySize + valueSize);
                 } else {
-                    ByteBuffer keyBuffer = ByteBuffer.allocate(keySize);
-                    channel.read(keyBuffer);
+                    ByteBuffer keyBuffer = ByteBuffer.allocate(header.keySize());
+                    readFully(keyBuffer, keyPosition);
 
                     Bytes key = Bytes.wrap(keyBuffer.array());
 
                     // Stale records are considered dirty.
-                    if (keyTimestampMap.getOrDefault(key, Long.MAX_VALUE) > timestamp) {
+                    if (liveTimestamp.applyAsLong(key) > header.timestamp()) {
                         dirtyCount += 1;
                     }
-
-                    // Skip the value.
-                    channel.position(channel.position() + valueSize);
                 }
 
                 total += 1;
@@ -223,20 +609,170 @@ public class LogSegment {
     }
 
     public Iterable<Record> getRecords() {
-        return () -> new RecordIterator(channel, keyHeader -> true);
+        flushForScan();
+        return () -> new RecordIterator(this, dataEnd, keyHeader -> true);
     }
 
     public Iterable<Record> getActiveRecords(Map<Bytes, Long> keyTimestampMap) {
-        return () -> new RecordIterator(channel, keyHeader -> isActiveRecord(keyHeader, keyTimestampMap));
+        return getActiveRecords(key -> keyTimestampMap.getOrDefault(key, Long.MAX_VALUE));
+    }
+
+    /**
+     * @param liveTimestamp returns the timestamp of the live record of a key, or
+     *                      {@link Long#MAX_VALUE} if the key has no live record
+     */
+    public Iterable<Record> getActiveRecords(ToLongFunction<Bytes> liveTimestamp) {
+        flushForScan();
+        return () -> new RecordIterator(this, dataEnd, keyHeader -> isActiveRecord(keyHeader, liveTimestamp));
     }
 
-    private boolean isActiveRecord(KeyHeader keyHeader, Map<Bytes, Long> keyTimestampMap) {
+    private boolean isActiveRecord(KeyHeader keyHeader, ToLongFunction<Bytes> liveTimestamp) {
         long ttl = keyHeader.header().ttl();
         if (ttl > 0 && clock.millis() > ttl) {
             return false;
         }
         long timestamp = keyHeader.header().timestamp();
-        return keyTimestampMap.getOrDefault(keyHeader.key(), Long.MAX_VALUE) == timestamp;
+        return liveTimestamp.applyAsLong(keyHeader.key()) == timestamp;
+    }
+
+    /**
+     * Returns the last entry of every key in the segment. Unlike {@link #buildKeyDir()}, tombstones
+     * and expired records are kept, because they hide older values of their keys in other segments.
+     */
+    public Map<Bytes, Hint> latestEntries() throws KiwiReadException {
+        Path hintFile = file.resolveSibling(name() + HintSegment.EXTENSION);
+        if (Files.exists(hintFile)) {
+            HintSegment hintSegment = HintSegment.open(hintFile, true);
+            try {
+                Map<Bytes, Hint> entries = new HashMap<>();
+                for (Hint hint : hintSegment.getHints()) {
+                    entries.put(hint.key(), hint);
+                }
+                return entries;
+            } catch (KiwiReadException ex) {
+                logger.warn("Failed to read segment hint file {}", hintFile, ex);
+            } finally {
+                hintSegment.close();
+            }
+        }
+
+        flushForScan();
+        try {
+            Map<Bytes, Hint> entries = new HashMap<>();
+            ByteBuffer headerBuffer = ByteBuffer.allocate(Header.BYTES);
+            long position = 0;
+            while (position + Header.BYTES <= dataEnd) {
+                headerBuffer.clear();
+                readFully(headerBuffer, position);
+                headerBuffer.flip();
+                Header header = Header.fromByteBuffer(headerBuffer);
+                if (header.isEndOfData()) {
+                    break;
+                }
+
+                ByteBuffer keyBuffer = ByteBuffer.allocate(header.keySize());
+                readFully(keyBuffer, position + Header.BYTES);
+                long valuePosition = position + Header.BYTES + header.keySize();
+                if (!Record.isEpochMarker(header)) {
+                    Bytes key = Bytes.wrap(keyBuffer.array());
+                    entries.put(key, new Hint(header, valuePosition, key));
+                }
+                position = valuePosition + header.valueSize();
+            }
+            return entries;
+        } catch (IOException | IllegalStateException ex) {
+            throw new KiwiReadException("Failed to read entries of log segment " + file, ex);
+        }
+    }
+
+    /**
+     * Visits blob pointers of all records in the segment.
+     */
+    public void forEachBlobPointer(Consumer<BlobPointer> action) throws KiwiReadException {
+        forEachBlobPointer(keyHeader -> true, action);
+    }
+
+    /**
+     * Visits blob pointers of live records, the same records compaction keeps.
+     *
+     * @param liveTimestamp returns the timestamp of the live record of a key, or
+     *                      {@link Long#MAX_VALUE} if the key has no live record
+     */
+    public void forEachLiveBlobPointer(ToLongFunction<Bytes> liveTimestamp, Consumer<BlobPointer> action) throws KiwiReadException {
+        forEachBlobPointer(keyHeader -> isActiveRecord(keyHeader, liveTimestamp), action);
+    }
+
+    private void forEachBlobPointer(Predicate<KeyHeader> predicate, Consumer<BlobPointer> action) throws KiwiReadException {
+        flushForScan();
+        try {
+            ByteBuffer headerBuffer = ByteBuffer.allocate(Header.BYTES);
+            long position = 0;
+            while (position + Header.BYTES <= dataEnd) {
+                headerBuffer.clear();
+                readFully(headerBuffer, position);
+                headerBuffer.flip();
+                Header header = Header.fromByteBuffer(headerBuffer);
+                if (header.isEndOfData()) {
+                    break;
+                }
+
+                long valuePosition = position + Header.BYTES + header.keySize();
+                // Only values of the pointer size are read.
+                if (header.valueSize() == BlobPointer.BYTES) {
+                    ByteBuffer keyBuffer = ByteBuffer.allocate(header.keySize());
+                    readFully(keyBuffer, position + Header.BYTES);
+                    ByteBuffer valueBuffer = ByteBuffer.allocate(BlobPointer.BYTES);
+                    readFully(valueBuffer, valuePosition);
+                    Bytes value = Bytes.wrap(valueBuffer.array());
+                    if (BlobPointer.isPointer(value) && predicate.test(new KeyHeader(Bytes.wrap(keyBuffer.array()), header))) {
+                        action.accept(BlobPointer.fromBytes(value));
+                    }
+                }
+                position = valuePosition + header.valueSize();
+            }
+        } catch (IOException | IllegalStateException ex) {
+            throw new KiwiReadException("Failed to read blob pointers of log segment " + file, ex);
+        }
+    }
+
+    /**
+     * Verifies checksums of the records from the position until at least {@code maxBytes} were
+     * read or the end of the data.
+     *
+     * @param corruptRecord called with the position of every record that failed its checksum
+     * @return the position of the next record to verify, or the size of the segment when all
+     * records were verified
+     */
+    public long verify(long position, long maxBytes, LongConsumer corruptRecord) throws KiwiReadException {
+        flushForScan();
+        long start = position;
+        try {
+            ByteBuffer headerBuffer = ByteBuffer.allocate(Header.BYTES);
+            while (position + Header.BYTES <= dataEnd && position - start < maxBytes) {
+                headerBuffer.clear();
+                readFully(headerBuffer, position);
+                headerBuffer.flip();
+                Header header = Header.fromByteBuffer(headerBuffer);
+                if (header.isEndOfData()) {
+                    break;
+                }
+                long next = position + Header.BYTES + header.keySize() + header.valueSize();
+                if (header.keySize() < 0 || header.valueSize() < 0 || next > dataEnd) {
+                    // The next record cannot be found after a corrupt header.
+                    corruptRecord.accept(position);
+                    return dataEnd;
+                }
+                ByteBuffer data = ByteBuffer.allocate(header.keySize() + header.valueSize());
+                readFully(data, position + Header.BYTES);
+                if (!isValidChecksum(header, data.array())) {
+                    corruptRecord.accept(position);
+                }
+                position = next;
+            }
+        } catch (IOException | IllegalStateException ex) {
+            throw new KiwiReadException("Failed to verify log segment " + file, ex);
+        }
+        return position + Header.BYTES > dataEnd || position - start < maxBytes ? dataEnd : position;
     }
 
     public Map<Bytes, ValueReference> buildKeyDir() throws KiwiReadException {
@@ -255,42 +791,42 @@ public class LogSegment {
     }
 
     private Map<Bytes, ValueReference> buildKeyDirFromData() throws KiwiReadException {
+        flushForScan();
         logger.info("Building keydir from segment data file {}", file);
 
         // Data file format: [checksum:8][timestamp:8][ttl:8][keySize:4][valueSize:4][key:keySize][value:valueSize]
         try {
-            channel.position(0);
-
             Map<Bytes, ValueReference> keyDir = new HashMap<>();
             ByteBuffer buffer = ByteBuffer.allocate(Header.BYTES);
-            while (channel.read(buffer) != -1) {
-                buffer.flip();
-
-                // Skip the checksum.
-                // Checksum validation is done during background compaction.
-                buffer.position(buffer.position() + Long.BYTES);
-
-                long timestamp = buffer.getLong();
-                long ttl = buffer.getLong();
-                int keySize = buffer.getInt();
-                int valueSize = buffer.getInt();
-
+            long position = 0;
+            while (position + Header.BYTES <= dataEnd) {
+                // Torn writes of the active segment were truncated when it was opened. Checksums
+                // are verified by compaction and the segment scrubber instead.
                 buffer.clear();
+                readFully(buffer, position);
+                buffer.flip();
+                Header header = Header.fromByteBuffer(buffer);
+                if (header.isEndOfData()) {
+                    break;
+                }
+                if (header.keySize() < 0 || header.valueSize() < 0
+                        || position + Header.BYTES + header.keySize() + header.valueSize() > dataEnd) {
+                    throw new KiwiReadException("Invalid record at position " + position + " of log segment " + file);
+                }
 
-                ByteBuffer keyBuffer = ByteBuffer.allocate(keySize);
-                channel.read(keyBuffer);
-
-                long valuePosition = channel.position();
+                ByteBuffer keyBuffer = ByteBuffer.allocate(header.keySize());
+                readFully(keyBuffer, position + Header.BYTES);
 
-                // Skip the value.
-                channel.position(valuePosition + valueSize);
+                long valuePosition = position + Header.BYTES + header.keySize();
+                position = valuePosition + header.valueSize();
 
                 // Skip the record if TTL has expired.
+                long ttl = header.ttl();
                 boolean expired = ttl > 0 && System.currentTimeMillis() > ttl;
 
                 Bytes key = Bytes.wrap(keyBuffer.array());
-                if (valueSize > 0 && !expired) {
-                    ValueReference valueRef = new ValueReference(this, valuePosition, valueSize, ttl, timestamp);
+                if (header.valueSize() > 0 && !expired) {
+                    ValueReference valueRef = new ValueReference(this, valuePosition, header.valueSize(), ttl, header.timestamp());
                     keyDir.put(key, valueRef);
                 } else {
                     // Skip expired records and tombstone records.
@@ -331,13 +867,15 @@ public class LogSegment {
     }
 
     private static class RecordIterator implements Iterator<Record> {
-        private final FileChannel channel;
+        private final LogSegment segment;
+        private final long dataEnd;
         private final Predicate<KeyHeader> predicate;
         private long position;
         private Record nextRecord;
 
-        public RecordIterator(FileChannel channel, Predicate<KeyHeader> predicate) {
-            this.channel = channel;
+        public RecordIterator(LogSegment segment, long dataEnd, Predicate<KeyHeader> predicate) {
+            this.segment = segment;
+            this.dataEnd = dataEnd;
             this.predicate = predicate;
             this.position = 0;
             this.nextRecord = null;
@@ -350,21 +888,27 @@ public class LogSegment {
             }
 
             try {
-                while (position < channel.size()) {
-                    channel.position(position);
-
+                while (position + Header.BYTES <= dataEnd) {
                     ByteBuffer headerBuffer = ByteBuffer.allocate(Header.BYTES);
-                    if (channel.read(headerBuffer) < Header.BYTES) {
+                    segment.readFully(headerBuffer, position);
+                    if (headerBuffer.hasRemaining()) {
                         return false; // Not enough data for a header
                     }
                     headerBuffer.flip();
                     Header header = Header.fromByteBuffer(headerBuffer);
+                    if (header.isEndOfData()) {
+                        return false;
+                    }
+
+                    long keyPosition = position + Header.BYTES;
+                    long valuePosition = keyPosition + header.keySize();
 
                     // Next record position.
-                    position = channel.position() + header.keySize() + header.valueSize();
+                    position = valuePosition + header.valueSize();
 
                     ByteBuffer keyBuffer = ByteBuffer.allocate(header.keySize());
-                    if (channel.read(keyBuffer) < header.keySize()) {
+                    segment.readFully(keyBuffer, keyPosition);
+                    if (keyBuffer.hasRemaining()) {
                         return false; // Not enough data for a key
                     }
                     Bytes key = Bytes.wrap(keyBuffer.array());
@@ -372,7 +916,8 @@ public class LogSegment {
                     KeyHeader keyHeader = new KeyHeader(key, header);
                     if (predicate.test(keyHeader)) {
                         ByteBuffer valueBuffer = ByteBuffer.allocate(header.valueSize());
-                        if (channel.read(valueBuffer) < header.valueSize()) {
+                        segment.readFully(valueBuffer, valuePosition);
+                        if (valueBuffer.hasRemaining()) {
                             return false; // Not enough data for a value
                         }
                         valueBuffer.flip();
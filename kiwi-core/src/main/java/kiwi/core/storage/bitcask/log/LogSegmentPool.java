@@ -0,0 +1,199 @@
+package kiwi.core.storage.bitcask.log;
+
+import kiwi.core.common.NamedThreadFactory;
+import kiwi.core.error.KiwiException;
+import kiwi.core.error.KiwiWriteException;
+import kiwi.core.storage.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Pool of zero-filled segment files ready to become new log segments.
+ *
+ * <p>Appending to a preallocated file does not change its size, so syncs do not have to flush
+ * file metadata. Files are prepared in the background ahead of segment rolls, either by
+ * zero-filling a new file or by recycling a segment deleted by compaction. When no file is ready, a new segment starts empty
+ * and grows by appending, so allocation never blocks writers on disk I/O.</p>
+ */
+public class LogSegmentPool implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(LogSegmentPool.class);
+
+    public static final String EXTENSION = ".free";
+
+    private final Path logDir;
+    private final long segmentBytes;
+    private final boolean preallocate;
+    private final int maxFiles;
+
+    private final ConcurrentLinkedQueue<Path> files = new ConcurrentLinkedQueue<>();
+    private final AtomicLong counter = new AtomicLong();
+    private final AtomicBoolean preparing = new AtomicBoolean(false);
+    private final ExecutorService executor;
+
+    /**
+     * @param logDir       the log directory holding pooled files
+     * @param segmentBytes the size of pooled files
+     * @param preallocate  whether to prepare new zero-filled files in the background
+     * @param maxFiles     the maximum number of pooled files; zero disables the pool
+     */
+    public LogSegmentPool(Path logDir, long segmentBytes, boolean preallocate, int maxFiles) {
+        this.logDir = logDir;
+        this.segmentBytes = segmentBytes;
+        this.preallocate = preallocate && maxFiles > 0;
+        this.maxFiles = Math.max(0, maxFiles);
+        this.executor = this.preallocate
+                ? Executors.newSingleThreadExecutor(NamedThreadFactory.create("segment-pool"))
+                : null;
+
+        loadPooledFiles();
+    }
+
+    public static LogSegmentPool disabled(Path logDir) {
+        return new LogSegmentPool(logDir, 0, false, 0);
+    }
+
+    private void loadPooledFiles() {
+        if (!Files.isDirectory(logDir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.list(logDir)) {
+            for (Path path : paths.sorted().toList()) {
+                String name = path.getFileName().toString();
+                if (name.endsWith(EXTENSION + ".partial")) {
+                    // Preallocation was interrupted.
+                    Files.deleteIfExists(path);
+                } else if (name.endsWith(EXTENSION)) {
+                    long number = Long.parseLong(name.substring(0, name.length() - EXTENSION.length()));
+                    counter.accumulateAndGet(number + 1, Math::max);
+                    if (files.size() < maxFiles) {
+                        files.add(path);
+                    } else {
+                        Files.deleteIfExists(path);
+                    }
+                }
+            }
+        } catch (IOException | NumberFormatException ex) {
+            throw new KiwiException("Failed to load pooled segment files from " + logDir, ex);
+        }
+    }
+
+    /**
+     * Opens a new writable log segment, reusing a pooled file when one is ready.
+     */
+    public LogSegment allocate(Path file) {
+        Path pooled = files.poll();
+        if (pooled != null) {
+            Utils.renameFile(pooled, file);
+            logger.debug("Allocated log segment {} from pooled file {}", file, pooled);
+        }
+        return LogSegment.open(file);
+    }
+
+    /**
+     * Moves a log segment deleted by compaction into the pool. The file is zero-filled, so none
+     * of its records can be read again.
+     *
+     * @return {@code true} if the file was recycled, {@code false} if the pool is full or the file
+     * has other hard links
+     */
+    public boolean recycle(Path deletedFile) {
+        if (files.size() >= maxFiles || isLinked(deletedFile)) {
+            return false;
+        }
+
+        try (FileChannel channel = FileChannel.open(deletedFile, StandardOpenOption.WRITE)) {
+            LogSegment.zeroFill(channel, segmentBytes);
+        } catch (IOException ex) {
+            logger.warn("Failed to recycle segment file {}", deletedFile, ex);
+            return false;
+        }
+
+        Path pooled = nextFile();
+        Utils.renameFile(deletedFile, pooled);
+        files.add(pooled);
+        logger.info("Recycled segment file {} as {}", deletedFile, pooled);
+        return true;
+    }
+
+    /**
+     * Checks whether the file has other hard links, e.g. from a snapshot. Zero-filling the file
+     * would also erase the linked copy.
+     */
+    private static boolean isLinked(Path file) {
+        try {
+            return (int) Files.getAttribute(file, "unix:nlink") > 1;
+        } catch (UnsupportedOperationException ex) {
+            // Hard links cannot be detected, so the file is never recycled.
+            return true;
+        } catch (IOException ex) {
+            logger.warn("Failed to read link count of segment file {}", file, ex);
+            return true;
+        }
+    }
+
+    public int size() {
+        return files.size();
+    }
+
+    /**
+     * Starts preparing a zero-filled file in the background if the pool is empty.
+     * Called ahead of the next segment roll.
+     */
+    public void prepare() {
+        if (!preallocate || files.size() >= maxFiles || !preparing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    // Keep one file ready for the next segment roll.
+                    if (files.isEmpty()) {
+                        Path file = nextFile();
+                        LogSegment.preallocate(file, segmentBytes);
+                        files.add(file);
+                        logger.debug("Preallocated segment file {} with {} bytes", file, segmentBytes);
+                    }
+                } catch (KiwiWriteException ex) {
+                    logger.warn("Failed to preallocate segment file", ex);
+                } finally {
+                    preparing.set(false);
+                }
+            });
+        } catch (RuntimeException ex) {
+            // Executor is shut down.
+            preparing.set(false);
+        }
+    }
+
+    private Path nextFile() {
+        return logDir.resolve(String.format("%020d%s", counter.getAndIncrement(), EXTENSION));
+    }
+
+    @Override
+    public void close() {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException ex) {
+            executor.shutdownNow();
+        }
+    }
+}
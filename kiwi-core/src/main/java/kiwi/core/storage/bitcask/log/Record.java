@@ -13,6 +13,11 @@ public record Record(Header header, Bytes key, Bytes value) {
      */
     public static final Bytes TOMBSTONE = Bytes.EMPTY;
 
+    /**
+     * TTL of epoch marker records. Regular records never have a negative TTL.
+     */
+    static final long EPOCH_MARKER_TTL = -1;
+
     public static Record of(Bytes key, Bytes value) {
         return Record.of(key, value, 0L, 0L);
     }
@@ -27,6 +32,16 @@ public record Record(Header header, Bytes key, Bytes value) {
         return new Record(header, key, value);
     }
 
+    /**
+     * Marker written as the first record of a segment when the store is flushed. All records in
+     * older segments belong to a previous epoch and are ignored on recovery.
+     *
+     * <p>The marker has an empty key and no value, so it also reads as a tombstone of the empty key.</p>
+     */
+    public static Record epochMarker(long timestamp) {
+        return Record.of(Bytes.EMPTY, TOMBSTONE, timestamp, EPOCH_MARKER_TTL);
+    }
+
     public int keySize() {
         return key.size();
     }
@@ -42,8 +57,8 @@ public record Record(Header header, Bytes key, Bytes value) {
     public ByteBuffer toByteBuffer() {
         ByteBuffer buffer = ByteBuffer.allocate(size());
         buffer.put(header.toByteBuffer());
-        buffer.put(key.get());
-        buffer.put(value.get());
+        key.writeTo(buffer);
+        value.writeTo(buffer);
         buffer.rewind();
         return buffer;
     }
@@ -55,4 +70,12 @@ public record Record(Header header, Bytes key, Bytes value) {
     public boolean isTombstone() {
         return value.equals(TOMBSTONE);
     }
+
+    public boolean isEpochMarker() {
+        return isEpochMarker(header);
+    }
+
+    static boolean isEpochMarker(Header header) {
+        return header.ttl() == EPOCH_MARKER_TTL && header.keySize() == 0 && header.valueSize() == 0;
+    }
 }
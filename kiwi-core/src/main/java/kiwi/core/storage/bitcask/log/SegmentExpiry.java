@@ -0,0 +1,116 @@
+package kiwi.core.storage.bitcask.log;
+
+import kiwi.core.storage.bitcask.Header;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * Timestamps and expiry of the latest entries of a segment.
+ *
+ * <p>A segment whose entries all expired can be deleted without being compacted, as long as no
+ * older segment still holds a live value of one of its keys. See
+ * {@link LogCleaner#useExpiryBuckets}.</p>
+ *
+ * <p>Sealed segments save their expiry to a {@code <segment>.expiry} file as a
+ * {@code <minTimestamp> <maxTimestamp> <maxExpiry> <crc>} line, so the cleaner does not have to
+ * read their records again after a restart. The file is not synced: a lost or torn file only
+ * makes the cleaner scan the segment once more.</p>
+ *
+ * @param minTimestamp the oldest timestamp of the entries
+ * @param maxTimestamp the newest timestamp of the entries
+ * @param maxExpiry    the latest expiry of the entries, {@link Long#MAX_VALUE} if an entry never
+ *                     expires, e.g. a tombstone or a record without TTL
+ */
+record SegmentExpiry(long minTimestamp, long maxTimestamp, long maxExpiry) {
+    private static final Logger logger = LoggerFactory.getLogger(SegmentExpiry.class);
+
+    static final String EXTENSION = ".expiry";
+
+    /**
+     * The expiry of a segment without entries.
+     */
+    static final SegmentExpiry EMPTY = new SegmentExpiry(Long.MAX_VALUE, Long.MIN_VALUE, Long.MIN_VALUE);
+
+    static SegmentExpiry of(Collection<Hint> entries) {
+        SegmentExpiry expiry = EMPTY;
+        for (Hint hint : entries) {
+            expiry = expiry.with(hint.header());
+        }
+        return expiry;
+    }
+
+    /**
+     * Returns the expiry with the entry of the given header added.
+     */
+    SegmentExpiry with(Header header) {
+        return new SegmentExpiry(
+                Math.min(minTimestamp, header.timestamp()),
+                Math.max(maxTimestamp, header.timestamp()),
+                Math.max(maxExpiry, expiryOf(header)));
+    }
+
+    static long expiryOf(Header header) {
+        boolean expires = header.ttl() > 0 && header.valueSize() > 0;
+        return expires ? header.ttl() : Long.MAX_VALUE;
+    }
+
+    /**
+     * Checks whether all entries expired, the same as {@code ValueReference.isExpired}.
+     */
+    boolean isExpired(long now) {
+        return now > maxExpiry;
+    }
+
+    /**
+     * Saves the expiry next to the segment file.
+     */
+    void save(Path segmentFile) {
+        String fields = String.format(Locale.ROOT, "%d %d %d", minTimestamp, maxTimestamp, maxExpiry);
+        try {
+            Files.writeString(file(segmentFile),
+                    String.format(Locale.ROOT, "%s %d%n", fields, checksum(fields)), StandardCharsets.UTF_8);
+        } catch (IOException ex) {
+            logger.warn("Failed to save expiry of log segment {}", segmentFile, ex);
+        }
+    }
+
+    /**
+     * Returns the saved expiry of the segment, or null if it was not saved or cannot be read.
+     */
+    static SegmentExpiry read(Path segmentFile) {
+        Path file = file(segmentFile);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            String[] fields = Files.readString(file, StandardCharsets.UTF_8).trim().split(" ");
+            if (fields.length != 4
+                    || checksum(fields[0] + " " + fields[1] + " " + fields[2]) != Long.parseLong(fields[3])) {
+                return null;
+            }
+            return new SegmentExpiry(Long.parseLong(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2]));
+        } catch (IOException | NumberFormatException ex) {
+            logger.warn("Failed to read expiry {}", file, ex);
+            return null;
+        }
+    }
+
+    static Path file(Path segmentFile) {
+        String fileName = segmentFile.getFileName().toString();
+        return segmentFile.resolveSibling(fileName.substring(0, fileName.indexOf('.')) + EXTENSION);
+    }
+
+    private static long checksum(String fields) {
+        CRC32 crc = new CRC32();
+        crc.update(fields.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+}
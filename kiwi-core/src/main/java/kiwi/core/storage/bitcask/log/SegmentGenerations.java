@@ -0,0 +1,86 @@
+package kiwi.core.storage.bitcask.log;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Number of compactions the records of each segment survived.
+ *
+ * <p>Segments written by the store are generation 0, and compaction writes records of a
+ * generation {@code n} segment into generation {@code n + 1} segments. Generations are saved to
+ * the {@code generations} file of the log directory, one {@code <segment> <generation>} line per
+ * compacted segment. Segments missing from the file, e.g. when the file is lost or the segments
+ * were copied from another store, are generation 0.</p>
+ */
+class SegmentGenerations {
+    private static final Logger logger = LoggerFactory.getLogger(SegmentGenerations.class);
+
+    static final String FILE_NAME = "generations";
+
+    private final Path file;
+    private final Map<String, Integer> generations = new ConcurrentHashMap<>();
+
+    private SegmentGenerations(Path file) {
+        this.file = file;
+    }
+
+    static SegmentGenerations open(Path logDir) {
+        SegmentGenerations generations = new SegmentGenerations(logDir.resolve(FILE_NAME));
+        if (!Files.exists(generations.file)) {
+            return generations;
+        }
+        try {
+            for (String line : Files.readAllLines(generations.file, StandardCharsets.UTF_8)) {
+                String[] fields = line.trim().split(" ");
+                if (fields.length == 2) {
+                    generations.generations.put(fields[0], Integer.parseInt(fields[1]));
+                }
+            }
+        } catch (IOException | NumberFormatException ex) {
+            // Segments of a damaged file are compacted as generation 0 again.
+            logger.warn("Failed to read segment generations {}", generations.file, ex);
+            generations.generations.clear();
+        }
+        return generations;
+    }
+
+    int get(String segmentName) {
+        return generations.getOrDefault(segmentName, 0);
+    }
+
+    /**
+     * Records generations of new compacted segments and forgets the segments they replace.
+     */
+    synchronized void update(Map<String, Integer> compacted, Collection<String> replaced) {
+        replaced.forEach(generations::remove);
+        generations.putAll(compacted);
+        save();
+    }
+
+    private void save() {
+        // Segments deleted with an epoch are dropped as well.
+        generations.keySet().removeIf(name -> !Files.exists(file.resolveSibling(name + LogSegment.EXTENSION)));
+
+        List<String> lines = new ArrayList<>();
+        new TreeMap<>(generations).forEach((name, generation) -> lines.add(name + " " + generation));
+        Path partialFile = file.resolveSibling(FILE_NAME + ".partial");
+        try {
+            Files.write(partialFile, lines, StandardCharsets.UTF_8);
+            Files.move(partialFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            logger.warn("Failed to save segment generations {}", file, ex);
+        }
+    }
+}
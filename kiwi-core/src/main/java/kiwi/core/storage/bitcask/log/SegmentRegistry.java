@@ -0,0 +1,268 @@
+package kiwi.core.storage.bitcask.log;
+
+import kiwi.core.error.KiwiException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sealed log segments shared by the store and the log cleaner.
+ *
+ * <p>Every sealed segment file is represented by one {@link LogSegment}, so the keydir, indexes
+ * and compaction read through the same instance. Channels are opened on first read and at most
+ * {@code maxOpenFiles} stay open. When the limit is reached, the channel of the least recently
+ * read segment that is not in use is closed, and reopened by its next read.</p>
+ *
+ * <p>Scans and compaction {@link #acquire(Path) acquire} the segments they read. A segment
+ * deleted by compaction is retired: its channel is closed once the last holder releases it, and
+ * its file is not removed by the log cleaner before that. Point reads do not hold segments, and
+ * a read of a segment closed in between reopens the file.</p>
+ */
+public class SegmentRegistry implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(SegmentRegistry.class);
+
+    private static final String DELETED_SUFFIX = ".deleted";
+
+    private final int maxOpenFiles;
+
+    private final Map<Path, LogSegment> segments = new ConcurrentHashMap<>();
+    // Segments deleted by compaction whose files are not removed yet, by their original file.
+    private final Map<Path, LogSegment> retired = new ConcurrentHashMap<>();
+    // Segments with an open channel. Guarded by this.
+    private final Set<LogSegment> open = new HashSet<>();
+
+    // Total size of the shared segments, kept up to date so metrics do not list the log directory.
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder opens = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxOpenFiles the maximum number of open segment files, zero for no limit
+     */
+    public SegmentRegistry(int maxOpenFiles) {
+        this.maxOpenFiles = maxOpenFiles;
+    }
+
+    public static SegmentRegistry unbounded() {
+        return new SegmentRegistry(0);
+    }
+
+    /**
+     * Returns the shared segment of a sealed segment file. The file is opened on first read.
+     */
+    public LogSegment open(Path file) throws KiwiException {
+        return segments.computeIfAbsent(file, path -> {
+            LogSegment segment = LogSegment.openShared(path, this);
+            bytes.add(segment.size());
+            return segment;
+        });
+    }
+
+    /**
+     * Returns the shared segment of a sealed segment file and holds it until it is released.
+     */
+    public LogSegment acquire(Path file) throws KiwiException {
+        LogSegment segment = open(file);
+        segment.refs.incrementAndGet();
+        return segment;
+    }
+
+    public void release(LogSegment segment) {
+        if (segment.refs.decrementAndGet() > 0) {
+            return;
+        }
+        if (segment.retired) {
+            close(segment);
+        } else if (maxOpenFiles > 0) {
+            // Segments held beyond the limit are closed once they are released.
+            synchronized (this) {
+                evict();
+            }
+        }
+    }
+
+    /**
+     * Shares a segment sealed by the store or by compaction. Its channel is already open.
+     *
+     * <p>The sealed segment replaces a segment opened for the same file while it was still
+     * written, e.g. by a background reader that raced with the roll of the active segment.</p>
+     */
+    public LogSegment adopt(LogSegment segment) {
+        segment.share(this);
+        segment.lastAccessNanos = System.nanoTime();
+        LogSegment previous = segments.put(segment.file(), segment);
+        bytes.add(segment.size() - (previous != null ? previous.size() : 0));
+        synchronized (this) {
+            if (previous != null && previous != segment && previous.refs.get() == 0) {
+                open.remove(previous);
+                previous.close();
+            }
+            open.add(segment);
+            evict();
+        }
+        return segment;
+    }
+
+    /**
+     * Retires a segment marked as deleted. Its channel is closed when it is no longer held.
+     */
+    void retire(LogSegment segment) {
+        if (segments.remove(segment.file(), segment)) {
+            bytes.add(-segment.size());
+        }
+        retired.put(segment.file(), segment);
+        segment.retired = true;
+        if (segment.refs.get() == 0) {
+            close(segment);
+        }
+    }
+
+    /**
+     * Retires the segment of a file renamed as deleted by other means, e.g. a segment of a
+     * previous epoch.
+     */
+    void retire(Path file) {
+        LogSegment segment = segments.get(file);
+        if (segment != null) {
+            retire(segment);
+        }
+    }
+
+    /**
+     * Checks whether a file marked as deleted belongs to a segment that is still held.
+     */
+    public boolean isInUse(Path deletedFile) {
+        LogSegment segment = retired.get(originalFile(deletedFile));
+        return segment != null && segment.refs.get() > 0;
+    }
+
+    /**
+     * Forgets a retired segment before its file is removed or recycled, so its channel is never
+     * reopened.
+     */
+    public void forget(Path deletedFile) {
+        LogSegment segment = retired.remove(originalFile(deletedFile));
+        if (segment != null) {
+            close(segment);
+        }
+    }
+
+    private static Path originalFile(Path deletedFile) {
+        String fileName = deletedFile.getFileName().toString();
+        return fileName.endsWith(DELETED_SUFFIX)
+                ? deletedFile.resolveSibling(fileName.substring(0, fileName.length() - DELETED_SUFFIX.length()))
+                : deletedFile;
+    }
+
+    /**
+     * Opens the channel of a segment closed by the registry.
+     */
+    synchronized FileChannel reopen(LogSegment segment) throws IOException {
+        FileChannel channel = segment.openChannel();
+        if (channel != null && channel.isOpen()) {
+            return channel;
+        }
+        if (segment.retired && !retired.containsKey(segment.file())) {
+            throw new NoSuchFileException(segment.file().toString(), null, "Log segment was deleted");
+        }
+
+        Path file = segment.file();
+        if (!Files.exists(file)) {
+            // Retired segments are renamed before they are closed.
+            file = file.resolveSibling(file.getFileName() + DELETED_SUFFIX);
+        }
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        segment.openChannel(channel);
+        segment.lastAccessNanos = System.nanoTime();
+        opens.increment();
+        open.add(segment);
+        evict();
+        return channel;
+    }
+
+    // Must be called with this locked.
+    private void evict() {
+        if (maxOpenFiles <= 0) {
+            return;
+        }
+        open.removeIf(segment -> {
+            FileChannel channel = segment.openChannel();
+            return channel == null || !channel.isOpen();
+        });
+        while (open.size() > maxOpenFiles) {
+            LogSegment eldest = null;
+            for (LogSegment segment : open) {
+                if (segment.refs.get() == 0 && (eldest == null || segment.lastAccessNanos < eldest.lastAccessNanos)) {
+                    eldest = segment;
+                }
+            }
+            if (eldest == null) {
+                // All open segments are in use.
+                return;
+            }
+            open.remove(eldest);
+            eldest.close();
+            evictions.increment();
+            logger.debug("Closed least recently read log segment {}", eldest.name());
+        }
+    }
+
+    private synchronized void close(LogSegment segment) {
+        open.remove(segment);
+        segment.close();
+    }
+
+    public synchronized int openFiles() {
+        return (int) open.stream().filter(segment -> {
+            FileChannel channel = segment.openChannel();
+            return channel != null && channel.isOpen();
+        }).count();
+    }
+
+    /**
+     * Returns the number of shared segments, i.e. the sealed segments that are not deleted.
+     */
+    public int segments() {
+        return segments.size();
+    }
+
+    /**
+     * Returns the total size of the shared segments.
+     */
+    public long bytes() {
+        return bytes.sum();
+    }
+
+    public long opens() {
+        return opens.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public void close() {
+        List<LogSegment> all = new ArrayList<>(segments.values());
+        all.addAll(retired.values());
+        for (LogSegment segment : all) {
+            close(segment);
+        }
+        segments.clear();
+        retired.clear();
+        bytes.reset();
+    }
+}
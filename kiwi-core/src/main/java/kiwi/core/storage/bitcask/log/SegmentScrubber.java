@@ -0,0 +1,267 @@
+package kiwi.core.storage.bitcask.log;
+
+import kiwi.core.common.NamedThreadFactory;
+import kiwi.core.error.KiwiException;
+import kiwi.core.metrics.Metric;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Verifies checksums of sealed segments in the background, so corrupt records are found before
+ * they are read.
+ *
+ * <p>A pass reads every sealed segment at no more than {@code bytesPerSecond}, and the next pass
+ * starts {@code interval} after the previous one completed. Progress is saved to the
+ * {@code scrubbed} file of the log directory, one {@code <segment> <offset>} line per segment
+ * of the current pass and a {@code completed <millis>} line for the last completed pass, so a
+ * restart resumes the pass instead of starting over.</p>
+ */
+public class SegmentScrubber implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(SegmentScrubber.class);
+
+    static final String FILE_NAME = "scrubbed";
+    private static final String COMPLETED = "completed";
+
+    // Segments are verified in chunks of this size, so the rate limit is kept smoothly.
+    private static final long CHUNK_BYTES = 1024 * 1024;
+    // How often progress is saved while a segment is verified.
+    private static final long SAVE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+    // How often the scrubber checks whether the next pass is due.
+    private static final Duration CHECK_INTERVAL = Duration.ofMinutes(1);
+
+    private final Path logDir;
+    private final Path file;
+    private final SegmentRegistry registry;
+    private final Predicate<Path> scrubbable;
+    private final long bytesPerSecond;
+    private final long intervalMillis;
+    private final Clock clock;
+    private final ScheduledExecutorService scheduler;
+
+    // Verified offsets of the segments of the current pass, by segment name.
+    private final Map<String, Long> offsets = new ConcurrentHashMap<>();
+    private volatile long completedMillis;
+
+    private final LongAdder scrubbedBytes = new LongAdder();
+    private final LongAdder corruptRecords = new LongAdder();
+    private final LongAdder passes = new LongAdder();
+    private final Set<String> corruptSegments = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param scrubbable     checks whether a segment file is sealed and still in use, i.e. it is
+     *                       neither the active segment nor a segment of a previous epoch
+     * @param bytesPerSecond the maximum read rate
+     * @param interval       the time between the end of a pass and the start of the next
+     */
+    public SegmentScrubber(Path logDir, SegmentRegistry registry, Predicate<Path> scrubbable,
+                           long bytesPerSecond, Duration interval, Clock clock) {
+        this.logDir = logDir;
+        this.file = logDir.resolve(FILE_NAME);
+        this.registry = registry;
+        this.scrubbable = scrubbable;
+        this.bytesPerSecond = bytesPerSecond;
+        this.intervalMillis = interval.toMillis();
+        this.clock = clock;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(NamedThreadFactory.create("scrubber"));
+        load();
+    }
+
+    public void start() {
+        if (bytesPerSecond <= 0) {
+            logger.info("Segment scrubber is disabled");
+            return;
+        }
+        scheduler.scheduleWithFixedDelay(this::scrub, CHECK_INTERVAL.toSeconds(), CHECK_INTERVAL.toSeconds(), TimeUnit.SECONDS);
+    }
+
+    /**
+     * Runs the current pass until it completes, unless the next pass is not due yet.
+     */
+    void scrub() {
+        if (completedMillis > 0 && clock.millis() - completedMillis < intervalMillis) {
+            return;
+        }
+
+        List<Path> segmentFiles;
+        try (Stream<Path> paths = Files.list(logDir)) {
+            segmentFiles = paths.filter(Files::isRegularFile)
+                    .filter(path -> path.getFileName().toString().endsWith(LogSegment.EXTENSION))
+                    .filter(scrubbable)
+                    .sorted()
+                    .toList();
+        } catch (IOException ex) {
+            logger.error("Failed to list log segments to scrub", ex);
+            return;
+        }
+
+        long start = System.nanoTime();
+        long savedNanos = start;
+        long passBytes = 0;
+        for (Path segmentFile : segmentFiles) {
+            String name = segmentName(segmentFile);
+            LogSegment segment;
+            try {
+                segment = registry.acquire(segmentFile);
+            } catch (KiwiException ex) {
+                // Deleted by compaction in the meantime.
+                continue;
+            }
+            try {
+                long position = offsets.getOrDefault(name, 0L);
+                while (position < segment.size()) {
+                    long from = position;
+                    position = segment.verify(from, CHUNK_BYTES, corruptPosition -> {
+                        corruptRecords.increment();
+                        corruptSegments.add(name);
+                        logger.error("Checksum mismatch at position {} of log segment {}", corruptPosition, name);
+                    });
+                    offsets.put(name, position);
+                    scrubbedBytes.add(position - from);
+                    passBytes += position - from;
+
+                    if (System.nanoTime() - savedNanos >= SAVE_INTERVAL_NANOS) {
+                        save();
+                        savedNanos = System.nanoTime();
+                    }
+                    if (!throttle(start, passBytes)) {
+                        save();
+                        return;
+                    }
+                }
+            } catch (KiwiException ex) {
+                // Deleted segments are not read again, other segments are retried by the next pass.
+                logger.warn("Failed to scrub log segment {}", name, ex);
+            } finally {
+                registry.release(segment);
+            }
+        }
+
+        completedMillis = clock.millis();
+        offsets.clear();
+        passes.increment();
+        save();
+        logger.info("Scrubbed {} log segments with {} corrupt records in total", segmentFiles.size(), corruptRecords.sum());
+    }
+
+    // Sleeps until reading the bytes of the pass so far is within the rate limit. Returns false
+    // when interrupted by close.
+    private boolean throttle(long startNanos, long bytes) {
+        if (bytesPerSecond <= 0) {
+            return !Thread.currentThread().isInterrupted();
+        }
+        long dueNanos = startNanos + (long) (bytes * 1e9 / bytesPerSecond);
+        long sleepNanos = dueNanos - System.nanoTime();
+        if (sleepNanos <= 0) {
+            return !Thread.currentThread().isInterrupted();
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(sleepNanos);
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void load() {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                String[] fields = line.trim().split(" ");
+                if (fields.length != 2) {
+                    continue;
+                }
+                if (fields[0].equals(COMPLETED)) {
+                    completedMillis = Long.parseLong(fields[1]);
+                } else {
+                    offsets.put(fields[0], Long.parseLong(fields[1]));
+                }
+            }
+        } catch (IOException | NumberFormatException ex) {
+            // The current pass starts over.
+            logger.warn("Failed to read scrub progress {}", file, ex);
+            offsets.clear();
+        }
+    }
+
+    private void save() {
+        // Offsets of deleted segments are dropped.
+        offsets.keySet().removeIf(name -> !Files.exists(logDir.resolve(name + LogSegment.EXTENSION)));
+
+        List<String> lines = new ArrayList<>();
+        if (completedMillis > 0) {
+            lines.add(COMPLETED + " " + completedMillis);
+        }
+        new TreeMap<>(offsets).forEach((name, offset) -> lines.add(name + " " + offset));
+        Path partialFile = file.resolveSibling(FILE_NAME + ".partial");
+        try {
+            Files.write(partialFile, lines, StandardCharsets.UTF_8);
+            Files.move(partialFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            logger.warn("Failed to save scrub progress {}", file, ex);
+        }
+    }
+
+    private static String segmentName(Path file) {
+        String fileName = file.getFileName().toString();
+        int extension = fileName.indexOf('.');
+        return extension < 0 ? fileName : fileName.substring(0, extension);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("scrub_bytes", scrubbedBytes.sum());
+        stats.put("scrub_passes", passes.sum());
+        stats.put("scrub_last_pass", completedMillis / 1000);
+        stats.put("scrub_corrupt_records", corruptRecords.sum());
+        stats.put("scrub_corrupt_segments", corruptSegments.size());
+        return stats;
+    }
+
+    public List<Metric> metrics() {
+        return List.of(
+                Metric.counter("kiwi_scrub_bytes_total",
+                        "Bytes of sealed segments verified by the scrubber.", scrubbedBytes.sum()),
+                Metric.counter("kiwi_scrub_passes_total",
+                        "Number of completed scrub passes over all sealed segments.", passes.sum()),
+                Metric.counter("kiwi_scrub_corrupt_records_total",
+                        "Number of records that failed their checksum in scrub passes.", corruptRecords.sum()),
+                Metric.gauge("kiwi_scrub_corrupt_segments",
+                        "Number of sealed segments with corrupt records found by the scrubber.", corruptSegments.size()));
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        try {
+            if (!scheduler.awaitTermination(1, TimeUnit.MINUTES)) {
+                logger.warn("Segment scrubber did not shutdown in time");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
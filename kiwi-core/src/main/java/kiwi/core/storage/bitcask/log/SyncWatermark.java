@@ -0,0 +1,88 @@
+package kiwi.core.storage.bitcask.log;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Offset up to which the active segment is known to be synced to disk.
+ *
+ * <p>The watermark is saved to the {@code synced} file of the log directory as a
+ * {@code <segment> <offset> <crc>} line after a sync. Records before the watermark survived a
+ * crash, so recovery checks only the records after it. The file is written after the data was
+ * synced and is not synced itself: a lost update only makes recovery check more records.</p>
+ */
+public class SyncWatermark {
+    private static final Logger logger = LoggerFactory.getLogger(SyncWatermark.class);
+
+    static final String FILE_NAME = "synced";
+
+    // Saving the watermark costs a file write, so syncs save it at most this often.
+    private static final long UPDATE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private String segmentName;
+    private long offset;
+    private long updatedNanos;
+
+    /**
+     * Saves the synced offset of the active segment, unless it was saved for the same segment
+     * less than a second ago.
+     */
+    public synchronized void update(LogSegment segment) {
+        long syncedEnd = segment.syncedEnd();
+        if (syncedEnd == offset && segment.name().equals(segmentName)) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (segment.name().equals(segmentName) && now - updatedNanos < UPDATE_INTERVAL_NANOS) {
+            return;
+        }
+
+        String fields = segment.name() + " " + syncedEnd;
+        try {
+            Files.writeString(segment.file().resolveSibling(FILE_NAME),
+                    String.format(Locale.ROOT, "%s %d%n", fields, checksum(fields)), StandardCharsets.UTF_8);
+            segmentName = segment.name();
+            offset = syncedEnd;
+            updatedNanos = now;
+        } catch (IOException ex) {
+            logger.warn("Failed to save synced offset of log segment {}", segment.file(), ex);
+        }
+    }
+
+    /**
+     * Returns the saved synced offset of the segment, or zero if the watermark belongs to another
+     * segment or cannot be read.
+     */
+    static long read(Path segmentFile) {
+        Path file = segmentFile.resolveSibling(FILE_NAME);
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        try {
+            String[] fields = Files.readString(file, StandardCharsets.UTF_8).trim().split(" ");
+            String segmentName = segmentFile.getFileName().toString().replace(LogSegment.EXTENSION, "");
+            if (fields.length != 3 || !fields[0].equals(segmentName)
+                    || checksum(fields[0] + " " + fields[1]) != Long.parseLong(fields[2])) {
+                return 0;
+            }
+            return Long.parseLong(fields[1]);
+        } catch (IOException | NumberFormatException ex) {
+            logger.warn("Failed to read synced offset {}", file, ex);
+            return 0;
+        }
+    }
+
+    private static long checksum(String fields) {
+        CRC32 crc = new CRC32();
+        crc.update(fields.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+}
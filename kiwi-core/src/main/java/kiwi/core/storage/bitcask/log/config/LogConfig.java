@@ -8,16 +8,30 @@ import java.time.Duration;
 public class LogConfig {
     public final Path dir;
     public final long segmentBytes;
+    public final boolean segmentPreallocate;
+    public final int segmentPoolSize;
+    public final int segmentMaxOpenFiles;
     public final int keyDirBuilderThreads;
+    public final long keyDirMaxKeys;
+    public final Duration ttlBucketWindow;
     public final Sync sync;
     public final Compaction compaction;
+    public final Blob blob;
+    public final Scrub scrub;
 
     public LogConfig(Config config) {
         this.dir = Path.of(config.getString("dir"));
         this.segmentBytes = config.getLong("segment.bytes");
+        this.segmentPreallocate = config.getBoolean("segment.preallocate");
+        this.segmentPoolSize = config.getInt("segment.pool.size");
+        this.segmentMaxOpenFiles = config.getInt("segment.max.open.files");
         this.keyDirBuilderThreads = config.getInt("keydir.builder.threads");
+        this.keyDirMaxKeys = config.getLong("keydir.max.keys");
+        this.ttlBucketWindow = config.getDuration("ttl.bucket.window");
         this.sync = new Sync(config.getConfig("sync"));
         this.compaction = new Compaction(config.getConfig("compaction"));
+        this.blob = new Blob(config.getConfig("blob"));
+        this.scrub = new Scrub(config.getConfig("scrub"));
     }
 
     public static class Sync {
@@ -28,6 +42,8 @@ public class LogConfig {
         public final Mode mode;
         public final Duration interval;
         public final Duration window;
+        public final int lazyBufferBytes;
+        public final Duration lazyFlushInterval;
 
         public Sync(Config config) {
             String mode = config.getString("mode").toUpperCase();
@@ -39,6 +55,8 @@ public class LogConfig {
 
             this.interval = config.getDuration("periodic.interval");
             this.window = config.getDuration("batch.window");
+            this.lazyBufferBytes = config.getInt("lazy.buffer.bytes");
+            this.lazyFlushInterval = config.getDuration("lazy.flush.interval");
         }
     }
 
@@ -47,12 +65,48 @@ public class LogConfig {
         public final double minDirtyRatio;
         public final long segmentMinBytes;
         public final int threads;
+        public final Cold cold;
 
         public Compaction(Config config) {
             this.interval = config.getDuration("interval");
             this.minDirtyRatio = config.getDouble("min.dirty.ratio");
             this.segmentMinBytes = config.getLong("segment.min.bytes");
             this.threads = config.getInt("threads");
+            this.cold = new Cold(config.getConfig("cold"));
+        }
+
+        public static class Cold {
+            public final int generation;
+            public final double minDirtyRatio;
+            public final Duration interval;
+
+            public Cold(Config config) {
+                this.generation = config.getInt("generation");
+                this.minDirtyRatio = config.getDouble("min.dirty.ratio");
+                this.interval = config.getDuration("interval");
+            }
+        }
+    }
+
+    public static class Blob {
+        public final long thresholdBytes;
+        public final long fileBytes;
+        public final double minLiveRatio;
+
+        public Blob(Config config) {
+            this.thresholdBytes = config.getLong("threshold.bytes");
+            this.fileBytes = config.getLong("file.bytes");
+            this.minLiveRatio = config.getDouble("min.live.ratio");
+        }
+    }
+
+    public static class Scrub {
+        public final long bytesPerSecond;
+        public final Duration interval;
+
+        public Scrub(Config config) {
+            this.bytesPerSecond = config.getLong("bytes.per.second");
+            this.interval = config.getDuration("interval");
         }
     }
 }
@@ -1,91 +1,91 @@
 package kiwi.core.storage.bitcask.log.sync;
 
-import kiwi.core.common.KeyValue;
 import kiwi.core.common.NamedThreadFactory;
 import kiwi.core.error.KiwiWriteException;
+import kiwi.core.metrics.Metric;
 import kiwi.core.storage.bitcask.log.LogSegment;
 import kiwi.core.storage.bitcask.log.Record;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
 import java.time.Duration;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Supplier;
 
+/**
+ * A {@link SegmentWriter} that syncs the active segment once per window for all records appended
+ * in the window. Records are appended by their writers, which then wait for the next sync.
+ */
 public class BatchSegmentWriter extends SegmentWriter {
     private static final Logger logger = LoggerFactory.getLogger(BatchSegmentWriter.class);
 
     private final ScheduledExecutorService scheduler;
-    private final BlockingQueue<WriteRequest> queue;
+    // Records appended since the last sync. Replaced before every sync, so records appended
+    // while the segment is synced wait for the next sync.
+    private final AtomicReference<Batch> pending = new AtomicReference<>(new Batch());
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batchedRecords = new LongAdder();
 
     public BatchSegmentWriter(Supplier<LogSegment> activeSegmentSupplier, Duration window) {
         super(activeSegmentSupplier);
 
-        queue = new LinkedBlockingQueue<>();
-
         scheduler = Executors.newSingleThreadScheduledExecutor(NamedThreadFactory.create("sync"));
         scheduler.scheduleAtFixedRate(this::processBatch, 0, window.toMillis(), TimeUnit.MILLISECONDS);
     }
 
     @Override
-    public int append(Record record) throws KiwiWriteException {
-        WriteRequest request = new WriteRequest(record);
-        try {
-            queue.put(request);
-            return request.waitForSync();
-        } catch (IOException | InterruptedException e) {
-            throw new KiwiWriteException("Interrupted while waiting for sync", e);
-        }
+    public PendingWrite write(Record record) throws KiwiWriteException {
+        int written = super.write(record).bytes();
+        // Taken after the append, so the sync completing the batch starts after the append.
+        Batch batch = pending.get();
+        batch.records.increment();
+        return new PendingWrite(written, batch.synced);
     }
 
     private void processBatch() {
-        if (closed.get() || queue.isEmpty()) {
+        Batch batch = pending.get();
+        if (closed.get() || batch.records.sum() == 0) {
             return;
         }
 
+        pending.set(new Batch());
         try {
-            List<WriteRequest> batch = new ArrayList<>(queue.size());
-
-            int drained = queue.drainTo(batch);
-            if (drained == 0) {
-                return;
-            }
-
-            List<KeyValue<WriteRequest, Integer>> writes = new ArrayList<>(batch.size());
-            for (WriteRequest request : batch) {
-                int bytes = super.append(request.record);
-                writes.add(KeyValue.of(request, bytes));
-            }
-
             sync();
+        } catch (RuntimeException ex) {
+            // Writers of the batch are failed, so they do not wait forever.
+            batch.synced.completeExceptionally(new KiwiWriteException("Failed to sync batch", ex));
+            return;
+        }
 
-            for (KeyValue<WriteRequest, Integer> kv : writes) {
-                WriteRequest request = kv.key();
-                int written = kv.value();
-                request.markSynced(written);
-            }
+        long records = batch.records.sum();
+        batches.increment();
+        batchedRecords.add(records);
+        batch.synced.complete(null);
 
-            logger.trace("Synced active segment with batch of {} records", batch.size());
-        } catch (KiwiWriteException ex) {
-            handleSyncFailure(ex);
-        }
+        logger.trace("Synced active segment with batch of {} records", records);
     }
 
-    private void handleSyncFailure(KiwiWriteException ex) {
-        List<WriteRequest> failedRequests = new ArrayList<>();
-        queue.drainTo(failedRequests);
-
-        for (WriteRequest request : failedRequests) {
-            request.markFailed(ex);
-        }
+    @Override
+    public List<Metric> metrics() {
+        List<Metric> metrics = super.metrics();
+        metrics.add(Metric.gauge("kiwi_sync_queue_depth",
+                "Number of writes waiting for the next batch sync.", pending.get().records.sum()));
+        metrics.add(new Metric("kiwi_sync_batch_records",
+                "Number of records written per batch sync.",
+                Metric.Type.SUMMARY,
+                List.of(Metric.Sample.of("kiwi_sync_batch_records_sum", batchedRecords.sum()),
+                        Metric.Sample.of("kiwi_sync_batch_records_count", batches.sum()))));
+        return metrics;
     }
 
     @Override
     public void close() {
-        super.close();
         scheduler.shutdown();
         try {
             if (!scheduler.awaitTermination(15, TimeUnit.SECONDS)) {
@@ -95,48 +95,13 @@ public class BatchSegmentWriter extends SegmentWriter {
             scheduler.shutdownNow();
             logger.error("Error while shutting down periodic sync scheduler", e);
         }
+        // Closing the active segment syncs the records of the last batch.
+        super.close();
+        pending.get().synced.complete(null);
     }
 
-    private static class WriteRequest {
-        public final Record record;
-
-        private final Object lock = new Object();
-        private volatile int written = 0;
-        private volatile boolean isSynced = false;
-        private volatile KiwiWriteException syncException = null;
-
-        private WriteRequest(Record record) {
-            this.record = record;
-        }
-
-        public int waitForSync() throws InterruptedException, IOException {
-            synchronized (lock) {
-                while (!isSynced && syncException == null) {
-                    lock.wait();
-                }
-            }
-
-            if (syncException != null) {
-                throw syncException;
-            }
-
-            return written;
-        }
-
-        public void markSynced(int writtenBytes) {
-            synchronized (lock) {
-                written = writtenBytes;
-                isSynced = true;
-                lock.notifyAll();
-            }
-        }
-
-        public void markFailed(KiwiWriteException ex) {
-            synchronized (lock) {
-                isSynced = true;
-                syncException = ex;
-                lock.notifyAll();
-            }
-        }
+    private static class Batch {
+        private final CompletableFuture<Void> synced = new CompletableFuture<>();
+        private final LongAdder records = new LongAdder();
     }
 }
@@ -1,16 +1,89 @@
 package kiwi.core.storage.bitcask.log.sync;
 
+import kiwi.core.common.NamedThreadFactory;
+import kiwi.core.error.KiwiWriteException;
 import kiwi.core.storage.bitcask.log.LogSegment;
+import kiwi.core.storage.bitcask.log.Record;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
 /**
  * A {@link SegmentWriter} that appends records to the active segment and defers
  * fsync to operating system. This is useful for performance sensitive applications but
  * may result in data loss in case of a crash.
+ *
+ * <p>With an append buffer, records are collected in memory and written to the active segment
+ * with one write call when the buffer is full or after the flush interval, instead of one write
+ * call per record. Buffered records are also lost if the process crashes.</p>
  */
 public class LazySegmentWriter extends SegmentWriter {
+    private static final Logger logger = LoggerFactory.getLogger(LazySegmentWriter.class);
+
+    private final int bufferBytes;
+    private final ScheduledExecutorService scheduler;
+
+    // Last segment given an append buffer.
+    private volatile LogSegment bufferedSegment;
+
     public LazySegmentWriter(Supplier<LogSegment> activeSegmentSupplier) {
+        this(activeSegmentSupplier, 0, Duration.ZERO);
+    }
+
+    public LazySegmentWriter(Supplier<LogSegment> activeSegmentSupplier, int bufferBytes, Duration flushInterval) {
         super(activeSegmentSupplier);
+        this.bufferBytes = bufferBytes;
+
+        if (bufferBytes > 0 && flushInterval.isPositive()) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(NamedThreadFactory.create("flush"));
+            this.scheduler.scheduleAtFixedRate(() -> {
+                        if (!closed.get()) {
+                            try {
+                                activeSegment().flush();
+                            } catch (KiwiWriteException ex) {
+                                logger.error("Failed to flush active segment", ex);
+                            }
+                        }
+                    },
+                    flushInterval.toMillis(),
+                    flushInterval.toMillis(),
+                    TimeUnit.MILLISECONDS
+            );
+        } else {
+            this.scheduler = null;
+        }
+    }
+
+    @Override
+    public PendingWrite write(Record record) throws KiwiWriteException {
+        if (bufferBytes > 0) {
+            LogSegment segment = activeSegment();
+            if (segment != bufferedSegment) {
+                segment.useAppendBuffer(bufferBytes);
+                bufferedSegment = segment;
+            }
+        }
+        return super.write(record);
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        if (scheduler != null) {
+            scheduler.shutdown();
+            try {
+                if (!scheduler.awaitTermination(15, TimeUnit.SECONDS)) {
+                    scheduler.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                scheduler.shutdownNow();
+                logger.error("Error while shutting down lazy flush scheduler", e);
+            }
+        }
     }
 }
@@ -0,0 +1,43 @@
+package kiwi.core.storage.bitcask.log.sync;
+
+import kiwi.core.error.KiwiWriteException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A record appended to the active segment, which may still wait for the sync of its batch.
+ *
+ * @param bytes  the number of bytes written
+ * @param synced completed once the record is synced as required by the sync mode
+ */
+public record PendingWrite(int bytes, CompletableFuture<Void> synced) {
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+    /**
+     * A write that does not wait for a sync.
+     */
+    public static PendingWrite done(int bytes) {
+        return new PendingWrite(bytes, DONE);
+    }
+
+    /**
+     * Waits until the record is synced and returns the number of bytes written.
+     *
+     * @throws KiwiWriteException if the sync fails or the thread is interrupted
+     */
+    public int await() throws KiwiWriteException {
+        try {
+            synced.get();
+            return bytes;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new KiwiWriteException("Interrupted while waiting for sync", e);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof KiwiWriteException cause) {
+                throw cause;
+            }
+            throw new KiwiWriteException("Failed to sync record", ex.getCause());
+        }
+    }
+}
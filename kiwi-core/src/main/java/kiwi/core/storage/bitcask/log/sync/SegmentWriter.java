@@ -1,15 +1,23 @@
 package kiwi.core.storage.bitcask.log.sync;
 
 import kiwi.core.error.KiwiWriteException;
+import kiwi.core.metrics.LatencyHistogram;
+import kiwi.core.metrics.Metric;
 import kiwi.core.storage.bitcask.log.LogSegment;
 import kiwi.core.storage.bitcask.log.Record;
+import kiwi.core.storage.bitcask.log.SyncWatermark;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Supplier;
 
 public abstract class SegmentWriter implements AutoCloseable {
     protected final Supplier<LogSegment> activeSegmentSupplier;
     protected final AtomicBoolean closed = new AtomicBoolean(false);
+    protected final LatencyHistogram syncLatency = new LatencyHistogram();
+    // Lets recovery skip checksums of the records synced before a crash.
+    private final SyncWatermark syncWatermark = new SyncWatermark();
 
     public SegmentWriter(Supplier<LogSegment> activeSegmentSupplier) {
         this.activeSegmentSupplier = activeSegmentSupplier;
@@ -24,19 +32,53 @@ public abstract class SegmentWriter implements AutoCloseable {
      * @throws KiwiWriteException if an error occurs while writing the record
      */
     public int append(Record record) throws KiwiWriteException {
+        return write(record).await();
+    }
+
+    /**
+     * Append a record to the active segment without waiting for it to be synced.
+     *
+     * <p>Callers holding locks release them before {@link PendingWrite#await() awaiting} the
+     * write, so writers waiting for the same sync do not block each other.</p>
+     *
+     * @param record the record to append
+     * @throws KiwiWriteException if an error occurs while writing the record
+     */
+    public PendingWrite write(Record record) throws KiwiWriteException {
         if (closed.get()) {
             throw new KiwiWriteException("Segment writer is closed");
         }
 
-        return activeSegment().append(record);
+        return PendingWrite.done(activeSegment().append(record));
     }
 
     protected void sync() {
         if (!closed.get()) {
-            activeSegment().sync();
+            long start = System.nanoTime();
+            LogSegment segment = activeSegment();
+            segment.sync();
+            syncLatency.record(System.nanoTime() - start);
+            syncWatermark.update(segment);
         }
     }
 
+    /**
+     * Latency of active segment syncs issued by this writer.
+     */
+    public LatencyHistogram syncLatency() {
+        return syncLatency;
+    }
+
+    /**
+     * Writer metrics exported to monitoring systems.
+     */
+    public List<Metric> metrics() {
+        List<Metric> metrics = new ArrayList<>();
+        metrics.add(Metric.summary("kiwi_fsync_duration_seconds",
+                "Duration of active segment syncs.", syncLatency.snapshot()));
+        return metrics;
+    }
+
     protected LogSegment activeSegment() {
         return activeSegmentSupplier.get();
     }
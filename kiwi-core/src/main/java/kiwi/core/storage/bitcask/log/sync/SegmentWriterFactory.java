@@ -16,7 +16,7 @@ public class SegmentWriterFactory {
         return switch (config.mode) {
             case PERIODIC -> new PeriodicSegmentWriter(activeSegmentSupplier, config.interval);
             case BATCH -> new BatchSegmentWriter(activeSegmentSupplier, config.window);
-            case LAZY -> new LazySegmentWriter(activeSegmentSupplier);
+            case LAZY -> new LazySegmentWriter(activeSegmentSupplier, config.lazyBufferBytes, config.lazyFlushInterval);
         };
     }
 }
@@ -1,12 +1,19 @@
 package kiwi.core.storage.config;
 
 import com.typesafe.config.Config;
+import kiwi.core.storage.bitcask.cache.config.CacheConfig;
 import kiwi.core.storage.bitcask.log.config.LogConfig;
 
 public class StorageConfig {
     public final LogConfig log;
+    public final CacheConfig cache;
+    public final int shards;
+    public final int databases;
 
     public StorageConfig(Config config) {
         this.log = new LogConfig(config.getConfig("log"));
+        this.cache = new CacheConfig(config.getConfig("cache"));
+        this.shards = config.getInt("shards");
+        this.databases = config.getInt("databases");
     }
 }
@@ -3,8 +3,14 @@ package kiwi.core.common;
 import kiwi.core.common.Bytes;
 import org.junit.jupiter.api.Test;
 
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class BytesTest {
 
@@ -38,4 +44,50 @@ class BytesTest {
         assertEquals("test-\\x01\\x02\\x03", bytes.toString());
     }
 
-}
\ No newline at end of file
+    @Test
+    void testView() {
+        byte[] array = {0, 1, 2, 3, 4};
+        Bytes view = Bytes.wrap(array, 1, 3);
+
+        assertEquals(3, view.size());
+        assertEquals(Bytes.wrap(new byte[]{1, 2, 3}), view);
+        assertEquals(Bytes.wrap(new byte[]{1, 2, 3}).hashCode(), view.hashCode());
+        assertArrayEquals(new byte[]{1, 2, 3}, view.get());
+        assertEquals(Bytes.wrap(new byte[]{2, 3}), view.slice(1, 2));
+        assertEquals("\\x01\\x02\\x03", view.toString());
+        assertThrows(IndexOutOfBoundsException.class, () -> Bytes.wrap(array, 3, 3));
+    }
+
+    @Test
+    void testWrapByteBuffer() {
+        byte[] array = {1, 2, 3};
+        ByteBuffer buffer = ByteBuffer.wrap(array).position(1);
+        Bytes bytes = Bytes.wrap(buffer);
+
+        assertEquals(Bytes.wrap(new byte[]{2, 3}), bytes);
+        assertEquals(1, buffer.position());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(2).put(new byte[]{4, 5}).flip();
+        assertEquals(Bytes.wrap(new byte[]{4, 5}), Bytes.wrap(direct));
+
+        ByteBuffer written = ByteBuffer.allocate(2);
+        bytes.writeTo(written);
+        assertArrayEquals(new byte[]{2, 3}, written.array());
+        assertEquals(ByteBuffer.wrap(new byte[]{2, 3}), bytes.toByteBuffer());
+    }
+
+    @Test
+    void testGetReturnsWrappedArray() {
+        byte[] array = {1, 2, 3};
+        assertSame(array, Bytes.wrap(array).get());
+    }
+
+    @Test
+    void testCompareUnsigned() {
+        Bytes a = Bytes.wrap(new byte[]{9, 1, 2}, 1, 2);
+        Bytes b = Bytes.wrap(new byte[]{1, (byte) 0xFF});
+        assertTrue(Bytes.compareUnsigned(a, b) < 0);
+        assertTrue(Bytes.compareUnsigned(b, a) > 0);
+        assertEquals(0, Bytes.compareUnsigned(a, Bytes.wrap(new byte[]{1, 2})));
+    }
+}
@@ -0,0 +1,59 @@
+package kiwi.core.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyHistogramTest {
+
+    @Test
+    void testBucketBoundsContainValue() {
+        long[] values = {0, 1, 15, 16, 17, 100, 1_000, 123_456, 10_000_000, 1L << 40};
+        for (long value : values) {
+            int bucket = LatencyHistogram.bucket(value);
+            assertTrue(LatencyHistogram.upperBound(bucket) >= value);
+            if (bucket > 0) {
+                assertTrue(LatencyHistogram.upperBound(bucket - 1) < value);
+            }
+        }
+    }
+
+    @Test
+    void testLargeValuesAreCountedInLastBucket() {
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.count());
+        assertEquals(500_500_000L, snapshot.sum());
+
+        long p50 = snapshot.percentile(50);
+        long p99 = snapshot.percentile(99);
+        assertTrue(p50 >= 500_000 && p50 <= 500_000 * 1.07, "p50=" + p50);
+        assertTrue(p99 >= 990_000 && p99 <= 990_000 * 1.07, "p99=" + p99);
+    }
+
+    @Test
+    void testEmptySnapshot() {
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+        assertEquals(0, snapshot.count());
+        assertEquals(0, snapshot.percentile(99));
+        assertEquals(0.0, snapshot.mean());
+    }
+
+    @Test
+    void testReset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(100);
+        histogram.reset();
+        assertEquals(0, histogram.snapshot().count());
+    }
+}
@@ -0,0 +1,57 @@
+package kiwi.core.storage;
+
+import kiwi.core.common.Bytes;
+import kiwi.core.error.KiwiException;
+import kiwi.core.storage.bitcask.BitcaskStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DatabasesTest {
+
+    @TempDir
+    Path root;
+
+    @Test
+    void testDatabasesAreIndependent() {
+        Databases databases = new Databases(4, index -> BitcaskStore.open(Databases.directory(root, index)));
+        databases.get(0).put(Bytes.wrap("k1"), Bytes.wrap("v1"));
+        databases.get(2).put(Bytes.wrap("k1"), Bytes.wrap("v2"));
+
+        assertEquals(Bytes.wrap("v1"), databases.get(0).get(Bytes.wrap("k1")).orElseThrow());
+        assertEquals(Bytes.wrap("v2"), databases.get(2).get(Bytes.wrap("k1")).orElseThrow());
+        assertEquals(2, databases.opened().size());
+
+        databases.get(2).purge();
+        assertEquals(1, databases.get(0).size());
+
+        databases.close();
+    }
+
+    @Test
+    void testSnapshot() {
+        Path logDir = root.resolve("data");
+        Path snapshotDir = root.resolve("snapshot");
+        Databases databases = new Databases(4, index -> BitcaskStore.open(Databases.directory(logDir, index)));
+        databases.get(0).put(Bytes.wrap("k1"), Bytes.wrap("v1"));
+        databases.get(2).put(Bytes.wrap("k2"), Bytes.wrap("v2"));
+
+        databases.snapshot(snapshotDir);
+        assertThrows(KiwiException.class, () -> databases.snapshot(snapshotDir));
+        databases.close();
+
+        Databases restored = new Databases(4, index -> BitcaskStore.open(Databases.directory(snapshotDir, index)));
+        assertEquals(Bytes.wrap("v1"), restored.get(0).get(Bytes.wrap("k1")).orElseThrow());
+        assertEquals(Bytes.wrap("v2"), restored.get(2).get(Bytes.wrap("k2")).orElseThrow());
+        restored.close();
+    }
+
+    @Test
+    void testDatabaseIndexOutOfRange() {
+        Databases databases = new Databases(2, index -> BitcaskStore.open(Databases.directory(root, index)));
+        assertThrows(IndexOutOfBoundsException.class, () -> databases.get(2));
+    }
+}
@@ -0,0 +1,103 @@
+package kiwi.core.storage;
+
+import kiwi.core.common.Bytes;
+import kiwi.core.metrics.Metric;
+import kiwi.core.storage.bitcask.BitcaskStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardedStoreTest {
+
+    @TempDir
+    Path root;
+
+    private ShardedStore open(int shards) {
+        List<BitcaskStore> stores = new ArrayList<>();
+        for (int i = 0; i < shards; i++) {
+            stores.add(BitcaskStore.open(root.resolve(ShardedStore.SHARD_DIR_PREFIX + i)));
+        }
+        return new ShardedStore(stores);
+    }
+
+    @Test
+    void testPutAndGet() {
+        ShardedStore store = open(4);
+        for (int i = 0; i < 100; i++) {
+            store.put(Bytes.wrap("k" + i), Bytes.wrap("v" + i));
+        }
+        store.delete(Bytes.wrap("k0"));
+
+        assertEquals(99, store.size());
+        assertTrue(store.get(Bytes.wrap("k0")).isEmpty());
+        assertEquals(Bytes.wrap("v42"), store.get(Bytes.wrap("k42")).orElseThrow());
+        assertTrue(store.contains(Bytes.wrap("k99")));
+    }
+
+    @Test
+    void testKeysAreSpreadOverShards() {
+        ShardedStore store = open(4);
+        for (int i = 0; i < 100; i++) {
+            store.put(Bytes.wrap("k" + i), Bytes.wrap("v" + i));
+        }
+
+        Set<KeyValueStore<Bytes, Bytes>> used = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            used.add(store.shard(Bytes.wrap("k" + i)));
+        }
+        assertEquals(4, used.size());
+    }
+
+    @Test
+    void testScanVisitsAllShards() {
+        ShardedStore store = open(3);
+        for (int i = 0; i < 100; i++) {
+            store.put(Bytes.wrap("k" + i), Bytes.wrap("v" + i));
+        }
+
+        Set<Bytes> keys = new HashSet<>();
+        long cursor = 0;
+        do {
+            ScanResult<Bytes> result = store.scan(cursor, 10, key -> true);
+            keys.addAll(result.keys());
+            cursor = result.cursor();
+        } while (cursor != 0);
+
+        assertEquals(100, keys.size());
+    }
+
+    @Test
+    void testPurge() {
+        ShardedStore store = open(2);
+        store.put(Bytes.wrap("k1"), Bytes.wrap("v1"));
+        store.put(Bytes.wrap("k2"), Bytes.wrap("v2"));
+
+        store.purge();
+
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    void testStatsAndMetricsAreAggregated() {
+        ShardedStore store = open(2);
+        store.put(Bytes.wrap("k1"), Bytes.wrap("v1"));
+        store.put(Bytes.wrap("k2"), Bytes.wrap("v2"));
+
+        assertEquals(2, store.stats().get("shards"));
+        assertEquals(2L, store.stats().get("keys"));
+
+        Metric keys = store.metrics().stream()
+                .filter(metric -> metric.name().equals("kiwi_keydir_keys"))
+                .findFirst()
+                .orElseThrow();
+        assertEquals(2, keys.samples().size());
+        assertEquals("1", keys.samples().getLast().labels().get("shard"));
+    }
+}
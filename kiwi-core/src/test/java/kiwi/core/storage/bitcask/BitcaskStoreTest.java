@@ -2,6 +2,10 @@ package kiwi.core.storage.bitcask;
 
 import kiwi.core.common.Bytes;
 import kiwi.core.common.KeyValue;
+import kiwi.core.storage.KeyValueStore;
+import kiwi.core.storage.ScanResult;
+import kiwi.core.storage.bitcask.log.BlobLog;
+import kiwi.core.storage.bitcask.log.BlobPointer;
 import kiwi.core.storage.bitcask.log.Record;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
@@ -13,7 +17,17 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -58,6 +72,124 @@ class BitcaskStoreTest {
         assertTrue(store.get(Bytes.wrap("k1")).isEmpty());
     }
 
+    @Test
+    void testConcurrentUpdates() throws InterruptedException {
+        BitcaskStore store = BitcaskStore.Builder(root).withLogSegmentBytes(1024).build();
+        Bytes key = Bytes.wrap("counter");
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            threads.add(Thread.ofPlatform().start(() -> {
+                for (int j = 0; j < 500; j++) {
+                    store.update(key, value -> Optional.of(Bytes.wrap(Long.toString(
+                            value.map(bytes -> Long.parseLong(bytes.toString())).orElse(0L) + 1))), 0);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(Bytes.wrap("2000"), store.get(key).orElseThrow());
+        store.close();
+    }
+
+    @Test
+    void testUpdate() {
+        AtomicLong now = new AtomicLong(1000);
+        Clock clock = new Clock() {
+            @Override
+            public ZoneId getZone() {
+                return ZoneOffset.UTC;
+            }
+
+            @Override
+            public Clock withZone(ZoneId zone) {
+                return this;
+            }
+
+            @Override
+            public Instant instant() {
+                return Instant.ofEpochMilli(now.get());
+            }
+        };
+        BitcaskStore store = BitcaskStore.Builder(root).withClock(clock).build();
+        Bytes key = Bytes.wrap("k1");
+
+        // Empty results leave the key unchanged.
+        assertTrue(store.update(key, value -> Optional.empty(), 0).isEmpty());
+        assertFalse(store.contains(key));
+
+        store.put(key, Bytes.wrap("v1"), 100);
+        Optional<Bytes> previous = store.update(key, value -> Optional.of(Bytes.wrap("v2")), KeyValueStore.KEEP_TTL);
+        assertEquals(Bytes.wrap("v1"), previous.orElseThrow());
+        now.addAndGet(200);
+        assertTrue(store.get(key).isEmpty());
+
+        store.update(key, value -> Optional.of(Bytes.wrap("v3")), 100);
+        store.update(key, value -> Optional.of(Bytes.wrap("v4")), 0);
+        now.addAndGet(200);
+        assertEquals(Bytes.wrap("v4"), store.get(key).orElseThrow());
+
+        assertThrows(IllegalStateException.class, () -> store.update(key, value -> {
+            throw new IllegalStateException();
+        }, 0));
+        assertEquals(Bytes.wrap("v4"), store.get(key).orElseThrow());
+    }
+
+    @Test
+    void testUpdateIsAtomicWithPurge() throws Exception {
+        BitcaskStore store = BitcaskStore.open(root);
+        Bytes key = Bytes.wrap("counter");
+        store.put(key, Bytes.wrap("1"));
+
+        CountDownLatch computing = new CountDownLatch(1);
+        Thread updater = Thread.ofPlatform().start(() -> store.update(key, value -> {
+            computing.countDown();
+            try {
+                // Gives the purge time to run between reading the value and writing the new one.
+                TimeUnit.MILLISECONDS.sleep(200);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return Optional.of(Bytes.wrap("2"));
+        }, 0));
+        computing.await();
+        Thread purger = Thread.ofPlatform().start(store::purge);
+        updater.join();
+        purger.join();
+
+        // The purge waited for the update, so the value computed from flushed data is gone.
+        assertTrue(store.get(key).isEmpty());
+        store.close();
+    }
+
+    @Test
+    void testPutWaitsForUpdateOfSameKey() throws Exception {
+        BitcaskStore store = BitcaskStore.open(root);
+        Bytes key = Bytes.wrap("counter");
+        store.put(key, Bytes.wrap("1"));
+
+        CountDownLatch computing = new CountDownLatch(1);
+        Thread updater = Thread.ofPlatform().start(() -> store.update(key, value -> {
+            computing.countDown();
+            try {
+                // Gives the put time to run between reading the value and writing the new one.
+                TimeUnit.MILLISECONDS.sleep(200);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return Optional.of(Bytes.wrap("2"));
+        }, 0));
+        computing.await();
+        Thread writer = Thread.ofPlatform().start(() -> store.put(key, Bytes.wrap("100")));
+        updater.join();
+        writer.join();
+
+        // The put waited for the update, so it is not overwritten by the incremented old value.
+        assertEquals(Bytes.wrap("100"), store.get(key).orElseThrow());
+        store.close();
+    }
+
     @Test
     void testDelete() {
         BitcaskStore store = BitcaskStore.open(root);
@@ -170,6 +302,212 @@ class BitcaskStoreTest {
         assertEquals(0, store.size());
     }
 
+    @Test
+    void testPurgeStartsNewEpoch() throws IOException {
+        BitcaskStore store = BitcaskStore.open(root);
+        store.put(Bytes.wrap("k1"), Bytes.wrap("v1"));
+        store.put(Bytes.wrap("k2"), Bytes.wrap("v2"));
+
+        store.purge();
+        store.put(Bytes.wrap("k3"), Bytes.wrap("v3"));
+        store.close();
+
+        // Segment of the previous epoch is deleted in the background.
+        assertFalse(Files.exists(root.resolve("00000000000000000000.log")));
+
+        BitcaskStore reopened = BitcaskStore.open(root);
+        assertEquals(1, reopened.size());
+        assertTrue(reopened.get(Bytes.wrap("k1")).isEmpty());
+        assertEquals(Bytes.wrap("v3"), reopened.get(Bytes.wrap("k3")).orElseThrow());
+    }
+
+    @Test
+    void testRecoveryIgnoresSegmentsBeforeEpoch() throws IOException {
+        BitcaskStore store = BitcaskStore.open(root);
+        store.put(Bytes.wrap("k1"), Bytes.wrap("v1"));
+        store.purge();
+        store.put(Bytes.wrap("k2"), Bytes.wrap("v2"));
+        store.close();
+
+        // Simulate a crash before the segment of the previous epoch was deleted.
+        Files.write(root.resolve("00000000000000000000.log"), Record.of(Bytes.wrap("k1"), Bytes.wrap("v1"), 1).toByteBuffer().array());
+
+        BitcaskStore reopened = BitcaskStore.open(root);
+        assertEquals(1, reopened.size());
+        assertTrue(reopened.get(Bytes.wrap("k1")).isEmpty());
+        assertEquals(Bytes.wrap("v2"), reopened.get(Bytes.wrap("k2")).orElseThrow());
+    }
+
+    @Test
+    void testCheckpointLoadAndApply() throws IOException {
+        Path leaderDir = root.resolve("leader");
+        Path followerDir = root.resolve("follower");
+        Path stagingDir = Files.createDirectories(root.resolve("staging"));
+
+        BitcaskStore leader = BitcaskStore.open(leaderDir);
+        leader.put(Bytes.wrap("k1"), Bytes.wrap("v1"));
+        leader.put(Bytes.wrap("k2"), Bytes.wrap("v2"));
+
+        List<Record> tail = new ArrayList<>();
+        List<Path> copies = new ArrayList<>();
+        try (Checkpoint checkpoint = leader.checkpoint(tail::add)) {
+            for (Path file : checkpoint.files()) {
+                copies.add(Files.copy(file, stagingDir.resolve(file.getFileName())));
+            }
+        }
+        leader.put(Bytes.wrap("k1"), Bytes.wrap("v1-updated"));
+        leader.delete(Bytes.wrap("k2"));
+
+        BitcaskStore follower = BitcaskStore.open(followerDir);
+        follower.put(Bytes.wrap("stale"), Bytes.wrap("value"));
+        follower.load(copies);
+        assertEquals(2, follower.size());
+        assertFalse(follower.contains(Bytes.wrap("stale")));
+
+        tail.forEach(follower::apply);
+        assertEquals(1, follower.size());
+        assertEquals(Bytes.wrap("v1-updated"), follower.get(Bytes.wrap("k1")).orElseThrow());
+        follower.close();
+
+        BitcaskStore reopened = BitcaskStore.open(followerDir);
+        assertEquals(1, reopened.size());
+        assertEquals(Bytes.wrap("v1-updated"), reopened.get(Bytes.wrap("k1")).orElseThrow());
+    }
+
+    @Test
+    void testSnapshot() throws IOException {
+        Path snapshotDir = root.resolve("snapshot");
+        BitcaskStore store = BitcaskStore.open(root.resolve("store"));
+        store.put(Bytes.wrap("k1"), Bytes.wrap("v1"));
+        store.put(Bytes.wrap("k2"), Bytes.wrap("v2"));
+
+        store.snapshot(snapshotDir);
+        store.put(Bytes.wrap("k1"), Bytes.wrap("v1-updated"));
+        store.put(Bytes.wrap("k3"), Bytes.wrap("v3"));
+        store.close();
+
+        try (Stream<Path> files = Files.list(snapshotDir)) {
+            for (Path file : files.toList()) {
+                assertEquals(2, Files.getAttribute(file, "unix:nlink"));
+            }
+        }
+
+        BitcaskStore snapshot = BitcaskStore.open(snapshotDir);
+        assertEquals(2, snapshot.size());
+        assertEquals(Bytes.wrap("v1"), snapshot.get(Bytes.wrap("k1")).orElseThrow());
+        assertFalse(snapshot.contains(Bytes.wrap("k3")));
+        snapshot.close();
+    }
+
+    @Test
+    void testScanSkipsExpiredKeys() {
+        BitcaskStore store = BitcaskStore.open(root);
+        store.put(Bytes.wrap("k1"), Bytes.wrap("v1"));
+        store.put(Bytes.wrap("k2"), Bytes.wrap("v2"), -30 * 1000);
+        store.put(Bytes.wrap("k3"), Bytes.wrap("v3"));
+
+        ScanResult<Bytes> result = store.scan(0, Integer.MAX_VALUE, key -> !key.equals(Bytes.wrap("k3")));
+
+        assertEquals(0, result.cursor());
+        assertEquals(List.of(Bytes.wrap("k1")), result.keys());
+    }
+
+    @Test
+    void testBoundedKeyDir() throws IOException {
+        BitcaskStore store = BitcaskStore.Builder(root)
+                .withLogSegmentBytes(200)
+                .withKeyDirMaxKeys(10)
+                .build();
+        for (int i = 0; i < 100; i++) {
+            store.put(Bytes.wrap(String.format(Locale.ROOT, "k%02d", i)), Bytes.wrap(String.format(Locale.ROOT, "v%02d", i)));
+        }
+        store.close();
+
+        try (Stream<Path> files = Files.list(root)) {
+            assertTrue(files.anyMatch(path -> path.getFileName().toString().endsWith(SegmentIndex.EXTENSION)));
+        }
+
+        // Only keys of the active segment are loaded, and the rest is found in segment indexes.
+        store = BitcaskStore.Builder(root)
+                .withLogSegmentBytes(200)
+                .withKeyDirMaxKeys(10)
+                .build();
+        assertEquals(100, store.size());
+        assertTrue((int) store.stats().get("keydir_keys") <= 10);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Bytes.wrap(String.format(Locale.ROOT, "v%02d", i)), store.get(Bytes.wrap(String.format(Locale.ROOT, "k%02d", i))).orElseThrow());
+        }
+        assertTrue((int) store.stats().get("keydir_keys") <= 10);
+
+        store.delete(Bytes.wrap("k05"));
+        store.put(Bytes.wrap("k06"), Bytes.wrap("v06-updated"));
+        assertTrue(store.get(Bytes.wrap("k05")).isEmpty());
+        assertFalse(store.contains(Bytes.wrap("k05")));
+        assertEquals(Bytes.wrap("v06-updated"), store.get(Bytes.wrap("k06")).orElseThrow());
+        assertEquals(99, store.size());
+
+        ScanResult<Bytes> result = store.scan(0, Integer.MAX_VALUE, key -> true);
+        assertEquals(0, result.cursor());
+        assertEquals(99, result.keys().size());
+        assertFalse(result.keys().contains(Bytes.wrap("k05")));
+        store.close();
+
+        store = BitcaskStore.Builder(root)
+                .withLogSegmentBytes(200)
+                .withKeyDirMaxKeys(10)
+                .build();
+        assertEquals(99, store.size());
+        assertTrue(store.get(Bytes.wrap("k05")).isEmpty());
+        assertEquals(Bytes.wrap("v06-updated"), store.get(Bytes.wrap("k06")).orElseThrow());
+        store.close();
+    }
+
+    @Test
+    void testLargeValuesAreSeparated() throws IOException {
+        BitcaskStore store = BitcaskStore.Builder(root)
+                .withBlobThresholdBytes(16)
+                .build();
+        Bytes large = Bytes.wrap("a value larger than the threshold");
+        store.put(Bytes.wrap("large"), large);
+        store.put(Bytes.wrap("small"), Bytes.wrap("small"));
+        // A value that looks like a pointer is separated as well.
+        Bytes lookalike = new BlobPointer(1, 2, 3, 4).toBytes();
+        store.put(Bytes.wrap("lookalike"), lookalike);
+
+        assertEquals(large, store.get(Bytes.wrap("large")).orElseThrow());
+        assertEquals(lookalike, store.get(Bytes.wrap("lookalike")).orElseThrow());
+        assertEquals(1L, store.stats().get("blob_files"));
+        store.close();
+
+        try (Stream<Path> files = Files.list(root)) {
+            assertEquals(1, files.filter(BlobLog::isBlobFile).count());
+        }
+
+        // Separated values are read after recovery, also with separation turned off.
+        store = BitcaskStore.Builder(root).build();
+        assertEquals(large, store.get(Bytes.wrap("large")).orElseThrow());
+        assertEquals(Bytes.wrap("small"), store.get(Bytes.wrap("small")).orElseThrow());
+        assertEquals(lookalike, store.get(Bytes.wrap("lookalike")).orElseThrow());
+        store.close();
+    }
+
+    @Test
+    void testGetFromValueCache() {
+        BitcaskStore store = BitcaskStore.Builder(root)
+                .withValueCacheBytes(1024 * 1024)
+                .build();
+        store.put(Bytes.wrap("k1"), Bytes.wrap("v1"));
+
+        assertEquals(Bytes.wrap("v1"), store.get(Bytes.wrap("k1")).orElseThrow());
+        assertEquals(Bytes.wrap("v1"), store.get(Bytes.wrap("k1")).orElseThrow());
+        assertEquals(1L, store.stats().get("value_cache_hits"));
+        assertEquals(1L, store.stats().get("value_cache_misses"));
+
+        // Overwritten value is read from the new position.
+        store.put(Bytes.wrap("k1"), Bytes.wrap("v2"));
+        assertEquals(Bytes.wrap("v2"), store.get(Bytes.wrap("k1")).orElseThrow());
+    }
+
     @Test
     void testFileClose() throws IOException {
         FileChannel channel = FileChannel.open(root.resolve("test.log"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
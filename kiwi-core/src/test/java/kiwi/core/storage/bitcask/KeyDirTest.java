@@ -0,0 +1,67 @@
+package kiwi.core.storage.bitcask;
+
+import kiwi.core.common.Bytes;
+import kiwi.core.storage.ScanResult;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeyDirTest {
+
+    @Test
+    void testScanReturnsAllKeys() {
+        KeyDir keyDir = new KeyDir();
+        for (int i = 0; i < 10_000; i++) {
+            keyDir.put(Bytes.wrap("key" + i), new ValueReference(null, 0, 0, 0, i));
+        }
+
+        Set<Bytes> keys = new HashSet<>();
+        long cursor = 0;
+        int calls = 0;
+        do {
+            ScanResult<Bytes> result = keyDir.scan(cursor, 100, (key, valueRef) -> true);
+            keys.addAll(result.keys());
+            cursor = result.cursor();
+            calls++;
+        } while (cursor != 0);
+
+        assertEquals(10_000, keys.size());
+        assertTrue(calls > 1);
+    }
+
+    @Test
+    void testScanWithFilter() {
+        KeyDir keyDir = new KeyDir();
+        keyDir.put(Bytes.wrap("k1"), new ValueReference(null, 0, 0, 0, 0));
+        keyDir.put(Bytes.wrap("k2"), new ValueReference(null, 0, 0, 0, 0));
+
+        ScanResult<Bytes> result = keyDir.scan(0, Integer.MAX_VALUE, (key, valueRef) -> key.equals(Bytes.wrap("k2")));
+
+        assertEquals(0, result.cursor());
+        assertEquals(1, result.keys().size());
+        assertEquals(Bytes.wrap("k2"), result.keys().getFirst());
+    }
+
+    @Test
+    void testScanInvalidCursor() {
+        KeyDir keyDir = new KeyDir();
+        assertThrows(IllegalArgumentException.class, () -> keyDir.scan(-1, 10, (key, valueRef) -> true));
+        assertThrows(IllegalArgumentException.class, () -> keyDir.scan(KeyDir.STRIPES, 10, (key, valueRef) -> true));
+    }
+
+    @Test
+    void testSize() {
+        KeyDir keyDir = new KeyDir();
+        assertTrue(keyDir.isEmpty());
+
+        keyDir.put(Bytes.wrap("k1"), new ValueReference(null, 0, 0, 0, 0));
+        keyDir.put(Bytes.wrap("k2"), new ValueReference(null, 0, 0, 0, 0));
+        keyDir.remove(Bytes.wrap("k1"));
+
+        assertEquals(1, keyDir.size());
+        assertFalse(keyDir.isEmpty());
+    }
+}
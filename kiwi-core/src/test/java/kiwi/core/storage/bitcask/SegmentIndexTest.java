@@ -0,0 +1,102 @@
+package kiwi.core.storage.bitcask;
+
+import kiwi.core.common.Bytes;
+import kiwi.core.storage.bitcask.log.Hint;
+import kiwi.core.storage.bitcask.log.LogSegment;
+import kiwi.core.storage.bitcask.log.Record;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentIndexTest {
+
+    @TempDir
+    Path root;
+
+    @Test
+    void testFind() throws IOException {
+        LogSegment segment = LogSegment.open(root.resolve("001.log"));
+        for (int i = 0; i < 100; i++) {
+            segment.append(Record.of(Bytes.wrap("key-" + i), Bytes.wrap("value-" + i), i + 1));
+        }
+        segment.append(Record.of(Bytes.wrap("key-1"), Bytes.wrap("updated"), 200));
+        segment.append(Record.of(Bytes.wrap("key-2"), Record.TOMBSTONE, 201));
+        segment.markAsReadOnly();
+
+        SegmentIndex index = SegmentIndex.open(segment);
+        assertTrue(Files.exists(root.resolve("001" + SegmentIndex.EXTENSION)));
+        assertEquals(100, index.entries());
+        assertEquals(201, index.maxTimestamp());
+
+        for (int i = 3; i < 100; i++) {
+            Bytes key = Bytes.wrap("key-" + i);
+            assertTrue(index.mightContain(key));
+            Hint hint = index.find(key);
+            assertEquals(key, hint.key());
+            assertEquals(Bytes.wrap("value-" + i), index.valueReference(hint).get());
+        }
+        assertEquals(Bytes.wrap("updated"), index.valueReference(index.find(Bytes.wrap("key-1"))).get());
+        assertEquals(0, index.find(Bytes.wrap("key-2")).header().valueSize());
+        assertNull(index.find(Bytes.wrap("missing")));
+    }
+
+    @Test
+    void testForEachInStripe() {
+        LogSegment segment = LogSegment.open(root.resolve("001.log"));
+        for (int i = 0; i < 100; i++) {
+            segment.append(Record.of(Bytes.wrap("key-" + i), Bytes.wrap("value-" + i), i + 1));
+        }
+        segment.markAsReadOnly();
+        SegmentIndex index = SegmentIndex.open(segment);
+
+        Bytes key = Bytes.wrap("key-42");
+        List<Bytes> keys = new ArrayList<>();
+        index.forEachInStripe(KeyDir.stripeOf(key), hint -> keys.add(hint.key()));
+
+        assertTrue(keys.contains(key));
+        for (Bytes stripeKey : keys) {
+            assertEquals(KeyDir.stripeOf(key), KeyDir.stripeOf(stripeKey));
+        }
+    }
+
+    @Test
+    void testStaleIndexIsRebuilt() {
+        LogSegment segment = LogSegment.open(root.resolve("001.log"));
+        segment.append(Record.of(Bytes.wrap("k1"), Bytes.wrap("v1"), 1));
+        SegmentIndex.open(segment);
+
+        segment.append(Record.of(Bytes.wrap("k2"), Bytes.wrap("v2"), 2));
+        segment.markAsReadOnly();
+
+        SegmentIndex index = SegmentIndex.open(segment);
+        assertEquals(2, index.entries());
+        assertNotNull(index.find(Bytes.wrap("k2")));
+    }
+
+    @Test
+    void testBloomFilter() {
+        BloomFilter filter = BloomFilter.create(1000, SegmentIndex.BITS_PER_KEY);
+        for (int i = 0; i < 1000; i++) {
+            filter.add(Bytes.wrap("key-" + i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(filter.mightContain(Bytes.wrap("key-" + i)));
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (filter.mightContain(Bytes.wrap("missing-" + i))) {
+                falsePositives++;
+            }
+        }
+        // About 1% with 10 bits per key.
+        assertTrue(falsePositives < 500, "false positives: " + falsePositives);
+    }
+}
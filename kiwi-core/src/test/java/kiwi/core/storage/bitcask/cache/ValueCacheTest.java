@@ -0,0 +1,100 @@
+package kiwi.core.storage.bitcask.cache;
+
+import kiwi.core.common.Bytes;
+import kiwi.core.storage.bitcask.ValueReference;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ValueCacheTest {
+
+    @Test
+    void testGetReturnsCachedValue() {
+        ValueCache cache = new ValueCache(1024 * 1024, 1);
+        ValueReference ref = new ValueReference(null, 0, 2, 0, 0);
+
+        assertNull(cache.get(ref));
+
+        cache.put(ref, Bytes.wrap("v1"));
+
+        assertEquals(Bytes.wrap("v1"), cache.get(ref));
+        assertEquals(1, cache.stats().hits());
+        assertEquals(1, cache.stats().misses());
+        assertEquals(0.5, cache.stats().hitRatio());
+    }
+
+    @Test
+    void testNewPositionIsNotServedFromCache() {
+        ValueCache cache = new ValueCache(1024 * 1024, 1);
+        cache.put(new ValueReference(null, 0, 2, 0, 0), Bytes.wrap("v1"));
+
+        // Overwrite produces a new value reference.
+        assertNull(cache.get(new ValueReference(null, 34, 2, 0, 0)));
+    }
+
+    @Test
+    void testDisabledCache() {
+        ValueCache cache = ValueCache.disabled();
+        ValueReference ref = new ValueReference(null, 0, 2, 0, 0);
+        cache.put(ref, Bytes.wrap("v1"));
+
+        assertFalse(cache.isEnabled());
+        assertNull(cache.get(ref));
+        assertEquals(0, cache.stats().bytes());
+    }
+
+    @Test
+    void testCapacityIsBoundedInBytes() {
+        long capacity = 100 * (ValueCache.ENTRY_OVERHEAD + 10);
+        ValueCache cache = new ValueCache(capacity, 1);
+
+        for (int i = 0; i < 1000; i++) {
+            cache.put(new ValueReference(null, i, 10, 0, 0), Bytes.wrap(new byte[10]));
+        }
+
+        ValueCache.Stats stats = cache.stats();
+        assertTrue(stats.bytes() <= capacity);
+        assertEquals(100, stats.entries());
+        assertEquals(900, stats.evictions());
+    }
+
+    @Test
+    void testFrequentlyReadValuesAreRetained() {
+        long capacity = 100 * (ValueCache.ENTRY_OVERHEAD + 10);
+        ValueCache cache = new ValueCache(capacity, 1);
+
+        // Hot values are read repeatedly.
+        for (int i = 0; i < 50; i++) {
+            ValueReference ref = new ValueReference(null, i, 10, 0, 0);
+            cache.put(ref, Bytes.wrap(new byte[10]));
+            for (int j = 0; j < 5; j++) {
+                cache.get(ref);
+            }
+        }
+
+        // Scan of cold values that are read only once.
+        for (int i = 1000; i < 2000; i++) {
+            ValueReference ref = new ValueReference(null, i, 10, 0, 0);
+            cache.get(ref);
+            cache.put(ref, Bytes.wrap(new byte[10]));
+        }
+
+        // Scan would flush all hot values from a plain LRU cache.
+        int retained = 0;
+        for (int i = 0; i < 50; i++) {
+            if (cache.get(new ValueReference(null, i, 10, 0, 0)) != null) {
+                retained++;
+            }
+        }
+        assertTrue(retained >= 35, "Retained " + retained + " hot values");
+    }
+
+    @Test
+    void testValueLargerThanCapacityIsNotCached() {
+        ValueCache cache = new ValueCache(64, 1);
+        ValueReference ref = new ValueReference(null, 0, 128, 0, 0);
+        cache.put(ref, Bytes.wrap(new byte[128]));
+
+        assertNull(cache.get(ref));
+    }
+}
@@ -0,0 +1,100 @@
+package kiwi.core.storage.bitcask.log;
+
+import kiwi.core.common.Bytes;
+import kiwi.core.error.KiwiReadException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlobLogTest {
+
+    @TempDir
+    Path root;
+
+    @Test
+    void testWriteAndRead() {
+        try (BlobLog blobLog = new BlobLog(root, 1024, false)) {
+            BlobPointer p1 = blobLog.write(Bytes.wrap("value-1"));
+            BlobPointer p2 = blobLog.write(Bytes.wrap("value-2"));
+            blobLog.release(p1);
+            blobLog.release(p2);
+
+            assertEquals(p1.fileId(), p2.fileId());
+            assertEquals(7, p2.position());
+            assertEquals(Bytes.wrap("value-1"), blobLog.read(p1));
+            assertEquals(Bytes.wrap("value-2"), blobLog.read(p2));
+            assertTrue(BlobLog.isBlobFile(blobLog.file(p1.fileId())));
+            assertEquals(p1.fileId(), BlobLog.fileId(blobLog.file(p1.fileId())));
+        }
+    }
+
+    @Test
+    void testPointerBytes() {
+        BlobPointer pointer = new BlobPointer(-1L, 42, 7, 123);
+        Bytes bytes = pointer.toBytes();
+
+        assertEquals(BlobPointer.BYTES, bytes.size());
+        assertTrue(BlobPointer.isPointer(bytes));
+        assertEquals(pointer, BlobPointer.fromBytes(bytes));
+        assertFalse(BlobPointer.isPointer(Bytes.wrap("not a pointer")));
+        assertThrows(IllegalArgumentException.class, () -> BlobPointer.fromBytes(Bytes.wrap("not a pointer")));
+    }
+
+    @Test
+    void testSealedFiles() {
+        try (BlobLog blobLog = new BlobLog(root, 8, false)) {
+            BlobPointer p1 = blobLog.write(Bytes.wrap("value-1"));
+            blobLog.release(p1);
+            // The value does not fit into the first file.
+            BlobPointer p2 = blobLog.write(Bytes.wrap("value-2"));
+
+            assertNotEquals(p1.fileId(), p2.fileId());
+            assertEquals(1, blobLog.sealedFiles().size());
+            assertEquals(Long.valueOf(7), blobLog.sealedFiles().get(p1.fileId()));
+
+            // Files with pending writes are not sealed.
+            blobLog.roll();
+            assertFalse(blobLog.sealedFiles().containsKey(p2.fileId()));
+            blobLog.release(p2);
+            assertTrue(blobLog.sealedFiles().containsKey(p2.fileId()));
+            assertEquals(2, blobLog.files());
+            assertEquals(14, blobLog.bytes());
+        }
+    }
+
+    @Test
+    void testReadDeletedFile() {
+        try (BlobLog blobLog = new BlobLog(root, 1024, false)) {
+            BlobPointer pointer = blobLog.write(Bytes.wrap("value"));
+            blobLog.release(pointer);
+            blobLog.roll();
+
+            blobLog.delete(pointer.fileId());
+            assertFalse(Files.exists(blobLog.file(pointer.fileId())));
+            // Readers of a deleted file still find the value until the file is cleaned.
+            assertEquals(Bytes.wrap("value"), blobLog.read(pointer));
+        }
+    }
+
+    @Test
+    void testChecksumMismatch() throws IOException {
+        try (BlobLog blobLog = new BlobLog(root, 1024, false)) {
+            BlobPointer pointer = blobLog.write(Bytes.wrap("value"));
+            blobLog.release(pointer);
+            blobLog.roll();
+
+            try (FileChannel channel = FileChannel.open(blobLog.file(pointer.fileId()), StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.wrap(new byte[]{'V'}), 0);
+            }
+            assertThrows(KiwiReadException.class, () -> blobLog.read(pointer));
+        }
+    }
+}
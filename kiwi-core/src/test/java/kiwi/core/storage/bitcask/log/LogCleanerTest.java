@@ -2,21 +2,89 @@ package kiwi.core.storage.bitcask.log;
 
 import kiwi.core.LogSegmentSupport;
 import kiwi.core.common.Bytes;
+import kiwi.core.metrics.Metric;
 import kiwi.core.storage.bitcask.BitcaskStore;
 import kiwi.core.storage.bitcask.Header;
 import kiwi.core.storage.bitcask.KeyDir;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
 import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Supplier;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 class LogCleanerTest extends LogSegmentSupport {
 
+    @Test
+    void testCompactionKeepsCorruptSegment() throws IOException {
+        writeRecords(
+                "00000000000000000000.log",
+                List.of(
+                        Record.of(Bytes.wrap("k1"), Bytes.wrap("v1"), 0),
+                        Record.of(Bytes.wrap("k2"), Bytes.wrap("v2"), 0)
+                ));
+        // The value of k1 was damaged on disk.
+        try (FileChannel channel = FileChannel.open(root.resolve("00000000000000000000.log"), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{'X'}), Header.BYTES + 2);
+        }
+        LogSegment segment000 = LogSegment.open(root.resolve("00000000000000000000.log"), true);
+
+        writeRecords("00000000000000000001.log", List.of(Record.of(Bytes.wrap("k2"), Bytes.wrap("vu"), 1)));
+        LogSegment segment001 = LogSegment.open(root.resolve("00000000000000000001.log"));
+
+        KeyDir keyDir = new KeyDir();
+        keyDir.update(Record.of(Bytes.wrap("k1"), Bytes.wrap("v1"), 0), segment000);
+        keyDir.update(Record.of(Bytes.wrap("k2"), Bytes.wrap("vu"), 1), segment001);
+
+        LogCleaner cleaner = new LogCleaner(
+                root,
+                keyDir,
+                () -> segment001,
+                LogSegmentNameGenerator.from(segment001),
+                0.25,
+                0,
+                1024,
+                1
+        );
+
+        cleaner.compactLog();
+        assertEquals(1, cleaner.corruptRecords());
+        assertTrue(Files.exists(root.resolve("00000000000000000000.log")));
+
+        // Corrupt segments are not compacted again.
+        cleaner.compactLog();
+        assertEquals(1, cleaner.corruptRecords());
+        assertTrue(Files.exists(root.resolve("00000000000000000000.log")));
+        assertTrue(Files.exists(root.resolve("00000000000000000000.corrupt")));
+        cleaner.close();
+
+        // Nor after a restart.
+        LogCleaner restarted = new LogCleaner(
+                root,
+                keyDir,
+                () -> segment001,
+                LogSegmentNameGenerator.from(segment001),
+                0.25,
+                0,
+                1024,
+                1
+        );
+        restarted.compactLog();
+        assertEquals(0, restarted.corruptRecords());
+        assertTrue(Files.exists(root.resolve("00000000000000000000.log")));
+    }
+
     @Test
     void testCompactAndClean() throws IOException {
         writeRecords(
@@ -116,4 +184,348 @@ class LogCleanerTest extends LogSegmentSupport {
         assertEquals(Bytes.wrap("vu"), store.get(Bytes.wrap("k3")).orElseThrow());
         assertEquals(Bytes.wrap("v4"), store.get(Bytes.wrap("k4")).orElseThrow());
     }
-}
\ No newline at end of file
+
+    @Test
+    void testColdTier() throws IOException {
+        writeRecords(
+                "00000000000000000000.log",
+                List.of(
+                        Record.of(Bytes.wrap("k1"), Bytes.wrap("v1"), 0),
+                        Record.of(Bytes.wrap("k2"), Bytes.wrap("v2"), 0),
+                        Record.of(Bytes.wrap("k3"), Bytes.wrap("v3"), 0)
+                ));
+        LogSegment segment000 = LogSegment.open(root.resolve("00000000000000000000.log"));
+
+        writeRecords(
+                "00000000000000000001.log",
+                List.of(
+                        Record.of(Bytes.wrap("k4"), Bytes.wrap("v4"), 1),
+                        Record.of(Bytes.wrap("k5"), Bytes.wrap("v5"), 1)
+                ));
+        LogSegment segment001 = LogSegment.open(root.resolve("00000000000000000001.log"));
+
+        writeRecords("00000000000000000002.log", List.of());
+        LogSegment segment002 = LogSegment.open(root.resolve("00000000000000000002.log"));
+
+        KeyDir keyDir = new KeyDir();
+        keyDir.update(Record.of(Bytes.wrap("k1"), Bytes.wrap("v1"), 0), segment000);
+        keyDir.update(Record.of(Bytes.wrap("k2"), Bytes.wrap("vu"), 2), segment002);
+        keyDir.update(Record.of(Bytes.wrap("k3"), Bytes.wrap("v3"), 0), segment000);
+        keyDir.update(Record.of(Bytes.wrap("k4"), Bytes.wrap("v4"), 1), segment001);
+        keyDir.update(Record.of(Bytes.wrap("k5"), Bytes.wrap("v5"), 1), segment001);
+
+        LogCleaner cleaner = new LogCleaner(
+                root,
+                keyDir,
+                () -> segment002,
+                LogSegmentNameGenerator.from(segment002),
+                0.25,
+                0,
+                1024,
+                1
+        );
+        cleaner.useColdTier(2, 0.9, Duration.ofHours(1));
+
+        // Survivors of the first compaction are generation 1.
+        cleaner.compactLog();
+        assertTrue(Files.exists(root.resolve("00000000000000000003.log")));
+        assertEquals(List.of("00000000000000000003 1"), Files.readAllLines(root.resolve(SegmentGenerations.FILE_NAME)));
+
+        // Records of each generation are written to separate segments.
+        keyDir.update(Record.of(Bytes.wrap("k3"), Bytes.wrap("vu"), 2), segment002);
+        keyDir.update(Record.of(Bytes.wrap("k5"), Bytes.wrap("vu"), 2), segment002);
+        cleaner.compactLog();
+        assertEquals(List.of("00000000000000000004 1", "00000000000000000005 2"),
+                Files.readAllLines(root.resolve(SegmentGenerations.FILE_NAME)));
+        assertEquals(Bytes.wrap("v4"), keyDir.get(Bytes.wrap("k4")).get());
+        assertEquals(Bytes.wrap("v1"), keyDir.get(Bytes.wrap("k1")).get());
+
+        // Cold segments are skipped until the cold interval passes, even when they are dirty.
+        keyDir.update(Record.of(Bytes.wrap("k1"), Bytes.wrap("vu"), 2), segment002);
+        cleaner.compactLog();
+        assertTrue(Files.exists(root.resolve("00000000000000000005.log")));
+
+        Map<String, Metric> metrics = new HashMap<>();
+        cleaner.metrics().forEach(metric -> metrics.put(metric.name(), metric));
+        assertEquals(1, metrics.get("kiwi_compaction_cold_segments").samples().getFirst().value());
+        assertEquals(1, metrics.get("kiwi_compaction_cold_runs_total").samples().getFirst().value());
+    }
+
+    @Test
+    void testExpiredSegmentsAreDeleted() throws IOException {
+        writeRecords(
+                "00000000000000000000.log",
+                List.of(
+                        Record.of(Bytes.wrap("k1"), Bytes.wrap("v1"), 1, 100),
+                        Record.of(Bytes.wrap("k2"), Bytes.wrap("v2"), 2, 200)
+                ));
+        LogSegment segment000 = LogSegment.open(root.resolve("00000000000000000000.log"));
+
+        writeRecords(
+                "00000000000000000001.log",
+                List.of(
+                        Record.of(Bytes.wrap("k3"), Bytes.wrap("v3"), 3),
+                        Record.of(Bytes.wrap("k4"), Bytes.wrap("v4"), 3, 1000)
+                ));
+        LogSegment segment001 = LogSegment.open(root.resolve("00000000000000000001.log"));
+
+        KeyDir keyDir = new KeyDir();
+        keyDir.update(Record.of(Bytes.wrap("k1"), Bytes.wrap("v1"), 1, 100), segment000);
+        keyDir.update(Record.of(Bytes.wrap("k2"), Bytes.wrap("v2"), 2, 200), segment000);
+        keyDir.update(Record.of(Bytes.wrap("k3"), Bytes.wrap("v3"), 3), segment001);
+        keyDir.update(Record.of(Bytes.wrap("k4"), Bytes.wrap("v4"), 3, 1000), segment001);
+
+        LogCleaner cleaner = new LogCleaner(
+                root,
+                keyDir,
+                () -> segment001,
+                LogSegmentNameGenerator.from(segment001),
+                0.9,
+                0,
+                1024,
+                1
+        );
+        cleaner.useExpiryBuckets(Duration.ZERO, Clock.fixed(Instant.ofEpochMilli(300), ZoneOffset.UTC));
+        cleaner.compactLog();
+
+        // The segment is deleted as a whole, without being compacted.
+        assertTrue(Files.exists(root.resolve("00000000000000000000.log.deleted")));
+        assertFalse(Files.exists(root.resolve("00000000000000000002.log")));
+        assertNull(keyDir.get(Bytes.wrap("k1")));
+        assertNull(keyDir.get(Bytes.wrap("k2")));
+        assertEquals(2, keyDir.size());
+
+        Map<String, Metric> metrics = new HashMap<>();
+        cleaner.metrics().forEach(metric -> metrics.put(metric.name(), metric));
+        assertEquals(1, metrics.get("kiwi_compaction_expired_segments_total").samples().getFirst().value());
+        assertEquals(0, metrics.get("kiwi_compaction_segments_total").samples().getFirst().value());
+    }
+
+    @Test
+    void testExpiredSegmentWithOlderLiveRecordsIsKept() throws IOException {
+        writeRecords(
+                "00000000000000000000.log",
+                List.of(Record.of(Bytes.wrap("k1"), Bytes.wrap("v1"), 1)));
+        LogSegment segment000 = LogSegment.open(root.resolve("00000000000000000000.log"));
+
+        // The expired record hides the older value of k1.
+        writeRecords(
+                "00000000000000000001.log",
+                List.of(Record.of(Bytes.wrap("k1"), Bytes.wrap("vu"), 2, 200)));
+        LogSegment segment001 = LogSegment.open(root.resolve("00000000000000000001.log"));
+
+        writeRecords("00000000000000000002.log", List.of());
+        LogSegment segment002 = LogSegment.open(root.resolve("00000000000000000002.log"));
+
+        KeyDir keyDir = new KeyDir();
+        keyDir.update(Record.of(Bytes.wrap("k1"), Bytes.wrap("vu"), 2, 200), segment001);
+
+        LogCleaner cleaner = new LogCleaner(
+                root,
+                keyDir,
+                () -> segment002,
+                LogSegmentNameGenerator.from(segment002),
+                1.1, // Disables compaction of dirty segments.
+                0,
+                1024,
+                1
+        );
+        cleaner.useExpiryBuckets(Duration.ZERO, Clock.fixed(Instant.ofEpochMilli(300), ZoneOffset.UTC));
+        cleaner.compactLog();
+
+        Map<String, Metric> metrics = new HashMap<>();
+        cleaner.metrics().forEach(metric -> metrics.put(metric.name(), metric));
+        assertEquals(0, metrics.get("kiwi_compaction_expired_segments_total").samples().getFirst().value());
+        assertTrue(Files.exists(root.resolve("00000000000000000000.log")));
+    }
+
+    @Test
+    void testExpiredSegmentIsDeletedFromSavedExpiry() throws IOException {
+        LogSegment segment000 = LogSegment.open(root.resolve("00000000000000000000.log"));
+        segment000.append(Record.of(Bytes.wrap("k1"), Bytes.wrap("v1"), 1, 100));
+        segment000.append(Record.of(Bytes.wrap("k2"), Bytes.wrap("v2"), 2, 200));
+        segment000.markAsReadOnly();
+        assertEquals(new SegmentExpiry(1, 2, 200), SegmentExpiry.read(segment000.file()));
+
+        // Reopening a segment to append to it drops its saved expiry.
+        writeRecords("00000000000000000001.log", List.of(Record.of(Bytes.wrap("k3"), Bytes.wrap("v3"), 3)));
+        new SegmentExpiry(3, 3, 300).save(root.resolve("00000000000000000001.log"));
+        LogSegment segment001 = LogSegment.open(root.resolve("00000000000000000001.log"));
+        assertNull(SegmentExpiry.read(segment001.file()));
+
+        KeyDir keyDir = new KeyDir();
+        keyDir.update(Record.of(Bytes.wrap("k3"), Bytes.wrap("v3"), 3), segment001);
+
+        // A new cleaner, as after a restart, takes the expiry from the saved file.
+        LogCleaner cleaner = new LogCleaner(
+                root,
+                keyDir,
+                () -> segment001,
+                LogSegmentNameGenerator.from(segment001),
+                1.1, // Disables compaction of dirty segments.
+                0,
+                1024,
+                1
+        );
+        cleaner.useExpiryBuckets(Duration.ZERO, Clock.fixed(Instant.ofEpochMilli(300), ZoneOffset.UTC));
+        cleaner.compactLog();
+
+        assertTrue(Files.exists(root.resolve("00000000000000000000.log.deleted")));
+        assertTrue(Files.exists(root.resolve("00000000000000000000.expiry.deleted")));
+        assertTrue(Files.exists(root.resolve("00000000000000000001.log")));
+    }
+
+    @Test
+    void testRecordsAreCompactedByExpiryWindow() throws IOException {
+        long window = Duration.ofHours(1).toMillis();
+        long expiry = (System.currentTimeMillis() / window + 10) * window;
+        writeRecords(
+                "00000000000000000000.log",
+                List.of(
+                        Record.of(Bytes.wrap("k1"), Bytes.wrap("v1"), 1, expiry + 1),
+                        Record.of(Bytes.wrap("k2"), Bytes.wrap("v2"), 1, expiry + window + 1),
+                        Record.of(Bytes.wrap("k3"), Bytes.wrap("v3"), 1),
+                        Record.of(Bytes.wrap("k4"), Bytes.wrap("v4"), 1)
+                ));
+        LogSegment segment000 = LogSegment.open(root.resolve("00000000000000000000.log"));
+
+        writeRecords("00000000000000000001.log", List.of(Record.of(Bytes.wrap("k4"), Bytes.wrap("vu"), 2)));
+        LogSegment segment001 = LogSegment.open(root.resolve("00000000000000000001.log"));
+
+        KeyDir keyDir = new KeyDir();
+        keyDir.update(Record.of(Bytes.wrap("k1"), Bytes.wrap("v1"), 1, expiry + 1), segment000);
+        keyDir.update(Record.of(Bytes.wrap("k2"), Bytes.wrap("v2"), 1, expiry + window + 1), segment000);
+        keyDir.update(Record.of(Bytes.wrap("k3"), Bytes.wrap("v3"), 1), segment000);
+        keyDir.update(Record.of(Bytes.wrap("k4"), Bytes.wrap("vu"), 2), segment001);
+
+        LogCleaner cleaner = new LogCleaner(
+                root,
+                keyDir,
+                () -> segment001,
+                LogSegmentNameGenerator.from(segment001),
+                0.2,
+                0,
+                1024,
+                1
+        );
+        cleaner.useExpiryBuckets(Duration.ofMillis(window), Clock.systemUTC());
+        cleaner.compactLog();
+
+        // Records without TTL and records of each expiry window are written to separate segments.
+        assertTrue(Files.exists(root.resolve("00000000000000000002.log")));
+        assertTrue(Files.exists(root.resolve("00000000000000000003.log")));
+        assertTrue(Files.exists(root.resolve("00000000000000000004.log")));
+        assertFalse(Files.exists(root.resolve("00000000000000000005.log")));
+        assertEquals(Bytes.wrap("v1"), keyDir.get(Bytes.wrap("k1")).get());
+        assertEquals(Bytes.wrap("v2"), keyDir.get(Bytes.wrap("k2")).get());
+        assertEquals(Bytes.wrap("v3"), keyDir.get(Bytes.wrap("k3")).get());
+        assertNotEquals(keyDir.get(Bytes.wrap("k1")).segment().name(), keyDir.get(Bytes.wrap("k2")).segment().name());
+        assertNotEquals(keyDir.get(Bytes.wrap("k1")).segment().name(), keyDir.get(Bytes.wrap("k3")).segment().name());
+    }
+
+    @Test
+    void testBlobFilesAreCollected() throws IOException {
+        BlobLog blobLog = new BlobLog(root, 1024, false);
+        BlobPointer p1 = blobLog.write(Bytes.wrap("value-1"));
+        BlobPointer p2 = blobLog.write(Bytes.wrap("value-2"));
+        blobLog.release(p1);
+        blobLog.release(p2);
+        blobLog.roll();
+
+        writeRecords(
+                "00000000000000000000.log",
+                List.of(
+                        Record.of(Bytes.wrap("k1"), p1.toBytes(), 0),
+                        Record.of(Bytes.wrap("k2"), p2.toBytes(), 0)
+                ));
+        LogSegment segment000 = LogSegment.open(root.resolve("00000000000000000000.log"));
+
+        writeRecords(
+                "00000000000000000001.log",
+                List.of(Record.of(Bytes.wrap("k2"), Bytes.wrap("vu"), 1)));
+        LogSegment segment001 = LogSegment.open(root.resolve("00000000000000000001.log"));
+
+        KeyDir keyDir = new KeyDir();
+        keyDir.update(Record.of(Bytes.wrap("k1"), p1.toBytes(), 0), segment000);
+        keyDir.update(Record.of(Bytes.wrap("k2"), Bytes.wrap("vu"), 1), segment001);
+
+        // The segment is clean, but half of the blob file is stale.
+        LogCleaner cleaner = new LogCleaner(
+                root,
+                keyDir,
+                () -> segment001,
+                LogSegmentNameGenerator.from(segment001),
+                0.9,
+                0,
+                1024,
+                1
+        );
+        cleaner.useBlobLog(blobLog, 0.75);
+        cleaner.compactLog();
+
+        assertFalse(Files.exists(blobLog.file(p1.fileId())));
+        assertTrue(Files.exists(root.resolve("00000000000000000000.log.deleted")));
+
+        // The live value is moved to a new blob file.
+        Bytes value = keyDir.get(Bytes.wrap("k1")).get();
+        BlobPointer moved = BlobPointer.fromBytes(value);
+        assertNotEquals(p1.fileId(), moved.fileId());
+        assertEquals(Bytes.wrap("value-1"), blobLog.read(moved));
+
+        Map<String, Metric> metrics = new HashMap<>();
+        cleaner.metrics().forEach(metric -> metrics.put(metric.name(), metric));
+        assertEquals(1, metrics.get("kiwi_blob_files_collected_total").samples().getFirst().value());
+        assertEquals(7, metrics.get("kiwi_blob_rewritten_bytes_total").samples().getFirst().value());
+        blobLog.close();
+    }
+
+    @Test
+    void testCompactionMetrics() throws IOException {
+        writeRecords(
+                "00000000000000000000.log",
+                List.of(
+                        Record.of(Bytes.wrap("k1"), Bytes.wrap("v1"), 0),
+                        Record.of(Bytes.wrap("k2"), Bytes.wrap("v2"), 0)
+                ));
+        LogSegment segment000 = LogSegment.open(root.resolve("00000000000000000000.log"));
+
+        writeRecords(
+                "00000000000000000001.log",
+                List.of(
+                        Record.of(Bytes.wrap("k2"), Bytes.wrap("vu"), 1),
+                        Record.of(Bytes.wrap("k3"), Bytes.wrap("v3"), 1)
+                ));
+        LogSegment segment001 = LogSegment.open(root.resolve("00000000000000000001.log"));
+
+        KeyDir keyDir = new KeyDir();
+        keyDir.update(Record.of(Bytes.wrap("k1"), Bytes.wrap("v1"), 0), segment000);
+        keyDir.update(Record.of(Bytes.wrap("k2"), Bytes.wrap("vu"), 1), segment001);
+        keyDir.update(Record.of(Bytes.wrap("k3"), Bytes.wrap("v3"), 1), segment001);
+
+        LogCleaner cleaner = new LogCleaner(
+                root,
+                keyDir,
+                () -> segment001,
+                LogSegmentNameGenerator.from(segment001),
+                0.25,
+                0,
+                1024,
+                1
+        );
+
+        cleaner.compactLog();
+
+        Map<String, Metric> metrics = new HashMap<>();
+        cleaner.metrics().forEach(metric -> metrics.put(metric.name(), metric));
+
+        assertEquals(1, metrics.get("kiwi_compaction_runs_total").samples().getFirst().value());
+        assertEquals(1, metrics.get("kiwi_compaction_segments_total").samples().getFirst().value());
+
+        // Stale k2 record is dropped from the compacted segment.
+        assertEquals(Header.BYTES + 4, metrics.get("kiwi_compaction_reclaimed_bytes_total").samples().getFirst().value());
+
+        Metric.Sample dirtyRatio = metrics.get("kiwi_segment_dirty_ratio").samples().getFirst();
+        assertEquals("00000000000000000000", dirtyRatio.labels().get("segment"));
+        assertEquals(0.5, dirtyRatio.value());
+    }
+}
@@ -0,0 +1,81 @@
+package kiwi.core.storage.bitcask.log;
+
+import kiwi.core.LogSegmentSupport;
+import kiwi.core.common.Bytes;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LogSegmentPoolTest extends LogSegmentSupport {
+
+    @Test
+    void testRecycledSegmentIsEmpty() throws IOException {
+        writeRecords(
+                "000.log.deleted",
+                List.of(
+                        Record.of(Bytes.wrap("k1"), Bytes.wrap("v1")),
+                        Record.of(Bytes.wrap("k2"), Bytes.wrap("v2"))
+                ));
+
+        LogSegmentPool pool = new LogSegmentPool(root, 1024, false, 1);
+        assertTrue(pool.recycle(root.resolve("000.log.deleted")));
+        assertFalse(Files.exists(root.resolve("000.log.deleted")));
+        assertEquals(1, pool.size());
+
+        Path file = root.resolve("001.log");
+        LogSegment segment = pool.allocate(file);
+        assertEquals(0, pool.size());
+        assertEquals(1024, Files.size(file));
+
+        // Records of the recycled segment are not visible.
+        assertEquals(0, segment.size());
+        assertTrue(segment.buildKeyDir().isEmpty());
+    }
+
+    @Test
+    void testRecycleWhenPoolIsFull() throws IOException {
+        writeRecords("000.log.deleted", List.of(Record.of(Bytes.wrap("k1"), Bytes.wrap("v1"))));
+        writeRecords("001.log.deleted", List.of(Record.of(Bytes.wrap("k2"), Bytes.wrap("v2"))));
+
+        LogSegmentPool pool = new LogSegmentPool(root, 1024, false, 1);
+        assertTrue(pool.recycle(root.resolve("000.log.deleted")));
+        assertFalse(pool.recycle(root.resolve("001.log.deleted")));
+        assertTrue(Files.exists(root.resolve("001.log.deleted")));
+    }
+
+    @Test
+    void testLinkedSegmentIsNotRecycled() throws IOException {
+        writeRecords("000.log.deleted", List.of(Record.of(Bytes.wrap("k1"), Bytes.wrap("v1"))));
+        Path snapshot = Files.createLink(root.resolve("snapshot.log"), root.resolve("000.log.deleted"));
+        long size = Files.size(snapshot);
+
+        LogSegmentPool pool = new LogSegmentPool(root, 1024, false, 1);
+        assertFalse(pool.recycle(root.resolve("000.log.deleted")));
+        assertEquals(0, pool.size());
+        assertEquals(size, Files.size(snapshot));
+    }
+
+    @Test
+    void testPooledFilesAreLoadedOnStartup() {
+        LogSegmentPool pool = new LogSegmentPool(root, 1024, true, 2);
+        pool.prepare();
+        pool.close();
+
+        LogSegmentPool reloaded = new LogSegmentPool(root, 1024, false, 2);
+        assertEquals(1, reloaded.size());
+    }
+
+    @Test
+    void testAllocateWithoutPooledFiles() throws IOException {
+        LogSegmentPool pool = LogSegmentPool.disabled(root);
+        LogSegment segment = pool.allocate(root.resolve("000.log"));
+
+        assertEquals(0, segment.size());
+        assertEquals(0, Files.size(root.resolve("000.log")));
+    }
+}
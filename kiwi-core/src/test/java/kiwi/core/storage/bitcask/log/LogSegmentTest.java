@@ -8,8 +8,11 @@ import kiwi.core.storage.bitcask.ValueReference;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -249,4 +252,102 @@ class LogSegmentTest extends LogSegmentSupport {
         assertTrue(Files.exists(root.resolve("000.log.deleted")));
         assertFalse(Files.exists(root.resolve("000.log")));
     }
-}
\ No newline at end of file
+
+    @Test
+    void testPreallocatedSegment() throws IOException {
+        Path file = root.resolve("000.log");
+        LogSegment.preallocate(file, 4096);
+        assertEquals(4096, Files.size(file));
+
+        LogSegment segment = LogSegment.open(file);
+        assertEquals(0, segment.size());
+
+        int written = segment.append(Record.of(Bytes.wrap("k1"), Bytes.wrap("v1")));
+        written += segment.append(Record.of(Bytes.wrap("k2"), Bytes.wrap("v2")));
+        assertEquals(written, segment.size());
+        assertEquals(4096, Files.size(file));
+
+        // Reopened segment continues after the last record.
+        LogSegment reopened = LogSegment.open(file);
+        assertEquals(written, reopened.position());
+        assertEquals(2, reopened.buildKeyDir().size());
+
+        List<Record> records = new ArrayList<>();
+        reopened.getRecords().forEach(records::add);
+        assertEquals(2, records.size());
+    }
+
+    @Test
+    void testCloseTruncatesPreallocatedSegment() throws IOException {
+        Path file = root.resolve("000.log");
+        LogSegment.preallocate(file, 4096);
+
+        LogSegment segment = LogSegment.open(file);
+        int written = segment.append(Record.of(Bytes.wrap("k1"), Bytes.wrap("v1")));
+        segment.markAsReadOnly();
+
+        assertEquals(written, Files.size(file));
+        assertEquals(written, segment.size());
+    }
+
+    @Test
+    void testRecoverTruncatesTornWrite() throws IOException {
+        Record r1 = Record.of(Bytes.wrap("k1"), Bytes.wrap("v1"));
+        Record r2 = Record.of(Bytes.wrap("k2"), Bytes.wrap("v2"));
+        writeRecords("000.log", List.of(r1, r2));
+        // The value of the second record was not written completely.
+        Path file = root.resolve("000.log");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{'X'}), r1.size() + r2.size() - 1);
+        }
+
+        LogSegment segment = LogSegment.open(file);
+        assertEquals(r1.size(), segment.size());
+        assertEquals(r1.size(), Files.size(file));
+        assertEquals(1, segment.buildKeyDir().size());
+    }
+
+    @Test
+    void testRecoverTrustsSyncedRecords() throws IOException {
+        Path file = root.resolve("000.log");
+        LogSegment segment = LogSegment.open(file);
+        segment.append(Record.of(Bytes.wrap("k1"), Bytes.wrap("v1")));
+        segment.sync();
+        new SyncWatermark().update(segment);
+        long synced = segment.syncedEnd();
+        assertEquals(synced, SyncWatermark.read(file));
+        segment.close();
+
+        // Records before the watermark are not checked, records after it are.
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{'X'}), synced - 1);
+            channel.write(Record.of(Bytes.wrap("k2"), Bytes.wrap("v2")).toByteBuffer().put(Header.BYTES, (byte) 'X'), synced);
+        }
+        assertEquals(synced, LogSegment.open(file).size());
+        assertEquals(0, SyncWatermark.read(root.resolve("001.log")));
+    }
+
+    @Test
+    void testAppendBuffer() {
+        Path file = root.resolve("000.log");
+        LogSegment segment = LogSegment.open(file);
+        segment.useAppendBuffer(128);
+
+        int written = segment.append(Record.of(Bytes.wrap("k1"), Bytes.wrap("v1")));
+        assertEquals(written, segment.size());
+        // Buffered records are not written to the file, but can be read.
+        assertEquals(0, LogSegment.open(file, true).size());
+        assertArrayEquals("v1".getBytes(), segment.read(Header.BYTES + 2, 2).array());
+
+        // Records larger than the buffer flush it and are written directly.
+        long position = segment.size();
+        written += segment.append(Record.of(Bytes.wrap("k2"), Bytes.wrap("v".repeat(200))));
+        assertEquals(written, LogSegment.open(file, true).size());
+        assertEquals(Bytes.wrap("v".repeat(200)), Bytes.wrap(segment.read(position + Header.BYTES + 2, 200).array()));
+
+        written += segment.append(Record.of(Bytes.wrap("k3"), Bytes.wrap("v3")));
+        segment.flush();
+        assertEquals(written, LogSegment.open(file, true).size());
+        assertEquals(3, segment.buildKeyDir().size());
+    }
+}
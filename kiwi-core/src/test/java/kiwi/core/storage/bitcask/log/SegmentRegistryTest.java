@@ -0,0 +1,125 @@
+package kiwi.core.storage.bitcask.log;
+
+import kiwi.core.LogSegmentSupport;
+import kiwi.core.common.Bytes;
+import kiwi.core.error.KiwiException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentRegistryTest extends LogSegmentSupport {
+
+    @Test
+    void testOpenSharesSegments() throws IOException {
+        writeRecords("001.log", List.of(Record.of(Bytes.wrap("k"), Bytes.wrap("v"))));
+
+        try (SegmentRegistry registry = SegmentRegistry.unbounded()) {
+            LogSegment segment = registry.open(root.resolve("001.log"));
+
+            assertSame(segment, registry.open(root.resolve("001.log")));
+            // Files are opened on first read.
+            assertEquals(0, registry.openFiles());
+            assertEquals(1, segment.buildKeyDir().size());
+            assertEquals(1, registry.openFiles());
+        }
+    }
+
+    @Test
+    void testEvictLeastRecentlyRead() throws IOException {
+        for (String name : List.of("001", "002", "003")) {
+            writeRecords(name + ".log", List.of(Record.of(Bytes.wrap("k-" + name), Bytes.wrap("v-" + name))));
+        }
+
+        try (SegmentRegistry registry = new SegmentRegistry(2)) {
+            LogSegment s1 = registry.open(root.resolve("001.log"));
+            LogSegment s2 = registry.open(root.resolve("002.log"));
+            LogSegment s3 = registry.open(root.resolve("003.log"));
+            s1.buildKeyDir();
+            s2.buildKeyDir();
+            s3.buildKeyDir();
+
+            assertEquals(2, registry.openFiles());
+            assertEquals(1, registry.evictions());
+            assertFalse(s1.openChannel().isOpen());
+
+            // Evicted segments are reopened by their next read.
+            assertEquals(1, s1.buildKeyDir().size());
+            assertEquals(2, registry.openFiles());
+            assertEquals(4, registry.opens());
+        }
+    }
+
+    @Test
+    void testHeldSegmentsAreNotEvicted() throws IOException {
+        writeRecords("001.log", List.of(Record.of(Bytes.wrap("k1"), Bytes.wrap("v1"))));
+        writeRecords("002.log", List.of(Record.of(Bytes.wrap("k2"), Bytes.wrap("v2"))));
+
+        try (SegmentRegistry registry = new SegmentRegistry(1)) {
+            LogSegment s1 = registry.acquire(root.resolve("001.log"));
+            LogSegment s2 = registry.acquire(root.resolve("002.log"));
+            s1.buildKeyDir();
+            s2.buildKeyDir();
+
+            assertEquals(2, registry.openFiles());
+            assertEquals(0, registry.evictions());
+
+            registry.release(s1);
+            registry.release(s2);
+            assertEquals(1, registry.openFiles());
+            assertEquals(1, registry.evictions());
+        }
+    }
+
+    @Test
+    void testCountsSegmentsAndBytes() throws IOException {
+        writeRecords("001.log", List.of(Record.of(Bytes.wrap("k1"), Bytes.wrap("v1"))));
+
+        try (SegmentRegistry registry = SegmentRegistry.unbounded()) {
+            LogSegment s1 = registry.open(root.resolve("001.log"));
+            registry.open(root.resolve("001.log"));
+            assertEquals(1, registry.segments());
+            assertEquals(Files.size(root.resolve("001.log")), registry.bytes());
+
+            LogSegment s2 = LogSegment.open(root.resolve("002.log"));
+            s2.append(Record.of(Bytes.wrap("k2"), Bytes.wrap("v2")));
+            s2.markAsReadOnly();
+            registry.adopt(s2);
+            assertEquals(2, registry.segments());
+            assertEquals(s1.size() + s2.size(), registry.bytes());
+
+            s1.markAsDeleted();
+            assertEquals(1, registry.segments());
+            assertEquals(s2.size(), registry.bytes());
+        }
+    }
+
+    @Test
+    void testRetiredSegmentIsClosedWhenReleased() throws IOException {
+        writeRecords("001.log", List.of(Record.of(Bytes.wrap("k"), Bytes.wrap("v"))));
+        Path deletedFile = root.resolve("001.log.deleted");
+
+        try (SegmentRegistry registry = SegmentRegistry.unbounded()) {
+            LogSegment segment = registry.acquire(root.resolve("001.log"));
+            segment.buildKeyDir();
+            segment.markAsDeleted();
+
+            // Holders still read the segment after it was renamed.
+            assertTrue(Files.exists(deletedFile));
+            assertTrue(registry.isInUse(deletedFile));
+            assertEquals(1, segment.buildKeyDir().size());
+
+            registry.release(segment);
+            assertFalse(registry.isInUse(deletedFile));
+            assertEquals(0, registry.openFiles());
+
+            // Forgotten segments are never reopened, even if their file is still there.
+            registry.forget(deletedFile);
+            assertThrows(KiwiException.class, segment::buildKeyDir);
+        }
+    }
+}
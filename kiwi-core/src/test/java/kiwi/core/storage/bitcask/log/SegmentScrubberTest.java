@@ -0,0 +1,67 @@
+package kiwi.core.storage.bitcask.log;
+
+import kiwi.core.LogSegmentSupport;
+import kiwi.core.common.Bytes;
+import kiwi.core.storage.bitcask.Header;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentScrubberTest extends LogSegmentSupport {
+
+    @Test
+    void testScrubFindsCorruptRecords() throws IOException {
+        writeRecords("001.log", List.of(Record.of(Bytes.wrap("k1"), Bytes.wrap("v1"))));
+        writeRecords("002.log", List.of(
+                Record.of(Bytes.wrap("k2"), Bytes.wrap("v2")),
+                Record.of(Bytes.wrap("k3"), Bytes.wrap("v3"))));
+        try (FileChannel channel = FileChannel.open(root.resolve("002.log"), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{'X'}), Header.BYTES + 2);
+        }
+
+        try (SegmentRegistry registry = SegmentRegistry.unbounded();
+             SegmentScrubber scrubber = new SegmentScrubber(root, registry, path -> true,
+                     1024 * 1024, Duration.ofHours(1), Clock.systemUTC())) {
+            scrubber.scrub();
+
+            assertEquals(1L, scrubber.stats().get("scrub_passes"));
+            assertEquals(1L, scrubber.stats().get("scrub_corrupt_records"));
+            assertEquals(1, scrubber.stats().get("scrub_corrupt_segments"));
+            assertEquals(Files.size(root.resolve("001.log")) + Files.size(root.resolve("002.log")),
+                    scrubber.stats().get("scrub_bytes"));
+
+            // The next pass is not due yet.
+            scrubber.scrub();
+            assertEquals(1L, scrubber.stats().get("scrub_passes"));
+        }
+    }
+
+    @Test
+    void testScrubResumesSavedProgress() throws IOException {
+        writeRecords("001.log", List.of(Record.of(Bytes.wrap("k1"), Bytes.wrap("v1"))));
+        writeRecords("002.log", List.of(Record.of(Bytes.wrap("k2"), Bytes.wrap("v2"))));
+        long size = Files.size(root.resolve("001.log"));
+        Files.writeString(root.resolve(SegmentScrubber.FILE_NAME), "001 " + size + "\n");
+
+        try (SegmentRegistry registry = SegmentRegistry.unbounded();
+             SegmentScrubber scrubber = new SegmentScrubber(root, registry, path -> true,
+                     1024 * 1024, Duration.ZERO, Clock.systemUTC())) {
+            scrubber.scrub();
+            assertEquals(Files.size(root.resolve("002.log")), scrubber.stats().get("scrub_bytes"));
+        }
+
+        // Completed passes are saved, and the next pass starts over.
+        List<String> lines = Files.readAllLines(root.resolve(SegmentScrubber.FILE_NAME));
+        assertEquals(1, lines.size());
+        assertTrue(lines.getFirst().startsWith("completed "));
+    }
+}
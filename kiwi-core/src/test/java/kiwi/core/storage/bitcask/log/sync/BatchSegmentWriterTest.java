@@ -0,0 +1,46 @@
+package kiwi.core.storage.bitcask.log.sync;
+
+import kiwi.core.LogSegmentSupport;
+import kiwi.core.common.Bytes;
+import kiwi.core.storage.bitcask.log.LogSegment;
+import kiwi.core.storage.bitcask.log.Record;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchSegmentWriterTest extends LogSegmentSupport {
+
+    @Test
+    void testWaitingWritersDoNotBlockVirtualThreads() throws Exception {
+        LogSegment segment = LogSegment.open(root.resolve("001.log"));
+        // Writers wait for the next batch for up to the window, so the probe below runs while
+        // they are waiting.
+        try (BatchSegmentWriter writer = new BatchSegmentWriter(() -> segment, Duration.ofSeconds(2));
+             ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            // More writers than carrier threads, even if the scheduler adds carriers for pinned ones.
+            int writers = 512;
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < writers; i++) {
+                Record record = Record.of(Bytes.wrap("k" + i), Bytes.wrap("v" + i));
+                results.add(executor.submit(() -> writer.append(record)));
+            }
+            TimeUnit.MILLISECONDS.sleep(100);
+
+            Future<Boolean> probe = executor.submit(() -> true);
+            assertTrue(probe.get(1, TimeUnit.SECONDS));
+
+            for (Future<Integer> result : results) {
+                assertTrue(result.get(10, TimeUnit.SECONDS) > 0);
+            }
+            assertEquals(writers, segment.buildKeyDir().size());
+        }
+    }
+}
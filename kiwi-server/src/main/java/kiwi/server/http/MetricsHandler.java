@@ -0,0 +1,71 @@
+package kiwi.server.http;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.*;
+import kiwi.core.metrics.Metric;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Serves {@code GET /metrics} in Prometheus text format.
+ */
+@ChannelHandler.Sharable
+public class MetricsHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+    private static final Logger logger = LoggerFactory.getLogger(MetricsHandler.class);
+
+    public static final String PATH = "/metrics";
+
+    private final Supplier<List<Metric>> metrics;
+
+    public MetricsHandler(Supplier<List<Metric>> metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) {
+        String path = new QueryStringDecoder(request.uri()).path();
+
+        FullHttpResponse response;
+        if (!PATH.equals(path)) {
+            response = response(request, HttpResponseStatus.NOT_FOUND, "Not Found\n", "text/plain; charset=utf-8");
+        } else if (!HttpMethod.GET.equals(request.method()) && !HttpMethod.HEAD.equals(request.method())) {
+            response = response(request, HttpResponseStatus.METHOD_NOT_ALLOWED, "Method Not Allowed\n", "text/plain; charset=utf-8");
+        } else {
+            String body = PrometheusFormat.write(metrics.get());
+            response = response(request, HttpResponseStatus.OK, body, PrometheusFormat.CONTENT_TYPE);
+        }
+
+        boolean keepAlive = HttpUtil.isKeepAlive(request);
+        HttpUtil.setKeepAlive(response, keepAlive);
+        if (keepAlive) {
+            ctx.writeAndFlush(response);
+        } else {
+            ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    private static FullHttpResponse response(FullHttpRequest request, HttpResponseStatus status, String body, String contentType) {
+        ByteBuf content = HttpMethod.HEAD.equals(request.method())
+                ? Unpooled.EMPTY_BUFFER
+                : Unpooled.copiedBuffer(body, StandardCharsets.UTF_8);
+        FullHttpResponse response = new DefaultFullHttpResponse(request.protocolVersion(), status, content);
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, contentType);
+        response.headers().setInt(HttpHeaderNames.CONTENT_LENGTH, content.readableBytes());
+        return response;
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        logger.error("Error while serving metrics", cause);
+        ctx.close();
+    }
+}
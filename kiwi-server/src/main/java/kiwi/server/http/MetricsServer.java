@@ -0,0 +1,73 @@
+package kiwi.server.http;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpServerCodec;
+import kiwi.core.common.NamedThreadFactory;
+import kiwi.core.metrics.Metric;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * HTTP listener exposing metrics for Prometheus scrapes.
+ *
+ * <p>The listener runs on its own single threaded event loop, so scrapes never occupy
+ * the event loops serving RESP clients.</p>
+ */
+public class MetricsServer implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(MetricsServer.class);
+
+    private static final int MAX_REQUEST_BYTES = 8192;
+
+    private final String host;
+    private final int port;
+    private final Supplier<List<Metric>> metrics;
+
+    private EventLoopGroup group;
+    private Channel channel;
+
+    public MetricsServer(String host, int port, Supplier<List<Metric>> metrics) {
+        this.host = host;
+        this.port = port;
+        this.metrics = metrics;
+    }
+
+    public void start() throws InterruptedException {
+        group = new NioEventLoopGroup(1, NamedThreadFactory.create("metrics"));
+        MetricsHandler handler = new MetricsHandler(metrics);
+
+        ServerBootstrap bootstrap = new ServerBootstrap();
+        bootstrap.group(group)
+                .channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast("http", new HttpServerCodec());
+                        ch.pipeline().addLast("aggregator", new HttpObjectAggregator(MAX_REQUEST_BYTES));
+                        ch.pipeline().addLast("metrics", handler);
+                    }
+                });
+
+        channel = bootstrap.bind(host, port).sync().channel();
+        logger.info("Serving metrics at http://{}:{}{}", host, port, MetricsHandler.PATH);
+    }
+
+    @Override
+    public void close() {
+        if (channel != null) {
+            channel.close().syncUninterruptibly();
+        }
+        if (group != null) {
+            group.shutdownGracefully();
+        }
+    }
+}
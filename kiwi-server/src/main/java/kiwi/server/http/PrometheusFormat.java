@@ -0,0 +1,69 @@
+package kiwi.server.http;
+
+import kiwi.core.metrics.Metric;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Writes metrics in Prometheus text exposition format (version 0.0.4).
+ */
+public final class PrometheusFormat {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private PrometheusFormat() {
+    }
+
+    public static String write(List<Metric> metrics) {
+        StringBuilder out = new StringBuilder();
+        for (Metric metric : metrics) {
+            out.append("# HELP ").append(metric.name()).append(' ').append(escapeHelp(metric.help())).append('\n');
+            out.append("# TYPE ").append(metric.name()).append(' ')
+                    .append(metric.type().name().toLowerCase(Locale.ROOT)).append('\n');
+            for (Metric.Sample sample : metric.samples()) {
+                out.append(sample.name());
+                writeLabels(out, sample.labels());
+                out.append(' ').append(formatValue(sample.value())).append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    private static void writeLabels(StringBuilder out, Map<String, String> labels) {
+        if (labels.isEmpty()) {
+            return;
+        }
+        out.append('{');
+        boolean first = true;
+        for (Map.Entry<String, String> label : labels.entrySet()) {
+            if (!first) {
+                out.append(',');
+            }
+            first = false;
+            out.append(label.getKey()).append("=\"").append(escapeLabelValue(label.getValue())).append('"');
+        }
+        out.append('}');
+    }
+
+    static String formatValue(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    private static String escapeHelp(String help) {
+        return help.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+
+    private static String escapeLabelValue(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
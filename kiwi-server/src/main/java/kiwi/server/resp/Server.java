@@ -6,20 +6,36 @@ import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.WriteBufferWaterMark;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
-import kiwi.core.common.Bytes;
-import kiwi.core.storage.KeyValueStore;
-import kiwi.core.storage.bitcask.BitcaskStore;
+import kiwi.core.metrics.Metric;
+import kiwi.core.storage.Databases;
+import kiwi.core.storage.ShardedStore;
+import kiwi.core.storage.bitcask.log.config.LogConfig;
 import kiwi.server.config.Options;
+import kiwi.server.http.MetricsServer;
 import kiwi.server.resp.codec.RESPDecoder;
 import kiwi.server.resp.codec.RESPEncoder;
 import kiwi.server.resp.config.ServerConfig;
+import kiwi.server.resp.handler.OutputBufferLimitHandler;
 import kiwi.server.resp.handler.RESPCommandHandler;
+import kiwi.server.resp.handler.ShardRouter;
+import kiwi.server.resp.handler.TrafficHandler;
+import kiwi.server.resp.metrics.ServerMetrics;
+import kiwi.server.resp.replication.Replication;
+import kiwi.server.resp.snapshot.Snapshots;
+import kiwi.server.resp.transport.Transport;
+import kiwi.server.resp.transport.TransportFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 public class Server {
     private static final Logger logger = LoggerFactory.getLogger(Server.class);
 
@@ -34,46 +50,163 @@ public class Server {
     }
 
     public void start() throws InterruptedException {
-        EventLoopGroup bossGroup = new NioEventLoopGroup();
-        EventLoopGroup workerGroup = new NioEventLoopGroup(Runtime.getRuntime().availableProcessors() * 2);
-
-        try (BitcaskStore db = BitcaskStore.open()) {
-            ServerBootstrap bootstrap = new ServerBootstrap();
-            bootstrap.group(bossGroup, workerGroup)
-                    .channel(NioServerSocketChannel.class)
-                    .childHandler(new ServerInitializer(db))
-                    .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
-                    .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
-                    .childOption(ChannelOption.SO_KEEPALIVE, true)
-                    .childOption(ChannelOption.TCP_NODELAY, true);
-
-            ChannelFuture future = bootstrap.bind(config.host, config.port).sync();
-
-            logger.info("Listening at {}:{}", config.host, config.port);
-
-            // Wait until the server socket is closed.
-            future.channel().closeFuture().sync();
-        } finally {
-            bossGroup.shutdownGracefully();
-            workerGroup.shutdownGracefully();
+        checkSyncMode(config, kiwi.core.config.Options.defaults.storage.log.sync);
+        Transport transport = new TransportFactory(config.transport).create();
+        ServerMetrics metrics = new ServerMetrics(config);
+
+        try (Databases databases = Databases.open();
+             Replication replication = new Replication(databases, config.replication);
+             MetricsServer metricsServer = new MetricsServer(config.host, config.metrics.port, () -> {
+                 List<Metric> all = new ArrayList<>(metrics.metrics());
+                 all.addAll(databases.metrics());
+                 return all;
+             })) {
+            int workerThreads = workerThreads(config, databases);
+            EventLoopGroup bossGroup = transport.newEventLoopGroup(config.transport.bossThreads);
+            EventLoopGroup workerGroup = transport.newEventLoopGroup(workerThreads);
+
+            Snapshots snapshots = new Snapshots(databases, config.snapshot);
+            ShardRouter router = config.executionMode == ServerConfig.ExecutionMode.THREAD_PER_CORE
+                    ? ShardRouter.of(workerGroup)
+                    : ShardRouter.disabled();
+            ExecutorService storeExecutor = config.executionMode == ServerConfig.ExecutionMode.VIRTUAL_THREADS
+                    ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("store-", 0).factory())
+                    : null;
+
+            try {
+                // Metrics server is closed before the store, so scrapes never read a closed store.
+                if (config.metrics.enabled) {
+                    metricsServer.start();
+                }
+
+                if (!config.replication.leader.isBlank()) {
+                    replication.follow(config.replication.leader);
+                }
+
+                ServerBootstrap bootstrap = new ServerBootstrap();
+                bootstrap.group(bossGroup, workerGroup)
+                        .channel(transport.serverChannelClass())
+                        .childHandler(new ServerInitializer(
+                                databases, metrics, config, router, replication, snapshots, storeExecutor))
+                        .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                        .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                        .childOption(ChannelOption.SO_KEEPALIVE, true)
+                        .childOption(ChannelOption.TCP_NODELAY, true)
+                        .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(
+                                config.clients.writeBufferLowWaterMark, config.clients.writeBufferHighWaterMark));
+
+                transport.configure(bootstrap);
+
+                // With SO_REUSEPORT every bind creates a separate listener socket on the same port.
+                // Each listener is registered on the next boss event loop.
+                List<ChannelFuture> futures = new ArrayList<>();
+                try {
+                    for (int i = 0; i < transport.listeners(); i++) {
+                        futures.add(bootstrap.bind(config.host, config.port).sync());
+                    }
+                } catch (Throwable e) {
+                    // Listeners bound before the failure would keep the port open.
+                    for (ChannelFuture future : futures) {
+                        future.channel().close().syncUninterruptibly();
+                    }
+                    throw e;
+                }
+
+                logger.info("Listening at {}:{} with {} transport ({} listeners, {} workers, {} execution)",
+                        config.host, config.port, transport.name(), transport.listeners(), workerThreads,
+                        config.executionMode.name().toLowerCase(Locale.ROOT));
+
+                // Wait until the server sockets are closed.
+                for (ChannelFuture future : futures) {
+                    future.channel().closeFuture().sync();
+                }
+            } finally {
+                // Event loops are stopped before the databases are closed.
+                bossGroup.shutdownGracefully().syncUninterruptibly();
+                // Waits for running store calls while the worker loops can still write their
+                // responses.
+                if (storeExecutor != null) {
+                    storeExecutor.close();
+                }
+                workerGroup.shutdownGracefully().syncUninterruptibly();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of worker event loops. In thread-per-core mode every event loop owns one
+     * shard, so a configured number of worker threads must match the number of shards.
+     */
+    static int workerThreads(ServerConfig config, Databases databases) {
+        if (config.executionMode == ServerConfig.ExecutionMode.THREAD_PER_CORE
+                && databases.get(0) instanceof ShardedStore store) {
+            int shards = store.shardCount();
+            if (config.transport.workerThreads > 0 && config.transport.workerThreads != shards) {
+                throw new IllegalArgumentException(String.format(Locale.ROOT,
+                        "Thread-per-core execution mode needs one worker thread per shard: "
+                                + "%d worker threads, %d shards",
+                        config.transport.workerThreads, shards));
+            }
+            return shards;
+        }
+        if (config.transport.workerThreads > 0) {
+            return config.transport.workerThreads;
+        }
+        return Runtime.getRuntime().availableProcessors() * 2;
+    }
+
+    /**
+     * Rejects batch sync mode in thread-per-core mode. Writes wait for the batch sync on the event
+     * loop owning their shard, which would stall every connection of the loop for each window.
+     */
+    static void checkSyncMode(ServerConfig config, LogConfig.Sync sync) {
+        if (config.executionMode == ServerConfig.ExecutionMode.THREAD_PER_CORE
+                && sync.mode == LogConfig.Sync.Mode.BATCH) {
+            throw new IllegalArgumentException(
+                    "Thread-per-core execution mode does not support batch sync mode, use periodic or lazy sync mode");
         }
     }
 
     static class ServerInitializer extends ChannelInitializer<SocketChannel> {
-        private final KeyValueStore<Bytes, Bytes> db;
+        private final Databases databases;
+        private final ServerMetrics metrics;
+        private final ServerConfig config;
+        private final ShardRouter router;
+        private final Replication replication;
+        private final Snapshots snapshots;
+        private final Executor storeExecutor;
+        private final TrafficHandler trafficHandler;
 
-        public ServerInitializer(KeyValueStore<Bytes, Bytes> db) {
-            this.db = db;
+        public ServerInitializer(
+                Databases databases,
+                ServerMetrics metrics,
+                ServerConfig config,
+                ShardRouter router,
+                Replication replication,
+                Snapshots snapshots,
+                Executor storeExecutor) {
+            this.databases = databases;
+            this.metrics = metrics;
+            this.config = config;
+            this.router = router;
+            this.replication = replication;
+            this.snapshots = snapshots;
+            this.storeExecutor = storeExecutor;
+            this.trafficHandler = new TrafficHandler(metrics);
         }
 
         @Override
         protected void initChannel(SocketChannel ch) {
+            ch.pipeline().addLast("traffic", trafficHandler);
+            ch.pipeline().addLast("limits", new OutputBufferLimitHandler(metrics, config.clients));
+
             // Inbound
             ch.pipeline().addLast("decoder", new RESPDecoder());
 
             // Outbound
             ch.pipeline().addLast("encoder", new RESPEncoder());
-            ch.pipeline().addLast("command", new RESPCommandHandler(db));
+            ch.pipeline().addLast("command",
+                    new RESPCommandHandler(databases, metrics, config, router, replication, snapshots, storeExecutor));
         }
     }
 
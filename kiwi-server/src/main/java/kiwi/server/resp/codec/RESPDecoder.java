@@ -2,84 +2,206 @@ package kiwi.server.resp.codec;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.ReplayingDecoder;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import kiwi.core.common.Bytes;
 import kiwi.server.resp.command.CommandType;
 import kiwi.server.resp.command.RESPCommand;
 
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 
-public class RESPDecoder extends ReplayingDecoder<RESPDecoder.State> {
-    private Deque<String> arguments;
+/**
+ * Decodes RESP arrays of bulk strings into commands.
+ *
+ * <p>The decoder is a state machine that consumes every byte once. Bulk strings are copied into
+ * a buffer as their chunks arrive, so a large value received in many network reads is neither
+ * re-parsed nor held in the cumulation buffer until it is complete. The buffer grows with the
+ * received bytes rather than the announced length, so a header alone does not allocate memory.
+ * Once complete, the buffer is exactly as long as the bulk string and becomes the argument of the
+ * command without another copy.</p>
+ */
+public class RESPDecoder extends ByteToMessageDecoder {
+    // Limits of the Redis protocol parser: proto-max-bulk-len and the maximum line length.
+    static final int MAX_BULK_LENGTH = 512 * 1024 * 1024;
+    static final int MAX_ARGUMENTS = 1024 * 1024;
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+    // Initial capacity of bulk string buffers and argument lists, which grow as data arrives.
+    private static final int INITIAL_BULK_CAPACITY = 16 * 1024;
+    private static final int INITIAL_ARGUMENTS_CAPACITY = 16;
+
+    private State state = State.READ_INITIAL;
+    private List<Bytes> arguments;
+    private int remainingArguments;
+
+    // Bulk string being read, its announced length and the number of its bytes read so far.
+    private byte[] bulk;
+    private int bulkLength;
+    private int bulkRead;
+
+    // Time spent in decode calls for the current command. Waiting for more data from the
+    // network is not included.
+    private long decodeNanos;
+    private long decodeStart;
 
     enum State {
         READ_INITIAL,
-        READ_COMMAND,
-    }
-
-    public RESPDecoder() {
-        super(State.READ_INITIAL);
+        READ_ARGUMENT_COUNT,
+        READ_BULK_LENGTH,
+        READ_BULK_VALUE,
+        READ_BULK_END,
     }
 
     @Override
     protected void decode(ChannelHandlerContext channelHandlerContext, ByteBuf in, List<Object> out) throws IllegalArgumentException {
-        switch (state()) {
-            case READ_INITIAL -> {
-                char firstChar = (char) in.readByte();
-                if (firstChar == '\n' || firstChar == '\r') {
-                    return;
-                }
-                if (firstChar != '*') {
-                    throw new IllegalArgumentException("Invalid RESP message: expected '*' as first char, got '" + firstChar + "'");
-                }
+        decodeStart = System.nanoTime();
+        try {
+            decodeCommand(in, out);
+        } finally {
+            decodeNanos += System.nanoTime() - decodeStart;
+        }
+    }
 
-                arguments = new ArrayDeque<>();
+    private void decodeCommand(ByteBuf in, List<Object> out) {
+        while (in.isReadable()) {
+            switch (state) {
+                case READ_INITIAL -> {
+                    char firstChar = (char) in.readByte();
+                    if (firstChar == '\n' || firstChar == '\r') {
+                        continue;
+                    }
 
-                checkpoint(State.READ_COMMAND);
-            }
-            case READ_COMMAND -> {
-                int argumentCount = readInteger(in);
-                if (argumentCount < 1) {
-                    throw new IllegalArgumentException("Invalid RESP message: expected at least one argument, got " + argumentCount);
-                }
+                    if (firstChar != '*') {
+                        throw new IllegalArgumentException("Invalid RESP message: expected '*' as first char, got '" + firstChar + "'");
+                    }
 
-                for (int i = 0; i < argumentCount; i++) {
-                    arguments.add(readBulkString(in));
+                    decodeNanos = 0;
+                    decodeStart = System.nanoTime();
+                    state = State.READ_ARGUMENT_COUNT;
                 }
+                case READ_ARGUMENT_COUNT -> {
+                    long argumentCount = readInteger(in);
+                    if (argumentCount == Long.MIN_VALUE) {
+                        return;
+                    }
+                    if (argumentCount < 1 || argumentCount > MAX_ARGUMENTS) {
+                        throw new IllegalArgumentException("Invalid RESP message: expected at least one argument, got " + argumentCount);
+                    }
 
-                String rawCommand = arguments.removeFirst().toUpperCase();
-                CommandType commandType = parseCommandType(rawCommand);
-
-                RESPCommand command = new RESPCommand(commandType, arguments.stream().toList());
-                out.add(command);
-
-                checkpoint(State.READ_INITIAL);
+                    arguments = new ArrayList<>((int) Math.min(argumentCount, INITIAL_ARGUMENTS_CAPACITY));
+                    remainingArguments = (int) argumentCount;
+                    state = State.READ_BULK_LENGTH;
+                }
+                case READ_BULK_LENGTH -> {
+                    if (in.getByte(in.readerIndex()) != '$') {
+                        throw new IllegalArgumentException("Invalid RESP message: expected '$', got '" + (char) in.getByte(in.readerIndex()) + "'");
+                    }
+                    int start = in.readerIndex();
+                    in.skipBytes(1);
+                    long length = readInteger(in);
+                    if (length == Long.MIN_VALUE) {
+                        in.readerIndex(start);
+                        return;
+                    }
+                    if (length == -1) {
+                        addArgument(null, out);
+                    } else if (length < 0 || length > MAX_BULK_LENGTH) {
+                        throw new IllegalArgumentException("Invalid RESP message: invalid bulk length " + length);
+                    } else {
+                        bulk = new byte[(int) Math.min(length, INITIAL_BULK_CAPACITY)];
+                        bulkLength = (int) length;
+                        bulkRead = 0;
+                        state = State.READ_BULK_VALUE;
+                    }
+                }
+                case READ_BULK_VALUE -> {
+                    int length = Math.min(in.readableBytes(), bulkLength - bulkRead);
+                    if (bulkRead + length > bulk.length) {
+                        int capacity = (int) Math.min(bulkLength, Math.max(bulkRead + length, 2L * bulk.length));
+                        bulk = Arrays.copyOf(bulk, capacity);
+                    }
+                    in.readBytes(bulk, bulkRead, length);
+                    bulkRead += length;
+                    if (bulkRead == bulkLength) {
+                        state = State.READ_BULK_END;
+                    }
+                }
+                case READ_BULK_END -> {
+                    if (in.readableBytes() < 2) {
+                        return;
+                    }
+                    in.skipBytes(2); // Skip '\r\n'
+                    Bytes argument = Bytes.wrap(bulk, 0, bulkLength);
+                    bulk = null;
+                    addArgument(argument, out);
+                }
             }
         }
     }
 
-    private int readInteger(ByteBuf byteBuf) {
-        StringBuilder sb = new StringBuilder();
-        char c;
-        while ((c = (char) byteBuf.readByte()) != '\r') {
-            sb.append(c);
+    /**
+     * Returns the capacity of the buffer of the bulk string being read.
+     */
+    int bulkCapacity() {
+        return bulk == null ? 0 : bulk.length;
+    }
+
+    private void addArgument(Bytes argument, List<Object> out) {
+        arguments.add(argument);
+        if (--remainingArguments > 0) {
+            state = State.READ_BULK_LENGTH;
+            return;
         }
-        byteBuf.skipBytes(1); // Skip '\n'
-        return Integer.parseInt(sb.toString());
+
+        Bytes name = arguments.getFirst();
+        String rawCommand = name == null ? "" : new String(name.get(), StandardCharsets.US_ASCII).toUpperCase(Locale.ROOT);
+        CommandType commandType = parseCommandType(rawCommand);
+
+        long elapsed = decodeNanos + System.nanoTime() - decodeStart;
+        RESPCommand command = new RESPCommand(
+                commandType, Collections.unmodifiableList(arguments.subList(1, arguments.size())), elapsed);
+        out.add(command);
+
+        arguments = null;
+        state = State.READ_INITIAL;
     }
 
-    private String readBulkString(ByteBuf in) {
-        in.skipBytes(1); // Skip '$'
-        int length = readInteger(in);
-        if (length == -1) {
-            return null;
+    /**
+     * Reads an integer terminated by CRLF, or returns {@link Long#MIN_VALUE} without consuming
+     * anything if the line is not complete.
+     */
+    private static long readInteger(ByteBuf in) {
+        int end = in.indexOf(in.readerIndex(), in.writerIndex(), (byte) '\n');
+        if (end < 0) {
+            if (in.readableBytes() > MAX_LINE_LENGTH) {
+                throw new IllegalArgumentException("Invalid RESP message: line is too long");
+            }
+            return Long.MIN_VALUE;
+        }
+
+        int index = in.readerIndex();
+        int lineEnd = end - 1;
+        if (lineEnd <= index || in.getByte(lineEnd) != '\r') {
+            throw new IllegalArgumentException("Invalid RESP message: expected an integer line");
+        }
+        boolean negative = in.getByte(index) == '-';
+        if (negative) {
+            index++;
+        }
+        long value = 0;
+        for (; index < lineEnd; index++) {
+            byte digit = in.getByte(index);
+            if (digit < '0' || digit > '9' || value > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Invalid RESP message: invalid integer '"
+                        + in.toString(in.readerIndex(), lineEnd - in.readerIndex(), StandardCharsets.US_ASCII) + "'");
+            }
+            value = value * 10 + (digit - '0');
         }
-        byte[] bytes = new byte[length];
-        in.readBytes(bytes);
-        in.skipBytes(2); // Skip '\r\n'
-        return new String(bytes, StandardCharsets.UTF_8);
+        in.readerIndex(end + 1);
+        return negative ? -value : value;
     }
 
     private CommandType parseCommandType(String command) {
@@ -9,9 +9,26 @@ import java.util.List;
 import java.util.Map;
 
 public class RESPEncoder extends MessageToByteEncoder<Object> {
+    private long encodeNanos;
+
     @Override
     protected void encode(ChannelHandlerContext ctx, Object msg, ByteBuf out) throws IllegalArgumentException {
-        encode(msg, out);
+        long start = System.nanoTime();
+        try {
+            encode(msg, out);
+        } finally {
+            encodeNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Returns time spent encoding responses since the last call and resets it.
+     * Must be called from the channel event loop.
+     */
+    public long takeEncodeNanos() {
+        long nanos = encodeNanos;
+        encodeNanos = 0;
+        return nanos;
     }
 
     private void encode(Object msg, ByteBuf out) throws IllegalArgumentException {
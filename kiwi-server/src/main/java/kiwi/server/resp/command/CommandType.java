@@ -10,7 +10,23 @@ public enum CommandType {
     GET,
     DEL,
     EXISTS,
+    INCR,
+    DECR,
+    INCRBY,
+    DECRBY,
+    INCRBYFLOAT,
+    GETSET,
+    SETNX,
     DBSIZE,
     FLUSHDB,
+    SCAN,
+    KEYS,
+    SLOWLOG,
+    LATENCY,
+    REPLICAOF,
+    SYNC,
+    BGSAVE,
+    SNAPSHOT,
+    LASTSAVE,
     UNKNOWN,
 }
@@ -0,0 +1,141 @@
+package kiwi.server.resp.command;
+
+import kiwi.core.common.Bytes;
+
+import java.nio.charset.StandardCharsets;
+import java.util.function.Predicate;
+
+/**
+ * Glob-style key pattern used by SCAN and KEYS, with the same syntax as Redis.
+ *
+ * <ul>
+ *     <li>{@code *} matches any sequence of bytes, including none.</li>
+ *     <li>{@code ?} matches exactly one byte.</li>
+ *     <li>{@code [abc]}, {@code [a-z]} and {@code [^a]} match one byte from (or not from) the set.</li>
+ *     <li>{@code \} escapes the next byte.</li>
+ * </ul>
+ *
+ * <p>Patterns are matched against raw key bytes without backtracking recursion, so matching
+ * takes at most {@code O(pattern * key)} steps.</p>
+ */
+public final class GlobPattern implements Predicate<Bytes> {
+
+    private final byte[] pattern;
+    private final boolean matchesAll;
+
+    private GlobPattern(byte[] pattern) {
+        this.pattern = pattern;
+        this.matchesAll = isMatchAll(pattern);
+    }
+
+    public static GlobPattern compile(String pattern) {
+        return new GlobPattern(pattern.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public boolean matchesAll() {
+        return matchesAll;
+    }
+
+    @Override
+    public boolean test(Bytes key) {
+        return matchesAll || matches(key.get());
+    }
+
+    public boolean matches(byte[] key) {
+        int p = 0;
+        int k = 0;
+        // Position after the last star and the key position it is currently matched up to.
+        int starPattern = -1;
+        int starKey = 0;
+
+        while (k < key.length) {
+            if (p < pattern.length && pattern[p] == '*') {
+                starPattern = ++p;
+                starKey = k;
+                continue;
+            }
+
+            int next = p < pattern.length ? matchOne(p, key[k]) : -1;
+            if (next >= 0) {
+                p = next;
+                k++;
+            } else if (starPattern >= 0) {
+                // Let the last star consume one more byte and retry the rest of the pattern.
+                p = starPattern;
+                k = ++starKey;
+            } else {
+                return false;
+            }
+        }
+
+        while (p < pattern.length && pattern[p] == '*') {
+            p++;
+        }
+        return p == pattern.length;
+    }
+
+    /**
+     * Matches a single byte against the pattern token at {@code p}.
+     *
+     * @return the position of the next token or {@code -1} if the byte does not match
+     */
+    private int matchOne(int p, byte value) {
+        switch (pattern[p]) {
+            case '?' -> {
+                return p + 1;
+            }
+            case '[' -> {
+                return matchClass(p + 1, value);
+            }
+            case '\\' -> {
+                if (p + 1 < pattern.length) {
+                    return pattern[p + 1] == value ? p + 2 : -1;
+                }
+                return value == '\\' ? p + 1 : -1;
+            }
+            default -> {
+                return pattern[p] == value ? p + 1 : -1;
+            }
+        }
+    }
+
+    private int matchClass(int p, byte value) {
+        boolean negate = p < pattern.length && pattern[p] == '^';
+        if (negate) {
+            p++;
+        }
+
+        int c = value & 0xFF;
+        boolean matched = false;
+        while (p < pattern.length && pattern[p] != ']') {
+            if (pattern[p] == '\\' && p + 1 < pattern.length) {
+                matched |= (pattern[p + 1] & 0xFF) == c;
+                p += 2;
+            } else if (p + 2 < pattern.length && pattern[p + 1] == '-' && pattern[p + 2] != ']') {
+                int start = pattern[p] & 0xFF;
+                int end = pattern[p + 2] & 0xFF;
+                matched |= c >= Math.min(start, end) && c <= Math.max(start, end);
+                p += 3;
+            } else {
+                matched |= (pattern[p] & 0xFF) == c;
+                p++;
+            }
+        }
+
+        // Unterminated class extends to the end of the pattern, the same as in Redis.
+        int next = p < pattern.length ? p + 1 : p;
+        return matched != negate ? next : -1;
+    }
+
+    private static boolean isMatchAll(byte[] pattern) {
+        if (pattern.length == 0) {
+            return false;
+        }
+        for (byte b : pattern) {
+            if (b != '*') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
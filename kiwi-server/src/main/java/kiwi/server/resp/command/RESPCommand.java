@@ -1,6 +1,35 @@
 package kiwi.server.resp.command;
 
+import kiwi.core.common.Bytes;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.List;
 
-public record RESPCommand(CommandType commandType, List<String> arguments) {
+/**
+ * Decoded RESP command.
+ *
+ * <p>Arguments are views of the received bulk strings, so keys and values reach the store as
+ * they were sent, including bytes that are not valid UTF-8. Options, numbers and patterns are
+ * read with {@link #argument(int)}.</p>
+ *
+ * @param decodeNanos time spent decoding the command, excluding waits for more network data
+ */
+public record RESPCommand(CommandType commandType, List<Bytes> arguments, long decodeNanos) {
+
+    public RESPCommand(CommandType commandType, List<Bytes> arguments) {
+        this(commandType, arguments, 0);
+    }
+
+    public static RESPCommand of(CommandType commandType, String... arguments) {
+        return new RESPCommand(commandType, Arrays.stream(arguments).map(Bytes::wrap).toList());
+    }
+
+    /**
+     * Returns the argument decoded as UTF-8, or null if it is a null bulk string.
+     */
+    public String argument(int index) {
+        Bytes argument = arguments.get(index);
+        return argument == null ? null : new String(argument.get(), StandardCharsets.UTF_8);
+    }
 }
@@ -2,12 +2,133 @@ package kiwi.server.resp.config;
 
 import com.typesafe.config.Config;
 
+import java.time.Duration;
+
 public class ServerConfig {
+    public enum ExecutionMode {
+        SHARED, THREAD_PER_CORE, VIRTUAL_THREADS
+    }
+
     public final String host;
     public final int port;
+    public final Transport transport;
+    public final Clients clients;
+    public final Metrics metrics;
+    public final Slowlog slowlog;
+    public final Duration latencyMonitorThreshold;
+    public final int keysLimit;
+    public final ExecutionMode executionMode;
+    public final Replication replication;
+    public final Snapshot snapshot;
 
     public ServerConfig(Config config) {
         this.host = config.getString("host");
         this.port = config.getInt("port");
+        this.transport = new Transport(config.getConfig("transport"));
+        this.clients = new Clients(config.getConfig("clients"));
+        this.metrics = new Metrics(config.getConfig("metrics"));
+        this.slowlog = new Slowlog(config.getConfig("slowlog"));
+        this.latencyMonitorThreshold = config.getDuration("latency.monitor.threshold");
+        this.keysLimit = config.getInt("keys.limit");
+
+        String executionMode = config.getString("execution.mode").toUpperCase().replace('-', '_');
+        try {
+            this.executionMode = ExecutionMode.valueOf(executionMode);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid execution mode: " + executionMode);
+        }
+
+        this.replication = new Replication(config.getConfig("replication"));
+        this.snapshot = new Snapshot(config.getConfig("snapshot"));
+    }
+
+    public static class Transport {
+        public enum Type {
+            NIO, EPOLL
+        }
+
+        public final Type type;
+        public final int bossThreads;
+        public final int workerThreads;
+        public final boolean reusePort;
+        public final boolean edgeTriggered;
+
+        public Transport(Config config) {
+            String type = config.getString("type").toUpperCase();
+            try {
+                this.type = Type.valueOf(type);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid transport type: " + type);
+            }
+
+            this.bossThreads = config.getInt("boss.threads");
+            this.workerThreads = config.getInt("worker.threads");
+            this.reusePort = config.getBoolean("epoll.reuse.port");
+            this.edgeTriggered = config.getBoolean("epoll.edge.triggered");
+        }
+    }
+
+    public static class Clients {
+        public final int maxPendingCommands;
+        public final int writeBufferLowWaterMark;
+        public final int writeBufferHighWaterMark;
+        public final long outputBufferHardLimitBytes;
+        public final long outputBufferSoftLimitBytes;
+        public final Duration outputBufferSoftLimitDuration;
+
+        public Clients(Config config) {
+            this.maxPendingCommands = config.getInt("max.pending.commands");
+            this.writeBufferLowWaterMark = config.getInt("write.buffer.low.water.mark");
+            this.writeBufferHighWaterMark = config.getInt("write.buffer.high.water.mark");
+            if (writeBufferLowWaterMark > writeBufferHighWaterMark) {
+                throw new IllegalArgumentException("Write buffer low water mark is above the high water mark: "
+                        + writeBufferLowWaterMark + " > " + writeBufferHighWaterMark);
+            }
+            this.outputBufferHardLimitBytes = config.getLong("output.buffer.limit.hard.bytes");
+            this.outputBufferSoftLimitBytes = config.getLong("output.buffer.limit.soft.bytes");
+            this.outputBufferSoftLimitDuration = config.getDuration("output.buffer.limit.soft.duration");
+        }
+    }
+
+    public static class Metrics {
+        public final boolean enabled;
+        public final int port;
+
+        public Metrics(Config config) {
+            this.enabled = config.getBoolean("enabled");
+            this.port = config.getInt("port");
+        }
+    }
+
+    public static class Slowlog {
+        public final Duration threshold;
+        public final int maxLen;
+
+        public Slowlog(Config config) {
+            this.threshold = config.getDuration("threshold");
+            this.maxLen = config.getInt("max.len");
+        }
+    }
+
+    public static class Replication {
+        public final String leader;
+        public final long bufferLimitBytes;
+        public final Duration heartbeatInterval;
+        public final Duration reconnectDelay;
+
+        public Replication(Config config) {
+            this.leader = config.getString("leader");
+            this.bufferLimitBytes = config.getLong("buffer.limit.bytes");
+            this.heartbeatInterval = config.getDuration("heartbeat.interval");
+            this.reconnectDelay = config.getDuration("reconnect.delay");
+        }
+    }
+
+    public static class Snapshot {
+        public final String dir;
+
+        public Snapshot(Config config) {
+            this.dir = config.getString("dir");
+        }
     }
 }
@@ -0,0 +1,110 @@
+package kiwi.server.resp.handler;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.concurrent.ScheduledFuture;
+import kiwi.server.resp.config.ServerConfig;
+import kiwi.server.resp.metrics.ServerMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Disconnects clients whose responses pile up in the outbound buffer, the same as
+ * {@code client-output-buffer-limit} in Redis.
+ *
+ * <p>A client is disconnected as soon as its pending responses reach the hard limit, or when
+ * they are still above the soft limit after the soft limit duration. Limits are checked on every
+ * write, after the encoded response is added to the outbound buffer, so it has to be placed
+ * between the encoder and the head of the pipeline. A client that stops reading causes no more
+ * writes, so the soft limit is checked again by a task scheduled when it is reached, and cleared
+ * when the channel becomes writable again.</p>
+ */
+public class OutputBufferLimitHandler extends ChannelDuplexHandler {
+    private static final Logger logger = LoggerFactory.getLogger(OutputBufferLimitHandler.class);
+
+    private final ServerMetrics metrics;
+    private final long hardLimitBytes;
+    private final long softLimitBytes;
+    private final long softLimitNanos;
+
+    // Disconnects the client if its pending responses are still above the soft limit when the
+    // soft limit duration has passed, or null while they are below it.
+    private ScheduledFuture<?> softLimitCheck;
+
+    public OutputBufferLimitHandler(ServerMetrics metrics, ServerConfig.Clients config) {
+        this.metrics = metrics;
+        this.hardLimitBytes = config.outputBufferHardLimitBytes;
+        this.softLimitBytes = config.outputBufferSoftLimitBytes;
+        this.softLimitNanos = config.outputBufferSoftLimitDuration.toNanos();
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+        ctx.write(msg, promise);
+        checkLimits(ctx);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        checkLimits(ctx);
+        super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        cancelSoftLimitCheck();
+    }
+
+    private void checkLimits(ChannelHandlerContext ctx) {
+        long pending = pendingBytes(ctx);
+        if (pending < 0) {
+            cancelSoftLimitCheck();
+            return;
+        }
+        if (hardLimitBytes > 0 && pending >= hardLimitBytes) {
+            disconnect(ctx, pending, "hard");
+            return;
+        }
+        if (softLimitBytes <= 0 || pending < softLimitBytes) {
+            cancelSoftLimitCheck();
+            return;
+        }
+        if (softLimitCheck == null) {
+            softLimitCheck = ctx.executor().schedule(() -> {
+                softLimitCheck = null;
+                long stillPending = pendingBytes(ctx);
+                if (stillPending >= softLimitBytes) {
+                    disconnect(ctx, stillPending, "soft");
+                }
+            }, softLimitNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // Returns the bytes waiting to be written, or -1 if the channel is closed.
+    private static long pendingBytes(ChannelHandlerContext ctx) {
+        ChannelOutboundBuffer buffer = ctx.channel().unsafe().outboundBuffer();
+        if (buffer == null || !ctx.channel().isActive()) {
+            return -1;
+        }
+        return buffer.totalPendingWriteBytes();
+    }
+
+    private void cancelSoftLimitCheck() {
+        if (softLimitCheck != null) {
+            softLimitCheck.cancel(false);
+            softLimitCheck = null;
+        }
+    }
+
+    private void disconnect(ChannelHandlerContext ctx, long pending, String limit) {
+        cancelSoftLimitCheck();
+        logger.warn("Client {} reached the {} output buffer limit with {} pending bytes, disconnecting",
+                ctx.channel().remoteAddress(), limit, pending);
+        metrics.outputBufferLimitReached();
+        ctx.close();
+    }
+}
@@ -1,58 +1,461 @@
 package kiwi.server.resp.handler;
 
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
 import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.util.concurrent.EventExecutor;
 import kiwi.core.common.Bytes;
+import kiwi.core.metrics.LatencyHistogram;
+import kiwi.core.storage.Databases;
 import kiwi.core.storage.KeyValueStore;
+import kiwi.core.storage.ScanResult;
+import kiwi.server.resp.codec.RESPDecoder;
+import kiwi.server.resp.codec.RESPEncoder;
+import kiwi.server.resp.command.CommandType;
+import kiwi.server.resp.command.GlobPattern;
 import kiwi.server.resp.command.RESPCommand;
+import kiwi.server.resp.config.ServerConfig;
+import kiwi.server.resp.metrics.CommandTiming;
+import kiwi.server.resp.metrics.LatencyMonitor;
+import kiwi.server.resp.metrics.ServerMetrics;
+import kiwi.server.resp.metrics.SlowLog;
+import kiwi.server.resp.replication.Replication;
+import kiwi.server.resp.snapshot.Snapshots;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.math.BigDecimal;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 public class RESPCommandHandler extends SimpleChannelInboundHandler<RESPCommand> {
     private static final Logger logger = LoggerFactory.getLogger(RESPCommandHandler.class);
 
-    private final KeyValueStore<Bytes, Bytes> db;
+    private static final List<String> DEFAULT_SECTIONS =
+            List.of("server", "clients", "persistence", "stats", "replication", "storage", "keyspace");
+    private static final List<String> ALL_SECTIONS = List.of("server", "clients", "persistence", "stats",
+            "replication", "storage", "keyspace", "commandstats", "latencystats");
 
-    public RESPCommandHandler(KeyValueStore<Bytes, Bytes> db) {
-        this.db = db;
+    private static final int DEFAULT_SCAN_COUNT = 10;
+
+    private static final String SET_SYNTAX = "Expected SET syntax: SET [key] [value] [NX|XX] [GET] [EX|PX] [time]";
+    private static final String NOT_AN_INTEGER = "value is not an integer or out of range";
+    private static final String NOT_A_FLOAT = "value is not a valid float";
+
+    private final Databases databases;
+    private final ServerMetrics metrics;
+    private final int keysLimit;
+    // Stop reading from a connection that pipelines more commands behind a forwarded one.
+    private final int maxPendingCommands;
+    private final ShardRouter router;
+    private final Replication replication;
+    private final Snapshots snapshots;
+    // Executes store commands off the event loop in virtual-threads execution mode, or null.
+    private final Executor storeExecutor;
+    private RESPEncoder encoder;
+
+    // Commands received while a command is executed on another thread or while the channel is
+    // not writable. Responses must be written in request order, so they wait until the forwarded
+    // command completes, and are not produced faster than the client reads them.
+    private final Queue<RESPCommand> pending = new ArrayDeque<>();
+    private boolean forwarding;
+
+    // Database selected by this connection.
+    private KeyValueStore<Bytes, Bytes> db;
+
+    public RESPCommandHandler(
+            Databases databases,
+            ServerMetrics metrics,
+            ServerConfig config,
+            ShardRouter router,
+            Replication replication,
+            Snapshots snapshots,
+            Executor storeExecutor) {
+        this.databases = databases;
+        this.metrics = metrics;
+        this.keysLimit = config.keysLimit;
+        this.maxPendingCommands = config.clients.maxPendingCommands;
+        this.router = router;
+        this.replication = replication;
+        this.snapshots = snapshots;
+        this.storeExecutor = storeExecutor;
+        this.db = databases.get(0);
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        // Responses are encoded synchronously on the event loop, so encoding time can be
+        // taken from the encoder right after the command is handled.
+        encoder = ctx.pipeline().get(RESPEncoder.class);
     }
 
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, RESPCommand command) {
+        if (forwarding || !pending.isEmpty() || !ctx.channel().isWritable()) {
+            pending.add(command);
+            if (forwarding) {
+                updateAutoRead(ctx);
+            } else {
+                handlePending(ctx);
+            }
+            return;
+        }
+        handle(ctx, command);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        handlePending(ctx);
+        super.channelWritabilityChanged(ctx);
+    }
+
+    /**
+     * Handles queued commands until a command is forwarded or the channel becomes unwritable,
+     * and reads from the connection only while there is room for more commands.
+     */
+    private void handlePending(ChannelHandlerContext ctx) {
+        while (!forwarding && ctx.channel().isWritable() && !pending.isEmpty()) {
+            handle(ctx, pending.poll());
+        }
+        updateAutoRead(ctx);
+    }
+
+    private void updateAutoRead(ChannelHandlerContext ctx) {
+        boolean autoRead = ctx.channel().isWritable() && pending.size() < maxPendingCommands;
+        if (ctx.channel().config().isAutoRead() != autoRead) {
+            ctx.channel().config().setAutoRead(autoRead);
+        }
+    }
+
+    private void handle(ChannelHandlerContext ctx, RESPCommand command) {
+        if (isWrite(command.commandType()) && replication.isReplica()) {
+            long start = System.nanoTime();
+            ctx.writeAndFlush(new Throwable("READONLY You can't write against a read only replica."));
+            recordCommand(ctx, command, start, true);
+            return;
+        }
+
+        Bytes key = keyOf(command);
+        if (storeExecutor != null && (key != null || isStoreWide(command.commandType()))) {
+            forward(ctx, command, storeExecutor);
+            return;
+        }
+        EventExecutor owner = key != null ? router.owner(db, key) : null;
+        if (owner != null && !owner.inEventLoop()) {
+            forward(ctx, command, owner);
+            return;
+        }
+
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            dispatch(ctx, command);
+            failed = false;
+        } finally {
+            recordCommand(ctx, command, start, failed);
+        }
+    }
+
+    /**
+     * Executes a store command on the event loop owning the key, or on a virtual thread, and
+     * writes the response on the event loop of this connection.
+     */
+    private void forward(ChannelHandlerContext ctx, RESPCommand command, Executor owner) {
+        forwarding = true;
+        KeyValueStore<Bytes, Bytes> store = db;
+        long start = System.nanoTime();
+        owner.execute(() -> {
+            Object response;
+            try {
+                response = execute(store, command);
+            } catch (Throwable cause) {
+                response = new Failure(cause);
+            }
+            Object result = response;
+            ctx.executor().execute(() -> complete(ctx, command, result, start));
+        });
+    }
+
+    /**
+     * Writes the response of a command completed by a background task. Later commands of the
+     * connection wait, so responses are written in request order.
+     */
+    private void await(ChannelHandlerContext ctx, RESPCommand command, CompletableFuture<Object> response) {
+        forwarding = true;
+        long start = System.nanoTime();
+        response.whenComplete((result, cause) -> ctx.executor().execute(
+                () -> complete(ctx, command, cause != null ? new Failure(cause) : result, start)));
+    }
+
+    private void complete(ChannelHandlerContext ctx, RESPCommand command, Object response, long start) {
+        boolean failed = response instanceof Failure;
+        try {
+            if (response instanceof Failure failure) {
+                exceptionCaught(ctx, failure.cause());
+            } else {
+                ctx.writeAndFlush(response);
+            }
+        } finally {
+            recordCommand(ctx, command, start, failed);
+        }
+
+        forwarding = false;
+        if (failed) {
+            // Connection is closed on failure, so pipelined commands are dropped.
+            pending.clear();
+            return;
+        }
+        handlePending(ctx);
+    }
+
+    private void recordCommand(ChannelHandlerContext ctx, RESPCommand command, long start, boolean failed) {
+        long elapsed = System.nanoTime() - start;
+        long encodeNanos = encoder != null ? encoder.takeEncodeNanos() : 0;
+        CommandTiming timing = new CommandTiming(command.decodeNanos(), elapsed - encodeNanos, encodeNanos);
+        metrics.recordCommand(command, timing, failed, ctx.channel().remoteAddress());
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        pending.clear();
+        super.channelInactive(ctx);
+    }
+
+    /**
+     * Returns the key of commands that access a single key, which can be executed by the owner
+     * of the key's shard.
+     */
+    private static Bytes keyOf(RESPCommand command) {
+        return switch (command.commandType()) {
+            case GET, SET, DEL, EXISTS, INCR, DECR, INCRBY, DECRBY, INCRBYFLOAT, GETSET, SETNX -> command.arguments().isEmpty()
+                    ? null
+                    : command.arguments().getFirst();
+            default -> null;
+        };
+    }
+
+    /**
+     * Returns whether the command accesses the whole store, e.g. syncs it or walks its keys.
+     */
+    private static boolean isStoreWide(CommandType type) {
+        return switch (type) {
+            case FLUSHDB, SCAN, KEYS -> true;
+            default -> false;
+        };
+    }
+
+    private static boolean isWrite(CommandType type) {
+        return switch (type) {
+            case SET, DEL, FLUSHDB, INCR, DECR, INCRBY, DECRBY, INCRBYFLOAT, GETSET, SETNX -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * Executes a store command against the store and returns the response.
+     */
+    private Object execute(KeyValueStore<Bytes, Bytes> store, RESPCommand command) {
+        return switch (command.commandType()) {
+            case SET -> set(store, command);
+            case GET -> get(store, command);
+            case DEL -> delete(store, command);
+            case EXISTS -> exists(store, command);
+            case INCR, DECR, INCRBY, DECRBY -> increment(store, command);
+            case INCRBYFLOAT -> incrementByFloat(store, command);
+            case GETSET -> getSet(store, command);
+            case SETNX -> setIfAbsent(store, command);
+            case FLUSHDB -> flush(store);
+            case SCAN -> scan(store, command);
+            case KEYS -> keys(store, command);
+            default -> throw new IllegalArgumentException("Not a store command: " + command.commandType());
+        };
+    }
+
+    private record Failure(Throwable cause) {
+    }
+
+    private void dispatch(ChannelHandlerContext ctx, RESPCommand command) {
         switch (command.commandType()) {
             case PING -> handlePing(ctx, command);
             case INFO -> handleInfo(ctx, command);
             case SELECT -> handleSelect(ctx, command);
             case COMMAND -> handleCommand(ctx, command);
             case CONFIG -> handleConfig(ctx, command);
-            case SET -> handleSet(ctx, command);
-            case GET -> handleGet(ctx, command);
-            case DEL -> handleDelete(ctx, command);
-            case EXISTS -> handleExists(ctx, command);
+            case SET, GET, DEL, EXISTS, INCR, DECR, INCRBY, DECRBY, INCRBYFLOAT, GETSET, SETNX ->
+                    ctx.writeAndFlush(execute(db, command));
             case DBSIZE -> handleSize(ctx, command);
-            case FLUSHDB -> handleFlush(ctx, command);
+            case FLUSHDB, SCAN, KEYS -> ctx.writeAndFlush(execute(db, command));
+            case SLOWLOG -> handleSlowLog(ctx, command);
+            case LATENCY -> handleLatency(ctx, command);
+            case REPLICAOF -> handleReplicaOf(ctx, command);
+            case SYNC -> handleSync(ctx, command);
+            case BGSAVE -> handleBackgroundSave(ctx, command);
+            case SNAPSHOT -> handleSnapshot(ctx, command);
+            case LASTSAVE -> ctx.writeAndFlush(snapshots.lastSaveSeconds());
             case UNKNOWN -> handleUnknown(ctx, command);
         }
     }
 
     private void handlePing(ChannelHandlerContext ctx, RESPCommand command) {
         if (command.arguments().size() == 1) {
-            byte[] echo = command.arguments().getFirst().getBytes(StandardCharsets.UTF_8);
+            byte[] echo = command.arguments().getFirst().get();
             ctx.writeAndFlush(echo);
         } else {
             ctx.writeAndFlush("PONG");
         }
     }
 
-    private void handleInfo(ChannelHandlerContext ctx, RESPCommand ignoredCommand) {
-        String info = "# Server\r\nkiwi_version:0.1.0\r\nkiwi_mode:standalone";
-        ctx.writeAndFlush(info.getBytes(StandardCharsets.UTF_8));
+    private void handleInfo(ChannelHandlerContext ctx, RESPCommand command) {
+        Set<String> sections = new LinkedHashSet<>();
+        if (command.arguments().isEmpty()) {
+            sections.addAll(DEFAULT_SECTIONS);
+        }
+        for (int i = 0; i < command.arguments().size(); i++) {
+            String argument = command.argument(i);
+            switch (argument.toLowerCase(Locale.ROOT)) {
+                case "default" -> sections.addAll(DEFAULT_SECTIONS);
+                case "all", "everything" -> sections.addAll(ALL_SECTIONS);
+                default -> sections.add(argument.toLowerCase(Locale.ROOT));
+            }
+        }
+
+        StringBuilder info = new StringBuilder();
+        for (String section : sections) {
+            int length = info.length();
+            if (length > 0) {
+                info.append("\r\n");
+            }
+            switch (section) {
+                case "server" -> appendServerInfo(info);
+                case "clients" -> appendClientsInfo(info);
+                case "persistence" -> appendPersistenceInfo(info);
+                case "stats" -> appendStatsInfo(info);
+                case "replication" -> appendReplicationInfo(info);
+                case "storage" -> appendStorageInfo(info);
+                case "keyspace" -> appendKeyspaceInfo(info);
+                case "commandstats" -> appendCommandStats(info);
+                case "latencystats" -> appendLatencyStats(info);
+                // Unknown sections are ignored, the same as in Redis.
+                default -> info.setLength(length);
+            }
+        }
+
+        ctx.writeAndFlush(info.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void appendServerInfo(StringBuilder info) {
+        info.append("# Server\r\n");
+        info.append("kiwi_version:0.1.0\r\n");
+        info.append("kiwi_mode:standalone\r\n");
+        info.append("uptime_in_seconds:").append(metrics.uptimeSeconds()).append("\r\n");
+    }
+
+    private void appendClientsInfo(StringBuilder info) {
+        info.append("# Clients\r\n");
+        info.append("connected_clients:").append(metrics.connectedClients()).append("\r\n");
+    }
+
+    private void appendPersistenceInfo(StringBuilder info) {
+        info.append("# Persistence\r\n");
+        snapshots.info().forEach((name, value) -> info.append(name).append(':').append(value).append("\r\n"));
+    }
+
+    private void appendStatsInfo(StringBuilder info) {
+        info.append("# Stats\r\n");
+        info.append("total_connections_received:").append(metrics.connectionsReceived()).append("\r\n");
+        info.append("total_commands_processed:").append(metrics.commandsProcessed()).append("\r\n");
+        info.append("total_net_input_bytes:").append(metrics.bytesIn()).append("\r\n");
+        info.append("total_net_output_bytes:").append(metrics.bytesOut()).append("\r\n");
+        info.append("client_output_buffer_limit_disconnections:")
+                .append(metrics.outputBufferLimitDisconnections()).append("\r\n");
+    }
+
+    private void appendReplicationInfo(StringBuilder info) {
+        info.append("# Replication\r\n");
+        replication.info().forEach((name, value) -> info.append(name).append(':').append(value).append("\r\n"));
+    }
+
+    private void appendStorageInfo(StringBuilder info) {
+        info.append("# Storage\r\n");
+        db.stats().forEach((name, value) -> info.append(name).append(':').append(value).append("\r\n"));
+    }
+
+    private void appendKeyspaceInfo(StringBuilder info) {
+        info.append("# Keyspace\r\n");
+        databases.opened().forEach((index, store) -> {
+            int keys = store.size();
+            if (keys > 0) {
+                info.append("db").append(index).append(":keys=").append(keys).append(",expires=0,avg_ttl=0\r\n");
+            }
+        });
+    }
+
+    private void appendCommandStats(StringBuilder info) {
+        info.append("# Commandstats\r\n");
+        for (ServerMetrics.CommandStats stats : metrics.commands()) {
+            LatencyHistogram.Snapshot snapshot = stats.latency().snapshot();
+            if (snapshot.count() == 0 || stats.type() == CommandType.UNKNOWN) {
+                continue;
+            }
+            double usec = snapshot.sum() / 1000.0;
+            info.append(String.format(Locale.ROOT,
+                    "cmdstat_%s:calls=%d,usec=%d,usec_per_call=%.2f,rejected_calls=0,failed_calls=%d\r\n",
+                    commandName(stats.type()), snapshot.count(), (long) usec, usec / snapshot.count(),
+                    stats.failedCalls()));
+        }
+    }
+
+    private void appendLatencyStats(StringBuilder info) {
+        info.append("# Latencystats\r\n");
+        for (ServerMetrics.CommandStats stats : metrics.commands()) {
+            LatencyHistogram.Snapshot snapshot = stats.latency().snapshot();
+            if (snapshot.count() == 0 || stats.type() == CommandType.UNKNOWN) {
+                continue;
+            }
+            info.append(String.format(Locale.ROOT,
+                    "latency_percentiles_usec_%s:p50=%.3f,p99=%.3f,p99.9=%.3f\r\n",
+                    commandName(stats.type()),
+                    snapshot.percentile(50) / 1000.0,
+                    snapshot.percentile(99) / 1000.0,
+                    snapshot.percentile(99.9) / 1000.0));
+        }
+    }
+
+    private static String commandName(CommandType type) {
+        return type.name().toLowerCase(Locale.ROOT);
     }
 
-    private void handleSelect(ChannelHandlerContext ctx, RESPCommand ignoredCommand) {
-        // There is only one database in Kiwi, so we always return OK.
+    private void handleSelect(ChannelHandlerContext ctx, RESPCommand command) {
+        if (command.arguments().size() != 1) {
+            ctx.writeAndFlush(new Throwable("SELECT requires 1 argument"));
+            return;
+        }
+
+        int index;
+        try {
+            index = Integer.parseInt(command.argument(0));
+        } catch (NumberFormatException ex) {
+            ctx.writeAndFlush(new Throwable(NOT_AN_INTEGER));
+            return;
+        }
+        if (index < 0 || index >= databases.count()) {
+            ctx.writeAndFlush(new Throwable("DB index is out of range"));
+            return;
+        }
+
+        db = databases.get(index);
         ctx.writeAndFlush("OK");
     }
 
@@ -66,73 +469,197 @@ public class RESPCommandHandler extends SimpleChannelInboundHandler<RESPCommand>
             ctx.writeAndFlush(new Throwable("CONFIG requires 2 arguments"));
             return;
         }
-        switch (command.arguments().getLast().toLowerCase()) {
+        switch (command.argument(1).toLowerCase(Locale.ROOT)) {
             case "save" -> ctx.writeAndFlush(new String[]{"save", ""});
             case "appendonly" -> ctx.writeAndFlush(new String[]{"appendonly", "yes"});
         }
         ctx.writeAndFlush(new String[]{"save", ""});
     }
 
-    private void handleSet(ChannelHandlerContext ctx, RESPCommand command) {
-        int argSize = command.arguments().size();
-
-        if (argSize < 2) {
-            ctx.writeAndFlush(new Throwable("SET requires at lest 2 arguments: SET [key] [value]"));
-            return;
+    private static Object set(KeyValueStore<Bytes, Bytes> store, RESPCommand command) {
+        List<Bytes> arguments = command.arguments();
+        if (arguments.size() < 2) {
+            return new Throwable("SET requires at lest 2 arguments: SET [key] [value]");
         }
 
-        Bytes key = Bytes.wrap(command.arguments().get(0).getBytes(StandardCharsets.UTF_8));
-        Bytes value = Bytes.wrap(command.arguments().get(1).getBytes(StandardCharsets.UTF_8));
+        Bytes key = arguments.get(0);
+        Bytes value = arguments.get(1);
 
-        if (argSize == 2) {
-            db.put(key, value);
-        } else if (argSize == 4) {
-            String expiryArg = command.arguments().get(2).toUpperCase();
-            long ttl;
-            switch (expiryArg) {
-                case "EX" -> ttl = Long.parseLong(command.arguments().get(3)) * 1000;
-                case "PX" -> ttl = Long.parseLong(command.arguments().get(3));
+        long ttl = 0;
+        boolean ifAbsent = false;
+        boolean ifPresent = false;
+        boolean get = false;
+        for (int i = 2; i < arguments.size(); i++) {
+            String option = command.argument(i).toUpperCase(Locale.ROOT);
+            switch (option) {
+                case "EX", "PX" -> {
+                    if (i + 1 == arguments.size()) {
+                        return new Throwable(SET_SYNTAX);
+                    }
+                    long time = Long.parseLong(command.argument(i + 1));
+                    ttl = option.equals("EX") ? time * 1000 : time;
+                    i++;
+                }
+                case "NX" -> ifAbsent = true;
+                case "XX" -> ifPresent = true;
+                case "GET" -> get = true;
                 default -> {
-                    ctx.writeAndFlush(new Throwable("SET requires EX or PX as expiry"));
-                    return;
+                    return new Throwable(SET_SYNTAX);
                 }
             }
-            db.put(key, value, ttl);
-        } else {
-            ctx.writeAndFlush(new Throwable("Expected SET syntax: SET [key] [value] [EX|PX] [time]"));
-            return;
         }
-        ctx.writeAndFlush("OK");
+        if (ifAbsent && ifPresent) {
+            return new Throwable(SET_SYNTAX);
+        }
+
+        if (!ifAbsent && !ifPresent && !get) {
+            store.put(key, value, ttl);
+            return "OK";
+        }
+
+        boolean absent = ifAbsent;
+        boolean present = ifPresent;
+        boolean[] written = new boolean[1];
+        Optional<Bytes> previous = store.update(key, current -> {
+            if ((absent && current.isPresent()) || (present && current.isEmpty())) {
+                return Optional.empty();
+            }
+            written[0] = true;
+            return Optional.of(value);
+        }, ttl);
+        if (get) {
+            return toBulkString(previous);
+        }
+        return written[0] ? "OK" : new byte[0];
     }
 
-    private void handleGet(ChannelHandlerContext ctx, RESPCommand command) {
+    private static Object get(KeyValueStore<Bytes, Bytes> store, RESPCommand command) {
         if (command.arguments().size() != 1) {
-            ctx.writeAndFlush(new Throwable("GET requires 1 argument"));
-            return;
+            return new Throwable("GET requires 1 argument");
         }
-        Bytes key = Bytes.wrap(command.arguments().getFirst().getBytes(StandardCharsets.UTF_8));
-        String value = db.get(key).map(Bytes::toString).orElse(null);
-        ctx.writeAndFlush(value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8));
+        Bytes key = command.arguments().getFirst();
+        return toBulkString(store.get(key));
     }
 
-    private void handleDelete(ChannelHandlerContext ctx, RESPCommand command) {
+    /**
+     * Handles INCR, DECR, INCRBY and DECRBY. Missing keys count from zero, and the expiry of
+     * the counter is kept.
+     */
+    private static Object increment(KeyValueStore<Bytes, Bytes> store, RESPCommand command) {
+        CommandType type = command.commandType();
+        List<Bytes> arguments = command.arguments();
+        boolean byOne = type == CommandType.INCR || type == CommandType.DECR;
+        if (arguments.size() != (byOne ? 1 : 2)) {
+            return new Throwable(byOne ? type + " requires 1 argument" : type + " requires 2 arguments");
+        }
+
+        long delta;
+        try {
+            delta = byOne ? 1 : Long.parseLong(command.argument(1));
+            if (type == CommandType.DECR || type == CommandType.DECRBY) {
+                delta = Math.negateExact(delta);
+            }
+        } catch (NumberFormatException | ArithmeticException ex) {
+            return new Throwable(NOT_AN_INTEGER);
+        }
+
+        Bytes key = arguments.getFirst();
+        long increment = delta;
+        long[] result = new long[1];
+        try {
+            store.update(key, current -> {
+                long value = current.isPresent() ? Long.parseLong(current.get().toString()) : 0;
+                result[0] = Math.addExact(value, increment);
+                return Optional.of(Bytes.wrap(Long.toString(result[0]).getBytes(StandardCharsets.UTF_8)));
+            }, KeyValueStore.KEEP_TTL);
+        } catch (NumberFormatException | ArithmeticException ex) {
+            return new Throwable(NOT_AN_INTEGER);
+        }
+        return result[0];
+    }
+
+    private static Object incrementByFloat(KeyValueStore<Bytes, Bytes> store, RESPCommand command) {
+        List<Bytes> arguments = command.arguments();
+        if (arguments.size() != 2) {
+            return new Throwable("INCRBYFLOAT requires 2 arguments");
+        }
+
+        double increment;
+        try {
+            increment = parseFloat(command.argument(1));
+        } catch (NumberFormatException ex) {
+            return new Throwable(NOT_A_FLOAT);
+        }
+
+        Bytes key = arguments.getFirst();
+        String[] result = new String[1];
+        try {
+            store.update(key, current -> {
+                double value = current.isPresent() ? parseFloat(current.get().toString()) : 0;
+                double sum = value + increment;
+                if (!Double.isFinite(sum)) {
+                    throw new ArithmeticException("increment would produce NaN or Infinity");
+                }
+                result[0] = BigDecimal.valueOf(sum).stripTrailingZeros().toPlainString();
+                return Optional.of(Bytes.wrap(result[0].getBytes(StandardCharsets.UTF_8)));
+            }, KeyValueStore.KEEP_TTL);
+        } catch (NumberFormatException ex) {
+            return new Throwable(NOT_A_FLOAT);
+        } catch (ArithmeticException ex) {
+            return new Throwable(ex.getMessage());
+        }
+        return result[0].getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Parses finite decimal numbers only, unlike Double.parseDouble.
+    private static double parseFloat(String value) {
+        double parsed = new BigDecimal(value).doubleValue();
+        if (!Double.isFinite(parsed)) {
+            throw new NumberFormatException("Not a finite number: " + value);
+        }
+        return parsed;
+    }
+
+    private static Object getSet(KeyValueStore<Bytes, Bytes> store, RESPCommand command) {
+        if (command.arguments().size() != 2) {
+            return new Throwable("GETSET requires 2 arguments");
+        }
+        Bytes key = command.arguments().get(0);
+        Bytes value = command.arguments().get(1);
+        return toBulkString(store.update(key, current -> Optional.of(value), 0));
+    }
+
+    private static Object setIfAbsent(KeyValueStore<Bytes, Bytes> store, RESPCommand command) {
+        if (command.arguments().size() != 2) {
+            return new Throwable("SETNX requires 2 arguments");
+        }
+        Bytes key = command.arguments().get(0);
+        Bytes value = command.arguments().get(1);
+        Optional<Bytes> previous = store.update(key,
+                current -> current.isPresent() ? Optional.empty() : Optional.of(value), 0);
+        return previous.isPresent() ? 0 : 1;
+    }
+
+    private static byte[] toBulkString(Optional<Bytes> value) {
+        return value.map(Bytes::get).orElse(new byte[0]);
+    }
+
+    private static Object delete(KeyValueStore<Bytes, Bytes> store, RESPCommand command) {
         if (command.arguments().size() != 1) {
-            ctx.writeAndFlush(new Throwable("DEL requires 1 argument"));
-            return;
+            return new Throwable("DEL requires 1 argument");
         }
-        Bytes key = Bytes.wrap(command.arguments().getFirst().getBytes(StandardCharsets.UTF_8));
-        db.delete(key);
-        ctx.writeAndFlush("OK");
+        Bytes key = command.arguments().getFirst();
+        store.delete(key);
+        return "OK";
     }
 
-    private void handleExists(ChannelHandlerContext ctx, RESPCommand command) {
+    private static Object exists(KeyValueStore<Bytes, Bytes> store, RESPCommand command) {
         if (command.arguments().size() != 1) {
-            ctx.writeAndFlush(new Throwable("EXISTS requires 1 argument"));
-            return;
+            return new Throwable("EXISTS requires 1 argument");
         }
-        Bytes key = Bytes.wrap(command.arguments().getFirst().getBytes(StandardCharsets.UTF_8));
-        boolean exists = db.contains(key);
-        ctx.writeAndFlush(exists ? 1 : 0);
+        Bytes key = command.arguments().getFirst();
+        boolean exists = store.contains(key);
+        return exists ? 1 : 0;
     }
 
     private void handleSize(ChannelHandlerContext ctx, RESPCommand ignoredCommand) {
@@ -140,11 +667,253 @@ public class RESPCommandHandler extends SimpleChannelInboundHandler<RESPCommand>
         ctx.writeAndFlush(size);
     }
 
-    private void handleFlush(ChannelHandlerContext ctx, RESPCommand ignoredCommand) {
-        db.purge();
+    private static Object flush(KeyValueStore<Bytes, Bytes> store) {
+        store.purge();
+        return "OK";
+    }
+
+    private static Object scan(KeyValueStore<Bytes, Bytes> store, RESPCommand command) {
+        List<Bytes> arguments = command.arguments();
+        if (arguments.isEmpty() || arguments.size() % 2 == 0) {
+            return new Throwable("Expected SCAN syntax: SCAN [cursor] [MATCH pattern] [COUNT count]");
+        }
+
+        long cursor;
+        try {
+            cursor = Long.parseLong(command.argument(0));
+        } catch (NumberFormatException ex) {
+            return new Throwable("invalid cursor");
+        }
+
+        GlobPattern pattern = GlobPattern.compile("*");
+        int count = DEFAULT_SCAN_COUNT;
+        for (int i = 1; i < arguments.size(); i += 2) {
+            String value = command.argument(i + 1);
+            switch (command.argument(i).toUpperCase(Locale.ROOT)) {
+                case "MATCH" -> pattern = GlobPattern.compile(value);
+                case "COUNT" -> {
+                    try {
+                        count = Integer.parseInt(value);
+                    } catch (NumberFormatException ex) {
+                        count = 0;
+                    }
+                    if (count < 1) {
+                        return new Throwable(NOT_AN_INTEGER);
+                    }
+                }
+                default -> {
+                    return new Throwable("syntax error");
+                }
+            }
+        }
+
+        ScanResult<Bytes> result;
+        try {
+            result = store.scan(cursor, count, pattern);
+        } catch (IllegalArgumentException ex) {
+            return new Throwable("invalid cursor");
+        }
+
+        List<Object> keys = new ArrayList<>(result.keys().size());
+        for (Bytes key : result.keys()) {
+            keys.add(key.get());
+        }
+        return List.of(Long.toString(result.cursor()).getBytes(StandardCharsets.UTF_8), keys);
+    }
+
+    private Object keys(KeyValueStore<Bytes, Bytes> store, RESPCommand command) {
+        if (command.arguments().size() != 1) {
+            return new Throwable("KEYS requires 1 argument");
+        }
+
+        // KEYS walks the key directory with the same bounded scan steps as SCAN, but it still
+        // visits every key, so the reply size is capped to protect the server.
+        GlobPattern pattern = GlobPattern.compile(command.argument(0));
+        List<Object> keys = new ArrayList<>();
+        long cursor = 0;
+        do {
+            ScanResult<Bytes> result = store.scan(cursor, Math.max(keysLimit, DEFAULT_SCAN_COUNT), pattern);
+            for (Bytes key : result.keys()) {
+                keys.add(key.get());
+            }
+            if (keys.size() > keysLimit) {
+                return new Throwable(String.format(Locale.ROOT,
+                        "KEYS matched more than %d keys, use SCAN instead", keysLimit));
+            }
+            cursor = result.cursor();
+        } while (cursor != 0);
+
+        return keys;
+    }
+
+    private void handleSlowLog(ChannelHandlerContext ctx, RESPCommand command) {
+        if (command.arguments().isEmpty()) {
+            ctx.writeAndFlush(new Throwable("SLOWLOG requires a subcommand: GET, LEN or RESET"));
+            return;
+        }
+
+        SlowLog slowLog = metrics.slowLog();
+        switch (command.argument(0).toUpperCase(Locale.ROOT)) {
+            case "GET" -> {
+                int count = 10;
+                if (command.arguments().size() > 1) {
+                    try {
+                        count = Integer.parseInt(command.argument(1));
+                    } catch (NumberFormatException ex) {
+                        ctx.writeAndFlush(new Throwable(NOT_AN_INTEGER));
+                        return;
+                    }
+                }
+
+                List<Object> entries = new ArrayList<>();
+                for (SlowLog.Entry entry : slowLog.get(count)) {
+                    List<Object> arguments = new ArrayList<>(entry.arguments().size());
+                    for (String argument : entry.arguments()) {
+                        arguments.add(argument == null ? new byte[0] : argument.getBytes(StandardCharsets.UTF_8));
+                    }
+                    CommandTiming timing = entry.timing();
+                    List<Object> phases = List.of(
+                            "decode".getBytes(StandardCharsets.UTF_8), timing.decodeNanos() / 1000,
+                            "store".getBytes(StandardCharsets.UTF_8), timing.storeNanos() / 1000,
+                            "encode".getBytes(StandardCharsets.UTF_8), timing.encodeNanos() / 1000);
+                    // Same layout as Redis, with the phase breakdown in microseconds appended.
+                    entries.add(List.of(
+                            entry.id(),
+                            entry.timestamp(),
+                            timing.totalNanos() / 1000,
+                            arguments,
+                            entry.clientAddress().getBytes(StandardCharsets.UTF_8),
+                            new byte[0],
+                            phases));
+                }
+                ctx.writeAndFlush(entries);
+            }
+            case "LEN" -> ctx.writeAndFlush(slowLog.length());
+            case "RESET" -> {
+                slowLog.reset();
+                ctx.writeAndFlush("OK");
+            }
+            default -> ctx.writeAndFlush(new Throwable("unknown SLOWLOG subcommand: " + command.argument(0)));
+        }
+    }
+
+    private void handleLatency(ChannelHandlerContext ctx, RESPCommand command) {
+        if (command.arguments().isEmpty()) {
+            ctx.writeAndFlush(new Throwable("LATENCY requires a subcommand: LATEST, HISTORY or RESET"));
+            return;
+        }
+
+        LatencyMonitor monitor = metrics.latencyMonitor();
+        switch (command.argument(0).toUpperCase(Locale.ROOT)) {
+            case "LATEST" -> {
+                List<Object> events = new ArrayList<>();
+                for (LatencyMonitor.Latest latest : monitor.latest()) {
+                    events.add(List.of(
+                            latest.event().getBytes(StandardCharsets.UTF_8),
+                            latest.timestamp(),
+                            latest.millis(),
+                            latest.maxMillis()));
+                }
+                ctx.writeAndFlush(events);
+            }
+            case "HISTORY" -> {
+                if (command.arguments().size() != 2) {
+                    ctx.writeAndFlush(new Throwable("LATENCY HISTORY requires 1 argument: LATENCY HISTORY [event]"));
+                    return;
+                }
+                List<Object> samples = new ArrayList<>();
+                for (LatencyMonitor.Sample sample : monitor.history(command.argument(1))) {
+                    samples.add(List.of(sample.timestamp(), sample.millis()));
+                }
+                ctx.writeAndFlush(samples);
+            }
+            case "RESET" -> {
+                List<String> events = new ArrayList<>();
+                for (int i = 1; i < command.arguments().size(); i++) {
+                    events.add(command.argument(i));
+                }
+                ctx.writeAndFlush(monitor.reset(events));
+            }
+            default -> ctx.writeAndFlush(new Throwable("unknown LATENCY subcommand: " + command.argument(0)));
+        }
+    }
+
+    private void handleReplicaOf(ChannelHandlerContext ctx, RESPCommand command) {
+        if (command.arguments().size() != 2) {
+            ctx.writeAndFlush(new Throwable("Expected REPLICAOF syntax: REPLICAOF [host] [port] or REPLICAOF NO ONE"));
+            return;
+        }
+
+        String host = command.argument(0);
+        String port = command.argument(1);
+        if (host.equalsIgnoreCase("NO") && port.equalsIgnoreCase("ONE")) {
+            replication.promote();
+            ctx.writeAndFlush("OK");
+            return;
+        }
+
+        try {
+            replication.follow(host, Integer.parseInt(port));
+        } catch (NumberFormatException ex) {
+            ctx.writeAndFlush(new Throwable(NOT_AN_INTEGER));
+            return;
+        }
         ctx.writeAndFlush("OK");
     }
 
+    /**
+     * Hands the connection over to a replication session. The session writes replication frames
+     * and segment files directly, so the RESP codec is removed from the pipeline.
+     */
+    private void handleSync(ChannelHandlerContext ctx, RESPCommand ignoredCommand) {
+        ChannelPipeline pipeline = ctx.pipeline();
+        if (pipeline.get(RESPDecoder.class) != null) {
+            pipeline.remove(RESPDecoder.class);
+        }
+        if (pipeline.get(RESPEncoder.class) != null) {
+            pipeline.remove(RESPEncoder.class);
+        }
+        // Replica sessions limit their own buffers.
+        if (pipeline.get(OutputBufferLimitHandler.class) != null) {
+            pipeline.remove(OutputBufferLimitHandler.class);
+        }
+        pipeline.replace(this, "replica", replication.attach(ctx.channel()));
+    }
+
+    private void handleBackgroundSave(ChannelHandlerContext ctx, RESPCommand ignoredCommand) {
+        if (snapshots.backgroundSave()) {
+            ctx.writeAndFlush("Background saving started");
+        } else {
+            ctx.writeAndFlush(new Throwable("Background save already in progress"));
+        }
+    }
+
+    /**
+     * Saves a snapshot into the given directory and replies when the snapshot is complete.
+     * Snapshot errors are replied to the client instead of closing the connection.
+     */
+    private void handleSnapshot(ChannelHandlerContext ctx, RESPCommand command) {
+        if (command.arguments().size() != 1) {
+            ctx.writeAndFlush(new Throwable("SNAPSHOT requires 1 argument: SNAPSHOT [dir]"));
+            return;
+        }
+
+        Path dir;
+        try {
+            dir = Path.of(command.argument(0));
+        } catch (InvalidPathException ex) {
+            ctx.writeAndFlush(new Throwable("invalid snapshot directory"));
+            return;
+        }
+        await(ctx, command, snapshots.save(dir).handle((saved, cause) -> cause == null
+                ? "OK"
+                : new Throwable("snapshot failed: " + rootCause(cause).getMessage())));
+    }
+
+    private static Throwable rootCause(Throwable cause) {
+        return cause instanceof CompletionException && cause.getCause() != null ? cause.getCause() : cause;
+    }
+
     private void handleUnknown(ChannelHandlerContext ctx, RESPCommand command) {
         ctx.writeAndFlush(new Throwable("unknown command: " + command.commandType()));
     }
@@ -0,0 +1,50 @@
+package kiwi.server.resp.handler;
+
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
+import kiwi.core.common.Bytes;
+import kiwi.core.storage.KeyValueStore;
+import kiwi.core.storage.ShardedStore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Assigns store shards to worker event loops in thread-per-core execution mode.
+ *
+ * <p>Shard {@code i} is owned by event loop {@code i} when there is one event loop per shard. Keyed
+ * commands are executed on the owner event loop, so their locks, keydir stripes and active segment
+ * stay uncontended and in the cache of one core. Shards keep their locks, since commands spanning
+ * shards, compaction and replication still access them from other threads.</p>
+ */
+public class ShardRouter {
+    private static final ShardRouter DISABLED = new ShardRouter(new EventExecutor[0]);
+
+    private final EventExecutor[] executors;
+
+    private ShardRouter(EventExecutor[] executors) {
+        this.executors = executors;
+    }
+
+    public static ShardRouter disabled() {
+        return DISABLED;
+    }
+
+    public static ShardRouter of(EventExecutorGroup group) {
+        List<EventExecutor> executors = new ArrayList<>();
+        for (EventExecutor executor : group) {
+            executors.add(executor);
+        }
+        return new ShardRouter(executors.toArray(new EventExecutor[0]));
+    }
+
+    /**
+     * Returns the event loop owning the key or {@code null} if the store is not routed.
+     */
+    public EventExecutor owner(KeyValueStore<Bytes, Bytes> store, Bytes key) {
+        if (executors.length == 0 || !(store instanceof ShardedStore sharded)) {
+            return null;
+        }
+        return executors[sharded.shardOf(key) % executors.length];
+    }
+}
@@ -0,0 +1,50 @@
+package kiwi.server.resp.handler;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import kiwi.server.resp.metrics.ServerMetrics;
+
+/**
+ * Counts client connections and raw bytes read from and written to the network.
+ * It has to be the first handler in the pipeline to see undecoded inbound and
+ * encoded outbound buffers.
+ */
+@ChannelHandler.Sharable
+public class TrafficHandler extends ChannelDuplexHandler {
+    private final ServerMetrics metrics;
+
+    public TrafficHandler(ServerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        metrics.clientConnected();
+        ctx.fireChannelActive();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        metrics.clientDisconnected();
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (msg instanceof ByteBuf buf) {
+            metrics.bytesIn(buf.readableBytes());
+        }
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+        if (msg instanceof ByteBuf buf) {
+            metrics.bytesOut(buf.readableBytes());
+        }
+        ctx.write(msg, promise);
+    }
+}
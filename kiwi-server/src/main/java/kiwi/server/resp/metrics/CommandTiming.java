@@ -0,0 +1,15 @@
+package kiwi.server.resp.metrics;
+
+/**
+ * Time spent by a command in each processing phase, in nanoseconds.
+ *
+ * @param decodeNanos time spent parsing the command from the network buffer
+ * @param storeNanos  time spent executing the command, including waits for fsync
+ * @param encodeNanos time spent encoding and writing the response
+ */
+public record CommandTiming(long decodeNanos, long storeNanos, long encodeNanos) {
+
+    public long totalNanos() {
+        return decodeNanos + storeNanos + encodeNanos;
+    }
+}
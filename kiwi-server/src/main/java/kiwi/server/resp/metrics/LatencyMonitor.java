@@ -0,0 +1,137 @@
+package kiwi.server.resp.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Tracks latency spikes above a threshold per event, like the Redis latency monitor.
+ *
+ * <p>Each event keeps the highest latency per second for the last {@value #HISTORY_LENGTH} spikes
+ * in a lock-free ring.</p>
+ */
+public class LatencyMonitor {
+    static final int HISTORY_LENGTH = 160;
+
+    private final long thresholdNanos;
+    private final Map<String, EventHistory> events = new ConcurrentHashMap<>();
+
+    public LatencyMonitor(long thresholdNanos) {
+        this.thresholdNanos = thresholdNanos;
+    }
+
+    public boolean isEnabled() {
+        return thresholdNanos > 0;
+    }
+
+    /**
+     * Records the latency of the event if it exceeds the threshold.
+     */
+    public void record(String event, long nanos) {
+        if (!isEnabled() || nanos < thresholdNanos) {
+            return;
+        }
+        long millis = nanos / 1_000_000;
+        events.computeIfAbsent(event, ignored -> new EventHistory()).add(System.currentTimeMillis() / 1000, millis);
+    }
+
+    /**
+     * Latest and all time highest latencies of every event, ordered by event name.
+     */
+    public List<Latest> latest() {
+        List<Latest> latest = new ArrayList<>();
+        new TreeMap<>(events).forEach((event, history) -> {
+            Sample sample = history.latest();
+            if (sample != null) {
+                latest.add(new Latest(event, sample.timestamp(), sample.millis(), history.max.get()));
+            }
+        });
+        return latest;
+    }
+
+    /**
+     * Latency spikes of the event, oldest first.
+     */
+    public List<Sample> history(String event) {
+        EventHistory history = events.get(event);
+        return history == null ? List.of() : history.samples();
+    }
+
+    /**
+     * Resets the given events, or all events if none are given.
+     *
+     * @return the number of reset events
+     */
+    public int reset(List<String> names) {
+        if (names.isEmpty()) {
+            int size = events.size();
+            events.clear();
+            return size;
+        }
+        int reset = 0;
+        for (String name : names) {
+            if (events.remove(name) != null) {
+                reset++;
+            }
+        }
+        return reset;
+    }
+
+    public record Sample(long timestamp, long millis) {
+    }
+
+    public record Latest(String event, long timestamp, long millis, long maxMillis) {
+    }
+
+    private static final class EventHistory {
+        private final AtomicReferenceArray<Sample> samples = new AtomicReferenceArray<>(HISTORY_LENGTH);
+        private final AtomicLong next = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void add(long timestamp, long millis) {
+            max.accumulateAndGet(millis, Math::max);
+
+            while (true) {
+                long last = next.get() - 1;
+                if (last >= 0) {
+                    int slot = (int) (last % HISTORY_LENGTH);
+                    Sample current = samples.get(slot);
+                    // Spikes in the same second are merged, keeping the highest latency.
+                    if (current != null && current.timestamp() == timestamp) {
+                        if (current.millis() >= millis
+                                || samples.compareAndSet(slot, current, new Sample(timestamp, millis))) {
+                            return;
+                        }
+                        continue;
+                    }
+                }
+                if (next.compareAndSet(last + 1, last + 2)) {
+                    samples.set((int) ((last + 1) % HISTORY_LENGTH), new Sample(timestamp, millis));
+                    return;
+                }
+            }
+        }
+
+        Sample latest() {
+            long last = next.get() - 1;
+            return last < 0 ? null : samples.get((int) (last % HISTORY_LENGTH));
+        }
+
+        List<Sample> samples() {
+            long end = next.get();
+            long start = Math.max(0, end - HISTORY_LENGTH);
+            List<Sample> result = new ArrayList<>();
+            for (long i = start; i < end; i++) {
+                Sample sample = samples.get((int) (i % HISTORY_LENGTH));
+                if (sample != null) {
+                    result.add(sample);
+                }
+            }
+            return result;
+        }
+    }
+}
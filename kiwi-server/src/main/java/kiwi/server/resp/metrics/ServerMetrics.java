@@ -0,0 +1,198 @@
+package kiwi.server.resp.metrics;
+
+import kiwi.core.metrics.LatencyHistogram;
+import kiwi.core.metrics.Metric;
+import kiwi.server.config.Options;
+import kiwi.server.resp.command.CommandType;
+import kiwi.server.resp.command.RESPCommand;
+import kiwi.server.resp.config.ServerConfig;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Server wide counters, per-command latency histograms, slow log and latency monitor shared by
+ * all connections.
+ *
+ * <p>All counters are striped and logs are lock-free, so recording from event loop threads does
+ * not take locks.</p>
+ */
+public class ServerMetrics {
+    private final long startTime = System.currentTimeMillis();
+
+    private final CommandStats[] commands;
+    private final SlowLog slowLog;
+    private final LatencyMonitor latencyMonitor;
+
+    private final LongAdder connectedClients = new LongAdder();
+    private final LongAdder connectionsReceived = new LongAdder();
+    private final LongAdder commandsProcessed = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder outputBufferLimitDisconnections = new LongAdder();
+
+    public ServerMetrics() {
+        this(Options.defaults.server);
+    }
+
+    public ServerMetrics(ServerConfig config) {
+        this.slowLog = new SlowLog(config.slowlog.threshold.toNanos(), config.slowlog.maxLen);
+        this.latencyMonitor = new LatencyMonitor(config.latencyMonitorThreshold.toNanos());
+
+        CommandType[] types = CommandType.values();
+        this.commands = new CommandStats[types.length];
+        for (CommandType type : types) {
+            this.commands[type.ordinal()] = new CommandStats(type);
+        }
+    }
+
+    public void recordCommand(RESPCommand command, CommandTiming timing, boolean failed, SocketAddress client) {
+        CommandStats stats = commands[command.commandType().ordinal()];
+        stats.latency.record(timing.storeNanos() + timing.encodeNanos());
+        if (failed) {
+            stats.failedCalls.increment();
+        }
+        commandsProcessed.increment();
+
+        long total = timing.totalNanos();
+        if (slowLog.isSlow(total)) {
+            List<String> arguments = new ArrayList<>(command.arguments().size() + 1);
+            arguments.add(command.commandType().name().toLowerCase(Locale.ROOT));
+            for (int i = 0; i < command.arguments().size(); i++) {
+                arguments.add(command.argument(i));
+            }
+            slowLog.add(arguments, timing, clientAddress(client));
+        }
+
+        latencyMonitor.record("command", total);
+        latencyMonitor.record("command-decode", timing.decodeNanos());
+        latencyMonitor.record("command-store", timing.storeNanos());
+        latencyMonitor.record("command-encode", timing.encodeNanos());
+    }
+
+    private static String clientAddress(SocketAddress address) {
+        if (address instanceof InetSocketAddress inet) {
+            return inet.getAddress().getHostAddress() + ":" + inet.getPort();
+        }
+        return address == null ? "" : address.toString();
+    }
+
+    public void clientConnected() {
+        connectedClients.increment();
+        connectionsReceived.increment();
+    }
+
+    public void clientDisconnected() {
+        connectedClients.decrement();
+    }
+
+    public void bytesIn(long bytes) {
+        bytesIn.add(bytes);
+    }
+
+    public void bytesOut(long bytes) {
+        bytesOut.add(bytes);
+    }
+
+    public void outputBufferLimitReached() {
+        outputBufferLimitDisconnections.increment();
+    }
+
+    public long uptimeSeconds() {
+        return (System.currentTimeMillis() - startTime) / 1000;
+    }
+
+    public long connectedClients() {
+        return connectedClients.sum();
+    }
+
+    public long connectionsReceived() {
+        return connectionsReceived.sum();
+    }
+
+    public long commandsProcessed() {
+        return commandsProcessed.sum();
+    }
+
+    public long bytesIn() {
+        return bytesIn.sum();
+    }
+
+    public long bytesOut() {
+        return bytesOut.sum();
+    }
+
+    public long outputBufferLimitDisconnections() {
+        return outputBufferLimitDisconnections.sum();
+    }
+
+    public CommandStats[] commands() {
+        return commands;
+    }
+
+    public SlowLog slowLog() {
+        return slowLog;
+    }
+
+    public LatencyMonitor latencyMonitor() {
+        return latencyMonitor;
+    }
+
+    /**
+     * Server metrics exported to monitoring systems.
+     */
+    public List<Metric> metrics() {
+        List<Metric.Sample> durations = new ArrayList<>();
+        List<Metric.Sample> failures = new ArrayList<>();
+        for (CommandStats stats : commands) {
+            LatencyHistogram.Snapshot snapshot = stats.latency.snapshot();
+            if (snapshot.count() == 0) {
+                continue;
+            }
+            Map<String, String> labels = Map.of("cmd", stats.type.name().toLowerCase(Locale.ROOT));
+            durations.addAll(Metric.summarySamples("kiwi_command_duration_seconds", labels, snapshot));
+            failures.add(Metric.Sample.of("kiwi_command_failed_calls_total", labels, stats.failedCalls()));
+        }
+
+        return List.of(
+                Metric.gauge("kiwi_uptime_seconds", "Server uptime.", uptimeSeconds()),
+                Metric.gauge("kiwi_connected_clients", "Number of connected clients.", connectedClients()),
+                Metric.counter("kiwi_connections_received_total",
+                        "Number of accepted client connections.", connectionsReceived()),
+                Metric.counter("kiwi_commands_processed_total", "Number of processed commands.", commandsProcessed()),
+                Metric.counter("kiwi_net_input_bytes_total", "Bytes read from clients.", bytesIn()),
+                Metric.counter("kiwi_net_output_bytes_total", "Bytes written to clients.", bytesOut()),
+                Metric.counter("kiwi_client_output_buffer_limit_disconnections_total",
+                        "Number of clients disconnected for reaching the output buffer limit.",
+                        outputBufferLimitDisconnections()),
+                new Metric("kiwi_command_duration_seconds", "Command execution time.", Metric.Type.SUMMARY, durations),
+                new Metric("kiwi_command_failed_calls_total", "Number of failed commands.", Metric.Type.COUNTER, failures));
+    }
+
+    public static class CommandStats {
+        private final CommandType type;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder failedCalls = new LongAdder();
+
+        CommandStats(CommandType type) {
+            this.type = type;
+        }
+
+        public CommandType type() {
+            return type;
+        }
+
+        public LatencyHistogram latency() {
+            return latency;
+        }
+
+        public long failedCalls() {
+            return failedCalls.sum();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package kiwi.server.resp.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed size log of commands slower than a threshold.
+ *
+ * <p>Entries are written into a lock-free ring: writers claim a sequence number and overwrite
+ * the oldest slot, readers skip slots that were overwritten while they were reading.</p>
+ */
+public class SlowLog {
+    // Same limits as Redis to keep entries small.
+    static final int MAX_ARGUMENTS = 32;
+    static final int MAX_ARGUMENT_LENGTH = 128;
+
+    private final long thresholdNanos;
+    private final int capacity;
+    private final AtomicReferenceArray<Entry> slots;
+    private final AtomicLong sequence = new AtomicLong();
+
+    // Entries with lower ids were removed by reset.
+    private volatile long firstId = 0;
+
+    public SlowLog(long thresholdNanos, int capacity) {
+        this.thresholdNanos = thresholdNanos;
+        this.capacity = Math.max(0, capacity);
+        this.slots = new AtomicReferenceArray<>(this.capacity);
+    }
+
+    public boolean isSlow(long nanos) {
+        return capacity > 0 && nanos >= thresholdNanos;
+    }
+
+    public void add(List<String> command, CommandTiming timing, String clientAddress) {
+        if (capacity == 0) {
+            return;
+        }
+        long id = sequence.getAndIncrement();
+        Entry entry = new Entry(id, System.currentTimeMillis() / 1000, truncate(command), timing, clientAddress);
+        slots.set((int) (id % capacity), entry);
+    }
+
+    /**
+     * Returns up to {@code count} most recent entries, newest first. Negative count returns all entries.
+     */
+    public List<Entry> get(int count) {
+        long last = sequence.get() - 1;
+        long first = Math.max(firstId, last - capacity + 1);
+        int limit = count < 0 ? capacity : Math.min(count, capacity);
+
+        List<Entry> entries = new ArrayList<>(Math.min(limit, capacity));
+        for (long id = last; id >= first && entries.size() < limit; id--) {
+            Entry entry = slots.get((int) (id % capacity));
+            // Slot can be already overwritten by a newer entry or not yet published.
+            if (entry != null && entry.id == id) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    public int length() {
+        return (int) Math.min(capacity, Math.max(0, sequence.get() - firstId));
+    }
+
+    public void reset() {
+        firstId = sequence.get();
+    }
+
+    private static List<String> truncate(List<String> command) {
+        List<String> arguments = new ArrayList<>(Math.min(command.size(), MAX_ARGUMENTS));
+        for (int i = 0; i < command.size(); i++) {
+            if (i == MAX_ARGUMENTS - 1 && command.size() > MAX_ARGUMENTS) {
+                arguments.add("... (" + (command.size() - i) + " more arguments)");
+                break;
+            }
+            String argument = command.get(i);
+            if (argument != null && argument.length() > MAX_ARGUMENT_LENGTH) {
+                int more = argument.length() - MAX_ARGUMENT_LENGTH;
+                argument = argument.substring(0, MAX_ARGUMENT_LENGTH) + "... (" + more + " more bytes)";
+            }
+            arguments.add(argument);
+        }
+        return arguments;
+    }
+
+    public record Entry(long id, long timestamp, List<String> arguments, CommandTiming timing, String clientAddress) {
+    }
+}
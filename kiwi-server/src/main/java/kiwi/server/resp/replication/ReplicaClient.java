@@ -0,0 +1,358 @@
+package kiwi.server.resp.replication;
+
+import kiwi.core.common.Bytes;
+import kiwi.core.error.KiwiException;
+import kiwi.core.storage.Databases;
+import kiwi.core.storage.KeyValueStore;
+import kiwi.core.storage.bitcask.BitcaskStore;
+import kiwi.core.storage.bitcask.Header;
+import kiwi.core.storage.bitcask.log.Record;
+import kiwi.server.resp.config.ServerConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Replica side of a replication link.
+ *
+ * <p>The client connects to the leader, receives checkpoints of the leader stores into a staging
+ * directory and loads them into the local stores, replacing their data. Records streamed afterwards
+ * are applied to the local stores with their original timestamps. When the link breaks, the client
+ * reconnects and does a full sync again.</p>
+ */
+class ReplicaClient implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(ReplicaClient.class);
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final int MAX_FRAME_LINE_BYTES = 1024;
+    private static final int READ_BUFFER_BYTES = 64 * 1024;
+
+    // Only segment and hint file names are accepted, so files never leave the staging directory.
+    private static final Pattern FILE_NAME = Pattern.compile("\\d+\\.(log|hint)|blob-[0-9a-f]{16}\\.blob");
+
+    private final String host;
+    private final int port;
+    private final Databases databases;
+    private final ServerConfig.Replication config;
+    private final Runnable onFullSync;
+    private final Thread thread;
+    private final CountDownLatch closeSignal = new CountDownLatch(1);
+
+    private volatile boolean closed;
+    private volatile Socket socket;
+    private volatile boolean linkUp;
+    private volatile boolean syncInProgress;
+    private volatile long lastIoMillis;
+    private volatile long appliedOffset;
+    private volatile long leaderOffset;
+
+    // Databases loaded by the current full sync.
+    private final Set<Integer> loadedDatabases = new HashSet<>();
+
+    ReplicaClient(String host, int port, Databases databases, ServerConfig.Replication config, Runnable onFullSync) {
+        this.host = host;
+        this.port = port;
+        this.databases = databases;
+        this.config = config;
+        this.onFullSync = onFullSync;
+        this.thread = new Thread(this::run, "replication");
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        logger.info("Replicating from leader {}:{}", host, port);
+        thread.start();
+    }
+
+    private void run() {
+        while (!closed) {
+            try {
+                replicate();
+            } catch (IOException | KiwiException | IllegalArgumentException ex) {
+                if (!closed) {
+                    logger.warn("Replication link to {}:{} failed: {}", host, port, ex.getMessage());
+                }
+            } finally {
+                linkUp = false;
+                syncInProgress = false;
+            }
+
+            try {
+                if (closeSignal.await(config.reconnectDelay.toMillis(), TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            } catch (InterruptedException ex) {
+                return;
+            }
+        }
+    }
+
+    private void replicate() throws IOException {
+        try (Socket socket = new Socket()) {
+            this.socket = socket;
+            if (closed) {
+                return;
+            }
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+
+            OutputStream out = socket.getOutputStream();
+            out.write("*1\r\n$4\r\nSYNC\r\n".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            linkUp = true;
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), READ_BUFFER_BYTES));
+            String[] frame;
+            while (!closed && (frame = readFrame(in)) != null) {
+                lastIoMillis = System.currentTimeMillis();
+                switch (frame[0]) {
+                    case Replication.SYNC -> startSync(Integer.parseInt(argument(frame, 1)));
+                    case Replication.LOAD -> load(in,
+                            Integer.parseInt(argument(frame, 1)),
+                            Integer.parseInt(argument(frame, 2)),
+                            Integer.parseInt(argument(frame, 3)));
+                    case Replication.ONLINE -> finishSync();
+                    case Replication.RECORD -> apply(in,
+                            Integer.parseInt(argument(frame, 1)),
+                            Integer.parseInt(argument(frame, 2)),
+                            Integer.parseInt(argument(frame, 3)));
+                    case Replication.PING -> leaderOffset = Long.parseLong(argument(frame, 1));
+                    default -> throw new IOException("Unexpected replication frame " + frame[0]);
+                }
+            }
+        }
+    }
+
+    private void startSync(int shards) {
+        int localShards = Replication.shards(databases.get(0)).size();
+        if (shards != localShards) {
+            throw new KiwiException(String.format(Locale.ROOT,
+                    "Leader has %d shards and replica has %d shards", shards, localShards));
+        }
+
+        logger.info("Full sync from leader {}:{} started", host, port);
+        syncInProgress = true;
+        appliedOffset = 0;
+        leaderOffset = 0;
+        loadedDatabases.clear();
+
+        // Replicas of this server would miss the data loaded by the full sync.
+        onFullSync.run();
+    }
+
+    private void finishSync() {
+        // Databases without data on the leader are flushed.
+        databases.opened().forEach((index, store) -> {
+            if (!loadedDatabases.contains(index)) {
+                store.purge();
+            }
+        });
+        syncInProgress = false;
+        logger.info("Full sync from leader {}:{} finished", host, port);
+    }
+
+    private void load(DataInputStream in, int index, int shard, int files) throws IOException {
+        BitcaskStore store = store(index, shard);
+        Path stagingDir = store.logDir().resolve(Replication.STAGING_DIR);
+        deleteDirectory(stagingDir);
+        Files.createDirectories(stagingDir);
+
+        List<Path> received = new ArrayList<>(files);
+        ReadableByteChannel source = Channels.newChannel(in);
+        for (int i = 0; i < files; i++) {
+            String[] frame = readFrame(in);
+            if (frame == null || !frame[0].equals(Replication.FILE)) {
+                throw new IOException("Expected checkpoint file from leader");
+            }
+            String name = argument(frame, 1);
+            long size = Long.parseLong(argument(frame, 2));
+            if (!FILE_NAME.matcher(name).matches()) {
+                throw new IOException("Invalid checkpoint file name " + name);
+            }
+
+            Path file = stagingDir.resolve(name);
+            try (FileChannel channel = FileChannel.open(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                long position = 0;
+                while (position < size) {
+                    long transferred = channel.transferFrom(source, position, size - position);
+                    if (transferred <= 0) {
+                        throw new EOFException("Leader closed the connection while sending " + name);
+                    }
+                    position += transferred;
+                }
+            }
+            received.add(file);
+            lastIoMillis = System.currentTimeMillis();
+        }
+
+        store.load(received);
+        deleteDirectory(stagingDir);
+        if (shard == 0) {
+            loadedDatabases.add(index);
+        }
+        logger.info("Loaded {} files of database {} shard {} from leader", files, index, shard);
+    }
+
+    private void apply(DataInputStream in, int index, int shard, int size) throws IOException {
+        if (size < Header.BYTES) {
+            throw new IOException("Invalid replicated record size " + size);
+        }
+        byte[] bytes = new byte[size];
+        in.readFully(bytes);
+
+        Header header = Header.fromByteBuffer(ByteBuffer.wrap(bytes));
+        if (Header.BYTES + header.keySize() + header.valueSize() != size) {
+            throw new IOException("Invalid replicated record size " + size);
+        }
+        int valueStart = Header.BYTES + header.keySize();
+        // The value is a view of the record bytes. The key is copied, as the keydir keeps it.
+        Record record = new Record(header,
+                Bytes.wrap(Arrays.copyOfRange(bytes, Header.BYTES, valueStart)),
+                Bytes.wrap(bytes, valueStart, header.valueSize()));
+        if (!record.isValidChecksum()) {
+            throw new IOException("Replicated record failed checksum");
+        }
+
+        store(index, shard).apply(record);
+        appliedOffset += size;
+    }
+
+    private BitcaskStore store(int index, int shard) {
+        if (index < 0 || index >= databases.count()) {
+            throw new KiwiException("Leader database " + index + " is out of range");
+        }
+        List<KeyValueStore<Bytes, Bytes>> shards = Replication.shards(databases.get(index));
+        if (shard < 0 || shard >= shards.size() || !(shards.get(shard) instanceof BitcaskStore store)) {
+            throw new KiwiException("Leader shard " + shard + " of database " + index + " cannot be replicated");
+        }
+        return store;
+    }
+
+    /**
+     * Reads the next frame line and returns its name and arguments, or null at the end of stream.
+     */
+    private static String[] readFrame(DataInputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                if (line.isEmpty()) {
+                    return null;
+                }
+                throw new EOFException("Leader closed the connection in the middle of a frame");
+            }
+            if (line.length() == MAX_FRAME_LINE_BYTES) {
+                throw new IOException("Replication frame line is too long");
+            }
+            line.append((char) b);
+        }
+
+        int end = line.length() > 0 && line.charAt(line.length() - 1) == '\r' ? line.length() - 1 : line.length();
+        if (end == 0) {
+            throw new IOException("Empty replication frame");
+        }
+        String content = line.substring(1, end);
+        if (line.charAt(0) == '-') {
+            throw new IOException("Leader rejected replication: " + content);
+        }
+        if (line.charAt(0) != '+') {
+            throw new IOException("Invalid replication frame " + line.substring(0, end));
+        }
+        return content.split(" ");
+    }
+
+    private static String argument(String[] frame, int index) throws IOException {
+        if (index >= frame.length) {
+            throw new IOException("Missing argument of replication frame " + frame[0]);
+        }
+        return frame[index];
+    }
+
+    private static void deleteDirectory(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    String host() {
+        return host;
+    }
+
+    int port() {
+        return port;
+    }
+
+    boolean isLinkUp() {
+        return linkUp;
+    }
+
+    boolean isSyncInProgress() {
+        return syncInProgress;
+    }
+
+    long lastIoMillis() {
+        return lastIoMillis;
+    }
+
+    long appliedOffset() {
+        return appliedOffset;
+    }
+
+    long leaderOffset() {
+        return leaderOffset;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        closeSignal.countDown();
+        Socket socket = this.socket;
+        if (socket != null) {
+            try {
+                // Unblocks the replication thread waiting for the leader.
+                socket.close();
+            } catch (IOException ex) {
+                logger.debug("Failed to close replication socket", ex);
+            }
+        }
+        // The thread is not interrupted, because interrupts close file channels of the stores.
+        try {
+            thread.join(CONNECT_TIMEOUT_MILLIS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
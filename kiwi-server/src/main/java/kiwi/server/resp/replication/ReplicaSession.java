@@ -0,0 +1,283 @@
+package kiwi.server.resp.replication;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.DefaultFileRegion;
+import io.netty.util.ReferenceCountUtil;
+import kiwi.core.common.Bytes;
+import kiwi.core.common.NamedThreadFactory;
+import kiwi.core.error.KiwiException;
+import kiwi.core.storage.Databases;
+import kiwi.core.storage.KeyValueStore;
+import kiwi.core.storage.bitcask.BitcaskStore;
+import kiwi.core.storage.bitcask.Checkpoint;
+import kiwi.core.storage.bitcask.log.Record;
+import kiwi.server.resp.config.ServerConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.SocketAddress;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Leader side of a replication link.
+ *
+ * <p>The session sends a checkpoint of every store, then streams records appended to the stores
+ * after their checkpoints. All frames are written from a single session thread, so the checkpoint
+ * of a store always precedes its records. Segment files are sent as file regions, which the
+ * transport writes with {@code transferTo}.</p>
+ *
+ * <p>Appended records wait in a queue while the channel is not writable. Replicas falling behind
+ * by more than the buffer limit are disconnected, so a slow replica never blocks writers.</p>
+ */
+public class ReplicaSession extends ChannelInboundHandlerAdapter {
+    private static final Logger logger = LoggerFactory.getLogger(ReplicaSession.class);
+
+    private final Channel channel;
+    private final Databases databases;
+    private final ServerConfig.Replication config;
+    private final Consumer<ReplicaSession> onClose;
+    private final ScheduledExecutorService executor;
+
+    private final Queue<Frame> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    // Record bytes produced for and written to the replica.
+    private final AtomicLong offset = new AtomicLong();
+    private volatile long sentOffset;
+    private volatile boolean online;
+
+    private final BiConsumer<Integer, KeyValueStore<Bytes, Bytes>> openListener;
+    private final List<Runnable> listenerRemovals = new CopyOnWriteArrayList<>();
+
+    ReplicaSession(Channel channel, Databases databases, ServerConfig.Replication config, Consumer<ReplicaSession> onClose) {
+        this.channel = channel;
+        this.databases = databases;
+        this.config = config;
+        this.onClose = onClose;
+        this.executor = Executors.newSingleThreadScheduledExecutor(NamedThreadFactory.create("replica"));
+        this.openListener = (index, store) -> execute(() -> attach(index, store));
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        logger.info("Replica {} connected, starting full sync", channel.remoteAddress());
+        execute(() -> {
+            Map<Integer, KeyValueStore<Bytes, Bytes>> opened = databases.watch(openListener);
+            channel.write(frame(Replication.SYNC, Replication.shards(databases.get(0)).size()));
+            opened.forEach(this::attach);
+            channel.writeAndFlush(frame(Replication.ONLINE));
+            online = true;
+        });
+
+        long interval = config.heartbeatInterval.toMillis();
+        executor.scheduleAtFixedRate(
+                () -> channel.writeAndFlush(frame(Replication.PING, offset.get())),
+                interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends a checkpoint of every shard of the database and starts streaming its appended records.
+     */
+    private void attach(int index, KeyValueStore<Bytes, Bytes> store) {
+        List<KeyValueStore<Bytes, Bytes>> shards = Replication.shards(store);
+        for (int shard = 0; shard < shards.size(); shard++) {
+            if (closed.get()) {
+                return;
+            }
+            if (!(shards.get(shard) instanceof BitcaskStore bitcaskStore)) {
+                logger.warn("Database {} does not support replication", index);
+                close();
+                return;
+            }
+
+            int shardIndex = shard;
+            Consumer<Record> listener = record -> enqueue(new Frame(index, shardIndex, record));
+            Checkpoint checkpoint = bitcaskStore.checkpoint(listener);
+            listenerRemovals.add(() -> bitcaskStore.removeAppendListener(listener));
+            if (closed.get()) {
+                // Closed while the checkpoint was taken.
+                bitcaskStore.removeAppendListener(listener);
+                checkpoint.close();
+                return;
+            }
+
+            try {
+                sendCheckpoint(index, shard, checkpoint);
+            } catch (UncheckedIOException | KiwiException ex) {
+                checkpoint.close();
+                logger.warn("Failed to send checkpoint of database {} to replica {}", index, channel.remoteAddress(), ex);
+                close();
+                return;
+            }
+        }
+    }
+
+    private void sendCheckpoint(int index, int shard, Checkpoint checkpoint) {
+        List<Path> files = checkpoint.files();
+        channel.write(frame(Replication.LOAD, index, shard, files.size()));
+
+        ChannelFuture lastWrite = null;
+        for (Path file : files) {
+            FileChannel fileChannel = Checkpoint.open(file);
+            long size;
+            try {
+                size = fileChannel.size();
+            } catch (IOException ex) {
+                closeQuietly(fileChannel);
+                throw new UncheckedIOException(ex);
+            }
+            channel.write(frame(Replication.FILE, file.getFileName(), size));
+            lastWrite = channel.write(new DefaultFileRegion(fileChannel, 0, size));
+        }
+        channel.flush();
+
+        // Files stay pinned until they are sent, so they are not recycled while they are read.
+        if (lastWrite == null) {
+            checkpoint.close();
+        } else {
+            lastWrite.addListener(future -> checkpoint.close());
+        }
+    }
+
+    private void enqueue(Frame frame) {
+        if (closed.get()) {
+            return;
+        }
+        int size = frame.record().size();
+        queue.add(frame);
+        offset.addAndGet(size);
+        if (queuedBytes.addAndGet(size) > config.bufferLimitBytes) {
+            logger.warn("Replica {} is more than {} bytes behind, disconnecting", channel.remoteAddress(), config.bufferLimitBytes);
+            close();
+            return;
+        }
+        if (drainScheduled.compareAndSet(false, true)) {
+            execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        drainScheduled.set(false);
+        boolean written = false;
+        Frame frame;
+        while (channel.isWritable() && (frame = queue.poll()) != null) {
+            Record record = frame.record();
+            channel.write(Unpooled.wrappedBuffer(
+                    frame(Replication.RECORD, frame.database(), frame.shard(), record.size()),
+                    Unpooled.wrappedBuffer(record.toByteBuffer())));
+            queuedBytes.addAndGet(-record.size());
+            sentOffset += record.size();
+            written = true;
+        }
+        if (written) {
+            channel.flush();
+        }
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+        if (channel.isWritable() && !queue.isEmpty() && drainScheduled.compareAndSet(false, true)) {
+            execute(this::drain);
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        // Replicas do not send anything after SYNC.
+        ReferenceCountUtil.release(msg);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) {
+        close();
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        logger.warn("Replication to replica {} failed", channel.remoteAddress(), cause);
+        close();
+    }
+
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        databases.unwatch(openListener);
+        listenerRemovals.forEach(Runnable::run);
+        executor.shutdownNow();
+        queue.clear();
+        onClose.accept(this);
+        channel.close();
+        logger.info("Replica {} disconnected", channel.remoteAddress());
+    }
+
+    private void execute(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException ex) {
+            // Session is closed.
+        }
+    }
+
+    SocketAddress remoteAddress() {
+        return channel.remoteAddress();
+    }
+
+    String state() {
+        return online ? "online" : "sync";
+    }
+
+    long sentOffset() {
+        return sentOffset;
+    }
+
+    long lagBytes() {
+        return queuedBytes.get();
+    }
+
+    private static ByteBuf frame(String name, Object... arguments) {
+        StringBuilder line = new StringBuilder().append('+').append(name);
+        for (Object argument : arguments) {
+            line.append(' ').append(argument);
+        }
+        line.append("\r\n");
+        return Unpooled.copiedBuffer(line.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static void closeQuietly(FileChannel fileChannel) {
+        try {
+            fileChannel.close();
+        } catch (IOException ex) {
+            logger.debug("Failed to close checkpoint file", ex);
+        }
+    }
+
+    private record Frame(int database, int shard, Record record) {
+    }
+}
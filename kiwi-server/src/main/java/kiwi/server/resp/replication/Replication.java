@@ -0,0 +1,173 @@
+package kiwi.server.resp.replication;
+
+import io.netty.channel.Channel;
+import kiwi.core.common.Bytes;
+import kiwi.core.storage.Databases;
+import kiwi.core.storage.KeyValueStore;
+import kiwi.core.storage.ShardedStore;
+import kiwi.server.resp.config.ServerConfig;
+
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Leader to replica replication of log segments.
+ *
+ * <p>A replica connects to its leader and sends {@code SYNC}. The leader takes over the connection
+ * and replies with frames. Every frame starts with a {@code +NAME arguments\r\n} line:</p>
+ * <ul>
+ *     <li>{@code SYNC <shards>} starts a full sync.</li>
+ *     <li>{@code LOAD <db> <shard> <files>} is followed by {@code files} {@code FILE} frames with a
+ *     checkpoint of one store. Checkpoints of stores opened later are sent when they are opened.</li>
+ *     <li>{@code FILE <name> <size>} is followed by {@code size} bytes of a segment or hint file,
+ *     sent with {@code transferTo}.</li>
+ *     <li>{@code ONLINE} ends the checkpoints of stores opened when the sync started.</li>
+ *     <li>{@code RECORD <db> <shard> <size>} is followed by a record appended to a store after its
+ *     checkpoint.</li>
+ *     <li>{@code PING <offset>} is a heartbeat with the leader replication offset, the number of
+ *     record bytes streamed to the replica.</li>
+ * </ul>
+ *
+ * <p>Replicas are read-only. When the link breaks, the replica reconnects and does a full sync.</p>
+ */
+public class Replication implements AutoCloseable {
+    static final String SYNC = "SYNC";
+    static final String LOAD = "LOAD";
+    static final String FILE = "FILE";
+    static final String ONLINE = "ONLINE";
+    static final String RECORD = "RECORD";
+    static final String PING = "PING";
+
+    // Directory in a store directory where a replica receives checkpoint files.
+    static final String STAGING_DIR = "replica-sync";
+
+    private final Databases databases;
+    private final ServerConfig.Replication config;
+    private final Set<ReplicaSession> replicas = ConcurrentHashMap.newKeySet();
+    private volatile ReplicaClient leader;
+
+    public Replication(Databases databases, ServerConfig.Replication config) {
+        this.databases = databases;
+        this.config = config;
+    }
+
+    public boolean isReplica() {
+        return leader != null;
+    }
+
+    /**
+     * Follows the leader at the given {@code host:port} address.
+     */
+    public void follow(String address) {
+        int separator = address.lastIndexOf(':');
+        if (separator < 1) {
+            throw new IllegalArgumentException("Invalid leader address: " + address);
+        }
+        String host = address.substring(0, separator);
+        int port;
+        try {
+            port = Integer.parseInt(address.substring(separator + 1));
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Invalid leader address: " + address);
+        }
+        follow(host, port);
+    }
+
+    /**
+     * Turns the server into a replica of the given leader. The data of the server is replaced with
+     * the data of the leader once the full sync starts.
+     */
+    public synchronized void follow(String host, int port) {
+        if (leader != null) {
+            leader.close();
+        }
+        leader = new ReplicaClient(host, port, databases, config, this::disconnectReplicas);
+        leader.start();
+    }
+
+    /**
+     * Stops following the leader and accepts writes again. The data received so far is kept.
+     */
+    public synchronized void promote() {
+        if (leader != null) {
+            leader.close();
+            leader = null;
+        }
+    }
+
+    /**
+     * Creates the leader side of a replication link for a replica connected over the channel.
+     * The session starts streaming when it is added to the channel pipeline.
+     */
+    public ReplicaSession attach(Channel channel) {
+        ReplicaSession session = new ReplicaSession(channel, databases, config, this::detach);
+        replicas.add(session);
+        return session;
+    }
+
+    private void detach(ReplicaSession session) {
+        replicas.remove(session);
+    }
+
+    /**
+     * Disconnects replicas of this server. They do a full sync again after this server reloads its
+     * data from its own leader.
+     */
+    private void disconnectReplicas() {
+        for (ReplicaSession session : replicas) {
+            session.close();
+        }
+    }
+
+    public Map<String, Object> info() {
+        Map<String, Object> info = new LinkedHashMap<>();
+        ReplicaClient leader = this.leader;
+        if (leader == null) {
+            info.put("role", "master");
+        } else {
+            long lastIo = leader.lastIoMillis();
+            info.put("role", "slave");
+            info.put("master_host", leader.host());
+            info.put("master_port", leader.port());
+            info.put("master_link_status", leader.isLinkUp() ? "up" : "down");
+            info.put("master_last_io_seconds_ago", lastIo == 0 ? -1 : (System.currentTimeMillis() - lastIo) / 1000);
+            info.put("master_sync_in_progress", leader.isSyncInProgress() ? 1 : 0);
+            info.put("slave_repl_offset", leader.appliedOffset());
+            info.put("master_repl_offset", leader.leaderOffset());
+            info.put("slave_repl_lag_bytes", Math.max(0, leader.leaderOffset() - leader.appliedOffset()));
+            info.put("slave_read_only", 1);
+        }
+
+        info.put("connected_slaves", replicas.size());
+        int index = 0;
+        for (ReplicaSession session : replicas) {
+            String address = session.remoteAddress() instanceof InetSocketAddress inet
+                    ? String.format(Locale.ROOT, "ip=%s,port=%d", inet.getHostString(), inet.getPort())
+                    : "ip=" + session.remoteAddress();
+            info.put("slave" + index++, String.format(Locale.ROOT, "%s,state=%s,offset=%d,lag=%d",
+                    address, session.state(), session.sentOffset(), session.lagBytes()));
+        }
+        return info;
+    }
+
+    /**
+     * Returns the shards of a database in shard order.
+     */
+    static List<KeyValueStore<Bytes, Bytes>> shards(KeyValueStore<Bytes, Bytes> store) {
+        if (store instanceof ShardedStore sharded) {
+            return sharded.shards();
+        }
+        return List.of(store);
+    }
+
+    @Override
+    public synchronized void close() {
+        promote();
+        disconnectReplicas();
+    }
+}
@@ -0,0 +1,135 @@
+package kiwi.server.resp.snapshot;
+
+import kiwi.core.config.Options;
+import kiwi.core.storage.Databases;
+import kiwi.server.resp.config.ServerConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Online snapshots of all databases for backups.
+ *
+ * <p>A snapshot seals the active segment of every store and hard links the sealed segment and
+ * hint files into a directory with the same layout as the log directory. Sealed files are never
+ * modified, so the snapshot is consistent without copying data, and the directory can be used as
+ * the log directory of another server. Snapshots run on a background thread, one at a time.</p>
+ */
+public class Snapshots {
+    private static final Logger logger = LoggerFactory.getLogger(Snapshots.class);
+
+    // Subdirectory of the log directory used when no snapshot directory is configured.
+    static final String DEFAULT_DIR = "snapshots";
+
+    private static final DateTimeFormatter SNAPSHOT_NAME =
+            DateTimeFormatter.ofPattern("'snapshot-'yyyyMMdd'T'HHmmssSSS", Locale.ROOT).withZone(ZoneOffset.UTC);
+
+    private final Databases databases;
+    private final Path dir;
+    private final AtomicBoolean inProgress = new AtomicBoolean();
+
+    private volatile long lastSaveMillis;
+    private volatile long lastDurationMillis = -1;
+    private volatile boolean lastFailed;
+    private volatile Path lastSnapshotDir;
+
+    public Snapshots(Databases databases, ServerConfig.Snapshot config) {
+        this(databases, config.dir.isBlank()
+                ? Options.defaults.storage.log.dir.resolve(DEFAULT_DIR)
+                : Path.of(config.dir));
+    }
+
+    public Snapshots(Databases databases, Path dir) {
+        this.databases = databases;
+        this.dir = dir;
+    }
+
+    /**
+     * Starts a snapshot into a new timestamped directory of the snapshot directory.
+     *
+     * @return {@code false} if a snapshot is already in progress
+     */
+    public boolean backgroundSave() {
+        return start(dir.resolve(SNAPSHOT_NAME.format(Instant.now()))) != null;
+    }
+
+    /**
+     * Starts a snapshot into the given directory, which must be empty or not exist.
+     *
+     * @return future completed with the directory when the snapshot is saved, or failed with
+     * {@link IllegalStateException} if a snapshot is already in progress
+     */
+    public CompletableFuture<Path> save(Path target) {
+        CompletableFuture<Path> result = start(target);
+        return result != null
+                ? result
+                : CompletableFuture.failedFuture(new IllegalStateException("Snapshot already in progress"));
+    }
+
+    private CompletableFuture<Path> start(Path target) {
+        if (!inProgress.compareAndSet(false, true)) {
+            return null;
+        }
+
+        CompletableFuture<Path> result = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            long start = System.currentTimeMillis();
+            RuntimeException failure = null;
+            try {
+                databases.snapshot(target);
+                lastSaveMillis = System.currentTimeMillis();
+                lastSnapshotDir = target;
+                logger.info("Saved snapshot to {} in {} ms", target, lastSaveMillis - start);
+            } catch (RuntimeException ex) {
+                failure = ex;
+                logger.warn("Failed to save snapshot to {}", target, ex);
+            } finally {
+                lastFailed = failure != null;
+                lastDurationMillis = System.currentTimeMillis() - start;
+                inProgress.set(false);
+            }
+
+            // Completed after the snapshot is finished, so callers can start the next one.
+            if (failure == null) {
+                result.complete(target);
+            } else {
+                result.completeExceptionally(failure);
+            }
+        }, "snapshot");
+        thread.setDaemon(true);
+        thread.start();
+        return result;
+    }
+
+    public boolean isInProgress() {
+        return inProgress.get();
+    }
+
+    /**
+     * Unix time in seconds of the last successful snapshot, or zero if there was none.
+     */
+    public long lastSaveSeconds() {
+        return lastSaveMillis / 1000;
+    }
+
+    public Map<String, Object> info() {
+        Map<String, Object> info = new LinkedHashMap<>();
+        info.put("rdb_bgsave_in_progress", inProgress.get() ? 1 : 0);
+        info.put("rdb_last_save_time", lastSaveSeconds());
+        info.put("rdb_last_bgsave_status", lastFailed ? "err" : "ok");
+        info.put("rdb_last_bgsave_time_sec", lastDurationMillis < 0 ? -1 : lastDurationMillis / 1000);
+        info.put("snapshot_dir", dir);
+        Path lastSnapshotDir = this.lastSnapshotDir;
+        info.put("snapshot_last_dir", lastSnapshotDir == null ? "" : lastSnapshotDir);
+        return info;
+    }
+}
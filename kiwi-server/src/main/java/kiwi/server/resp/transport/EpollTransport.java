@@ -0,0 +1,56 @@
+package kiwi.server.resp.transport;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+
+/**
+ * Linux native epoll transport. When {@code SO_REUSEPORT} is enabled, multiple listener
+ * sockets are bound to the same port and the kernel balances incoming connections
+ * between them, so accepts are not serialized on a single socket.
+ */
+public class EpollTransport implements Transport {
+    private final boolean reusePort;
+    private final EpollMode mode;
+    private final int listeners;
+
+    public EpollTransport(boolean reusePort, boolean edgeTriggered, int listeners) {
+        this.reusePort = reusePort;
+        this.mode = edgeTriggered ? EpollMode.EDGE_TRIGGERED : EpollMode.LEVEL_TRIGGERED;
+        this.listeners = reusePort ? Math.max(1, listeners) : 1;
+    }
+
+    @Override
+    public EventLoopGroup newEventLoopGroup(int threads) {
+        return new EpollEventLoopGroup(threads);
+    }
+
+    @Override
+    public Class<? extends ServerChannel> serverChannelClass() {
+        return EpollServerSocketChannel.class;
+    }
+
+    @Override
+    public void configure(ServerBootstrap bootstrap) {
+        bootstrap.option(EpollChannelOption.EPOLL_MODE, mode)
+                .childOption(EpollChannelOption.EPOLL_MODE, mode);
+
+        if (reusePort) {
+            bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+        }
+    }
+
+    @Override
+    public int listeners() {
+        return listeners;
+    }
+
+    @Override
+    public String name() {
+        return "epoll";
+    }
+}
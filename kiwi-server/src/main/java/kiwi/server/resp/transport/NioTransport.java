@@ -0,0 +1,24 @@
+package kiwi.server.resp.transport;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+
+public class NioTransport implements Transport {
+
+    @Override
+    public EventLoopGroup newEventLoopGroup(int threads) {
+        return new NioEventLoopGroup(threads);
+    }
+
+    @Override
+    public Class<? extends ServerChannel> serverChannelClass() {
+        return NioServerSocketChannel.class;
+    }
+
+    @Override
+    public String name() {
+        return "nio";
+    }
+}
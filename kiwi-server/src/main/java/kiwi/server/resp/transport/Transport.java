@@ -0,0 +1,30 @@
+package kiwi.server.resp.transport;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+
+/**
+ * Network transport used by the server to accept and serve client connections.
+ */
+public interface Transport {
+
+    EventLoopGroup newEventLoopGroup(int threads);
+
+    Class<? extends ServerChannel> serverChannelClass();
+
+    /**
+     * Apply transport specific channel options to the bootstrap.
+     */
+    default void configure(ServerBootstrap bootstrap) {
+    }
+
+    /**
+     * The number of listener sockets that should be bound to the server port.
+     */
+    default int listeners() {
+        return 1;
+    }
+
+    String name();
+}
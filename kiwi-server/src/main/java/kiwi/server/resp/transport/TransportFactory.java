@@ -0,0 +1,37 @@
+package kiwi.server.resp.transport;
+
+import io.netty.channel.epoll.Epoll;
+import kiwi.server.resp.config.ServerConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.function.BooleanSupplier;
+
+public class TransportFactory {
+    private static final Logger logger = LoggerFactory.getLogger(TransportFactory.class);
+
+    private final ServerConfig.Transport config;
+    private final BooleanSupplier epollAvailable;
+
+    public TransportFactory(ServerConfig.Transport config) {
+        this(config, Epoll::isAvailable);
+    }
+
+    TransportFactory(ServerConfig.Transport config, BooleanSupplier epollAvailable) {
+        this.config = config;
+        this.epollAvailable = epollAvailable;
+    }
+
+    public Transport create() {
+        return switch (config.type) {
+            case NIO -> new NioTransport();
+            case EPOLL -> {
+                if (!epollAvailable.getAsBoolean()) {
+                    logger.warn("Epoll transport is not available. Falling back to NIO transport.", Epoll.unavailabilityCause());
+                    yield new NioTransport();
+                }
+                yield new EpollTransport(config.reusePort, config.edgeTriggered, config.bossThreads);
+            }
+        };
+    }
+}
@@ -0,0 +1,56 @@
+package kiwi.server.http;
+
+import kiwi.core.metrics.Metric;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PrometheusFormatTest {
+
+    @Test
+    void testWriteGaugeAndCounter() {
+        String text = PrometheusFormat.write(List.of(
+                Metric.gauge("kiwi_keydir_keys", "Number of keys.", 42),
+                Metric.counter("kiwi_compaction_runs_total", "Number of runs.", 3)));
+
+        assertEquals("""
+                # HELP kiwi_keydir_keys Number of keys.
+                # TYPE kiwi_keydir_keys gauge
+                kiwi_keydir_keys 42
+                # HELP kiwi_compaction_runs_total Number of runs.
+                # TYPE kiwi_compaction_runs_total counter
+                kiwi_compaction_runs_total 3
+                """, text);
+    }
+
+    @Test
+    void testWriteLabels() {
+        Map<String, String> labels = new LinkedHashMap<>();
+        labels.put("segment", "00000000000000000001");
+        labels.put("note", "a \"quoted\" \\ value");
+
+        String text = PrometheusFormat.write(List.of(new Metric(
+                "kiwi_segment_dirty_ratio",
+                "Dirty ratio.",
+                Metric.Type.GAUGE,
+                List.of(Metric.Sample.of("kiwi_segment_dirty_ratio", labels, 0.25)))));
+
+        assertEquals("""
+                # HELP kiwi_segment_dirty_ratio Dirty ratio.
+                # TYPE kiwi_segment_dirty_ratio gauge
+                kiwi_segment_dirty_ratio{segment="00000000000000000001",note="a \\"quoted\\" \\\\ value"} 0.25
+                """, text);
+    }
+
+    @Test
+    void testFormatValue() {
+        assertEquals("0", PrometheusFormat.formatValue(0));
+        assertEquals("1.5", PrometheusFormat.formatValue(1.5));
+        assertEquals("NaN", PrometheusFormat.formatValue(Double.NaN));
+        assertEquals("+Inf", PrometheusFormat.formatValue(Double.POSITIVE_INFINITY));
+    }
+}
@@ -0,0 +1,56 @@
+package kiwi.server.resp;
+
+import com.typesafe.config.ConfigFactory;
+import kiwi.core.storage.Databases;
+import kiwi.core.storage.ShardedStore;
+import kiwi.core.storage.bitcask.BitcaskStore;
+import kiwi.core.storage.bitcask.log.config.LogConfig;
+import kiwi.server.resp.config.ServerConfig;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ServerTest {
+
+    @TempDir
+    Path root;
+
+    private static ServerConfig config(String executionMode, int workerThreads) {
+        return new ServerConfig(ConfigFactory.parseString(
+                        "execution.mode = " + executionMode + "\ntransport.worker.threads = " + workerThreads)
+                .withFallback(ConfigFactory.load().getConfig("kiwi.server")));
+    }
+
+    private static LogConfig.Sync sync(String mode) {
+        return new LogConfig.Sync(ConfigFactory.parseString("mode = " + mode)
+                .withFallback(ConfigFactory.load().getConfig("kiwi.storage.log.sync")));
+    }
+
+    @Test
+    void testThreadPerCoreWorkerThreads() {
+        try (Databases databases = Databases.of(new ShardedStore(List.of(
+                BitcaskStore.open(root.resolve("shard-0")),
+                BitcaskStore.open(root.resolve("shard-1")))))) {
+            assertEquals(2, Server.workerThreads(config("thread-per-core", 0), databases));
+            assertEquals(2, Server.workerThreads(config("thread-per-core", 2), databases));
+            assertEquals(3, Server.workerThreads(config("shared", 3), databases));
+
+            // Some event loops would own several shards and others none.
+            IllegalArgumentException error = assertThrows(IllegalArgumentException.class,
+                    () -> Server.workerThreads(config("thread-per-core", 3), databases));
+            assertTrue(error.getMessage().contains("3 worker threads, 2 shards"));
+        }
+    }
+
+    @Test
+    void testThreadPerCoreRejectsBatchSync() {
+        Server.checkSyncMode(config("thread-per-core", 0), sync("periodic"));
+        Server.checkSyncMode(config("shared", 0), sync("batch"));
+        assertThrows(IllegalArgumentException.class,
+                () -> Server.checkSyncMode(config("thread-per-core", 0), sync("batch")));
+    }
+}
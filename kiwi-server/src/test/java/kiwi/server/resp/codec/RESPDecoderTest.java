@@ -4,6 +4,7 @@ import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.embedded.EmbeddedChannel;
 import io.netty.handler.codec.DecoderException;
+import kiwi.core.common.Bytes;
 import kiwi.server.resp.command.CommandType;
 import kiwi.server.resp.command.RESPCommand;
 import org.junit.jupiter.api.Test;
@@ -26,7 +27,7 @@ class RESPDecoderTest {
 
         assertNotNull(command);
         assertEquals(CommandType.PING, command.commandType());
-        assertEquals(List.of("PONG"), command.arguments());
+        assertEquals(List.of(Bytes.wrap("PONG")), command.arguments());
     }
 
     @Test
@@ -60,4 +61,63 @@ class RESPDecoderTest {
         assertEquals(CommandType.UNKNOWN, command.commandType());
         assertTrue(command.arguments().isEmpty());
     }
-}
\ No newline at end of file
+
+    @Test
+    void testDecodeValueSplitAcrossReads() {
+        String value = "v".repeat(100_000);
+        byte[] bytes = ("*3\r\n$3\r\nSET\r\n$3\r\nkey\r\n$" + value.length() + "\r\n" + value + "\r\n*1\r\n$4\r\nPING\r\n")
+                .getBytes(StandardCharsets.UTF_8);
+        EmbeddedChannel channel = new EmbeddedChannel(new RESPDecoder());
+
+        // Lengths and CRLFs are split as well.
+        for (int i = 0; i < bytes.length; i += 7) {
+            channel.writeInbound(Unpooled.wrappedBuffer(bytes, i, Math.min(7, bytes.length - i)));
+        }
+
+        RESPCommand set = channel.readInbound();
+        assertEquals(CommandType.SET, set.commandType());
+        assertEquals(List.of(Bytes.wrap("key"), Bytes.wrap(value)), set.arguments());
+        RESPCommand ping = channel.readInbound();
+        assertEquals(CommandType.PING, ping.commandType());
+        assertNull(channel.readInbound());
+    }
+
+    @Test
+    void testDecodeBinaryValue() {
+        byte[] value = {(byte) 0xFF, 0, (byte) 0x80, '\r', '\n'};
+        ByteBuf buf = Unpooled.buffer();
+        buf.writeBytes("*3\r\n$3\r\nSET\r\n$3\r\nkey\r\n$5\r\n".getBytes(StandardCharsets.UTF_8));
+        buf.writeBytes(value);
+        buf.writeBytes("\r\n".getBytes(StandardCharsets.UTF_8));
+        EmbeddedChannel channel = new EmbeddedChannel(new RESPDecoder());
+
+        assertTrue(channel.writeInbound(buf));
+        RESPCommand set = channel.readInbound();
+
+        // Values are passed on as received, not decoded as UTF-8.
+        assertArrayEquals(value, set.arguments().get(1).get());
+    }
+
+    @Test
+    void testAnnouncedLengthDoesNotAllocate() {
+        RESPDecoder decoder = new RESPDecoder();
+        EmbeddedChannel channel = new EmbeddedChannel(decoder);
+
+        channel.writeInbound(Unpooled.wrappedBuffer(("*3\r\n$3\r\nSET\r\n$3\r\nkey\r\n$" + RESPDecoder.MAX_BULK_LENGTH + "\r\n")
+                .getBytes(StandardCharsets.UTF_8)));
+        channel.writeInbound(Unpooled.wrappedBuffer("v".repeat(1000).getBytes(StandardCharsets.UTF_8)));
+
+        assertNull(channel.readInbound());
+        // Memory grows with the bytes received, not with the announced length.
+        assertTrue(decoder.bulkCapacity() < 1024 * 1024);
+    }
+
+    @Test
+    void testDecodeInvalidBulkLength() {
+        ByteBuf buf = Unpooled.buffer();
+        buf.writeBytes("*1\r\n$abc\r\n".getBytes(StandardCharsets.UTF_8));
+        EmbeddedChannel channel = new EmbeddedChannel(new RESPDecoder());
+
+        assertThrows(DecoderException.class, () -> channel.writeInbound(buf));
+    }
+}
@@ -0,0 +1,50 @@
+package kiwi.server.resp.command;
+
+import kiwi.core.common.Bytes;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GlobPatternTest {
+
+    @Test
+    void testStar() {
+        assertTrue(GlobPattern.compile("*").matchesAll());
+        assertTrue(GlobPattern.compile("user:*").test(Bytes.wrap("user:42")));
+        assertTrue(GlobPattern.compile("user:*").test(Bytes.wrap("user:")));
+        assertTrue(GlobPattern.compile("*:name").test(Bytes.wrap("user:42:name")));
+        assertTrue(GlobPattern.compile("a*b*c").test(Bytes.wrap("axxbyybzc")));
+        assertFalse(GlobPattern.compile("a*b*c").test(Bytes.wrap("axxcyyb")));
+        assertFalse(GlobPattern.compile("user:*").test(Bytes.wrap("session:1")));
+    }
+
+    @Test
+    void testQuestionMark() {
+        assertTrue(GlobPattern.compile("h?llo").test(Bytes.wrap("hallo")));
+        assertFalse(GlobPattern.compile("h?llo").test(Bytes.wrap("hllo")));
+    }
+
+    @Test
+    void testCharacterClass() {
+        assertTrue(GlobPattern.compile("h[ae]llo").test(Bytes.wrap("hello")));
+        assertFalse(GlobPattern.compile("h[ae]llo").test(Bytes.wrap("hillo")));
+        assertTrue(GlobPattern.compile("h[^e]llo").test(Bytes.wrap("hallo")));
+        assertFalse(GlobPattern.compile("h[^e]llo").test(Bytes.wrap("hello")));
+        assertTrue(GlobPattern.compile("h[a-b]llo").test(Bytes.wrap("hbllo")));
+        assertFalse(GlobPattern.compile("h[a-b]llo").test(Bytes.wrap("hcllo")));
+    }
+
+    @Test
+    void testEscape() {
+        assertTrue(GlobPattern.compile("a\\*b").test(Bytes.wrap("a*b")));
+        assertFalse(GlobPattern.compile("a\\*b").test(Bytes.wrap("axb")));
+        assertTrue(GlobPattern.compile("[\\]]").test(Bytes.wrap("]")));
+    }
+
+    @Test
+    void testEmptyPattern() {
+        assertFalse(GlobPattern.compile("").matchesAll());
+        assertTrue(GlobPattern.compile("").test(Bytes.wrap("")));
+        assertFalse(GlobPattern.compile("").test(Bytes.wrap("a")));
+    }
+}
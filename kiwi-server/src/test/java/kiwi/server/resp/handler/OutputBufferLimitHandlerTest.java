@@ -0,0 +1,81 @@
+package kiwi.server.resp.handler;
+
+import com.typesafe.config.ConfigFactory;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import kiwi.server.resp.config.ServerConfig;
+import kiwi.server.resp.metrics.ServerMetrics;
+import org.junit.jupiter.api.Test;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OutputBufferLimitHandlerTest {
+
+    private final ServerMetrics metrics = new ServerMetrics();
+
+    private EmbeddedChannel channel(long hardLimitBytes, long softLimitBytes, int softLimitSeconds) {
+        ServerConfig.Clients config = new ServerConfig.Clients(ConfigFactory.parseString(String.format(Locale.ROOT, """
+                max.pending.commands = 1024
+                write.buffer.low.water.mark = 32768
+                write.buffer.high.water.mark = 65536
+                output.buffer.limit.hard.bytes = %d
+                output.buffer.limit.soft.bytes = %d
+                output.buffer.limit.soft.duration = %ds
+                """, hardLimitBytes, softLimitBytes, softLimitSeconds)));
+        EmbeddedChannel channel = new EmbeddedChannel(new OutputBufferLimitHandler(metrics, config));
+        channel.freezeTime();
+        return channel;
+    }
+
+    // Writes without flushing, so the response stays in the outbound buffer like for a client
+    // that does not read.
+    private static void write(EmbeddedChannel channel, int bytes) {
+        channel.write(Unpooled.wrappedBuffer(new byte[bytes]));
+    }
+
+    @Test
+    void testHardLimitDisconnects() {
+        EmbeddedChannel channel = channel(1024, 0, 0);
+
+        write(channel, 512);
+        assertTrue(channel.isOpen());
+
+        write(channel, 512);
+        assertFalse(channel.isOpen());
+        assertEquals(1, metrics.outputBufferLimitDisconnections());
+    }
+
+    @Test
+    void testSoftLimitDisconnectsAfterDuration() {
+        EmbeddedChannel channel = channel(0, 1024, 10);
+
+        // The client stops reading, so there are no more writes after the limit is reached.
+        write(channel, 2048);
+        channel.advanceTimeBy(5, TimeUnit.SECONDS);
+        channel.runScheduledPendingTasks();
+        assertTrue(channel.isOpen());
+
+        channel.advanceTimeBy(5, TimeUnit.SECONDS);
+        channel.runScheduledPendingTasks();
+        assertFalse(channel.isOpen());
+        assertEquals(1, metrics.outputBufferLimitDisconnections());
+    }
+
+    @Test
+    void testSoftLimitIsClearedWhenResponsesAreWritten() {
+        EmbeddedChannel channel = channel(0, 1024, 10);
+
+        write(channel, 2048);
+        channel.flush();
+
+        channel.advanceTimeBy(10, TimeUnit.SECONDS);
+        channel.runScheduledPendingTasks();
+        assertTrue(channel.isOpen());
+        assertEquals(0, metrics.outputBufferLimitDisconnections());
+    }
+}
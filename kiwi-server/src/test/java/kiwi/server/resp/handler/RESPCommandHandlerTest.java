@@ -0,0 +1,245 @@
+package kiwi.server.resp.handler;
+
+import com.typesafe.config.ConfigFactory;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
+import kiwi.core.common.Bytes;
+import kiwi.core.storage.Databases;
+import kiwi.core.storage.ShardedStore;
+import kiwi.core.storage.bitcask.BitcaskStore;
+import kiwi.server.resp.command.CommandType;
+import kiwi.server.resp.command.RESPCommand;
+import kiwi.server.resp.config.ServerConfig;
+import kiwi.server.resp.metrics.ServerMetrics;
+import kiwi.server.resp.replication.Replication;
+import kiwi.server.resp.snapshot.Snapshots;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RESPCommandHandlerTest {
+
+    @TempDir
+    Path root;
+
+    private Databases databases;
+
+    @BeforeEach
+    void setUp() {
+        databases = Databases.of(BitcaskStore.open(root.resolve("data")));
+    }
+
+    @AfterEach
+    void tearDown() {
+        databases.close();
+    }
+
+    private static ServerConfig config(int maxPendingCommands) {
+        return new ServerConfig(ConfigFactory.parseString("clients.max.pending.commands = " + maxPendingCommands)
+                .withFallback(ConfigFactory.load().getConfig("kiwi.server")));
+    }
+
+    private EmbeddedChannel channel(ServerConfig config, ShardRouter router, Executor storeExecutor) {
+        return new EmbeddedChannel(new RESPCommandHandler(databases, new ServerMetrics(config), config, router,
+                new Replication(databases, config.replication), new Snapshots(databases, config.snapshot),
+                storeExecutor));
+    }
+
+    private static RESPCommand command(CommandType type, String... arguments) {
+        return RESPCommand.of(type, arguments);
+    }
+
+    @Test
+    void testAutoReadStopsAtMaxPendingCommands() {
+        // Store commands run only when the test runs them.
+        List<Runnable> storeTasks = new ArrayList<>();
+        EmbeddedChannel channel = channel(config(2), ShardRouter.disabled(), storeTasks::add);
+
+        channel.writeInbound(command(CommandType.GET, "key"));
+        assertEquals(1, storeTasks.size());
+
+        channel.writeInbound(command(CommandType.PING));
+        assertTrue(channel.config().isAutoRead());
+
+        channel.writeInbound(command(CommandType.PING));
+        assertFalse(channel.config().isAutoRead());
+        assertNull(channel.readOutbound());
+
+        storeTasks.removeFirst().run();
+        channel.runPendingTasks();
+        assertTrue(channel.config().isAutoRead());
+        assertArrayEquals(new byte[0], channel.readOutbound());
+        assertEquals("PONG", channel.readOutbound());
+        assertEquals("PONG", channel.readOutbound());
+    }
+
+    @Test
+    void testAutoReadFollowsWriteBufferWaterMarks() {
+        EmbeddedChannel channel = channel(config(1024), ShardRouter.disabled(), null);
+        channel.config().setWriteBufferWaterMark(new WriteBufferWaterMark(8, 16));
+
+        // An unflushed response above the high water mark makes the channel unwritable.
+        channel.write(Unpooled.wrappedBuffer(new byte[32]));
+        assertFalse(channel.isWritable());
+        assertFalse(channel.config().isAutoRead());
+
+        channel.writeInbound(command(CommandType.PING));
+        assertNull(channel.readOutbound());
+
+        // Writing the response drops below the low water mark, so queued commands are handled.
+        channel.flush();
+        assertTrue(channel.isWritable());
+        assertTrue(channel.config().isAutoRead());
+        ByteBuf response = assertInstanceOf(ByteBuf.class, channel.readOutbound());
+        response.release();
+        assertEquals("PONG", channel.readOutbound());
+    }
+
+    @Test
+    void testForwardsToOwnerLoop() throws Exception {
+        ShardedStore store = shardedStore();
+        EventExecutorGroup loops = new DefaultEventExecutorGroup(2);
+        try {
+            ShardRouter router = ShardRouter.of(loops);
+            EmbeddedChannel channel = channel(config(1024), router, null);
+            String key = keyOf(store, 1);
+            EventExecutor owner = router.owner(store, key(key));
+
+            // The owner loop is busy, so the command waits until it gets to run.
+            CountDownLatch busy = new CountDownLatch(1);
+            owner.submit(() -> {
+                busy.await();
+                return null;
+            });
+            channel.writeInbound(command(CommandType.SET, key, "value"));
+            assertNull(channel.readOutbound());
+            assertTrue(store.get(key(key)).isEmpty());
+
+            busy.countDown();
+            assertEquals(List.of("OK"), replies(channel, loops, 1));
+            assertEquals("value", store.get(key(key)).orElseThrow().toString());
+        } finally {
+            loops.shutdownGracefully().syncUninterruptibly();
+        }
+    }
+
+    @Test
+    void testLaterCommandWaitsForForwardedCommand() throws Exception {
+        ShardedStore store = shardedStore();
+        EventExecutorGroup loops = new DefaultEventExecutorGroup(2);
+        try {
+            ShardRouter router = ShardRouter.of(loops);
+            EmbeddedChannel channel = channel(config(1024), router, null);
+            String key = keyOf(store, 0);
+
+            CountDownLatch busy = new CountDownLatch(1);
+            router.owner(store, key(key)).submit(() -> {
+                busy.await();
+                return null;
+            });
+            channel.writeInbound(command(CommandType.SET, key, "value"));
+            // PING is handled on the connection's loop, but its reply must follow the SET reply.
+            channel.writeInbound(command(CommandType.PING));
+            assertNull(channel.readOutbound());
+
+            busy.countDown();
+            assertEquals(List.of("OK", "PONG"), replies(channel, loops, 2));
+        } finally {
+            loops.shutdownGracefully().syncUninterruptibly();
+        }
+    }
+
+    @Test
+    void testRepliesKeepRequestOrderAcrossShards() throws Exception {
+        ShardedStore store = shardedStore();
+        EventExecutorGroup loops = new DefaultEventExecutorGroup(2);
+        try {
+            ShardRouter router = ShardRouter.of(loops);
+            EmbeddedChannel channel = channel(config(1024), router, null);
+            String first = keyOf(store, 0);
+            String second = keyOf(store, 1);
+
+            // The owner of the first key is slower than the owner of the second one.
+            CountDownLatch busy = new CountDownLatch(1);
+            router.owner(store, key(first)).submit(() -> {
+                busy.await();
+                return null;
+            });
+            channel.writeInbound(
+                    command(CommandType.SET, first, "1"),
+                    command(CommandType.SET, second, "2"),
+                    command(CommandType.GET, second),
+                    command(CommandType.GET, first));
+            assertNull(channel.readOutbound());
+
+            busy.countDown();
+            assertEquals(List.of("OK", "OK", "2", "1"), replies(channel, loops, 4));
+        } finally {
+            loops.shutdownGracefully().syncUninterruptibly();
+        }
+    }
+
+    private ShardedStore shardedStore() {
+        ShardedStore store = new ShardedStore(List.of(
+                BitcaskStore.open(root.resolve("shard-0")),
+                BitcaskStore.open(root.resolve("shard-1"))));
+        databases.close();
+        databases = Databases.of(store);
+        return store;
+    }
+
+    private static Bytes key(String key) {
+        return Bytes.wrap(key);
+    }
+
+    // Returns a key owned by the given shard.
+    private static String keyOf(ShardedStore store, int shard) {
+        for (int i = 0; ; i++) {
+            if (store.shardOf(key("key" + i)) == shard) {
+                return "key" + i;
+            }
+        }
+    }
+
+    /**
+     * Returns the replies written to the channel. Waits for the owner loops to finish the
+     * forwarded commands before running their completions on the channel's loop, so the
+     * channel is only accessed from the test thread.
+     */
+    private static List<Object> replies(EmbeddedChannel channel, EventExecutorGroup loops, int count)
+            throws Exception {
+        List<Object> replies = new ArrayList<>();
+        for (int i = 0; i <= count && replies.size() < count; i++) {
+            for (EventExecutor loop : loops) {
+                loop.submit(() -> null).get(5, TimeUnit.SECONDS);
+            }
+            channel.runPendingTasks();
+            Object reply;
+            while ((reply = channel.readOutbound()) != null) {
+                replies.add(reply instanceof byte[] bytes ? new String(bytes, StandardCharsets.UTF_8) : reply);
+            }
+        }
+        return replies;
+    }
+}
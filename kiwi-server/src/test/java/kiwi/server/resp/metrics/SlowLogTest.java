@@ -0,0 +1,78 @@
+package kiwi.server.resp.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SlowLogTest {
+
+    private static final CommandTiming TIMING = new CommandTiming(1_000, 20_000_000, 3_000);
+
+    @Test
+    void testGetReturnsNewestFirst() {
+        SlowLog slowLog = new SlowLog(0, 4);
+        for (int i = 0; i < 3; i++) {
+            slowLog.add(List.of("get", "k" + i), TIMING, "127.0.0.1:5000");
+        }
+
+        List<SlowLog.Entry> entries = slowLog.get(10);
+        assertEquals(3, entries.size());
+        assertEquals(2, entries.getFirst().id());
+        assertEquals(List.of("get", "k2"), entries.getFirst().arguments());
+        assertEquals(0, entries.getLast().id());
+        assertEquals(3, slowLog.length());
+    }
+
+    @Test
+    void testOldestEntriesAreOverwritten() {
+        SlowLog slowLog = new SlowLog(0, 4);
+        for (int i = 0; i < 10; i++) {
+            slowLog.add(List.of("get", "k" + i), TIMING, "127.0.0.1:5000");
+        }
+
+        List<SlowLog.Entry> entries = slowLog.get(-1);
+        assertEquals(4, entries.size());
+        assertEquals(List.of(9L, 8L, 7L, 6L), entries.stream().map(SlowLog.Entry::id).toList());
+        assertEquals(4, slowLog.length());
+        assertEquals(2, slowLog.get(2).size());
+    }
+
+    @Test
+    void testReset() {
+        SlowLog slowLog = new SlowLog(0, 4);
+        slowLog.add(List.of("get", "k"), TIMING, "127.0.0.1:5000");
+        slowLog.reset();
+
+        assertEquals(0, slowLog.length());
+        assertTrue(slowLog.get(10).isEmpty());
+
+        slowLog.add(List.of("get", "k"), TIMING, "127.0.0.1:5000");
+        assertEquals(1, slowLog.length());
+        assertEquals(1, slowLog.get(10).getFirst().id());
+    }
+
+    @Test
+    void testThreshold() {
+        SlowLog slowLog = new SlowLog(10_000_000, 4);
+        assertFalse(slowLog.isSlow(9_999_999));
+        assertTrue(slowLog.isSlow(TIMING.totalNanos()));
+
+        SlowLog disabled = new SlowLog(0, 0);
+        assertFalse(disabled.isSlow(TIMING.totalNanos()));
+    }
+
+    @Test
+    void testArgumentsAreTruncated() {
+        SlowLog slowLog = new SlowLog(0, 1);
+        List<String> command = Collections.nCopies(SlowLog.MAX_ARGUMENTS + 10, "x".repeat(SlowLog.MAX_ARGUMENT_LENGTH + 5));
+        slowLog.add(command, TIMING, "127.0.0.1:5000");
+
+        List<String> arguments = slowLog.get(1).getFirst().arguments();
+        assertEquals(SlowLog.MAX_ARGUMENTS, arguments.size());
+        assertEquals("x".repeat(SlowLog.MAX_ARGUMENT_LENGTH) + "... (5 more bytes)", arguments.getFirst());
+        assertEquals("... (11 more arguments)", arguments.getLast());
+    }
+}
@@ -0,0 +1,100 @@
+package kiwi.server.resp.replication;
+
+import kiwi.core.common.Bytes;
+import kiwi.core.storage.Databases;
+import kiwi.core.storage.bitcask.BitcaskStore;
+import kiwi.core.storage.bitcask.Checkpoint;
+import kiwi.core.storage.bitcask.log.Record;
+import kiwi.server.config.Options;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplicaClientTest {
+
+    @TempDir
+    Path root;
+
+    @Test
+    void testFullSyncAndStream() throws Exception {
+        BitcaskStore leader = BitcaskStore.open(root.resolve("leader"));
+        leader.put(Bytes.wrap("k1"), Bytes.wrap("v1"));
+        leader.put(Bytes.wrap("k2"), Bytes.wrap("v2"));
+
+        Databases databases = new Databases(1, index -> BitcaskStore.open(root.resolve("replica")));
+        databases.get(0).put(Bytes.wrap("stale"), Bytes.wrap("value"));
+
+        Record update = Record.of(Bytes.wrap("k1"), Bytes.wrap("v1-updated"), System.currentTimeMillis());
+
+        try (ServerSocket server = new ServerSocket(0);
+             Checkpoint checkpoint = leader.checkpoint()) {
+            Thread fakeLeader = new Thread(() -> {
+                try (Socket socket = server.accept()) {
+                    readSyncCommand(socket.getInputStream());
+
+                    OutputStream out = socket.getOutputStream();
+                    out.write(line("+SYNC 1"));
+                    out.write(line("+LOAD 0 0 " + checkpoint.files().size()));
+                    for (Path file : checkpoint.files()) {
+                        byte[] content = Files.readAllBytes(file);
+                        out.write(line("+FILE " + file.getFileName() + " " + content.length));
+                        out.write(content);
+                    }
+                    out.write(line("+ONLINE"));
+                    out.write(line("+RECORD 0 0 " + update.size()));
+                    out.write(update.toByteBuffer().array());
+                    out.write(line("+PING " + update.size()));
+                    out.flush();
+
+                    // Keep the link open until the replica disconnects.
+                    socket.getInputStream().read();
+                } catch (IOException ignored) {
+                }
+            });
+            fakeLeader.start();
+
+            ReplicaClient client = new ReplicaClient("localhost", server.getLocalPort(), databases,
+                    Options.defaults.server.replication, () -> {
+                    });
+            client.start();
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (client.leaderOffset() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            assertEquals(Optional.of(Bytes.wrap("v1-updated")), databases.get(0).get(Bytes.wrap("k1")));
+            assertEquals(Optional.of(Bytes.wrap("v2")), databases.get(0).get(Bytes.wrap("k2")));
+            assertFalse(databases.get(0).contains(Bytes.wrap("stale")));
+            assertEquals(update.size(), client.appliedOffset());
+            assertFalse(client.isSyncInProgress());
+
+            client.close();
+            fakeLeader.join(5000);
+        } finally {
+            databases.close();
+            leader.close();
+        }
+    }
+
+    private static void readSyncCommand(InputStream in) throws IOException {
+        byte[] expected = "*1\r\n$4\r\nSYNC\r\n".getBytes(StandardCharsets.US_ASCII);
+        byte[] received = in.readNBytes(expected.length);
+        assertArrayEquals(expected, received);
+    }
+
+    private static byte[] line(String line) {
+        return (line + "\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,63 @@
+package kiwi.server.resp.snapshot;
+
+import kiwi.core.common.Bytes;
+import kiwi.core.storage.Databases;
+import kiwi.core.storage.bitcask.BitcaskStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotsTest {
+
+    @TempDir
+    Path root;
+
+    @Test
+    void testSave() throws Exception {
+        Databases databases = new Databases(1, index -> BitcaskStore.open(root.resolve("data")));
+        databases.get(0).put(Bytes.wrap("k1"), Bytes.wrap("v1"));
+
+        Snapshots snapshots = new Snapshots(databases, root.resolve("snapshots"));
+        Path dir = root.resolve("backup");
+        assertEquals(dir, snapshots.save(dir).get(5, TimeUnit.SECONDS));
+        assertTrue(snapshots.lastSaveSeconds() > 0);
+        assertEquals(dir, snapshots.info().get("snapshot_last_dir"));
+
+        // The directory already contains a snapshot.
+        ExecutionException failure = assertThrows(ExecutionException.class,
+                () -> snapshots.save(dir).get(5, TimeUnit.SECONDS));
+        assertTrue(failure.getCause().getMessage().contains("not empty"));
+        assertEquals("err", snapshots.info().get("rdb_last_bgsave_status"));
+        databases.close();
+
+        BitcaskStore restored = BitcaskStore.open(dir);
+        assertEquals(Bytes.wrap("v1"), restored.get(Bytes.wrap("k1")).orElseThrow());
+        restored.close();
+    }
+
+    @Test
+    void testBackgroundSave() throws Exception {
+        Databases databases = new Databases(1, index -> BitcaskStore.open(root.resolve("data")));
+        databases.get(0).put(Bytes.wrap("k1"), Bytes.wrap("v1"));
+
+        Snapshots snapshots = new Snapshots(databases, root.resolve("snapshots"));
+        assertTrue(snapshots.backgroundSave());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (snapshots.isInProgress() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(snapshots.lastSaveSeconds() > 0);
+        try (Stream<Path> dirs = Files.list(root.resolve("snapshots"))) {
+            assertEquals(1, dirs.count());
+        }
+        databases.close();
+    }
+}
@@ -0,0 +1,30 @@
+package kiwi.server.resp.transport;
+
+import com.typesafe.config.ConfigFactory;
+import kiwi.server.resp.config.ServerConfig;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+
+class TransportFactoryTest {
+
+    private static ServerConfig.Transport config(String type) {
+        return new ServerConfig.Transport(ConfigFactory.parseString("type = " + type)
+                .withFallback(ConfigFactory.load().getConfig("kiwi.server.transport")));
+    }
+
+    @Test
+    void testNio() {
+        assertInstanceOf(NioTransport.class, new TransportFactory(config("nio"), () -> true).create());
+    }
+
+    @Test
+    void testEpoll() {
+        assertInstanceOf(EpollTransport.class, new TransportFactory(config("epoll"), () -> true).create());
+    }
+
+    @Test
+    void testEpollFallsBackToNioWhenUnavailable() {
+        assertInstanceOf(NioTransport.class, new TransportFactory(config("epoll"), () -> false).create());
+    }
+}